@@ -99,7 +99,7 @@ public class ACFOVE {
 	 * @param arg The marginal to shatter.
 	 * @return The specified marginal shattered
 	 */
-	private Marginal performInitialShattering(Marginal arg) { 
+	static Marginal performInitialShattering(Marginal arg) { 
 		Parfactor query = new StdParfactorBuilder()
 				.variables(arg.preservable().prv())
 				.constraints(arg.preservable().constraints())
@@ -273,6 +273,14 @@ public class ACFOVE {
 		return this.result;
 	}
 	
+	/**
+	 * Replaces the current marginal. Used by subclasses that obtain the
+	 * result of a step without executing a macro operation.
+	 */
+	void setResult(Marginal result) {
+		this.result = result;
+	}
+	
 	MacroOperation currentOperation() {
 		return this.currentOperation;
 	}	
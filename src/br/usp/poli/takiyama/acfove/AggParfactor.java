@@ -19,8 +19,10 @@ import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.LinkedList;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import br.usp.poli.takiyama.cfove.StdParfactor;
@@ -29,13 +31,18 @@ import br.usp.poli.takiyama.common.AggregationParfactor;
 import br.usp.poli.takiyama.common.Builder;
 import br.usp.poli.takiyama.common.ConstantFactor;
 import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.ConstraintSolver;
 import br.usp.poli.takiyama.common.Distribution;
 import br.usp.poli.takiyama.common.Factor;
+import br.usp.poli.takiyama.common.FactorCursor;
 import br.usp.poli.takiyama.common.InequalityConstraint;
+import br.usp.poli.takiyama.common.Marginal;
 import br.usp.poli.takiyama.common.MultiplicationChecker;
 import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.ParfactorVisitor;
+import br.usp.poli.takiyama.common.SparseFactor;
 import br.usp.poli.takiyama.common.SplitResult;
+import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
 import br.usp.poli.takiyama.common.StdDistribution;
 import br.usp.poli.takiyama.common.StdFactor;
 import br.usp.poli.takiyama.common.Tuple;
@@ -44,7 +51,9 @@ import br.usp.poli.takiyama.prv.Binding;
 import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.CountingFormula;
 import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.NameGenerator;
 import br.usp.poli.takiyama.prv.Operator;
+import br.usp.poli.takiyama.prv.Population;
 import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.RangeElement;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
@@ -65,6 +74,13 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	private final Set<Constraint> constraintsOnExtra;
 	private final LogicalVariable extraVar;
 	
+	/*
+	 * Activation probabilities of noisy aggregation parfactors, indexed by
+	 * parent value and then by child value. Empty if aggregation is 
+	 * deterministic.
+	 */
+	private final List<BigDecimal> activation;
+	
 	/*
 	 * List of context parameterized random variables.
 	 * Context variables describe dependency in aggregation between
@@ -73,6 +89,31 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	 */
 	private final List<Prv> context;
 	
+	/*
+	 * Data derived from the fields above, computed when first needed. A hash
+	 * code of zero means not computed yet, as in String.hashCode().
+	 */
+	private int hashCode;
+	private volatile Set<LogicalVariable> logicalVariables;
+	private volatile int size = -1;
+	
+	private static final int MAX_CACHED_POWERS = 256;
+	
+	/*
+	 * Aggregations of copies of base factors computed while summing out, 
+	 * from least to most recently used. Splitting an aggregation parfactor 
+	 * gives siblings with the same base factor and similar domain sizes, 
+	 * whose eliminations go through the same intermediate powers.
+	 */
+	private static final Map<Power, BigDecimal[]> powers = 
+			new LinkedHashMap<Power, BigDecimal[]>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Power, BigDecimal[]> eldest) {
+					return size() > MAX_CACHED_POWERS;
+				}
+			};
+	
 	
 	/* ************************************************************************
 	 *    Builders
@@ -87,6 +128,11 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	 * factor using {@link #values()}. These operations overwrite changes
 	 * made by previous calls. 
 	 * </p>
+	 * <p>
+	 * Causal independence aggregation parfactors, such as noisy-OR and 
+	 * noisy-MAX, are built by setting activation probabilities with 
+	 * {@link #activation(double...)}.
+	 * </p>
 	 */
 	public static class AggParfactorBuilder implements Builder<AggParfactor> {
 
@@ -101,6 +147,7 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		private Set<Constraint> constraintsOnExtra;
 		private Set<Constraint> constraintsNotOnExtra;
 		private List<Prv> ctxt;
+		private List<BigDecimal> activation;
 		
 		public AggParfactorBuilder(Prv p, Prv c, Operator<? extends RangeElement> op) 
 					throws IllegalArgumentException {
@@ -112,6 +159,7 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			this.constraintsOnExtra = new HashSet<Constraint>(0);
 			this.lv = setExtra();
 			this.ctxt = new ArrayList<Prv>(0);
+			this.activation = new ArrayList<BigDecimal>(0);
 		}
 		
 		public AggParfactorBuilder(AggregationParfactor ap) {
@@ -123,6 +171,7 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			this.constraintsOnExtra = ap.constraintsOnExtra();
 			this.lv = StdLogicalVariable.getInstance(ap.extraVariable());
 			this.ctxt = ap.context();
+			this.activation = ap.activation();
 		}
 				
 		/**
@@ -280,6 +329,43 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			return this;
 		}
 		
+		/**
+		 * Sets the activation probabilities for this builder, which makes
+		 * the aggregation noisy: each parent contributes to the aggregation
+		 * independently, with the value at index v x |range(c)| + z being
+		 * the probability that a parent with the v-th value of its range 
+		 * contributes the z-th value of the range of the child. 
+		 * <p>
+		 * For instance, the noisy-OR where a true parent activates the 
+		 * child with probability 0.7 has OR as operator and activation 
+		 * probabilities 1, 0, 0.3, 0.7.
+		 * </p>
+		 * 
+		 * @param q The activation probabilities
+		 * @return This builder updated with the specified activation 
+		 * probabilities
+		 */
+		public AggParfactorBuilder activation(double ... q) {
+			activation = new ArrayList<BigDecimal>(q.length);
+			for (double d : q) {
+				activation.add(BigDecimal.valueOf(d));
+			}
+			return this;
+		}
+		
+		/**
+		 * Sets the activation probabilities for this builder.
+		 * 
+		 * @param q A list of {@link BigDecimal}
+		 * @return This builder updated with the specified activation 
+		 * probabilities
+		 * @see #activation(double...)
+		 */
+		public AggParfactorBuilder activation(List<BigDecimal> q) {
+			activation = Lists.listOf(q);
+			return this;
+		}
+		
 		@Override
 		public AggParfactor build() {
 			// Cannot simplify logical variables here because in aggregation
@@ -312,6 +398,21 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			}
 			return factor;
 		}
+		
+		/**
+		 * Returns the activation probabilities defined in this builder.
+		 * 
+		 * @throws IllegalStateException If activation probabilities were
+		 * set and there are not one for each pair of parent and child 
+		 * values.
+		 */
+		private List<BigDecimal> getActivation() throws IllegalStateException {
+			if (!activation.isEmpty() 
+					&& activation.size() != p.rangeSize() * c.rangeSize()) {
+				throw new IllegalStateException();
+			}
+			return activation;
+		}
 	}
 	
 	
@@ -329,7 +430,9 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		
 		private Split(LogicalVariable replaced, Term replacement) {
 			// I think there should a better way to do this
-			if (replaced.equals(extraVar)) {
+			if (Binding.getInstance(replaced, replacement).isRestriction()) {
+				substitution = new Restriction(replaced, (LogicalVariable) replacement);
+			} else if (replaced.equals(extraVar)) {
 				if (replacement.isConstant()) {
 					Constant c = (Constant) replacement;
 					substitution = new ExtraConstant(c);
@@ -474,6 +577,34 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			}
 		}
 		
+		/**
+		 * Represents substitutions of the type X/Y, where X is a logical
+		 * variable from the parent PRV and Y is a logical variable whose
+		 * population is a proper subset of the population of X.
+		 */
+		private class Restriction implements SubstitutionType {
+			
+			private final LogicalVariable x;
+			private final LogicalVariable y;
+			
+			private Restriction(LogicalVariable x, LogicalVariable y) {
+				this.x = x;
+				this.y = y;
+			}
+
+			@Override
+			public boolean isValid() {
+				return parent.parameters().contains(x);
+			}
+
+			@Override
+			public Constraint toInequalityConstraint() {
+				Term x1 = StdLogicalVariable.getInstance(x);
+				Term y1 = StdLogicalVariable.getInstance(y);
+				return InequalityConstraint.getInstance(x1, y1);
+			}
+		}
+		
 		/**
 		 * Represents substitutions of the type X/Y, where X is a logical
 		 * variable different from parent PRV's extra variable and
@@ -542,7 +673,9 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		private final SplitterType splitter;
 		
 		private Splitter(AggregationParfactor agg, Substitution s)  {
-			if (s.has(extraVar)) {
+			if (s.first().isRestriction()) {
+				splitter = new SplitterOnRestriction(agg, s);
+			} else if (s.has(extraVar)) {
 				splitter = new SplitterInvolvingExtra(agg, s);
 			} else {
 				splitter = new SplitterWithoutExtra(agg, s);
@@ -607,7 +740,10 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 					RangeElement p = tuple.get(0);
 					RangeElement cAux = tuple.get(tuple.size() - 2);
 					RangeElement c = tuple.get(tuple.size() - 1);
-					if (apply(operator, p, cAux).equals(c)) {
+					if (isNoisy()) {
+						BigDecimal q = noisyContribution(p, cAux, c);
+						values.add(correctedValue(p).multiply(q, MathUtils.CONTEXT));
+					} else if (apply(operator, p, cAux).equals(c)) {
 						values.add(correctedValue(p));
 					} else {
 						values.add(BigDecimal.ZERO);
@@ -616,6 +752,22 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 				return values;
 			}
 			
+			/**
+			 * Returns the probability that a parent with the specified value
+			 * aggregated to the specified auxiliary child value gives the
+			 * specified child value.
+			 */
+			private BigDecimal noisyContribution(RangeElement p, RangeElement cAux, RangeElement c) {
+				BigDecimal sum = BigDecimal.ZERO;
+				for (int z = 0; z < child.rangeSize(); z++) {
+					RangeElement contributed = child.rangeElementAt(z);
+					if (apply(operator, contributed, cAux).equals(c)) {
+						sum = sum.add(contribution(p, contributed), MathUtils.CONTEXT);
+					}
+				}
+				return sum;
+			}
+			
 			private BigDecimal correctedValue(RangeElement pVal) {
 				Tuple<RangeElement> t = Tuple.getInstance(pVal);
 				BigDecimal base = parfactorToSplit.factor().getValue(t);
@@ -661,6 +813,88 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			}
 			
 		}
+		
+		/**
+		 * Splits on X/Y, where the population of Y is a proper subset of the
+		 * population of X. The residue replaces X by a new logical variable 
+		 * Z over the remaining individuals. When X is the extra variable, 
+		 * each part aggregates into an auxiliary child, and a third 
+		 * parfactor combines the auxiliary children into the child.
+		 */
+		private class SplitterOnRestriction implements SplitterType {
+
+			private final AggregationParfactor parfactorToSplit;
+			private final Binding restriction;
+			private final Binding complement;
+			
+			private SplitterOnRestriction(AggregationParfactor agg, Substitution s) {
+				parfactorToSplit = agg;
+				restriction = s.first();
+				LogicalVariable x = restriction.firstTerm();
+				Population remaining = x.population();
+				remaining.removeAll(((LogicalVariable) restriction.secondTerm()).population());
+				complement = Binding.getInstance(x, NameGenerator.restrict(x, remaining));
+			}
+			
+			@Override
+			public SplitResult split() {
+				if (!restriction.firstTerm().equals(extraVar)) {
+					return SplitResult.getInstance(apply(restriction), apply(complement));
+				}
+				Prv child = parfactorToSplit.child();
+				Prv auxResult = child.rename(child.name() + "'" + complement.secondTerm());
+				Prv auxResidue = child.rename(child.name() + "'");
+				Parfactor result = aggregate(restriction, auxResult);
+				Parfactor residue = aggregate(complement, auxResidue);
+				Marginal residues = new StdMarginalBuilder().parfactors(residue, 
+						combine(auxResult, auxResidue, child)).build();
+				return SplitResult.getInstance(result, residues);
+			}
+			
+			private Parfactor apply(Binding b) {
+				return restrict(b).simplifyLogicalVariables();
+			}
+			
+			/**
+			 * Returns the parfactor to split with the specified binding 
+			 * applied, without the constraints the binding makes 
+			 * meaningless.
+			 */
+			private AggregationParfactor restrict(Binding b) {
+				Set<Constraint> constraints = b.relevant(parfactorToSplit.constraints());
+				return (AggregationParfactor) new AggParfactorBuilder(parent, child, operator)
+						.constraints(constraints).context(context).factor(factor)
+						.activation(activation).build()
+						.apply(Substitution.getInstance(b));
+			}
+			
+			/**
+			 * Returns the aggregation of the parents selected by the specified 
+			 * binding into the specified auxiliary child.
+			 */
+			private Parfactor aggregate(Binding b, Prv auxChild) {
+				return new AggParfactorBuilder(restrict(b)).child(auxChild).build()
+						.simplifyLogicalVariables();
+			}
+			
+			/**
+			 * Returns a parfactor that gives 1 when the child is the 
+			 * aggregation of both auxiliary children and 0 otherwise.
+			 */
+			private Parfactor combine(Prv aux1, Prv aux2, Prv child) {
+				List<Prv> prvs = Lists.listOf(aux1, aux2, child);
+				List<BigDecimal> values = new ArrayList<BigDecimal>();
+				for (Tuple<? extends RangeElement> tuple : StdFactor.getInstance(prvs)) {
+					if (AggParfactor.this.apply(operator, tuple.get(0), tuple.get(1)).equals(tuple.get(2))) {
+						values.add(BigDecimal.ONE);
+					} else {
+						values.add(BigDecimal.ZERO);
+					}
+				}
+				return new StdParfactorBuilder().constraints(constraintsNotOnExtra)
+						.variables(prvs).values(values).build();
+			}
+		}
 	}
 	
 	
@@ -695,6 +929,47 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	}
 	
 	
+	/**
+	 * Key of cached aggregations: a base factor, an operator and the number
+	 * of copies of the base factor aggregated.
+	 */
+	private static final class Power {
+		
+		private final Factor base;
+		private final Operator<? extends RangeElement> operator;
+		private final int copies;
+		
+		private Power(Factor base, Operator<? extends RangeElement> operator, int copies) {
+			this.base = base;
+			this.operator = operator;
+			this.copies = copies;
+		}
+		
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + base.hashCode();
+			result = prime * result + operator.hashCode();
+			result = prime * result + copies;
+			return result;
+		}
+		
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Power)) {
+				return false;
+			}
+			Power other = (Power) obj;
+			return copies == other.copies && operator.equals(other.operator) 
+					&& base.equals(other.base);
+		}
+	}
+	
+	
 	/**
 	 * This class encapsulates sum out algorithm.
 	 * <p>
@@ -734,65 +1009,179 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		}
 		
 		private Factor setFactor() {
-			Factor current = getBase();
+			Factor base = getBase();
 			int domainSize = parfactor.extraVariable()
 					.numberOfIndividualsSatisfying(parfactor.constraintsOnExtra());
+			if (isNoisy() && domainSize > 0) {
+				int order = getOrder();
+				if (order != 0) {
+					return decompose(base, domainSize, order > 0);
+				}
+			}
 			String binSize = Integer.toBinaryString(domainSize);
 			
-			for (int k = 1; k < binSize.length(); k++) {
-				Factor previous = StdFactor.getInstance(current);
-				for (Tuple<RangeElement> x : previous) {
-					BigDecimal sum;
+			BigDecimal[] baseValues = base.values().toArray(new BigDecimal[base.size()]);
+			BigDecimal[] current = baseValues;
+			
+			/*
+			 * After step k, current holds the aggregation of as many copies 
+			 * as the first k + 1 bits of the domain size. Starts from the 
+			 * longest prefix that was already computed.
+			 */
+			int first = 1;
+			for (int k = binSize.length() - 1; k > 0; k--) {
+				BigDecimal[] cached = getPower(base, domainSize >>> (binSize.length() - 1 - k));
+				if (cached != null) {
+					current = cached;
+					first = k + 1;
+					break;
+				}
+			}
+			
+			// The child is the first PRV in the base factor
+			FactorCursor cursor = base.cursor();
+			int childStride = cursor.stride(0);
+			int[][][] doubleComposition = getDoubleCompositionTable();
+			int[][][] tripleComposition = getTripleCompositionTable();
+			
+			for (int k = first; k < binSize.length(); k++) {
+				BigDecimal[] previous = current;
+				current = new BigDecimal[previous.length];
+				for (cursor.reset(); cursor.isValid(); cursor.advance()) {
+					int x = cursor.index();
+					int childValue = cursor.ordinal(0);
+					int offset = x - childValue * childStride;
 					if (binSize.charAt(k) == '0') {
-						sum = getDoubleComposition(previous, x);
+						current[x] = getDoubleComposition(previous, offset, 
+								childStride, doubleComposition[childValue]);
 					} else {
-						sum = getTripleComposition(previous, x);
+						current[x] = getTripleComposition(previous, baseValues, 
+								offset, childStride, tripleComposition[childValue]);
 					}
-					Tuple<RangeElement> xTuple = Tuple.getInstance(x);
-					current = current.set(xTuple, sum);
 				}
+				putPower(base, domainSize >>> (binSize.length() - 1 - k), current);
 			}
 			
-			return current;
+			return StdFactor.getInstance(base.name(), base.variables(), Arrays.asList(current));
 		}
 		
-		private BigDecimal getDoubleComposition(Factor factor, Tuple<RangeElement> x) {
-			int childIndex = 0;
-			RangeElement childValue = x.get(childIndex);
-			BigDecimal sum = BigDecimal.ZERO;
-			List<RangeElement> childRange = parfactor.child().range();
-			for (RangeElement y : childRange) {
-				Tuple<RangeElement> yTuple = x.set(childIndex, y);
-				for (RangeElement z : childRange) {
-					Tuple<RangeElement> zTuple = x.set(childIndex, z);
-					if (apply(parfactor.operator(), y, z).equals(childValue)) {
-						sum = sum.add(factor.getValue(yTuple).multiply(factor.getValue(zTuple), MathUtils.CONTEXT), MathUtils.CONTEXT);
-					}
+		/**
+		 * Returns the cached aggregation of the specified number of copies 
+		 * of the base factor or <code>null</code> if it is not cached.
+		 * The returned array must not be modified.
+		 */
+		private BigDecimal[] getPower(Factor base, int copies) {
+			synchronized (powers) {
+				return powers.get(new Power(base, parfactor.operator(), copies));
+			}
+		}
+		
+		private void putPower(Factor base, int copies, BigDecimal[] values) {
+			synchronized (powers) {
+				powers.put(new Power(base, parfactor.operator(), copies), values);
+			}
+		}
+		
+		/**
+		 * Returns 1 if the operator gives the maximum of two child values in
+		 * the order of the range of the child, as OR and MAX do, -1 if it 
+		 * gives the minimum, as AND and MIN do, and 0 otherwise.
+		 */
+		private int getOrder() {
+			Prv child = parfactor.child();
+			int r = child.rangeSize();
+			boolean isMaximum = true;
+			boolean isMinimum = true;
+			for (int y = 0; y < r; y++) {
+				for (int z = 0; z < r; z++) {
+					int x = child.indexOf(apply(parfactor.operator(), 
+							child.rangeElementAt(y), child.rangeElementAt(z)));
+					isMaximum = isMaximum && (x == Math.max(y, z));
+					isMinimum = isMinimum && (x == Math.min(y, z));
 				}
 			}
-			return sum;
+			return isMaximum ? 1 : (isMinimum ? -1 : 0);
 		}
 		
-		private BigDecimal getTripleComposition(Factor factor, Tuple<RangeElement> x) {
-			int childIndex = 0;
-			RangeElement childValue = x.get(childIndex);
-			BigDecimal sum = BigDecimal.ZERO;
-			List<RangeElement> childRange = parfactor.child().range();
-			for (RangeElement y : childRange) {
-				Tuple<RangeElement> yTuple = x.set(childIndex, y);
-				for (RangeElement z : childRange) {
-					Tuple<RangeElement> zTuple = x.set(childIndex, z);
-					for (RangeElement w : childRange) {
-						Tuple<RangeElement> wTuple = x.set(childIndex, w);
-						if (apply(parfactor.operator(), w, y, z).equals(childValue)) {
-							BigDecimal fw = parfactor.factor().getValue(wTuple);
-							BigDecimal fy = factor.getValue(yTuple);
-							BigDecimal fz = factor.getValue(zTuple);
-							sum = sum.add(fw.multiply(fy, MathUtils.CONTEXT).multiply(fz, MathUtils.CONTEXT), MathUtils.CONTEXT);
+		/**
+		 * Sums out the parent from a noisy aggregation whose operator gives
+		 * the maximum of child values, using the multiplicative 
+		 * decomposition of causal independence. The aggregation is at most z
+		 * exactly when each of the n contributions is at most z, thus
+		 * F(z) = G(z)<sup>n</sup> - G(z - 1)<sup>n</sup>, where G(z) is the 
+		 * sum of the base factor F0 over child values up to z. For the 
+		 * minimum, G sums child values from z on.
+		 */
+		private Factor decompose(Factor base, int n, boolean isMaximum) {
+			BigDecimal[] values = base.values().toArray(new BigDecimal[base.size()]);
+			BigDecimal[] result = new BigDecimal[values.length];
+			int r = parfactor.child().rangeSize();
+			
+			// The child is the first PRV in the base factor
+			int stride = values.length / r;
+			for (int offset = 0; offset < stride; offset++) {
+				BigDecimal cumulative = BigDecimal.ZERO;
+				BigDecimal previous = BigDecimal.ZERO;
+				for (int i = 0; i < r; i++) {
+					int z = isMaximum ? i : r - 1 - i;
+					cumulative = cumulative.add(values[offset + z * stride], MathUtils.CONTEXT);
+					BigDecimal power = cumulative.pow(n, MathUtils.CONTEXT);
+					result[offset + z * stride] = power.subtract(previous, MathUtils.CONTEXT);
+					previous = power;
+				}
+			}
+			return StdFactor.getInstance(base.name(), base.variables(), Arrays.asList(result));
+		}
+		
+		/**
+		 * Returns, for each ordinal x from the range of the child PRV, the 
+		 * triples of ordinals (y, z, w) such that w &otimes; y &otimes; z = x.
+		 * Triples are indexed by [x][0] for y, [x][1] for z and [x][2] for w.
+		 */
+		private int[][][] getTripleCompositionTable() {
+			Prv child = parfactor.child();
+			int r = child.rangeSize();
+			List<List<int[]>> preimage = emptyPreimage(r);
+			for (int y = 0; y < r; y++) {
+				for (int z = 0; z < r; z++) {
+					for (int w = 0; w < r; w++) {
+						int x = child.indexOf(apply(parfactor.operator(), 
+								child.rangeElementAt(w), child.rangeElementAt(y), 
+								child.rangeElementAt(z)));
+						if (x >= 0) {
+							preimage.get(x).add(new int[] {y, z, w});
 						}
 					}
 				}
 			}
+			return toTable(preimage, 3);
+		}
+		
+		private BigDecimal getDoubleComposition(BigDecimal[] factor, int offset, 
+				int stride, int[][] pairs) {
+			BigDecimal sum = BigDecimal.ZERO;
+			int[] ys = pairs[0];
+			int[] zs = pairs[1];
+			for (int i = 0; i < ys.length; i++) {
+				BigDecimal fy = factor[offset + ys[i] * stride];
+				BigDecimal fz = factor[offset + zs[i] * stride];
+				sum = sum.add(fy.multiply(fz, MathUtils.CONTEXT), MathUtils.CONTEXT);
+			}
+			return sum;
+		}
+		
+		private BigDecimal getTripleComposition(BigDecimal[] factor, BigDecimal[] base, 
+				int offset, int stride, int[][] triples) {
+			BigDecimal sum = BigDecimal.ZERO;
+			int[] ys = triples[0];
+			int[] zs = triples[1];
+			int[] ws = triples[2];
+			for (int i = 0; i < ys.length; i++) {
+				BigDecimal fy = factor[offset + ys[i] * stride];
+				BigDecimal fz = factor[offset + zs[i] * stride];
+				BigDecimal fw = base[offset + ws[i] * stride];
+				sum = sum.add(fw.multiply(fy, MathUtils.CONTEXT).multiply(fz, MathUtils.CONTEXT), MathUtils.CONTEXT);
+			}
 			return sum;
 		}
 		
@@ -804,14 +1193,30 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			prvs.add(parfactor.child());
 			prvs.addAll(parfactor.context());
 			
-			Factor tempBase = ConstantFactor.getInstance(prvs);
+			Prv child = parfactor.child();
+			Prv parent = parfactor.parent();
+			Factor factor = parfactor.factor();
+			
+			// Ordinal in the range of the parent of each child value
+			int[] parentValue = new int[child.rangeSize()];
+			for (int c = 0; c < parentValue.length; c++) {
+				parentValue[c] = parent.indexOf(child.rangeElementAt(c));
+			}
 			
-			int size = parfactor.child().range().size();
-			List<BigDecimal> vals = new ArrayList<BigDecimal>(size);
-			for (Tuple<RangeElement> tuple : tempBase) {
-				RangeElement childValue = tuple.get(0);
-				if (parfactor.parent().range().contains(childValue)) {
-					vals.add(parfactor.factor().getValue(tuple));
+			// The parent occupies the position of the child in the factor of
+			// the aggregation parfactor, and both are followed by the context
+			FactorCursor cursor = FactorCursor.over(prvs);
+			int[] strides = cursor.stridesIn(factor);
+			int parentStride = cursor.stride(0);
+			
+			List<BigDecimal> vals = new ArrayList<BigDecimal>(cursor.size());
+			for (; cursor.isValid(); cursor.advance()) {
+				int p = parentValue[cursor.ordinal(0)];
+				if (isNoisy()) {
+					vals.add(getNoisyBase(factor, cursor.indexIn(strides), 
+							parentStride, cursor.ordinal(0)));
+				} else if (p >= 0) {
+					vals.add(factor.getValue(cursor.indexIn(strides) + p * parentStride));
 				} else {
 					vals.add(BigDecimal.ZERO);
 				}
@@ -819,6 +1224,22 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			return StdFactor.getInstance("", prvs, vals);
 		}
 		
+		/**
+		 * Returns an entry of the base factor of a noisy aggregation: the sum 
+		 * over parent values v of F(v, ...) times the probability that v 
+		 * contributes the specified child value.
+		 */
+		private BigDecimal getNoisyBase(Factor factor, int offset, int stride, 
+				int childValue) {
+			BigDecimal sum = BigDecimal.ZERO;
+			for (int v = 0; v < parent.rangeSize(); v++) {
+				BigDecimal f = factor.getValue(offset + v * stride);
+				sum = sum.add(f.multiply(activation(v, childValue), MathUtils.CONTEXT), 
+						MathUtils.CONTEXT);
+			}
+			return sum;
+		}
+		
 		/**
 		 * Returns <code>true</code> if the child PRV has exactly one extra
 		 * parameter that is not present in parameters from parent PRV.
@@ -899,26 +1320,117 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			List<Prv> vars = getPrvsForParfactorOnChild();
 			
 			Factor structure = ConstantFactor.getInstance(vars);
-			List<BigDecimal> vals = new ArrayList<BigDecimal>();
-			
-			for (Tuple<RangeElement> tuple : structure) {
-				RangeElement histogram = tuple.get(0);
-				RangeElement condensedHistogram = histogram.apply(ap.operator());
-				RangeElement childValue = tuple.get(1);
-				if (condensedHistogram.equals(childValue)) {
-					vals.add(BigDecimal.ONE);
-				} else {
-					vals.add(BigDecimal.ZERO);
-				}
+			Factor factor;
+			if (isNoisy()) {
+				factor = StdFactor.getInstance("", vars, getNoisyValues(structure));
+			} else {
+				factor = getDeterministicFactor(structure);
 			}
 			
 			Parfactor child = new StdParfactorBuilder()
 					.constraints(ap.constraintsNotOnExtra())
-					.variables(vars).values(vals).build();
+					.factor(factor).build();
 			
 			return child;
 		}
 		
+		/**
+		 * Returns the factor of the parfactor on the child PRV: 1 if the 
+		 * operator applied to a histogram gives the child value, 0 
+		 * otherwise.
+		 * <p>
+		 * Each histogram gives exactly one child value, so only the indexes
+		 * of ones are computed and the factor is built as a 
+		 * {@link SparseFactor} when the child has a large enough range.
+		 * </p>
+		 */
+		private Factor getDeterministicFactor(Factor structure) {
+			Prv counted = structure.variableAt(0);
+			Prv aggregated = structure.variableAt(1);
+			FactorCursor cursor = structure.cursor();
+			int histogramStride = cursor.stride(0);
+			int childStride = cursor.stride(1);
+			
+			// Context PRVs come after the child and take any value
+			int[] indexes = new int[counted.rangeSize() * childStride];
+			int n = 0;
+			for (int h = 0; h < counted.rangeSize(); h++) {
+				RangeElement histogram = counted.rangeElementAt(h);
+				int childValue = aggregated.indexOf(histogram.apply(ap.operator()));
+				if (childValue >= 0) {
+					int first = h * histogramStride + childValue * childStride;
+					for (int context = 0; context < childStride; context++) {
+						indexes[n++] = first + context;
+					}
+				}
+			}
+			List<BigDecimal> ones = Lists.listOf(BigDecimal.ONE, n);
+			return SparseFactor.getInstance("", structure.variables(), 
+					Arrays.copyOf(indexes, n), ones);
+		}
+		
+		/**
+		 * Returns the values of the parfactor on the child PRV of a noisy 
+		 * aggregation: the probability that the contributions of the 
+		 * parents counted in a histogram aggregate to the child value.
+		 */
+		private List<BigDecimal> getNoisyValues(Factor structure) {
+			CountingFormula counted = (CountingFormula) structure.variables().get(0);
+			BigDecimal[][] aggregates = new BigDecimal[counted.rangeSize()][];
+			int[][][] composition = getDoubleCompositionTable();
+			
+			List<BigDecimal> vals = new ArrayList<BigDecimal>(structure.size());
+			for (FactorCursor cursor = structure.cursor(); cursor.isValid(); cursor.advance()) {
+				int h = cursor.ordinal(0);
+				if (aggregates[h] == null) {
+					aggregates[h] = aggregate(counted.getCounts(h), composition);
+				}
+				vals.add(aggregates[h][cursor.ordinal(1)]);
+			}
+			return vals;
+		}
+		
+		/**
+		 * Returns the distribution of the aggregation of parents with the
+		 * specified counts for each parent value, composing the 
+		 * contributions of one parent at a time.
+		 * 
+		 * @throws IllegalArgumentException If there are no parents
+		 */
+		private BigDecimal[] aggregate(int[] counts, int[][][] composition) 
+				throws IllegalArgumentException {
+			int r = child.rangeSize();
+			BigDecimal[] result = null;
+			for (int v = 0; v < counts.length; v++) {
+				BigDecimal[] contribution = new BigDecimal[r];
+				for (int z = 0; z < r; z++) {
+					contribution[z] = activation(v, z);
+				}
+				for (int k = 0; k < counts[v]; k++) {
+					result = (result == null) ? contribution 
+							: compose(result, contribution, composition);
+				}
+			}
+			if (result == null) {
+				throw new IllegalArgumentException("Empty histogram");
+			}
+			return result;
+		}
+		
+		private BigDecimal[] compose(BigDecimal[] f, BigDecimal[] g, int[][][] composition) {
+			BigDecimal[] result = new BigDecimal[f.length];
+			for (int x = 0; x < result.length; x++) {
+				int[] ys = composition[x][0];
+				int[] zs = composition[x][1];
+				BigDecimal sum = BigDecimal.ZERO;
+				for (int i = 0; i < ys.length; i++) {
+					sum = sum.add(f[ys[i]].multiply(g[zs[i]], MathUtils.CONTEXT), MathUtils.CONTEXT);
+				}
+				result[x] = sum;
+			}
+			return result;
+		}
+		
 		/**
 		 * Counts the extra variable from parent's PRV
 		 */
@@ -1070,15 +1582,11 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 			 * When the extra variable is constrained to a single individual
 			 * there is no aggregation needed.
 			 */
-			List<Prv> parentChild = Lists.listOf(parent(), child());
+			List<Prv> parentChild = Lists.listOf(parent().apply(sub), child());
 			Factor newStructure = ConstantFactor.getInstance(parentChild);
 			List<BigDecimal> values = new ArrayList<BigDecimal>();
 			for (Tuple<RangeElement> tuple : newStructure) {
-				if (tuple.get(0).equals(tuple.get(1))) {
-					values.add(BigDecimal.ONE);
-				} else {
-					values.add(BigDecimal.ZERO);
-				}
+				values.add(contribution(tuple.get(0), tuple.get(1)));
 			}
 
 			AggregationParfactor ap = (AggregationParfactor) simplified;
@@ -1122,6 +1630,119 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	}
 	
 	
+	/**
+	 * Returns <code>true</code> if this is a causal independence 
+	 * aggregation parfactor.
+	 */
+	private boolean isNoisy() {
+		return !activation.isEmpty();
+	}
+	
+	
+	/**
+	 * Returns the probability that a parent with the specified value 
+	 * contributes the specified child value to the aggregation. For 
+	 * deterministic aggregation parfactors, this is 1 if the values are
+	 * equal and 0 otherwise.
+	 */
+	private BigDecimal contribution(RangeElement parentValue, RangeElement childValue) {
+		if (isNoisy()) {
+			return activation(parent.indexOf(parentValue), child.indexOf(childValue));
+		} else if (parentValue.equals(childValue)) {
+			return BigDecimal.ONE;
+		} else {
+			return BigDecimal.ZERO;
+		}
+	}
+	
+	
+	/**
+	 * Returns the probability that a parent with the v-th value from its
+	 * range contributes the z-th child value to this noisy aggregation.
+	 */
+	private BigDecimal activation(int v, int z) {
+		return activation.get(v * child.rangeSize() + z);
+	}
+	
+	
+	/**
+	 * Returns, for each ordinal x from the range of the child PRV, the 
+	 * pairs of ordinals (y, z) such that y &otimes; z = x. Pairs are 
+	 * indexed by [x][0] for y and [x][1] for z.
+	 * <p>
+	 * Composing factors only visits these pairs, which makes elimination
+	 * a counting convolution. For operators that are not closed, such as
+	 * SUM, pairs whose result is not in the range of the child are 
+	 * dropped, and each x has at most r pairs.
+	 * </p>
+	 */
+	private int[][][] getDoubleCompositionTable() {
+		int r = child.rangeSize();
+		List<List<int[]>> preimage = emptyPreimage(r);
+		for (int y = 0; y < r; y++) {
+			for (int z = 0; z < r; z++) {
+				int x = child.indexOf(apply(operator, 
+						child.rangeElementAt(y), child.rangeElementAt(z)));
+				if (x >= 0) {
+					preimage.get(x).add(new int[] {y, z});
+				}
+			}
+		}
+		return toTable(preimage, 2);
+	}
+	
+	/**
+	 * Returns <code>true</code> if results of the operator that are not in 
+	 * the range of the child stay out of it when composed with any child 
+	 * value. Composition tables drop such results, which is exact only in 
+	 * this case. SUM over non-negative values satisfies this condition, but
+	 * not SUM over ranges with negative values: with range {-1, 0, 1}, 
+	 * 1 + 1 is dropped although 1 + 1 + (-1) is in the range.
+	 */
+	private boolean dropsOnlyUnreachable() {
+		int r = child.rangeSize();
+		for (int y = 0; y < r; y++) {
+			for (int z = 0; z < r; z++) {
+				RangeElement x = apply(operator, child.rangeElementAt(y), 
+						child.rangeElementAt(z));
+				if (child.indexOf(x) < 0) {
+					for (int w = 0; w < r; w++) {
+						if (child.indexOf(apply(operator, x, child.rangeElementAt(w))) >= 0) {
+							return false;
+						}
+					}
+				}
+			}
+		}
+		return true;
+	}
+	
+	private List<List<int[]>> emptyPreimage(int r) {
+		List<List<int[]>> preimage = new ArrayList<List<int[]>>(r);
+		for (int x = 0; x < r; x++) {
+			preimage.add(new ArrayList<int[]>());
+		}
+		return preimage;
+	}
+	
+	/**
+	 * Transposes each list of tuples into one array per position.
+	 */
+	private int[][][] toTable(List<List<int[]>> preimage, int arity) {
+		int[][][] table = new int[preimage.size()][arity][];
+		for (int x = 0; x < table.length; x++) {
+			List<int[]> tuples = preimage.get(x);
+			for (int i = 0; i < arity; i++) {
+				table[x][i] = new int[tuples.size()];
+				for (int j = 0; j < tuples.size(); j++) {
+					table[x][i][j] = tuples.get(j)[i];
+				}
+			}
+		}
+		return table;
+	}
+	
+	
 	/* ************************************************************************
 	 *    Constructors
 	 * ************************************************************************/
@@ -1140,6 +1761,7 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		this.constraintsNotOnExtra = builder.constraintsNotOnExtra;
 		this.constraintsOnExtra = builder.constraintsOnExtra;
 		this.extraVar = builder.lv;
+		this.activation = builder.getActivation();
 	}
 
 	
@@ -1174,9 +1796,14 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	
 	@Override
 	public Set<LogicalVariable> logicalVariables() {
-		List<LogicalVariable> variables = Lists.union(child.parameters(), 
-				parent.parameters());
-		return new HashSet<LogicalVariable>(variables);
+		Set<LogicalVariable> result = logicalVariables;
+		if (result == null) {
+			List<LogicalVariable> variables = Lists.union(child.parameters(), 
+					parent.parameters());
+			result = new HashSet<LogicalVariable>(variables);
+			logicalVariables = result;
+		}
+		return new HashSet<LogicalVariable>(result);
 	}
 
 	
@@ -1225,15 +1852,26 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	}
 	
 	
+	@Override
+	public List<BigDecimal> activation() {
+		return Lists.listOf(activation);
+	}
+	
+	
 	@Override
 	public int size() {
-		Set<LogicalVariable> vars = logicalVariables();
-		vars.remove(extraVar);
-		int size = 1;
-		for (LogicalVariable lv : vars) {
-			size = size * lv.numberOfIndividualsSatisfying(constraintsNotOnExtra);
+		int result = size;
+		if (result < 0) {
+			Set<LogicalVariable> vars = logicalVariables();
+			vars.remove(extraVar);
+			long count = ConstraintSolver.count(vars, constraintsNotOnExtra);
+			if (count > Integer.MAX_VALUE) {
+				throw new IllegalStateException("Too many groundings: " + count);
+			}
+			result = (int) count;
+			size = result;
 		}
-		return size;
+		return result;
 	}
 	
 
@@ -1247,7 +1885,8 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		
 		return new AggParfactorBuilder(substitutedParent, substututedChild, 
 				operator).constraints(substitutedConstraints)
-				.context(substitutedContext).factor(substitutedFactor).build();
+				.context(substitutedContext).factor(substitutedFactor)
+				.activation(activation).build();
 	}
 		
 	
@@ -1341,38 +1980,17 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		
 		boolean oneExtraForEach = childParameters.equals(parentParameters);
 		
-		return isInNormalForm() && oneExtraForEach;
+		// The number of extra individuals per parent grounding must not 
+		// depend on the grounding; normal form is not required
+		boolean isUniform = ConstraintSolver.isUniform(extraVar, constraints());
+		
+		// Otherwise only conversion gives exact results
+		boolean isComposable = dropsOnlyUnreachable();
+		
+		return isUniform && oneExtraForEach && isComposable;
 	}
 
 
-	/**
-	 * Returns <code>true</code> if this parfactor is in normal form.
-	 * <p>
-	 * A parfactor is in normal form if, for each inequality constraint 
-	 * (X &ne; Y) &in; C we have &epsilon;<sub>X</sub><sup>C</sup>\{Y} = 
-	 *  &epsilon;<sub>Y</sub><sup>C</sup>\{X}. X and Y are logical variables.
-	 * </p>
-	 * @return <code>true</code> if this parfactor is in normal form, 
-	 * <code>false</code> otherwise
-	 */
-	private boolean isInNormalForm() {
-		for (Constraint c : constraints()) {
-			if (c.firstTerm().isVariable() && c.secondTerm().isVariable()) {
-				LogicalVariable x = (LogicalVariable) c.firstTerm();
-				LogicalVariable y = (LogicalVariable) c.secondTerm();
-				Set<Term> ex = x.excludedSet(constraints());
-				Set<Term> ey = y.excludedSet(constraints());
-				ex.remove(y);
-				ey.remove(x);
-				if (!ex.equals(ey)) {
-					return false;
-				}
-			}
-		}
-		return true;
-	}
-	
-	
 	/**
 	 * Throws {@link UnsupportedOperationException}.
 	 */
@@ -1389,6 +2007,15 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 	public Parfactor expand(Prv cf, Term t) {
 		throw new UnsupportedOperationException("Aggregation Parfactors are not expandable");
 	}
+	
+	
+	/**
+	 * Throws {@link UnsupportedOperationException}.
+	 */
+	@Override
+	public Parfactor fullExpand(Prv cf) {
+		throw new UnsupportedOperationException("Aggregation Parfactors are not expandable");
+	}
 
 	
 	@Override
@@ -1415,10 +2042,22 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		return result.split();
 	}
 
+	/**
+	 * Sums out the parent PRV from this parfactor.
+	 * 
+	 * @throws IllegalStateException If the operator gives results outside
+	 * the range of the child that may return to it, as SUM on ranges with
+	 * negative values does. Such parfactors must be converted to standard 
+	 * parfactors.
+	 */
 	@Override
-	public Parfactor sumOut(Prv prv) {
+	public Parfactor sumOut(Prv prv) throws IllegalStateException {
 		// TODO check if prv is parent
 		
+		if (!dropsOnlyUnreachable()) {
+			throw new IllegalStateException("Operator " + operator 
+					+ " is not composable on the range of " + child);
+		}
 		Eliminator eliminator = new Eliminator(this);
 		Parfactor result = eliminator.eliminate();
 		return result;
@@ -1492,6 +2131,9 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 
 	@Override
 	public int hashCode() {
+		if (hashCode != 0) {
+			return hashCode;
+		}
 		final int prime = 31;
 		int result = 1;
 		result = prime * result + ((child == null) ? 0 : child.hashCode());
@@ -1509,6 +2151,8 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		result = prime * result
 				+ ((operator == null) ? 0 : operator.hashCode());
 		result = prime * result + ((parent == null) ? 0 : parent.hashCode());
+		result = prime * result + Lists.hashCode(activation);
+		hashCode = result;
 		return result;
 	}
 
@@ -1574,6 +2218,9 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 		} else if (!parent.equals(other.parent)) {
 			return false;
 		}
+		if (!Lists.areEqual(activation, other.activation)) {
+			return false;
+		}
 		return true;
 	}
 	
@@ -1585,6 +2232,7 @@ public class AggParfactor implements AggregationParfactor, VisitableParfactor {
 				+ ", V = " + context
 				+ ", C_A = " + constraintsOnExtra
 				+ ", C = " + constraintsNotOnExtra 
+				+ (isNoisy() ? ", Q = " + activation : "")
 				+ "\n" + factor;	
 	}
 
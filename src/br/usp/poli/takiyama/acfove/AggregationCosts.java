@@ -0,0 +1,180 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.math.BigInteger;
+import java.util.List;
+
+import br.usp.poli.takiyama.common.AggregationParfactor;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.utils.Coefficients;
+import br.usp.poli.takiyama.utils.Lists;
+
+/**
+ * Cost models for the two ways of getting rid of an aggregation parfactor
+ * &langle; C, p(...,A,...), c(...), V, F, &otimes;, C<sub>A</sub> &rangle;:
+ * summing out the parent directly or converting the parfactor to standard
+ * parfactors and eliminating the counted parent afterwards.
+ * <p>
+ * Both models count the arithmetic operations and operator applications
+ * each path performs. They use the following quantities:
+ * </p>
+ * <li> n = |D(A):C<sub>A</sub>|, the number of parents per child
+ * <li> q = |range(p)| and r = |range(c)|
+ * <li> s = |F| / q, the size of the context V
+ * <li> h = combination(n + q - 1, q - 1), the number of histograms of the
+ * counting formula #<sub>A:C<sub>A</sub></sub>[p(...,A,...)] created by
+ * conversion
+ * <p>
+ * For noisy aggregation parfactors, both models account for the 
+ * activation probabilities. Noisy aggregations whose operator is a maximum
+ * or a minimum are eliminated in closed form, in which case the 
+ * elimination model is an upper bound.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+final class AggregationCosts {
+
+	private AggregationCosts() {
+		// enforces non-instantiability
+	}
+	
+	/**
+	 * Returns the cost of summing out the parent PRV from the specified 
+	 * aggregation parfactor:
+	 * <p>
+	 * r<sup>2</sup> + r<sup>3</sup> + r x s + &sum;<sub>k</sub> s x 
+	 * r<sup>e<sub>k</sub></sup> + |count(c)|
+	 * </p>
+	 * <p>
+	 * The first two terms are the operator applications that build the 
+	 * tables of double and triple compositions, the third is the base 
+	 * factor. Elimination takes one step per bit of n after the first.
+	 * A step visits each composition in the table once per context, that
+	 * is, at most r<sup>2</sup> pairs when the bit is 0 and 
+	 * r<sup>3</sup> triples when it is 1. The last term is the size of the
+	 * parfactor created when the child has a parameter not in the parent, 
+	 * which is counted after elimination.
+	 * </p>
+	 */
+	static BigInteger elimination(AggregationParfactor ap) {
+		int n = parents(ap);
+		BigInteger r = BigInteger.valueOf(ap.child().rangeSize());
+		BigInteger s = context(ap);
+		
+		BigInteger cost = r.pow(2).add(r.pow(3)).add(r.multiply(s));
+		if (!ap.activation().isEmpty()) {
+			// each entry of the base sums over the parent values
+			int q = ap.parent().rangeSize();
+			cost = cost.add(r.multiply(s).multiply(BigInteger.valueOf(q)));
+		}
+		for (int k = Integer.highestOneBit(n) >> 1; k > 0; k >>= 1) {
+			int exponent = ((n & k) == 0) ? 2 : 3;
+			cost = cost.add(s.multiply(r.pow(exponent)));
+		}
+		return cost.add(countedChild(ap));
+	}
+	
+	/**
+	 * Returns the cost of converting the specified aggregation parfactor
+	 * to standard parfactors and summing out the counted parent from the
+	 * result:
+	 * <p>
+	 * |F| + h x r x s x max(n - 1, 1) + h x s x q + 2 x h x r x s + 
+	 * |count(c)|
+	 * </p>
+	 * <p>
+	 * The first term is the parfactor on the parent. The second is the 
+	 * parfactor on the counted parent, whose entries each fold the operator
+	 * over the n values of a histogram. For noisy aggregations, the fold
+	 * composes distributions over the range of the child instead, once per 
+	 * histogram. Summing out the counted parent
+	 * then counts the parent in the first parfactor (one product of q 
+	 * powers per histogram), multiplies both parfactors and sums out 
+	 * the product. As in {@link #elimination(AggregationParfactor)}, the
+	 * last term counts the child when needed.
+	 * </p>
+	 */
+	static BigInteger conversion(AggregationParfactor ap) {
+		int n = parents(ap);
+		int q = ap.parent().rangeSize();
+		BigInteger onParent = BigInteger.valueOf(ap.factor().size());
+		BigInteger onCounted = counted(ap);
+		BigInteger histograms = histograms(ap).multiply(context(ap));
+		
+		BigInteger onChild;
+		if (ap.activation().isEmpty()) {
+			onChild = onCounted.multiply(BigInteger.valueOf(Math.max(n - 1, 1)));
+		} else {
+			// n - 1 compositions of r^2 products per histogram, then a copy
+			BigInteger r = BigInteger.valueOf(ap.child().rangeSize());
+			onChild = histograms(ap).multiply(BigInteger.valueOf(Math.max(n - 1, 1)))
+					.multiply(r.pow(2)).add(onCounted);
+		}
+		
+		return onParent
+				.add(onChild)
+				.add(histograms.multiply(BigInteger.valueOf(q)))
+				.add(onCounted.multiply(BigInteger.valueOf(2)))
+				.add(countedChild(ap));
+	}
+	
+	/**
+	 * Returns <code>true</code> if converting the specified aggregation 
+	 * parfactor is cheaper than summing out its parent.
+	 */
+	static boolean isConversionCheaper(AggregationParfactor ap) {
+		return conversion(ap).compareTo(elimination(ap)) < 0;
+	}
+	
+	/**
+	 * Returns the size of the parfactor on the counted parent, the child 
+	 * and the context created by conversion, h x r x s.
+	 */
+	static BigInteger counted(AggregationParfactor ap) {
+		return histograms(ap).multiply(BigInteger.valueOf(ap.child().rangeSize()))
+				.multiply(context(ap));
+	}
+	
+	private static int parents(AggregationParfactor ap) {
+		return ap.extraVariable().numberOfIndividualsSatisfying(ap.constraintsOnExtra());
+	}
+	
+	private static BigInteger context(AggregationParfactor ap) {
+		return BigInteger.valueOf(ap.factor().size() / ap.parent().rangeSize());
+	}
+	
+	private static BigInteger histograms(AggregationParfactor ap) {
+		int q = ap.parent().rangeSize();
+		return Coefficients.binomial(parents(ap) + q - 1, q - 1);
+	}
+	
+	/**
+	 * Returns the size of the parfactor on the counted child and the 
+	 * context, or zero if the child has all its parameters in the parent.
+	 */
+	private static BigInteger countedChild(AggregationParfactor ap) {
+		List<LogicalVariable> extra = Lists.difference(ap.child().parameters(), 
+				ap.parent().parameters());
+		if (extra.size() != 1) {
+			return BigInteger.ZERO;
+		}
+		int m = extra.get(0).numberOfIndividualsSatisfying(ap.constraints());
+		int r = ap.child().rangeSize();
+		return Coefficients.binomial(m + r - 1, r - 1).multiply(context(ap));
+	}
+}
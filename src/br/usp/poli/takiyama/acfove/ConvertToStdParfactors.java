@@ -19,7 +19,6 @@ import br.usp.poli.takiyama.common.AggregationParfactor;
 import br.usp.poli.takiyama.common.Marginal;
 import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
-import br.usp.poli.takiyama.prv.Prv;
 
 public final class ConvertToStdParfactors implements MacroOperation {
 
@@ -43,19 +42,38 @@ public final class ConvertToStdParfactors implements MacroOperation {
 	}
 
 	/**
-	 * Let g be an aggregation parfactor
-	 * Returns the size of the factor component if we multiplied the parfactors
-	 * that result from converting g to standard parfactors.
+	 * The cost of conversion is the size of the biggest parfactor it 
+	 * creates, the one on the counting formula on the parent PRV, the child
+	 * PRV and the context, which is given by the following expression:
+	 * <p>
+	 * combination(|D(A):C<sub>A</sub>| + |range(p)| - 1, |range(p)| - 1) 
+	 * x |range(c)| x |F| / |range(p)|
+	 * </p>
+	 * <p>
+	 * where
+	 * </p>
+	 * <li> &langle; C, p(...,A,...), c(...), V, F, &otimes;, C<sub>A</sub> 
+	 * &rangle; is the aggregation parfactor being converted
+	 * <li> the first term is the number of histograms of the counting 
+	 * formula #<sub>A:C<sub>A</sub></sub>[p(...,A,...)]
+	 * <li> |F| / |range(p)| is the product of the range sizes of PRVs in
+	 * the context V
+	 * <p>
+	 * The other parfactor created is on the parent PRV and the context, and
+	 * has size |F|. Conversion is impossible for standard parfactors.
+	 * </p>
+	 * <p>
+	 * This cost is comparable to the costs of other macro operations. 
+	 * Whether conversion is cheaper than summing out the parent directly
+	 * is decided by {@link GlobalSumOut}, see {@link AggregationCosts}.
+	 * </p>
 	 */
 	@Override
 	public int cost() {
-		int cost = (int) Double.POSITIVE_INFINITY;
+		int cost = Costs.INFINITY;
 		if (parfactorToConvert instanceof AggregationParfactor) {
 			AggregationParfactor ap = (AggregationParfactor) parfactorToConvert; 
-			cost = ap.extraVariable().numberOfIndividualsSatisfying(ap.constraintsOnExtra());
-			for (Prv var : ap.prvs()) {
-				cost = cost * var.range().size();
-			}
+			cost = Costs.of(AggregationCosts.counted(ap));
 		}
 		return cost;
 	}
@@ -68,6 +86,11 @@ public final class ConvertToStdParfactors implements MacroOperation {
 		return 0;
 	}
 
+	// used by EliminationPlan
+	Parfactor parfactor() {
+		return parfactorToConvert;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
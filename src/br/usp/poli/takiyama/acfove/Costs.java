@@ -0,0 +1,68 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.math.BigInteger;
+
+/**
+ * Helpers to compute the cost of macro operations.
+ * <p>
+ * Costs are sizes of factors, which easily overflow an <code>int</code>.
+ * Sizes are computed as {@link BigInteger}s and converted to costs here, 
+ * so that feasible operations never get a negative cost nor the cost of 
+ * impossible operations.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+final class Costs {
+
+	/**
+	 * The cost of impossible operations.
+	 */
+	static final int INFINITY = (int) Double.POSITIVE_INFINITY;
+	
+	private static final BigInteger MAX_FEASIBLE = BigInteger.valueOf(INFINITY - 1);
+	
+	private Costs() {
+		// enforces non-instantiability
+	}
+	
+	/**
+	 * Returns <code>base<sup>exponent</sup></code>, or a number that is 
+	 * converted to infinity - 1 by {@link #of(BigInteger)} if the power is
+	 * too big to be a feasible cost. Avoids computing huge powers.
+	 */
+	static BigInteger power(int base, int exponent) {
+		BigInteger b = BigInteger.valueOf(base);
+		if (base > 1 && (long) (b.bitLength() - 1) * exponent >= MAX_FEASIBLE.bitLength()) {
+			return MAX_FEASIBLE;
+		}
+		return b.pow(exponent);
+	}
+	
+	/**
+	 * Returns the cost of a feasible operation that creates factors with
+	 * the specified total size. Sizes that do not fit are given the cost
+	 * infinity - 1.
+	 */
+	static int of(BigInteger size) {
+		if (size.compareTo(MAX_FEASIBLE) < 0) {
+			return size.intValue();
+		}
+		return INFINITY - 1;
+	}
+}
@@ -75,7 +75,7 @@ public final class CountingConvert implements MacroOperation {
 	public int cost() {
 		if (countableParfactor.isCountable(freeVariable)) {
 			int f = countableParfactor.factor().size();
-			int r = prvToCount.range().size();
+			int r = prvToCount.rangeSize();
 			int h = getNumberOfHistograms();
 			return f / r * h;
 		} else {
@@ -89,7 +89,7 @@ public final class CountingConvert implements MacroOperation {
 	 */
 	private int getNumberOfHistograms() {
 		int domain = freeVariable.numberOfIndividualsSatisfying(countableParfactor.constraints());
-		int range = prvToCount.range().size() - 1;
+		int range = prvToCount.rangeSize() - 1;
 		int numberOfHistograms = MathUtils.combination(domain + range, range).intValue();
 		return numberOfHistograms;
 	}
@@ -102,6 +102,16 @@ public final class CountingConvert implements MacroOperation {
 		return 0;
 	}
 
+	// used by EliminationPlan
+	Parfactor parfactor() {
+		return countableParfactor;
+	}
+	
+	// used by EliminationPlan
+	LogicalVariable logicalVariable() {
+		return freeVariable;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
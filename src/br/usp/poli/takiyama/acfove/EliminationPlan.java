@@ -0,0 +1,478 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+
+import br.usp.poli.takiyama.common.Marginal;
+import br.usp.poli.takiyama.common.Parfactor;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RandomVariableSet;
+
+/**
+ * The sequence of macro operations AC-FOVE executes on a marginal.
+ * <p>
+ * The operations chosen by AC-FOVE depend only on the structure of the
+ * marginal (PRVs, constraints and population sizes), not on factor values.
+ * A plan is recorded once and then replayed on marginals with the same
+ * structure but different potentials, skipping the choice of operations
+ * altogether.
+ * </p>
+ * <p>
+ * Operands are kept in canonical form: parfactors are identified by their
+ * shape (kind, PRVs, constraints, population sizes and factor size), so
+ * they can be found in any marginal that has the same structure as the one
+ * used to record the plan.
+ * </p>
+ * <p>
+ * The choice of operations is usually the same for a model at different
+ * population sizes. A plan recorded at one size may be run at another size
+ * with {@link #run(Marginal)}: operations are validated as they are
+ * replayed, and AC-FOVE runs from scratch when the plan is not valid.
+ * The number of runs that replayed the plan and that fell back to AC-FOVE
+ * are given by {@link #replays()} and {@link #fallbacks()}.
+ * </p>
+ *
+ * @author Felipe Takiyama
+ */
+public final class EliminationPlan {
+
+	// Query and structure of the marginal used to record this plan
+	private final RandomVariableSet preservable;
+	private final Map<ParfactorShape, Integer> structure;
+	private final Map<ParfactorShape, Integer> skeleton;
+
+	// Operations in the order they are executed
+	private final List<Instruction> instructions;
+
+	// Calls to run that replayed this plan and that ran AC-FOVE instead
+	private long replays;
+	private long fallbacks;
+
+
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	private EliminationPlan(Marginal marginal, List<Instruction> instructions) {
+		this.preservable = marginal.preservable();
+		this.structure = ParfactorShape.structureOf(marginal);
+		this.skeleton = ParfactorShape.skeletonOf(marginal);
+		this.instructions = Collections.unmodifiableList(instructions);
+	}
+
+	/**
+	 * Runs AC-FOVE on the specified marginal and returns the plan it
+	 * followed.
+	 *
+	 * @param marginal The marginal used to record the plan
+	 * @return The plan AC-FOVE follows on the specified marginal
+	 */
+	public static EliminationPlan getInstance(Marginal marginal) {
+		RecordingACFOVE acfove = new RecordingACFOVE(marginal);
+		acfove.run();
+		return new EliminationPlan(marginal, acfove.instructions);
+	}
+
+
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+
+	/**
+	 * Returns <code>true</code> if this plan can be replayed on the specified
+	 * marginal, that is, if the specified marginal has the same query and the
+	 * same structure as the marginal used to record this plan.
+	 *
+	 * @param marginal The marginal to test
+	 */
+	public boolean isApplicableTo(Marginal marginal) {
+		return preservable.equals(marginal.preservable())
+				&& structure.equals(ParfactorShape.structureOf(marginal));
+	}
+
+	/**
+	 * Returns <code>true</code> if the specified marginal comes from the same
+	 * model as the marginal used to record this plan, possibly with other
+	 * population sizes. This plan may be valid for such marginals, but each
+	 * operation must be validated when replayed.
+	 *
+	 * @param marginal The marginal to test
+	 */
+	public boolean isGeneralizableTo(Marginal marginal) {
+		return preservable.equals(marginal.preservable())
+				&& skeleton.equals(ParfactorShape.skeletonOf(marginal));
+	}
+
+	/**
+	 * Returns the number of calls to {@link #run(Marginal)} that replayed
+	 * this plan.
+	 */
+	public synchronized long replays() {
+		return replays;
+	}
+
+	/**
+	 * Returns the number of calls to {@link #run(Marginal)} that could not
+	 * replay this plan and ran AC-FOVE from scratch instead.
+	 */
+	public synchronized long fallbacks() {
+		return fallbacks;
+	}
+
+	/**
+	 * Returns the number of macro operations in this plan.
+	 */
+	public int size() {
+		return instructions.size();
+	}
+
+
+	/* ************************************************************************
+	 *    Replay
+	 * ************************************************************************/
+
+	/**
+	 * Executes this plan on the specified marginal and returns the result.
+	 * The result is the same as running AC-FOVE on the marginal.
+	 *
+	 * @param marginal A marginal with the same structure as the one used to
+	 * record this plan
+	 * @return The result of executing this plan on the specified marginal
+	 * @throws IllegalArgumentException If this plan is not applicable to
+	 * the specified marginal
+	 */
+	public Parfactor replay(Marginal marginal) throws IllegalArgumentException {
+		if (!isApplicableTo(marginal)) {
+			throw new IllegalArgumentException("Marginal structure does not "
+					+ "match the structure of this plan.");
+		}
+		Parfactor result = execute(marginal);
+		if (result == null) {
+			throw new IllegalArgumentException("Plan is not valid for the "
+					+ "specified marginal.");
+		}
+		return result;
+	}
+
+	/**
+	 * Executes this plan on the specified marginal, which may have population
+	 * sizes other than the ones used to record this plan, and returns the
+	 * result.
+	 * <p>
+	 * Each operation is validated before being executed. If some operation
+	 * is not possible on the specified marginal, or if the marginal does not
+	 * come from the same model, runs AC-FOVE on the marginal instead. 
+	 * Either way, {@link #replays()} or {@link #fallbacks()} is 
+	 * incremented.
+	 * </p>
+	 *
+	 * @param marginal The marginal to run the plan on
+	 * @return The result of running AC-FOVE on the specified marginal
+	 */
+	public Parfactor run(Marginal marginal) {
+		Parfactor result = null;
+		if (isGeneralizableTo(marginal)) {
+			result = execute(marginal);
+		}
+		if (result == null) {
+			synchronized (this) {
+				fallbacks++;
+			}
+			result = new ACFOVE(marginal).run();
+		} else {
+			synchronized (this) {
+				replays++;
+			}
+		}
+		return result;
+	}
+
+	/**
+	 * Executes this plan on the specified marginal. Returns 
+	 * <code>null</code> if some operation is not possible on the marginal.
+	 */
+	private Parfactor execute(Marginal marginal) {
+		Marginal result = ACFOVE.performInitialShattering(marginal);
+		try {
+			for (Instruction instruction : instructions) {
+				MacroOperation operation = instruction.bind(result);
+				if (!instruction.isValid(operation)) {
+					return null;
+				}
+				result = operation.run();
+			}
+		} catch (IllegalArgumentException e) {
+			return null;
+		}
+		if (result.size() != 1) {
+			return null;
+		}
+		return result.iterator().next();
+	}
+
+	@Override
+	public String toString() {
+		return instructions.toString();
+	}
+
+
+	/* ************************************************************************
+	 *    Recording
+	 * ************************************************************************/
+
+	/**
+	 * AC-FOVE that keeps the operation executed in each step.
+	 */
+	private static final class RecordingACFOVE extends ACFOVE {
+
+		private final List<Instruction> instructions;
+
+		private RecordingACFOVE(Marginal marginal) {
+			super(marginal);
+			this.instructions = new ArrayList<Instruction>();
+		}
+
+		@Override
+		Marginal runStep() {
+			Marginal result = super.runStep();
+			instructions.add(Instruction.of(currentOperation()));
+			return result;
+		}
+	}
+
+	/**
+	 * A macro operation with operands in canonical form.
+	 * <p>
+	 * Operands are bound to objects from the marginal the operation runs on,
+	 * since logical variables from other marginals may have other
+	 * populations.
+	 * </p>
+	 */
+	private static abstract class Instruction {
+
+		private static final int infinity = (int) Double.POSITIVE_INFINITY;
+
+		/**
+		 * Returns the macro operation this instruction represents on the
+		 * specified marginal.
+		 *
+		 * @throws IllegalArgumentException If some operand does not exist
+		 * in the specified marginal
+		 */
+		abstract MacroOperation bind(Marginal marginal) throws IllegalArgumentException;
+
+		/**
+		 * Returns <code>true</code> if the specified operation, obtained 
+		 * using {@link #bind(Marginal)}, is possible.
+		 */
+		boolean isValid(MacroOperation operation) {
+			return operation.cost() < infinity;
+		}
+
+		/**
+		 * Returns the instruction that represents the specified operation.
+		 */
+		static Instruction of(MacroOperation operation) {
+			if (operation instanceof GlobalSumOut) {
+				return new GlobalSumOutInstruction((GlobalSumOut) operation);
+			} else if (operation instanceof FullExpand) {
+				return new FullExpandInstruction((FullExpand) operation);
+			} else if (operation instanceof CountingConvert) {
+				return new CountingConvertInstruction((CountingConvert) operation);
+			} else if (operation instanceof Propositionalize) {
+				return new PropositionalizeInstruction((Propositionalize) operation);
+			} else if (operation instanceof ConvertToStdParfactors) {
+				return new ConversionInstruction((ConvertToStdParfactors) operation);
+			} else if (operation instanceof FinalMultiplication) {
+				return new FinalMultiplicationInstruction();
+			} else if (operation instanceof Shatter) {
+				return new ShatterInstruction();
+			} else {
+				throw new IllegalStateException("Cannot record " + operation);
+			}
+		}
+
+		/**
+		 * Returns the PRV from the specified parfactor that is equal to the
+		 * specified PRV, except for population sizes.
+		 */
+		static Prv find(Prv prv, Parfactor p) throws IllegalArgumentException {
+			Object skeleton = ParfactorShape.skeletonOf(prv);
+			for (Prv candidate : p.prvs()) {
+				if (skeleton.equals(ParfactorShape.skeletonOf(candidate))) {
+					return candidate;
+				}
+			}
+			throw new IllegalArgumentException(prv + " is not in " + p);
+		}
+
+		/**
+		 * Returns the logical variable from the specified parfactor that is 
+		 * equal to the specified logical variable.
+		 */
+		static LogicalVariable find(LogicalVariable lv, Parfactor p) throws IllegalArgumentException {
+			for (LogicalVariable candidate : p.logicalVariables()) {
+				if (candidate.equals(lv)) {
+					return candidate;
+				}
+			}
+			throw new IllegalArgumentException(lv + " is not in " + p);
+		}
+	}
+
+	private static final class GlobalSumOutInstruction extends Instruction {
+		private final RandomVariableSet eliminables;
+
+		private GlobalSumOutInstruction(GlobalSumOut operation) {
+			this.eliminables = operation.eliminables();
+		}
+
+		@Override
+		MacroOperation bind(Marginal marginal) throws IllegalArgumentException {
+			Object prv = ParfactorShape.skeletonOf(eliminables.prv());
+			for (RandomVariableSet candidate : marginal.eliminables()) {
+				if (prv.equals(ParfactorShape.skeletonOf(candidate.prv()))
+						&& candidate.constraints().equals(eliminables.constraints())) {
+					return new GlobalSumOut(marginal, candidate);
+				}
+			}
+			throw new IllegalArgumentException(eliminables + " is not eliminable.");
+		}
+
+		@Override
+		public String toString() {
+			return "GLOBAL-SUM-OUT " + eliminables;
+		}
+	}
+
+	private static final class FullExpandInstruction extends Instruction {
+		private final ParfactorShape parfactor;
+		private final Prv prv;
+
+		private FullExpandInstruction(FullExpand operation) {
+			this.parfactor = ParfactorShape.of(operation.parfactor()).skeleton();
+			this.prv = operation.prv();
+		}
+
+		@Override
+		MacroOperation bind(Marginal marginal) throws IllegalArgumentException {
+			Parfactor p = parfactor.findIn(marginal);
+			return new FullExpand(marginal, p, find(prv, p));
+		}
+
+		@Override
+		public String toString() {
+			return "FULL-EXPAND " + prv + " on " + parfactor;
+		}
+	}
+
+	private static final class CountingConvertInstruction extends Instruction {
+		private final ParfactorShape parfactor;
+		private final LogicalVariable lv;
+
+		private CountingConvertInstruction(CountingConvert operation) {
+			this.parfactor = ParfactorShape.of(operation.parfactor()).skeleton();
+			this.lv = operation.logicalVariable();
+		}
+
+		@Override
+		MacroOperation bind(Marginal marginal) throws IllegalArgumentException {
+			Parfactor p = parfactor.findIn(marginal);
+			return new CountingConvert(marginal, p, find(lv, p));
+		}
+
+		@Override
+		public String toString() {
+			return "COUNTING-CONVERT " + lv + " on " + parfactor;
+		}
+	}
+
+	private static final class PropositionalizeInstruction extends Instruction {
+		private final ParfactorShape parfactor;
+		private final LogicalVariable lv;
+
+		private PropositionalizeInstruction(Propositionalize operation) {
+			this.parfactor = ParfactorShape.of(operation.parfactor()).skeleton();
+			this.lv = operation.logicalVariable();
+		}
+
+		@Override
+		MacroOperation bind(Marginal marginal) throws IllegalArgumentException {
+			Parfactor p = parfactor.findIn(marginal);
+			return new Propositionalize(marginal, p, find(lv, p));
+		}
+
+		@Override
+		public String toString() {
+			return "PROPOSITIONALIZE " + lv + " on " + parfactor;
+		}
+	}
+
+	private static final class ConversionInstruction extends Instruction {
+		private final ParfactorShape parfactor;
+
+		private ConversionInstruction(ConvertToStdParfactors operation) {
+			this.parfactor = ParfactorShape.of(operation.parfactor()).skeleton();
+		}
+
+		@Override
+		MacroOperation bind(Marginal marginal) throws IllegalArgumentException {
+			return new ConvertToStdParfactors(marginal, parfactor.findIn(marginal));
+		}
+
+		@Override
+		public String toString() {
+			return "CONVERT-TO-STD-PARFACTORS " + parfactor;
+		}
+	}
+
+	private static final class FinalMultiplicationInstruction extends Instruction {
+		@Override
+		MacroOperation bind(Marginal marginal) {
+			return new FinalMultiplication(marginal);
+		}
+
+		@Override
+		public String toString() {
+			return "FINAL-MULTIPLICATION";
+		}
+	}
+
+	private static final class ShatterInstruction extends Instruction {
+		@Override
+		MacroOperation bind(Marginal marginal) {
+			return new Shatter(marginal);
+		}
+
+		/**
+		 * Shattering is always possible.
+		 */
+		@Override
+		boolean isValid(MacroOperation operation) {
+			return true;
+		}
+
+		@Override
+		public String toString() {
+			return "SHATTER";
+		}
+	}
+}
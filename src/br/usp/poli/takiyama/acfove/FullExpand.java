@@ -69,30 +69,12 @@ public final class FullExpand implements MacroOperation {
 	 */
 	private Parfactor fullExpand() {
 		
-		Parfactor toExpand = expandableParfactor;
-		Prv expandable = expandableVariable;
-		
-		// Keeps a reference for the counting formula being expanded
-		int prvIndex = toExpand.factor().variables().indexOf(expandable);
-		
 		// Throws exception if expandable doesn't exist in the parfactor
-		if (prvIndex == -1) {
+		if (!expandableParfactor.prvs().contains(expandableVariable)) {
 			throw new IllegalStateException();
 		}
 		
-		// Get individuals from bound logical variables satisfying constraints
-		Population population = getBoundedIndividuals();
-		
-		for (Constant individual : population) {
-			expandable = toExpand.factor().variables().get(prvIndex);
-			LogicalVariable bound = expandable.boundVariable();
-			Binding b = Binding.getInstance(bound, individual);
-			Substitution s = Substitution.getInstance(b);
-			if (toExpand.isExpandable(expandable, s)) {
-				toExpand = toExpand.expand(expandable, individual);
-			}
-		}
-		return toExpand;
+		return expandableParfactor.fullExpand(expandableVariable);
 	}
 	
 	/* 
@@ -120,13 +102,13 @@ public final class FullExpand implements MacroOperation {
 	 */
 	@Override
 	public int cost() {
-		int cost = ((int) Double.POSITIVE_INFINITY);
+		int cost = Costs.INFINITY;
 		if (isPossible()) {
 			// Factor's size
 			int factor = expandableParfactor.factor().size();
 			
 			// Counting formula range size
-			int countingFormula = expandableVariable.range().size();
+			int countingFormula = expandableVariable.rangeSize();
 			
 			// Counting formula associated PRV range size
 			int prv = ((CountingFormula) expandableVariable).prvRangeSize();
@@ -136,21 +118,8 @@ public final class FullExpand implements MacroOperation {
 			int domain = getBoundedIndividuals().size();
 			
 			// Finally, the result
-			//int resultSize = factor / countingFormula * ((int) Math.pow(prv, domain));
-			//cost = resultSize;
-			
-			/*
-			 * Here we have a potential overflow problem.
-			 * I calculate the cost and, if it is greater than Double.Infinity,
-			 * set the cost as infinity.
-			 */
-			BigInteger resSize = BigInteger.valueOf(factor / countingFormula).multiply(BigInteger.valueOf(prv).pow(domain));
-			if (resSize.compareTo(BigInteger.valueOf(((int) Double.POSITIVE_INFINITY) - 1)) == -1) {
-				cost = resSize.intValue();
-			} else {
-				cost = ((int) Double.POSITIVE_INFINITY) - 1;
-			}
-			
+			BigInteger resSize = BigInteger.valueOf(factor / countingFormula).multiply(Costs.power(prv, domain));
+			cost = Costs.of(resSize);
 		}
 		return cost;
 	}
@@ -176,6 +145,16 @@ public final class FullExpand implements MacroOperation {
 		return 0;
 	}
 
+	// used by EliminationPlan
+	Parfactor parfactor() {
+		return expandableParfactor;
+	}
+	
+	// used by EliminationPlan
+	Prv prv() {
+		return expandableVariable;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
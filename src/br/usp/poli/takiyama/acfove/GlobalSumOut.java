@@ -15,14 +15,17 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.acfove;
 
+import java.util.ArrayList;
 import java.util.LinkedList;
 import java.util.List;
 import java.util.Queue;
 
 import br.usp.poli.takiyama.cfove.StdParfactor;
 import br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder;
+import br.usp.poli.takiyama.common.AggregationParfactor;
 import br.usp.poli.takiyama.common.Marginal;
 import br.usp.poli.takiyama.common.Parfactor;
+import br.usp.poli.takiyama.common.ProductFactor;
 import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
 import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.Prvs;
@@ -56,6 +59,9 @@ final class GlobalSumOut implements MacroOperation {
 	 * Calculates the feasibility of this operation. This operation is possible
 	 * if all parfactors involving the variables being eliminated can be 
 	 * multiplied and those variables can be summed out from the product.
+	 * When the product is an aggregation parfactor that is cheaper to 
+	 * convert to standard parfactors, this operation is made impossible so
+	 * that {@link ConvertToStdParfactors} is chosen instead.
 	 */
 	private void calculateFeasibility() {
 		setCost(infinity);
@@ -64,22 +70,32 @@ final class GlobalSumOut implements MacroOperation {
 		if (Prvs.areDisjoint(elim, marginal.preservable())) {
 			
 			Queue<Parfactor> queue = new LinkedList<Parfactor>(marginal.distribution().toSet());
-			Parfactor result = new StdParfactorBuilder().build();
+			List<Parfactor> candidates = new ArrayList<Parfactor>();
 			for (Parfactor candidate : queue) {
 				if (containsEliminable(candidate)) {
-					if (result.isMultipliable(candidate)) {
-						result = result.multiply(candidate);
-					} else {
-						// contains eliminables but cannot be multiplied: be sure
-						// to shatter before!
-						return;
-					}
+					candidates.add(candidate);
 				}
 			}
+			boolean isLazy = areStandard(candidates);
+			Parfactor result = new StdParfactorBuilder().build();
+			for (Parfactor candidate : candidates) {
+				if (result.isMultipliable(candidate)) {
+					result = result.multiply(isLazy ? lazy(candidate) : candidate);
+				} else {
+					// contains eliminables but cannot be multiplied: be sure
+					// to shatter before!
+					return;
+				}
+			}
+			
+			if (result instanceof AggregationParfactor 
+					&& AggregationCosts.isConversionCheaper((AggregationParfactor) result)) {
+				return;
+			}
 			
 			if (result.isEliminable(eliminables)) {
 				int f = result.factor().size();
-				int v = eliminables.range().size();
+				int v = eliminables.rangeSize();
 				setCost(f / v); 
 			}
 		}
@@ -119,6 +135,30 @@ final class GlobalSumOut implements MacroOperation {
 		return false;
 	}
 	
+	/**
+	 * Returns true if all specified parfactors are standard parfactors.
+	 */
+	private boolean areStandard(List<Parfactor> candidates) {
+		for (Parfactor candidate : candidates) {
+			if (!(candidate instanceof StdParfactor)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	/**
+	 * Returns the specified standard parfactor with its factor replaced by
+	 * a {@link ProductFactor}. Multiplying such parfactors does not compute
+	 * the product of their factors, which is only evaluated when the
+	 * eliminable is summed out, one tuple of the result at a time. Exponent
+	 * corrections from multiplication and sum out are applied as usual.
+	 */
+	private Parfactor lazy(Parfactor candidate) {
+		return new StdParfactorBuilder().constraints(candidate.constraints())
+				.factor(ProductFactor.getInstance(candidate.factor())).build();
+	}
+	
 	@Override
 	public Marginal run() {
 		if (isPossible) {
@@ -128,12 +168,17 @@ final class GlobalSumOut implements MacroOperation {
 			marginalResult.add(marginal);
 			
 			// Multiplies all parfactors that involve the eliminable PRV
+			List<Parfactor> candidates = new ArrayList<Parfactor>();
 			for (Parfactor candidate : marginal) {
 				if (containsEliminable(candidate)) {
-					result = result.multiply(candidate);
+					candidates.add(candidate);
 					marginalResult.remove(candidate);
 				}
 			}
+			boolean isLazy = areStandard(candidates);
+			for (Parfactor candidate : candidates) {
+				result = result.multiply(isLazy ? lazy(candidate) : candidate);
+			}
 			
 			// Sums out the eliminable if possible - actually it should be possible at this point
 			//if (Sets.setOf(eliminables.prv().parameters()).equals(result.logicalVariables())) {
@@ -173,6 +218,11 @@ final class GlobalSumOut implements MacroOperation {
 		}
 	}
 
+	// used by EliminationPlan
+	RandomVariableSet eliminables() {
+		return eliminables;
+	}
+	
 	@Override
 	public String toString() {
 		StringBuilder builder = new StringBuilder();
@@ -0,0 +1,232 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.usp.poli.takiyama.common.Marginal;
+import br.usp.poli.takiyama.common.Parfactor;
+import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
+import br.usp.poli.takiyama.prv.RandomVariableSet;
+
+/**
+ * Runs AC-FOVE repeatedly on a model whose potentials or evidence change
+ * a little between runs.
+ * <p>
+ * Each run records, for every step of the algorithm, the parfactors the
+ * step consumed and the parfactors it produced. On the next run, a recorded
+ * step is reused without choosing nor executing any macro operation when
+ * the marginal has the same structure as when the step was recorded and
+ * all parfactors consumed by the step are still there. Only steps that
+ * depend on a changed parfactor are executed again.
+ * </p>
+ * <p>
+ * Two marginals have the same structure when they contain the same number
+ * of parfactors of each kind, PRVs, constraints, population sizes and
+ * factor size. Changes that keep the structure (new potentials, or new
+ * values of ground evidence) reuse everything that does not depend on
+ * them. Changes in the structure make steps run again until the structure
+ * matches the recorded run.
+ * </p>
+ *
+ * @author Felipe Takiyama
+ */
+public final class IncrementalACFOVE {
+
+	// The current input marginal
+	private Marginal input;
+
+	// Steps recorded in the last run
+	private List<Step> trace;
+
+	// Statistics from the last run
+	private int reusedSteps;
+	private int executedSteps;
+
+
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	/**
+	 * Creates an incremental AC-FOVE for the specified marginal. Nothing is
+	 * computed until {@link #run()} is called.
+	 *
+	 * @param input The marginal to run AC-FOVE on
+	 */
+	public IncrementalACFOVE(Marginal input) {
+		this.input = input;
+		this.trace = Collections.emptyList();
+	}
+
+
+	/* ************************************************************************
+	 *    Input changes
+	 * ************************************************************************/
+
+	/**
+	 * Replaces the specified parfactor in the input marginal. If the old
+	 * parfactor does not exist, the input marginal is not modified.
+	 *
+	 * @param oldOne The parfactor to be replaced
+	 * @param newOne The parfactor that replaces the old one
+	 * @return This instance
+	 */
+	public IncrementalACFOVE replace(Parfactor oldOne, Parfactor newOne) {
+		input = new StdMarginalBuilder().add(input).replace(oldOne, newOne).build();
+		return this;
+	}
+
+	/**
+	 * Sets the specified marginal as input. Steps recorded in previous runs
+	 * are kept, so they can be reused on the new input.
+	 *
+	 * @param input The new input marginal
+	 * @return This instance
+	 */
+	public IncrementalACFOVE update(Marginal input) {
+		this.input = input;
+		return this;
+	}
+
+
+	/* ************************************************************************
+	 *    Inference
+	 * ************************************************************************/
+
+	/**
+	 * Runs AC-FOVE on the current input, reusing steps from the last run
+	 * when possible.
+	 *
+	 * @return The result of running AC-FOVE on the current input marginal
+	 */
+	public Parfactor run() {
+		TracingACFOVE acfove = new TracingACFOVE(input, trace);
+		Parfactor result = acfove.run();
+		trace = acfove.newTrace;
+		reusedSteps = acfove.reused;
+		executedSteps = acfove.executed;
+		return result;
+	}
+
+	/**
+	 * Returns the number of steps from the last run that were reused from
+	 * the previous one.
+	 */
+	public int reusedSteps() {
+		return reusedSteps;
+	}
+
+	/**
+	 * Returns the number of steps from the last run that executed a macro
+	 * operation.
+	 */
+	public int executedSteps() {
+		return executedSteps;
+	}
+
+
+	/* ************************************************************************
+	 *    Recording and replaying
+	 * ************************************************************************/
+
+	/**
+	 * AC-FOVE that records its steps and replays steps recorded by a
+	 * previous run.
+	 */
+	private static final class TracingACFOVE extends ACFOVE {
+
+		private final List<Step> oldTrace;
+		private final List<Step> newTrace;
+		private int reused;
+		private int executed;
+
+		private TracingACFOVE(Marginal input, List<Step> oldTrace) {
+			super(input);
+			this.oldTrace = oldTrace;
+			this.newTrace = new ArrayList<Step>(oldTrace.size());
+		}
+
+		@Override
+		Marginal runStep() {
+			Marginal before = result();
+			Map<ParfactorShape, Integer> structure = ParfactorShape.structureOf(before);
+			int position = newTrace.size();
+
+			if (position < oldTrace.size()
+					&& oldTrace.get(position).isReusable(before, structure)) {
+				Step step = oldTrace.get(position);
+				setResult(step.applyTo(before));
+				newTrace.add(step);
+				reused++;
+			} else {
+				Marginal after = super.runStep();
+				newTrace.add(new Step(before, after, structure));
+				executed++;
+			}
+			return result();
+		}
+	}
+
+	/**
+	 * A recorded step: the query and structure of the marginal before the
+	 * step, the parfactors the step removed from the marginal and the
+	 * parfactors it added.
+	 */
+	private static final class Step {
+
+		private final RandomVariableSet preservable;
+		private final Map<ParfactorShape, Integer> structure;
+		private final Set<Parfactor> consumed;
+		private final Set<Parfactor> produced;
+
+		private Step(Marginal before, Marginal after, Map<ParfactorShape, Integer> structure) {
+			this.preservable = before.preservable();
+			this.structure = structure;
+			this.consumed = before.distribution().toSet();
+			this.consumed.removeAll(after.distribution().toSet());
+			this.produced = after.distribution().toSet();
+			this.produced.removeAll(before.distribution().toSet());
+		}
+
+		/**
+		 * Returns <code>true</code> if this step gives the same result on
+		 * the specified marginal. This happens when the marginal has the same
+		 * structure as the one this step was recorded on and contains all
+		 * parfactors consumed by this step.
+		 */
+		private boolean isReusable(Marginal marginal, Map<ParfactorShape, Integer> structure) {
+			return preservable.equals(marginal.preservable())
+					&& this.structure.equals(structure)
+					&& marginal.distribution().toSet().containsAll(consumed);
+		}
+
+		private Marginal applyTo(Marginal marginal) {
+			StdMarginalBuilder builder = new StdMarginalBuilder().add(marginal);
+			for (Parfactor p : consumed) {
+				builder.remove(p);
+			}
+			for (Parfactor p : produced) {
+				builder.add(p);
+			}
+			return builder.build();
+		}
+	}
+}
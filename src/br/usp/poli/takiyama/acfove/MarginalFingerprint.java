@@ -0,0 +1,290 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.usp.poli.takiyama.common.AggregationParfactor;
+import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.EqualityConstraint;
+import br.usp.poli.takiyama.common.Marginal;
+import br.usp.poli.takiyama.common.Parfactor;
+import br.usp.poli.takiyama.prv.Constant;
+import br.usp.poli.takiyama.prv.CountingFormula;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Population;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+
+/**
+ * Canonical description of a marginal, used as key when caching results.
+ * <p>
+ * Logical variables are local to the parfactor where they appear, so each
+ * parfactor is described with its logical variables renamed in order of
+ * appearance (L0, L1, ...) together with their populations. Parfactor
+ * descriptions are then sorted. Marginals that differ only in logical
+ * variable names (including names given by
+ * {@link br.usp.poli.takiyama.prv.NameGenerator}) or in the order of
+ * parfactors have the same fingerprint.
+ * </p>
+ * <p>
+ * Populations are described by their sizes, the individuals removed from
+ * them and which of the constants in the parfactor they contain, so the 
+ * fingerprint does not grow with populations. Names of the other 
+ * individuals do not change results.
+ * </p>
+ * <p>
+ * The query is described as is, since the result of AC-FOVE is given in
+ * terms of its logical variables.
+ * </p>
+ *
+ * @author Felipe Takiyama
+ */
+final class MarginalFingerprint {
+
+	private MarginalFingerprint() {
+		// enforces non-instantiability
+	}
+
+	/**
+	 * Returns the fingerprint of the specified marginal.
+	 */
+	static String of(Marginal marginal) {
+		List<String> parfactors = new ArrayList<String>(marginal.size());
+		for (Parfactor p : marginal) {
+			parfactors.add(of(p));
+		}
+		Collections.sort(parfactors);
+
+		StringBuilder fingerprint = new StringBuilder();
+		fingerprint.append("Q:").append(marginal.preservable()).append("\n");
+		for (String p : parfactors) {
+			fingerprint.append(p).append("\n");
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Returns the fingerprint of the specified parfactor.
+	 */
+	static String of(Parfactor p) {
+		Map<LogicalVariable, String> names = canonicalNames(p);
+		StringBuilder fingerprint = new StringBuilder();
+
+		fingerprint.append(p.getClass().getSimpleName());
+		if (p instanceof AggregationParfactor) {
+			AggregationParfactor ap = (AggregationParfactor) p;
+			fingerprint.append(" ").append(ap.operator())
+					.append(" E").append(of(ap.constraintsOnExtra(), names));
+			if (!ap.activation().isEmpty()) {
+				fingerprint.append(" Q[");
+				for (BigDecimal q : ap.activation()) {
+					fingerprint.append(q).append(";");
+				}
+				fingerprint.append("]");
+			}
+		}
+		fingerprint.append(" V[");
+		for (Prv prv : p.prvs()) {
+			fingerprint.append(of(prv, names)).append(";");
+		}
+		fingerprint.append("] C").append(of(p.constraints(), names));
+		fingerprint.append(" P[");
+		List<Constant> constants = constantsOf(p);
+		for (Map.Entry<LogicalVariable, String> entry : names.entrySet()) {
+			Population population = entry.getKey().population();
+			fingerprint.append(entry.getValue()).append("=")
+					.append(population.summary()).append("{");
+			for (Constant c : constants) {
+				if (population.contains(c)) {
+					fingerprint.append(c).append(";");
+				}
+			}
+			fingerprint.append("};");
+		}
+		fingerprint.append("] F[");
+		for (BigDecimal value : p.factor().values()) {
+			fingerprint.append(value).append(";");
+		}
+		fingerprint.append("]");
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Names logical variables from the specified parfactor in order of
+	 * appearance in its PRVs. Logical variables that appear only in
+	 * constraints are named last, one at a time: the next one is the 
+	 * logical variable with the smallest {@link #role role}. 
+	 * <p>
+	 * Logical variables with the same role are named in any order. This 
+	 * never gives the same fingerprint to different marginals, although 
+	 * some equivalent marginals may get different fingerprints.
+	 * </p>
+	 */
+	private static Map<LogicalVariable, String> canonicalNames(Parfactor p) {
+		Map<LogicalVariable, String> names = new LinkedHashMap<LogicalVariable, String>();
+		for (Prv prv : p.prvs()) {
+			for (Term t : prv.terms()) {
+				if (t.isVariable() && !names.containsKey(t)) {
+					names.put((LogicalVariable) t, "L" + names.size());
+				}
+			}
+		}
+		List<LogicalVariable> remaining = new ArrayList<LogicalVariable>();
+		for (Constraint c : p.constraints()) {
+			for (Term t : Lists.listOf(c.firstTerm(), c.secondTerm())) {
+				if (t.isVariable() && !names.containsKey(t) && !remaining.contains(t)) {
+					remaining.add((LogicalVariable) t);
+				}
+			}
+		}
+		while (!remaining.isEmpty()) {
+			LogicalVariable next = null;
+			String smallest = null;
+			for (LogicalVariable lv : remaining) {
+				String role = role(lv, p, names);
+				if (smallest == null || role.compareTo(smallest) < 0) {
+					next = lv;
+					smallest = role;
+				}
+			}
+			names.put(next, "L" + names.size());
+			remaining.remove(next);
+		}
+		return names;
+	}
+	
+	/**
+	 * Describes a logical variable that appears only in constraints by its
+	 * population and by the constraints that contain it, where it is 
+	 * written as *, named logical variables by their canonical names and 
+	 * other logical variables as ?.
+	 */
+	private static String role(LogicalVariable lv, Parfactor p, 
+			Map<LogicalVariable, String> names) {
+		List<String> constraints = new ArrayList<String>();
+		for (Constraint c : p.constraints()) {
+			if (c.contains(lv)) {
+				String first = roleOf(c.firstTerm(), lv, names);
+				String second = roleOf(c.secondTerm(), lv, names);
+				if (first.compareTo(second) > 0) {
+					String temp = first;
+					first = second;
+					second = temp;
+				}
+				String operator = (c instanceof EqualityConstraint) ? "=" : "!=";
+				constraints.add(first + operator + second);
+			}
+		}
+		Collections.sort(constraints);
+		return constraints + " " + lv.population().summary();
+	}
+	
+	private static String roleOf(Term t, LogicalVariable lv, 
+			Map<LogicalVariable, String> names) {
+		if (t.equals(lv)) {
+			return "*";
+		}
+		if (t.isVariable()) {
+			return names.containsKey(t) ? names.get(t) : "?";
+		}
+		return "'" + t.value() + "'";
+	}
+	
+	/**
+	 * Returns the constants in PRVs and constraints of the specified 
+	 * parfactor, sorted by name.
+	 */
+	private static List<Constant> constantsOf(Parfactor p) {
+		Set<Constant> constants = new HashSet<Constant>();
+		for (Prv prv : p.prvs()) {
+			for (Term t : prv.terms()) {
+				if (t.isConstant()) {
+					constants.add((Constant) t);
+				}
+			}
+		}
+		for (Constraint c : p.constraints()) {
+			for (Term t : Lists.listOf(c.firstTerm(), c.secondTerm())) {
+				if (t.isConstant()) {
+					constants.add((Constant) t);
+				}
+			}
+		}
+		List<Constant> result = new ArrayList<Constant>(constants);
+		Collections.sort(result, new Comparator<Constant>() {
+			@Override
+			public int compare(Constant o1, Constant o2) {
+				return o1.value().compareTo(o2.value());
+			}
+		});
+		return result;
+	}
+
+	private static String of(Prv prv, Map<LogicalVariable, String> names) {
+		StringBuilder fingerprint = new StringBuilder();
+		if (prv instanceof CountingFormula) {
+			fingerprint.append("#").append(of(prv.boundVariable(), names))
+					.append(of(prv.constraints(), names));
+		}
+		fingerprint.append(prv.name()).append("(");
+		for (Term t : prv.terms()) {
+			fingerprint.append(of(t, names)).append(",");
+		}
+		fingerprint.append(")");
+		if (!(prv instanceof CountingFormula)) {
+			fingerprint.append(prv.range());
+		}
+		return fingerprint.toString();
+	}
+
+	/**
+	 * Constraints are sorted, and so are the terms of each constraint, since
+	 * equality and inequality are symmetric.
+	 */
+	private static String of(Set<Constraint> constraints, Map<LogicalVariable, String> names) {
+		List<String> result = new ArrayList<String>(constraints.size());
+		for (Constraint c : constraints) {
+			String first = of(c.firstTerm(), names);
+			String second = of(c.secondTerm(), names);
+			if (first.compareTo(second) > 0) {
+				String temp = first;
+				first = second;
+				second = temp;
+			}
+			String operator = (c instanceof EqualityConstraint) ? "=" : "!=";
+			result.add(first + operator + second);
+		}
+		Collections.sort(result);
+		return result.toString();
+	}
+
+	private static String of(Term t, Map<LogicalVariable, String> names) {
+		if (t.isVariable() && names.containsKey(t)) {
+			return names.get(t);
+		}
+		return "'" + t.value() + "'";
+	}
+}
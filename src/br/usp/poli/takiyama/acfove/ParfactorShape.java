@@ -0,0 +1,235 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.usp.poli.takiyama.common.AggregationParfactor;
+import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.Marginal;
+import br.usp.poli.takiyama.common.Parfactor;
+import br.usp.poli.takiyama.prv.CountingFormula;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+
+/**
+ * The structure of a parfactor: its kind, PRVs, constraints, population
+ * sizes and factor size. The shape of an aggregation parfactor also has
+ * its operator, extra logical variable and activation probabilities. Two 
+ * parfactors with the same shape differ only in factor values.
+ * <p>
+ * Macro operations choose and transform parfactors based on their
+ * structure only, so the same operation applied to parfactors with the
+ * same shape gives results with the same shape. The skeleton of a shape
+ * leaves population sizes out, and is used to match parfactors from the
+ * same model at different population sizes.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+final class ParfactorShape {
+
+	private final Class<?> type;
+	private final List<?> prvs;
+	private final Set<Constraint> constraints;
+	private final Map<LogicalVariable, Integer> populations;
+	private final int size;
+	
+	// Aggregation: null operator and extra variable for other parfactors
+	private final Object operator;
+	private final LogicalVariable extra;
+	private final List<BigDecimal> activation;
+	
+	// factor size of shapes that do not depend on population sizes
+	private static final int SKELETON = -1;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	private ParfactorShape(Parfactor p) {
+		this.type = p.getClass();
+		this.prvs = p.prvs();
+		this.constraints = p.constraints();
+		this.populations = new HashMap<LogicalVariable, Integer>(2 * p.logicalVariables().size());
+		for (LogicalVariable lv : p.logicalVariables()) {
+			populations.put(lv, lv.population().size());
+		}
+		this.size = p.factor().size();
+		if (p instanceof AggregationParfactor) {
+			AggregationParfactor ap = (AggregationParfactor) p;
+			this.operator = ap.operator();
+			this.extra = ap.extraVariable();
+			this.activation = ap.activation();
+		} else {
+			this.operator = null;
+			this.extra = null;
+			this.activation = Collections.emptyList();
+		}
+	}
+	
+	private ParfactorShape(ParfactorShape shape) {
+		List<Object> skeletons = new ArrayList<Object>(shape.prvs.size());
+		for (Object prv : shape.prvs) {
+			skeletons.add(skeletonOf((Prv) prv));
+		}
+		this.type = shape.type;
+		this.prvs = skeletons;
+		this.constraints = shape.constraints;
+		this.populations = Collections.emptyMap();
+		this.size = SKELETON;
+		this.operator = shape.operator;
+		this.extra = shape.extra;
+		this.activation = shape.activation;
+	}
+	
+	/**
+	 * Returns the shape of the specified parfactor.
+	 */
+	static ParfactorShape of(Parfactor p) {
+		return new ParfactorShape(p);
+	}
+	
+	/**
+	 * Returns the number of parfactors of each shape in the specified
+	 * marginal. 
+	 */
+	static Map<ParfactorShape, Integer> structureOf(Marginal marginal) {
+		return count(marginal, false);
+	}
+	
+	/**
+	 * Returns the number of parfactors of each skeleton in the specified
+	 * marginal. 
+	 * 
+	 * @see #skeleton()
+	 */
+	static Map<ParfactorShape, Integer> skeletonOf(Marginal marginal) {
+		return count(marginal, true);
+	}
+	
+	/**
+	 * Returns an object that identifies the specified PRV regardless of
+	 * population sizes. The range of a counting formula depends on the
+	 * population of its bound variable, so counting formulas are identified
+	 * by their name, terms, bound variable and constraints.
+	 */
+	static Object skeletonOf(Prv prv) {
+		if (prv instanceof CountingFormula) {
+			return Arrays.asList(prv.name(), prv.terms(), prv.boundVariable(), prv.constraints());
+		}
+		return prv;
+	}
+	
+	private static Map<ParfactorShape, Integer> count(Marginal marginal, boolean skeleton) {
+		Map<ParfactorShape, Integer> structure = new HashMap<ParfactorShape, Integer>(2 * marginal.size());
+		for (Parfactor p : marginal) {
+			ParfactorShape shape = skeleton ? of(p).skeleton() : of(p);
+			Integer count = structure.get(shape);
+			structure.put(shape, (count == null) ? 1 : count + 1);
+		}
+		return structure;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Queries
+	 * ************************************************************************/
+
+	/**
+	 * Returns this shape without population sizes and factor size. 
+	 * Parfactors from the same model at different population sizes have the
+	 * same skeleton.
+	 */
+	ParfactorShape skeleton() {
+		return isSkeleton() ? this : new ParfactorShape(this);
+	}
+	
+	private boolean isSkeleton() {
+		return size == SKELETON;
+	}
+	
+	/**
+	 * Returns a parfactor from the specified marginal that has this shape.
+	 * If this shape is a skeleton, population sizes are not compared.
+	 * 
+	 * @param marginal The marginal to search
+	 * @return A parfactor from the specified marginal that has this shape
+	 * @throws IllegalArgumentException If there is no parfactor with this
+	 * shape in the specified marginal
+	 */
+	Parfactor findIn(Marginal marginal) throws IllegalArgumentException {
+		for (Parfactor p : marginal) {
+			ParfactorShape candidate = isSkeleton() ? of(p).skeleton() : of(p);
+			if (this.equals(candidate)) {
+				return p;
+			}
+		}
+		throw new IllegalArgumentException("There is no parfactor with shape " 
+				+ this + " in the marginal.");
+	}
+	
+	
+	/* ************************************************************************
+	 *    hashCode, equals and toString
+	 * ************************************************************************/
+
+	@Override
+	public int hashCode() {
+		final int prime = 31;
+		int result = 1;
+		result = prime * result + type.hashCode();
+		result = prime * result + prvs.hashCode();
+		result = prime * result + constraints.hashCode();
+		result = prime * result + populations.hashCode();
+		result = prime * result + size;
+		result = prime * result + ((operator == null) ? 0 : operator.hashCode());
+		result = prime * result + ((extra == null) ? 0 : extra.hashCode());
+		result = prime * result + activation.hashCode();
+		return result;
+	}
+
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		if (!(obj instanceof ParfactorShape)) {
+			return false;
+		}
+		ParfactorShape other = (ParfactorShape) obj;
+		return type.equals(other.type) && prvs.equals(other.prvs)
+				&& constraints.equals(other.constraints)
+				&& populations.equals(other.populations)
+				&& size == other.size
+				&& (operator == null ? other.operator == null : operator.equals(other.operator))
+				&& (extra == null ? other.extra == null : extra.equals(other.extra))
+				&& activation.equals(other.activation);
+	}
+	
+	@Override
+	public String toString() {
+		return type.getSimpleName() + prvs + constraints;
+	}
+}
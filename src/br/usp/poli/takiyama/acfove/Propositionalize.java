@@ -15,6 +15,8 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.acfove;
 
+import java.math.BigInteger;
+
 import br.usp.poli.takiyama.common.Marginal;
 import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.SplitResult;
@@ -23,6 +25,7 @@ import br.usp.poli.takiyama.prv.Binding;
 import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.LogicalVariable;
 import br.usp.poli.takiyama.prv.Population;
+import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.Substitution;
 
 
@@ -91,34 +94,60 @@ public final class Propositionalize implements MacroOperation {
 		return freeVariable.individualsSatisfying(propositionalizable.constraints());
 	}
 
-	/*
-	 * The cost of propositionalization is given by the following expression:
+	/**
+	 * The cost of propositionalization is the size of the factor obtained
+	 * by multiplying the parfactors it creates, which is given by the 
+	 * following expression:
 	 * <p>
-	 * |F| x |D(X):C|
+	 * |S| x |O|<sup>|D(X):C|</sup>
 	 * </p>
 	 * <p>
 	 * where
 	 * </p>
-	 * <li> |F| is factor component size from parfactor being propositionalized 
+	 * <li> |O| is the product of the range sizes of the PRVs from the 
+	 * parfactor being propositionalized that have X as parameter 
+	 * <li> |S| is the product of the range sizes of the other PRVs, which 
+	 * are shared by all created parfactors
 	 * <li> |D(X):C| is the number of free logical variable individuals 
 	 * satisfying constraints from the parfactor being propositionalized
 	 * <p>
-	 * Propositionalization actually creates many factors with the same size
-	 * as the original parfactor. Thus, the cost would have to be the size of
-	 * the parfactor being propositionalized. Nevertheless, this macro-operation
-	 * is called when no other operation is possible, because it 'destroys'
-	 * lifted elimination. The above expression makes this operation more
-	 * expensive.
+	 * Propositionalization destroys lifted elimination on X: the created
+	 * parfactors are eliminated one by one, and are usually multiplied 
+	 * together on the shared PRVs. Thus, this operation is chosen only for
+	 * small populations or parfactors. It is impossible when there are no
+	 * individuals or when the parfactor cannot be split on them. 
 	 * </p>
 	 */
-	
-	/**
-	 * Returns infinity - 1. This operation is only feasible when no other
-	 * operation is possible.
-	 */
 	@Override
 	public int cost() {
-		return ((int) Double.POSITIVE_INFINITY) - 1;
+		int cost = Costs.INFINITY;
+		if (isPossible()) {
+			int shared = 1;
+			int own = 1;
+			for (Prv prv : propositionalizable.prvs()) {
+				if (prv.contains(freeVariable)) {
+					own = own * prv.rangeSize();
+				} else {
+					shared = shared * prv.rangeSize();
+				}
+			}
+			int domain = getIndividuals().size();
+			BigInteger size = BigInteger.valueOf(shared).multiply(Costs.power(own, domain));
+			cost = Costs.of(size);
+		}
+		return cost;
+	}
+	
+	private boolean isPossible() {
+		boolean isPossible = false;
+		Population population = getIndividuals();
+		if (population.size() != 0) {
+			Constant someone = population.individualAt(0);
+			Substitution s = Substitution.getInstance(
+					Binding.getInstance(freeVariable, someone));
+			isPossible = propositionalizable.isSplittable(s);
+		}
+		return isPossible;
 	}
 
 	/**
@@ -129,6 +158,16 @@ public final class Propositionalize implements MacroOperation {
 		return 0;
 	}
 
+	// used by EliminationPlan
+	Parfactor parfactor() {
+		return propositionalizable;
+	}
+	
+	// used by EliminationPlan
+	LogicalVariable logicalVariable() {
+		return freeVariable;
+	}
+	
 	@Override
 	public String toString() {
 //		StringBuilder builder = new StringBuilder();
@@ -0,0 +1,187 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.acfove;
+
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+import br.usp.poli.takiyama.common.Marginal;
+import br.usp.poli.takiyama.common.Parfactor;
+
+/**
+ * A bounded cache of AC-FOVE results, with least recently used eviction.
+ * <p>
+ * Results are keyed by a canonical fingerprint of the input marginal and
+ * its query, so requests on the same model, evidence and query share the
+ * same result even when logical variables have different names or
+ * parfactors come in a different order.
+ * </p>
+ * <p>
+ * Eviction is size-aware: the weight of an entry is the length of its key
+ * plus the size of the factor of its result. Least recently used entries
+ * are evicted until the total weight fits the capacity. Results heavier
+ * than the capacity are not cached.
+ * </p>
+ * <p>
+ * This class is thread-safe. Two threads that miss the same key at the
+ * same time both run AC-FOVE.
+ * </p>
+ *
+ * @author Felipe Takiyama
+ */
+public final class ResultCache {
+
+	// Maximum total weight of entries
+	private final long capacity;
+
+	// Entries in access order, from least to most recently used
+	private final LinkedHashMap<String, Parfactor> entries;
+
+	private long weight;
+
+	// Metrics
+	private long hits;
+	private long misses;
+	private long evictions;
+
+
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	/**
+	 * Creates an empty cache with the specified capacity.
+	 *
+	 * @param capacity The maximum total weight of cached entries
+	 * @throws IllegalArgumentException If capacity is not positive
+	 */
+	public ResultCache(long capacity) throws IllegalArgumentException {
+		if (capacity <= 0) {
+			throw new IllegalArgumentException("Capacity must be positive: " + capacity);
+		}
+		this.capacity = capacity;
+		this.entries = new LinkedHashMap<String, Parfactor>(16, 0.75f, true);
+	}
+
+
+	/* ************************************************************************
+	 *    Inference
+	 * ************************************************************************/
+
+	/**
+	 * Returns the result of running AC-FOVE on the specified marginal. If an
+	 * equivalent marginal was run before and its result is still cached,
+	 * returns the cached result.
+	 *
+	 * @param marginal The marginal to run AC-FOVE on
+	 * @return The result of running AC-FOVE on the specified marginal
+	 */
+	public Parfactor run(Marginal marginal) {
+		String key = MarginalFingerprint.of(marginal);
+		Parfactor result = get(key);
+		if (result == null) {
+			result = new ACFOVE(marginal).run();
+			put(key, result);
+		}
+		return result;
+	}
+
+	private synchronized Parfactor get(String key) {
+		Parfactor result = entries.get(key);
+		if (result == null) {
+			misses++;
+		} else {
+			hits++;
+		}
+		return result;
+	}
+
+	private synchronized void put(String key, Parfactor result) {
+		long w = weightOf(key, result);
+		if (w > capacity || entries.containsKey(key)) {
+			return;
+		}
+		entries.put(key, result);
+		weight += w;
+		Iterator<Map.Entry<String, Parfactor>> it = entries.entrySet().iterator();
+		while (weight > capacity) {
+			Map.Entry<String, Parfactor> eldest = it.next();
+			weight -= weightOf(eldest.getKey(), eldest.getValue());
+			it.remove();
+			evictions++;
+		}
+	}
+
+	private static long weightOf(String key, Parfactor result) {
+		return key.length() + result.factor().size();
+	}
+
+	/**
+	 * Removes all entries from this cache. Metrics are kept.
+	 */
+	public synchronized void clear() {
+		entries.clear();
+		weight = 0;
+	}
+
+
+	/* ************************************************************************
+	 *    Metrics
+	 * ************************************************************************/
+
+	/**
+	 * Returns the number of requests answered from this cache.
+	 */
+	public synchronized long hits() {
+		return hits;
+	}
+
+	/**
+	 * Returns the number of requests that ran AC-FOVE.
+	 */
+	public synchronized long misses() {
+		return misses;
+	}
+
+	/**
+	 * Returns the number of entries evicted to respect the capacity.
+	 */
+	public synchronized long evictions() {
+		return evictions;
+	}
+
+	/**
+	 * Returns the number of cached results.
+	 */
+	public synchronized int size() {
+		return entries.size();
+	}
+
+	/**
+	 * Returns the total weight of cached entries.
+	 */
+	public synchronized long weight() {
+		return weight;
+	}
+
+	@Override
+	public synchronized String toString() {
+		return "ResultCache [size=" + entries.size() + ", weight=" + weight
+				+ "/" + capacity + ", hits=" + hits + ", misses=" + misses
+				+ ", evictions=" + evictions + "]";
+	}
+}
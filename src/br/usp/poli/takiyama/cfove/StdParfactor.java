@@ -16,6 +16,7 @@
 package br.usp.poli.takiyama.cfove;
 
 import java.math.BigDecimal;
+import java.math.BigInteger;
 import java.util.ArrayList;
 import java.util.Arrays;
 import java.util.HashSet;
@@ -23,24 +24,30 @@ import java.util.LinkedList;
 import java.util.List;
 import java.util.Set;
 
+import br.usp.poli.takiyama.common.AddFactor;
 import br.usp.poli.takiyama.common.AggregationParfactor;
 import br.usp.poli.takiyama.common.Builder;
 import br.usp.poli.takiyama.common.ConstantFactor;
 import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.ConstraintSolver;
 import br.usp.poli.takiyama.common.Factor;
+import br.usp.poli.takiyama.common.FactorCursor;
 import br.usp.poli.takiyama.common.MultiplicationChecker;
 import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.ParfactorVisitor;
+import br.usp.poli.takiyama.common.ProductFactor;
 import br.usp.poli.takiyama.common.Scanner;
+import br.usp.poli.takiyama.common.SparseFactor;
 import br.usp.poli.takiyama.common.SplitResult;
 import br.usp.poli.takiyama.common.StdFactor;
-import br.usp.poli.takiyama.common.Tuple;
 import br.usp.poli.takiyama.prv.Binding;
 import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.CountingFormula;
 import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.NameGenerator;
 import br.usp.poli.takiyama.prv.Population;
 import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RandomVariableSet;
 import br.usp.poli.takiyama.prv.RangeElement;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
 import br.usp.poli.takiyama.prv.StdPrv;
@@ -54,6 +61,16 @@ public final class StdParfactor implements Parfactor {
 
 	private final Set<Constraint> constraints;
 	private final Factor factor;
+	
+	/*
+	 * Data derived from constraints and factor, computed when first needed.
+	 * Parfactors are immutable, so these never change. A hash code of zero
+	 * means not computed yet, as in String.hashCode().
+	 */
+	private int hashCode;
+	private volatile Set<LogicalVariable> logicalVariables;
+	private volatile long groundings = -1;
+	private volatile Boolean isInNormalForm;
 
 	
 	/* ************************************************************************
@@ -66,6 +83,10 @@ public final class StdParfactor implements Parfactor {
 		private List<Prv> prvs;
 		private List<BigDecimal> values;
 		
+		// Sparse, diagram or product factor kept as it is, without expanding values
+		private Factor compact;
+		private boolean isDiagram;
+		
 		public StdParfactorBuilder() {
 			restrictions = new HashSet<Constraint>();
 			prvs = new ArrayList<Prv>();
@@ -120,16 +141,41 @@ public final class StdParfactor implements Parfactor {
 		/**
 		 * Sets the factor for this builder. Values and PRVs from the 
 		 * specified factor are added to this builder.
+		 * <p>
+		 * {@link SparseFactor}s, {@link AddFactor}s and 
+		 * {@link ProductFactor}s set on an empty builder are used as they
+		 * are.
+		 * </p>
 		 * 
 		 * @param f The factor 
 		 * @return This builder with the factor updated.
 		 */
 		public StdParfactorBuilder factor(Factor f) {
+			boolean isCompact = (f instanceof SparseFactor || f instanceof AddFactor
+					|| f instanceof ProductFactor);
+			if (isCompact && prvs.isEmpty() && values.isEmpty()) {
+				compact = f;
+				variables(f.variables());
+				return this;
+			}
 			variables(f.variables());
 			values(f.values());
 			return this;
 		}
 		
+		/**
+		 * Represents the factor of the parfactor being built as an 
+		 * algebraic decision diagram, which is compact when the factor has
+		 * many repeated values. Constant factors are not converted.
+		 * 
+		 * @see AddFactor
+		 * @return This builder with the representation updated.
+		 */
+		public StdParfactorBuilder decisionDiagram() {
+			isDiagram = true;
+			return this;
+		}
+		
 		/**
 		 * Returns the factor defined by PRVs and values in this builder.
 		 * <p>
@@ -144,7 +190,9 @@ public final class StdParfactor implements Parfactor {
 		private Factor getFactor() throws IllegalStateException {
 			Factor factor;
 			List<Prv> variables = new ArrayList<Prv>(this.prvs);
-			if (this.values.isEmpty()) {
+			if (compact != null && this.values.isEmpty()) {
+				factor = compact;
+			} else if (this.values.isEmpty()) {
 				factor = ConstantFactor.getInstance(variables);
 			} else {
 				try {
@@ -153,6 +201,9 @@ public final class StdParfactor implements Parfactor {
 					throw new IllegalStateException(variables + "\n" + values);
 				}
 			}
+			if (isDiagram && !factor.isConstant()) {
+				factor = AddFactor.getInstance(factor);
+			}
 			return factor;
 		}
 		
@@ -199,13 +250,19 @@ public final class StdParfactor implements Parfactor {
 		 * <li> g[X/t], the parfactor g after applying substitution {X/t};
 		 * <li> g' = &langle; C U {X &ne; t}, V, F &rangle;, the residual 
 		 * parfactor.
+		 * <p>
+		 * When t is a logical variable whose population is a proper subset
+		 * of the population of X, the residual parfactor is g[X/Z], where 
+		 * Z is a new logical variable whose population has the individuals
+		 * of X that are not in the population of t.
+		 * </p>
 		 */
 		private SplitResult split() {
 			if (!isSplittable(substitution)) {
 				throw new IllegalArgumentException(splittable 
 						+ " is not splittable on " + substitution);
 			}
-			Parfactor result = splittable.apply(substitution);
+			Parfactor result = apply(substitution.first());
 			Parfactor residue = getResidue();
 			SplitResult split = SplitResult.getInstance(result, residue);
 			return split;
@@ -217,14 +274,39 @@ public final class StdParfactor implements Parfactor {
 		 */
 		private Parfactor getResidue() {
 			Binding b = substitution.first();
+			if (b.isRestriction()) {
+				return getComplement(b);
+			}
 			Constraint c = b.toInequalityConstraint();
 			Set<Constraint> constraints = splittable.constraints();
 			constraints.add(c);
 			return new StdParfactorBuilder().constraints(constraints)
-					.variables(splittable.prvs())
-					.values(splittable.factor().values())
+					.factor(splittable.factor())
 					.build();
 		}
+		
+		/**
+		 * Returns the splittable parfactor with the first term of the 
+		 * specified binding replaced by a new logical variable whose 
+		 * population has the individuals that the second term does not
+		 * range over.
+		 */
+		private Parfactor getComplement(Binding b) {
+			Population complement = b.firstTerm().population();
+			complement.removeAll(((LogicalVariable) b.secondTerm()).population());
+			LogicalVariable z = NameGenerator.restrict(b.firstTerm(), complement);
+			return apply(Binding.getInstance(b.firstTerm(), z));
+		}
+		
+		/**
+		 * Returns the splittable parfactor with the specified binding 
+		 * applied, without the constraints the binding makes meaningless.
+		 */
+		private Parfactor apply(Binding b) {
+			return new StdParfactorBuilder().constraints(b.relevant(splittable.constraints()))
+					.factor(splittable.factor()).build()
+					.apply(Substitution.getInstance(b));
+		}
 	}
 	
 	/**
@@ -368,15 +450,41 @@ public final class StdParfactor implements Parfactor {
 			 */
 			
 			values = new ArrayList<BigDecimal>();
-			Factor newStructure = ConstantFactor.getInstance(variables);
+			Factor old = parfactor.factor();
+			CountingFormula cf = (CountingFormula) countingFormula;
+			
+			/*
+			 * The index of t' in F is the index of t without the counting 
+			 * formula plus the ordinal of e times the stride of the counted
+			 * PRV, which is the same in F and F'.
+			 */
+			FactorCursor cursor = FactorCursor.over(variables);
+			int[] strides = cursor.stridesIn(old);
+			int countedStride = cursor.stride(countedIndex);
+			
+			// Each value of F is raised to the same counts many times
+			BigDecimal[][] powers = new BigDecimal[old.size()][];
+			int populationSize = 0;
+			for (int count : cf.getCounts(0)) {
+				populationSize = populationSize + count;
+			}
 			
-			for (Tuple<RangeElement> tuple : newStructure) {
+			int rangeSize = counted.rangeSize();
+			for (; cursor.isValid(); cursor.advance()) {
+				int[] counts = cf.getCounts(cursor.ordinal(countedIndex));
+				int base = cursor.indexIn(strides);
 				BigDecimal value = BigDecimal.ONE;
-				for (RangeElement e : counted.range()) {
-					Tuple<RangeElement> old = tuple.set(countedIndex, e);
-					CountingFormula cf = (CountingFormula) countingFormula;
-					int count = cf.getCount(tuple.get(countedIndex), e);
-					value = value.multiply(parfactor.factor().getValue(old).pow(count, MathUtils.CONTEXT), MathUtils.CONTEXT);
+				for (int k = 0; k < rangeSize; k++) {
+					int index = base + k * countedStride;
+					if (powers[index] == null) {
+						powers[index] = new BigDecimal[populationSize + 1];
+					}
+					BigDecimal power = powers[index][counts[k]];
+					if (power == null) {
+						power = old.getValue(index).pow(counts[k], MathUtils.CONTEXT);
+						powers[index][counts[k]] = power;
+					}
+					value = value.multiply(power, MathUtils.CONTEXT);
 				}
 				values.add(value);
 			}
@@ -619,12 +727,24 @@ public final class StdParfactor implements Parfactor {
 	
 	@Override
 	public Set<LogicalVariable> logicalVariables() {
-		List<Prv> prvs = factor.variables();
-		Set<LogicalVariable> logicalVariables = new HashSet<LogicalVariable>();
-		for (Prv prv : prvs) {
-			logicalVariables.addAll(prv.parameters());
+		return new HashSet<LogicalVariable>(cachedLogicalVariables());
+	}
+	
+	
+	/**
+	 * Returns the logical variables of this parfactor without copying them.
+	 * The returned set must not be modified.
+	 */
+	private Set<LogicalVariable> cachedLogicalVariables() {
+		Set<LogicalVariable> result = logicalVariables;
+		if (result == null) {
+			result = new HashSet<LogicalVariable>();
+			for (Prv prv : factor.variables()) {
+				result.addAll(prv.parameters());
+			}
+			logicalVariables = result;
 		}
-		return logicalVariables;
+		return result;
 	}
 
 	
@@ -634,38 +754,121 @@ public final class StdParfactor implements Parfactor {
 	}
 	
 
+	/**
+	 * Returns the number of groundings of this parfactor's logical variables
+	 * that satisfy its constraints. The parfactor does not need to be in
+	 * normal form.
+	 * 
+	 * @throws IllegalStateException If the number of groundings does not
+	 * fit in an <code>int</code>.
+	 */
 	@Override
 	public int size() throws IllegalStateException {
-		if (!isInNormalForm()) {
-			throw new IllegalStateException("Parfactor not in normal form");
-		}		
-		int size = 1;
-		Set<Constraint> toVisit = new HashSet<Constraint>(constraints);
-		for (LogicalVariable lv : logicalVariables()) {
-			size = size * lv.numberOfIndividualsSatisfying(toVisit);
-			toVisit = remove(toVisit, lv);
+		long result = groundings();
+		if (result > Integer.MAX_VALUE) {
+			throw new IllegalStateException("Too many groundings: " + result);
+		}
+		return (int) result;
+	}
+	
+	
+	/**
+	 * Returns the number of groundings of this parfactor's logical variables
+	 * that satisfy its constraints.
+	 */
+	private long groundings() {
+		long result = groundings;
+		if (result < 0) {
+			result = ConstraintSolver.count(cachedLogicalVariables(), constraints);
+			groundings = result;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if, for every grounding of the other logical
+	 * variables, the number of groundings of the specified logical variables
+	 * that satisfy the specified constraints is the same. 
+	 * <p>
+	 * Correction exponents of multiplication and sum out are ratios between
+	 * numbers of groundings, which are only meaningful in this case. 
+	 * Parfactors in normal form always satisfy this condition.
+	 * </p>
+	 */
+	private static boolean areUniform(Set<LogicalVariable> lvs, 
+			Set<Constraint> constraints) {
+		for (LogicalVariable lv : lvs) {
+			if (!ConstraintSolver.isUniform(lv, constraints)) {
+				return false;
+			}
 		}
-		return size;
+		return true;
 	}
 	
 	
 	/**
-	 * Returns the specified set of constraints with all constraints that
-	 * contain the specified term removed.
+	 * Returns the correction exponent p/q in lowest terms, as the pair 
+	 * {p, q}. 
 	 * 
-	 * @param constraints A set of constraints
-	 * @param t The term to search in constraints
-	 * @return The specified set of constraints with all constraints that
-	 * contain the specified term removed.
+	 * @throws ArithmeticException If the exponent cannot be represented
+	 * with <code>int</code>s.
 	 */
-	private Set<Constraint> remove(Set<Constraint> constraints, Term t) {
-		Set<Constraint> allConstraints = new HashSet<Constraint>(constraints);
-		for (Constraint c : allConstraints) {
-			if (c.contains(t)) {
-				constraints.remove(c);
+	private static int[] exponent(long p, long q) throws ArithmeticException {
+		long gcd = BigInteger.valueOf(p).gcd(BigInteger.valueOf(q)).longValue();
+		if (gcd > 1) {
+			p = p / gcd;
+			q = q / gcd;
+		}
+		if (p > Integer.MAX_VALUE || q > Integer.MAX_VALUE) {
+			throw new ArithmeticException("Exponent out of range: " + p + "/" + q);
+		}
+		return new int[] {(int) p, (int) q};
+	}
+	
+	
+	/**
+	 * Returns the logical variables that appear in this parfactor's PRVs,
+	 * except in the specified PRV. For {@link RandomVariableSet}s, the
+	 * PRV bound to the set is used.
+	 */
+	private Set<LogicalVariable> logicalVariablesWithout(Prv prv) {
+		if (prv instanceof RandomVariableSet) {
+			prv = ((RandomVariableSet) prv).prv();
+		}
+		Set<LogicalVariable> result = new HashSet<LogicalVariable>();
+		for (Prv other : factor.variables()) {
+			if (!other.equals(prv)) {
+				result.addAll(other.parameters());
 			}
 		}
-		return constraints;
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the logical variables of the second set that are not in the 
+	 * first set.
+	 */
+	private static Set<LogicalVariable> introduced(Set<LogicalVariable> from,
+			Set<LogicalVariable> to) {
+		Set<LogicalVariable> result = new HashSet<LogicalVariable>(to);
+		result.removeAll(from);
+		return result;
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if each grounding of this parfactor and of
+	 * the specified parfactor corresponds to the same number of groundings
+	 * of their product.
+	 */
+	private boolean hasUniformProduct(Parfactor other) {
+		Set<Constraint> union = Sets.union(other.constraints(), constraints);
+		Set<LogicalVariable> productLvs = new HashSet<LogicalVariable>(cachedLogicalVariables());
+		productLvs.addAll(other.logicalVariables());
+		return areUniform(introduced(other.logicalVariables(), productLvs), union)
+				&& areUniform(introduced(cachedLogicalVariables(), productLvs), union);
 	}
 	
 	
@@ -726,12 +929,22 @@ public final class StdParfactor implements Parfactor {
 		LogicalVariable replaced = bind.firstTerm();
 		Term t = bind.secondTerm();
 		
-		// Is counting formula?
-		boolean isCountingFormula = !cf.boundVariable().isEmpty();
-		
 		// Is it present in this parfactor?
 		boolean belongsHere = factor.variables().contains(cf);
 		
+		return belongsHere && isExpandable(cf, replaced, t);
+	}
+	
+	
+	/**
+	 * Checks the conditions of {@link #isExpandable(Prv, Substitution)} 
+	 * that do not depend on the specified PRV being in this parfactor.
+	 */
+	private boolean isExpandable(Prv cf, LogicalVariable replaced, Term t) {
+		
+		// Is counting formula?
+		boolean isCountingFormula = !cf.boundVariable().isEmpty();
+		
 		// Is this parfactor in normal form?
 		boolean isInNormalForm = isInNormalForm();
 		
@@ -755,7 +968,7 @@ public final class StdParfactor implements Parfactor {
 		boolean isConstantFromBound = (t.isConstant() ? 
 				cf.boundVariable().population().contains((Constant) t) : false);
 		
-		return isCountingFormula && belongsHere && isInNormalForm 
+		return isCountingFormula && isInNormalForm 
 				&& isCountable && isOrthogonal
 				&& replacesBound && isConstantFromBound;
 				//&& (isLocalLogicalVariable || isConstantFromBound); // disabled for the reason above
@@ -773,6 +986,16 @@ public final class StdParfactor implements Parfactor {
 	 * <code>false</code> otherwise
 	 */
 	private boolean isInNormalForm() {
+		Boolean result = isInNormalForm;
+		if (result == null) {
+			result = Boolean.valueOf(checkNormalForm());
+			isInNormalForm = result;
+		}
+		return result.booleanValue();
+	}
+	
+	
+	private boolean checkNormalForm() {
 		// This algorithm does not look very clever
 		for (Constraint c : constraints) {
 			if (c.firstTerm().isVariable() && c.secondTerm().isVariable()) {
@@ -854,7 +1077,11 @@ public final class StdParfactor implements Parfactor {
 		 */
 		MultiplicationChecker parfactors = new MultiplicationChecker();
 		accept(parfactors, other);
-		return parfactors.areMultipliable();
+		boolean areMultipliable = parfactors.areMultipliable();
+		if (areMultipliable && other instanceof StdParfactor) {
+			areMultipliable = hasUniformProduct(other);
+		}
+		return areMultipliable;
 	}
 
 	
@@ -868,7 +1095,8 @@ public final class StdParfactor implements Parfactor {
 	 * <li> X is a logical variable in this parfactor;
 	 * <li> t is not in any constraints from this parfactor;
 	 * <li> t is a constant such that t &in; D(x) <b>or</b> t is logical
-	 * variable present in this parfactor such that D(t) = D(X).
+	 * variable present in this parfactor such that D(t) = D(X) <b>or</b> 
+	 * t is a logical variable such that D(t) &sub; D(X).
 	 * </p>
 	 * 
 	 * @param s The substitution to split this parfactor on
@@ -893,11 +1121,12 @@ public final class StdParfactor implements Parfactor {
 			boolean isNotInConstraints = !contains(constraints, t);
 			
 			// Does the substitution make sense?
-			boolean isValidSubstitution = b.isValid();
+			boolean isValidSubstitution = b.isValid() || b.isRestriction();
 			
 			// If we are replacing for a logical variable, is it present in
-			// this parfactor?
-			boolean isLogicalVariable = (t.isVariable() ? logicalVariables().contains(t) : true);
+			// this parfactor or does it range over part of X's population?
+			boolean isLogicalVariable = (t.isVariable() 
+					? logicalVariables().contains(t) || b.isRestriction() : true);
 			
 			isSplittable = isApplicable && isNotInConstraints 
 							&& isValidSubstitution && isLogicalVariable; 
@@ -906,13 +1135,17 @@ public final class StdParfactor implements Parfactor {
 	}
 	
 	
+	/**
+	 * Returns <code>true</code> if the specified PRV contains all logical 
+	 * variables of this parfactor and the number of groundings summed out
+	 * is the same for every grounding of the result.
+	 */
 	@Override
 	public boolean isEliminable(Prv prv) {
-		Set<LogicalVariable> lvs = Sets.getInstance(0);
-		for (Prv v : factor.variables()) {
-			lvs.addAll(v.parameters());
-		}
-		return prv.parameters().containsAll(lvs);
+		boolean hasAllLogicalVariables = prv.parameters().containsAll(cachedLogicalVariables());
+		Set<LogicalVariable> eliminated = introduced(logicalVariablesWithout(prv), 
+				cachedLogicalVariables());
+		return hasAllLogicalVariables && areUniform(eliminated, constraints);
 	}
 	
 	
@@ -948,19 +1181,33 @@ public final class StdParfactor implements Parfactor {
 		// Creates the new set of PRVs
 		List<Prv> vars = getExpandedVariables(cf, t);
 		
-		// Creates a constant factor with the new set of PRVs
-		Factor newStructure = ConstantFactor.getInstance(vars);
-		
 		// Creates an array to store the values of the new parfactor
+		Prv remaining = vars.get(cfIndex);
 		Prv takenOut = vars.get(cfIndex + 1);
-		int newSize = factor.size() * takenOut.range().size();
+		int newSize = factor.size() * takenOut.rangeSize();
 		List<BigDecimal> vals = new ArrayList<BigDecimal>(newSize);
 		
-		// Combines the new histogram with PRV that was taken out to get the
-		// corresponding value in this factor
-		for (Tuple<RangeElement> tuple : newStructure) {
-			Tuple<RangeElement> combined = combine(tuple, cfIndex, cfIndex + 1);
-			vals.add(factor.getValue(combined));
+		// Combines each new histogram with each value of the PRV that was 
+		// taken out to get the corresponding histogram in this factor
+		int[][] combined = new int[remaining.rangeSize()][takenOut.rangeSize()];
+		for (int h = 0; h < remaining.rangeSize(); h++) {
+			for (int e = 0; e < takenOut.rangeSize(); e++) {
+				RangeElement histogram = remaining.rangeElementAt(h)
+						.combine(takenOut.rangeElementAt(e));
+				combined[h][e] = cf.indexOf(histogram);
+			}
+		}
+		
+		// PRVs after the counting formula are the same in both factors, so
+		// the stride of the counting formula in this factor is the stride of
+		// the PRV taken out in the new one
+		FactorCursor cursor = FactorCursor.over(vars);
+		int[] strides = cursor.stridesIn(factor);
+		int cfStride = cursor.stride(cfIndex + 1);
+		int[] ordinals = cursor.ordinals();
+		for (; cursor.isValid(); cursor.advance()) {
+			int h = combined[ordinals[cfIndex]][ordinals[cfIndex + 1]];
+			vals.add(factor.getValue(cursor.indexIn(strides) + h * cfStride));
 		}
 		
 		// Converts the counting formula to StdPrv if possible
@@ -974,6 +1221,94 @@ public final class StdParfactor implements Parfactor {
 	}
 	
 	
+	/**
+	 * Expands the specified counting formula on all individuals from its
+	 * bound logical variable satisfying its constraints, in one pass.
+	 * <p>
+	 * The result is the same as calling {@link #expand(Prv, Term)} for each
+	 * individual on which the remaining counting formula is expandable, in
+	 * the order of the population. PRVs taken out of the counting formula 
+	 * are computed first, and each value of the result is the value of the 
+	 * histogram obtained by adding up the values of these PRVs.
+	 * </p>
+	 * 
+	 * @param cf The counting formula to expand
+	 * @return The result of expanding the counting formula on all
+	 * individuals
+	 * @throws IllegalArgumentException If the counting formula does not
+	 * belong to this parfactor
+	 */
+	@Override
+	public Parfactor fullExpand(Prv cf) throws IllegalArgumentException {
+		
+		int cfIndex = factor.indexOf(cf);
+		if (cfIndex == -1) {
+			throw new IllegalArgumentException(cf + " does not belong to " + this);
+		}
+		
+		// Expands the PRVs, keeping the ones taken out in the same order as
+		// expand() puts them
+		Prv remaining = cf;
+		LinkedList<Prv> takenOut = new LinkedList<Prv>();
+		Population population = cf.boundVariable().individualsSatisfying(cf.constraints());
+		for (Constant individual : population) {
+			if (!isExpandable(remaining, remaining.boundVariable(), individual)) {
+				continue;
+			}
+			CountingFormula current = (CountingFormula) remaining;
+			if (current.isStdPrv()) {
+				remaining = current.toStdPrv();
+			} else {
+				takenOut.addFirst(current.takeOut(individual));
+				remaining = ((CountingFormula) current.remove(individual)).simplify();
+			}
+		}
+		if (remaining == cf) {
+			return this;
+		}
+		
+		List<Prv> vars = new ArrayList<Prv>(factor.variables());
+		vars.set(cfIndex, remaining);
+		vars.addAll(cfIndex + 1, takenOut);
+		int expandedSize = takenOut.size() + 1;
+		
+		// Strides in this factor of the PRVs that were not expanded
+		FactorCursor old = factor.cursor();
+		FactorCursor cursor = FactorCursor.over(vars);
+		int[] strides = new int[vars.size()];
+		for (int i = 0; i < cfIndex; i++) {
+			strides[i] = old.stride(i);
+		}
+		for (int i = cfIndex + expandedSize; i < strides.length; i++) {
+			strides[i] = old.stride(i - expandedSize + 1);
+		}
+		int cfStride = old.stride(cfIndex);
+		
+		CountingFormula original = (CountingFormula) cf;
+		boolean isCounted = (remaining instanceof CountingFormula);
+		int[] counts = new int[original.prvRangeSize()];
+		int[] ordinals = cursor.ordinals();
+		List<BigDecimal> vals = new ArrayList<BigDecimal>(cursor.size());
+		for (; cursor.isValid(); cursor.advance()) {
+			if (isCounted) {
+				int[] c = ((CountingFormula) remaining).getCounts(ordinals[cfIndex]);
+				System.arraycopy(c, 0, counts, 0, counts.length);
+			} else {
+				Arrays.fill(counts, 0);
+				counts[ordinals[cfIndex]]++;
+			}
+			for (int i = cfIndex + 1; i < cfIndex + expandedSize; i++) {
+				counts[ordinals[i]]++;
+			}
+			int histogram = original.indexOf(counts);
+			vals.add(factor.getValue(cursor.indexIn(strides) + histogram * cfStride));
+		}
+		
+		return new StdParfactorBuilder().constraints(constraints)
+				.variables(vars).values(vals).build();
+	}
+	
+	
 	/**
 	 * Creates the new set of parameterized random variables for 
 	 * {@link #expand(Prv, Term)}.
@@ -1003,29 +1338,6 @@ public final class StdParfactor implements Parfactor {
 		return vars;
 	}
 	
-	// tenho que dar um jeito de converter de volta para histograma...
-	/**
-	 * Returns the combination of elements at the specified indexes in the 
-	 * specified tuple. The combined element is put in position <code>i</code> 
-	 * and position <code>j</code> is removed.
-	 * 
-	 * @see #expand(Prv, Term)
-	 * @param t The tuple to manipulate
-	 * @param i The index of the counting formula
-	 * @param j The index of a 'taken out' PRV
-	 * @return The combination of elements at the specified indexes in the 
-	 * specified tuple.
-	 */
-	private Tuple<RangeElement> combine(Tuple<RangeElement> t, int i, int j) {
-		Tuple<RangeElement> tuple = Tuple.getInstance(t);
-		RangeElement newHistogram = t.get(i).combine(t.get(j));
-		tuple = tuple.set(i, newHistogram);
-		tuple = tuple.remove(j);
-		
-		return tuple;
-	}
-	
-
 	@Override
 	public Parfactor multiply(Parfactor other) {
 		return other.multiplicationHelper(this);
@@ -1051,22 +1363,27 @@ public final class StdParfactor implements Parfactor {
 		Set<Constraint> union = Sets.union(other.constraints(), constraints);
 		Factor fixfj = other.factor().multiply(factor);
 		Parfactor g = new StdParfactorBuilder().constraints(union)
-				.variables(fixfj.variables()).values(fixfj.values()).build();
+				.factor(fixfj).build();
 		
-		// Correction exponents
-		int giSize = other.size(); 
-		int gjSize = size();
-		int gSize = g.size();
+		// Correction exponents, defined only when groundings of gi and gj
+		// correspond to the same number of groundings of g
+		if (!hasUniformProduct(other)) {
+			throw new IllegalStateException("Parfactors not in normal form");
+		}
+		long giSize = ((StdParfactor) other).groundings(); 
+		long gjSize = groundings();
+		long gSize = ((StdParfactor) g).groundings();
+		int [] ri = exponent(giSize, gSize);
+		int [] rj = exponent(gjSize, gSize);
 		
 		// Creates factor Fi^ri x Fj^rj
-		Factor fi = other.factor().pow(giSize, gSize);
-		Factor fj = factor.pow(gjSize, gSize);
+		Factor fi = other.factor().pow(ri[0], ri[1]);
+		Factor fj = factor.pow(rj[0], rj[1]);
 		Factor fixfjCorrected = fi.multiply(fj); // order is important here
 		
 		// Creates the product parfactor g' = <Ci U Cj, Vi U Vj, Fi^ri x Fj^rj>
 		Parfactor product = new StdParfactorBuilder().constraints(union)
-				.variables(fixfjCorrected.variables())
-				.values(fixfjCorrected.values()).build();
+				.factor(fixfjCorrected).build();
 		
 		return product;
 	}
@@ -1093,12 +1410,19 @@ public final class StdParfactor implements Parfactor {
 		Parfactor g = new StdParfactorBuilder().constraints(constraints)
 				.factor(sumOut).build();
 		
-		// Correction exponent r = |gi|/|g|
-		int gSize = g.size();
-		int thisSize = size();
+		// Correction exponent r = |gi|/|g|, defined only when every grounding
+		// of g corresponds to the same number of groundings of gi
+		Set<LogicalVariable> eliminated = introduced(logicalVariablesWithout(prv), 
+				cachedLogicalVariables());
+		if (!areUniform(eliminated, constraints)) {
+			throw new IllegalStateException("Parfactor not in normal form");
+		}
+		long gSize = ((StdParfactor) g).groundings();
+		long thisSize = groundings();
+		int [] r = exponent(thisSize, gSize);
 		
 		// Creates the eliminated parfactor g' = <C,V\{f},F'^r>
-		Factor corrected = sumOut.pow(thisSize, gSize);
+		Factor corrected = sumOut.pow(r[0], r[1]);
 		Parfactor summedOut = new StdParfactorBuilder().constraints(constraints)
 				.factor(corrected).build();
 		
@@ -1163,9 +1487,13 @@ public final class StdParfactor implements Parfactor {
 	
 	@Override
 	public int hashCode() {
-		int result = 17;
-		result = 31 + result + constraints.hashCode();
-		result = 31 + result + factor.hashCode();
+		int result = hashCode;
+		if (result == 0) {
+			result = 17;
+			result = 31 + result + constraints.hashCode();
+			result = 31 + result + factor.hashCode();
+			hashCode = result;
+		}
 		return result;
 	}
 	
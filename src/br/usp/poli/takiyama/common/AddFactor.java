@@ -0,0 +1,928 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
+
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RangeElement;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Substitution;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+import br.usp.poli.takiyama.utils.MathUtils;
+
+/**
+ * Factor represented as an algebraic decision diagram (ADD).
+ * <p>
+ * Each internal node of the diagram tests one PRV of the factor and has 
+ * one child for each element of its range. PRVs are tested in the order 
+ * they appear in the factor. Terminal nodes hold values. Nodes are shared:
+ * equal sub-diagrams are stored once and nodes whose children are all the 
+ * same are skipped, so factors with many repeated values, such as 
+ * "any parent true gives 0.9", take much less space than their tables.
+ * </p>
+ * <p>
+ * Multiplication, sum out and power run on the diagrams, visiting each 
+ * pair of nodes once. They compute the same values, in the same order of 
+ * operations, as {@link StdFactor}. Reordering and conversion from other
+ * factors go through the table of values.
+ * </p>
+ * <p>
+ * Diagrams are selected per parfactor with 
+ * {@link br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder#decisionDiagram()}.
+ * Results of operations involving a diagram factor are also diagrams. 
+ * Diagram factors are equal to standard factors with the same variables 
+ * and values.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class AddFactor implements Factor {
+
+	private final String name;
+	
+	private final List<Prv> variables;
+	
+	private final Node root;
+	
+	private final int size;
+	
+	/**
+	 * Cached hash code, computed when first needed. Zero means not computed
+	 * yet, as in {@link String#hashCode()}.
+	 */
+	private int hashCode;
+	
+	
+	/* ************************************************************************
+	 *    Nodes
+	 * ************************************************************************/
+	
+	/**
+	 * A node of a decision diagram. Terminal nodes have a value and no 
+	 * children. Internal nodes test the PRV at their level.
+	 */
+	private static final class Node {
+		
+		// Level of terminal nodes, below all PRVs
+		private static final int TERMINAL = Integer.MAX_VALUE;
+		
+		private final int level;
+		private final Node[] children;
+		private final BigDecimal value;
+		private final int hash;
+		
+		private Node(BigDecimal value) {
+			this.level = TERMINAL;
+			this.children = null;
+			this.value = value;
+			this.hash = value.hashCode();
+		}
+		
+		private Node(int level, Node[] children) {
+			this.level = level;
+			this.children = children;
+			this.value = null;
+			int h = level;
+			for (Node child : children) {
+				h = 31 * h + System.identityHashCode(child);
+			}
+			this.hash = h;
+		}
+		
+		private boolean isTerminal() {
+			return level == TERMINAL;
+		}
+		
+		/**
+		 * Returns the child of this node for the specified ordinal of the 
+		 * PRV at the specified level. Nodes below the level do not test 
+		 * the PRV, so they are their own children.
+		 */
+		private Node child(int level, int ordinal) {
+			return (this.level == level) ? children[ordinal] : this;
+		}
+		
+		@Override
+		public int hashCode() {
+			return hash;
+		}
+		
+		/**
+		 * Terminals are equal if their values are equal, including scale.
+		 * Internal nodes are equal if they have the same level and the 
+		 * same children, which are already unique.
+		 */
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof Node)) {
+				return false;
+			}
+			Node other = (Node) obj;
+			if (level != other.level) {
+				return false;
+			}
+			if (isTerminal()) {
+				return value.equals(other.value);
+			}
+			for (int i = 0; i < children.length; i++) {
+				if (children[i] != other.children[i]) {
+					return false;
+				}
+			}
+			return true;
+		}
+	}
+	
+	
+	/**
+	 * Unique table of nodes, which makes equal sub-diagrams the same 
+	 * object.
+	 */
+	private static final class NodeTable {
+		
+		private final Map<Node, Node> nodes = new HashMap<Node, Node>();
+		
+		private Node terminal(BigDecimal value) {
+			return unique(new Node(value));
+		}
+		
+		private Node node(int level, Node[] children) {
+			boolean isRedundant = true;
+			for (int i = 1; i < children.length; i++) {
+				isRedundant = isRedundant && (children[i] == children[0]);
+			}
+			if (isRedundant) {
+				return children[0];
+			}
+			return unique(new Node(level, children));
+		}
+		
+		private Node unique(Node node) {
+			Node existing = nodes.get(node);
+			if (existing == null) {
+				nodes.put(node, node);
+				existing = node;
+			}
+			return existing;
+		}
+	}
+	
+	
+	/**
+	 * Binary operations on terminal values.
+	 */
+	private static enum Operation {
+		ADD {
+			@Override
+			BigDecimal apply(BigDecimal a, BigDecimal b) {
+				return a.add(b, MathUtils.CONTEXT);
+			}
+		},
+		MULTIPLY {
+			@Override
+			BigDecimal apply(BigDecimal a, BigDecimal b) {
+				return a.multiply(b, MathUtils.CONTEXT);
+			}
+		};
+		
+		abstract BigDecimal apply(BigDecimal a, BigDecimal b);
+	}
+	
+	
+	/**
+	 * Applies an operation to pairs of diagrams whose PRVs are in the same
+	 * order, visiting each pair of nodes once.
+	 */
+	private static final class Apply {
+		
+		private final Operation operation;
+		private final int[] radices;
+		private final NodeTable table;
+		private final Map<Node, Map<Node, Node>> results;
+		
+		private Apply(Operation operation, int[] radices, NodeTable table) {
+			this.operation = operation;
+			this.radices = radices;
+			this.table = table;
+			this.results = new IdentityHashMap<Node, Map<Node, Node>>();
+		}
+		
+		private Node apply(Node a, Node b) {
+			if (a.isTerminal() && b.isTerminal()) {
+				return table.terminal(operation.apply(a.value, b.value));
+			}
+			Map<Node, Node> withA = results.get(a);
+			if (withA == null) {
+				withA = new IdentityHashMap<Node, Node>();
+				results.put(a, withA);
+			}
+			Node result = withA.get(b);
+			if (result == null) {
+				int level = Math.min(a.level, b.level);
+				Node[] children = new Node[radices[level]];
+				for (int k = 0; k < children.length; k++) {
+					children[k] = apply(a.child(level, k), b.child(level, k));
+				}
+				result = table.node(level, children);
+				withA.put(b, result);
+			}
+			return result;
+		}
+	}
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+	
+	private AddFactor(String name, List<? extends Prv> variables, Node root) {
+		this.name = name;
+		this.variables = new ArrayList<Prv>(variables);
+		this.root = root;
+		this.size = FactorCursor.over(variables).size();
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+	
+	/**
+	 * Returns a factor with the specified values represented as a decision
+	 * diagram. Factors without PRVs are returned as {@link StdFactor}s.
+	 * 
+	 * @param name The name of the factor
+	 * @param variables A ordered list of {@link Prv}.
+	 * @param values A ordered list of values, determined by the order
+	 * of Prvs.
+	 * @throws IllegalArgumentException If the number of values specified is 
+	 * not compatible with the PRVs specified.
+	 */
+	public static Factor getInstance(String name, List<? extends Prv> variables, 
+			List<BigDecimal> values) throws IllegalArgumentException {
+		if (variables.isEmpty()) {
+			return StdFactor.getInstance(name, variables, values);
+		}
+		FactorCursor cursor = FactorCursor.over(variables);
+		if (values.size() != cursor.size()) {
+			throw new IllegalArgumentException("Wrong number of values. Expected: " 
+					+ cursor.size() + ", received: " + values.size());
+		}
+		BigDecimal[] table = values.toArray(new BigDecimal[values.size()]);
+		Node root = build(new NodeTable(), table, radices(variables), cursor, 0, 0);
+		return new AddFactor(name, variables, root);
+	}
+	
+	
+	/**
+	 * Returns the specified factor represented as a decision diagram. 
+	 * Diagram factors, empty factors and factors without PRVs are returned
+	 * as they are.
+	 * 
+	 * @param factor The factor to convert
+	 */
+	public static Factor getInstance(Factor factor) {
+		if (factor instanceof AddFactor || factor.isEmpty() 
+				|| factor.numberOfVariables() == 0) {
+			return factor;
+		}
+		return getInstance(factor.name(), factor.variables(), factor.values());
+	}
+	
+	
+	private static int[] radices(List<? extends Prv> variables) {
+		int[] radices = new int[variables.size()];
+		for (int i = 0; i < radices.length; i++) {
+			radices[i] = variables.get(i).rangeSize();
+		}
+		return radices;
+	}
+	
+	
+	/**
+	 * Builds the diagram of the values whose indexes start at the 
+	 * specified offset and whose PRVs before the specified level are fixed.
+	 */
+	private static Node build(NodeTable table, BigDecimal[] values, int[] radices, 
+			FactorCursor cursor, int level, int offset) {
+		if (level == radices.length) {
+			return table.terminal(values[offset]);
+		}
+		Node[] children = new Node[radices[level]];
+		for (int k = 0; k < children.length; k++) {
+			children[k] = build(table, values, radices, cursor, level + 1, 
+					offset + k * cursor.stride(level));
+		}
+		return table.node(level, children);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+	
+	@Override
+	public int getIndex(Tuple<RangeElement> tuple) throws IllegalArgumentException {
+		if (tuple.isEmpty()) {
+			throw new IllegalArgumentException("This tuple is empty!");
+		} 
+		int index = 0;
+		int r = 1;
+		for (int i = tuple.size() - 1; i >= 0; i--) {
+			index = index + r * variables.get(i).indexOf(tuple.get(i));
+			r = r * variables.get(i).rangeSize();
+		}
+		return index;
+	}
+	
+	
+	@Override
+	public Tuple<RangeElement> getTuple(int index) {
+		List<RangeElement> elements = new ArrayList<RangeElement>(variables.size());
+		for (int j = variables.size() - 1; j > 0; j--) {
+			int domainSize = variables.get(j).rangeSize();
+			elements.add(variables.get(j).rangeElementAt(index % domainSize));
+			index = index / domainSize;	
+		}
+		elements.add(variables.get(0).rangeElementAt(index));
+		Collections.reverse(elements);
+		return Tuple.getInstance(elements);
+	}
+	
+	
+	/**
+	 * Follows the diagram from the root to the terminal of the tuple with 
+	 * the specified index.
+	 */
+	@Override
+	public BigDecimal getValue(int index) {
+		int[] ordinals = new int[variables.size()];
+		for (int i = ordinals.length - 1; i >= 0; i--) {
+			int r = variables.get(i).rangeSize();
+			ordinals[i] = index % r;
+			index = index / r;
+		}
+		Node node = root;
+		while (!node.isTerminal()) {
+			node = node.children[ordinals[node.level]];
+		}
+		return node.value;
+	}
+	
+	
+	@Override
+	public BigDecimal getValue(Tuple<RangeElement> tuple) {
+		return getValue(getIndex(tuple));
+	}
+	
+	
+	@Override
+	public Iterator<Tuple<RangeElement>> iterator() {
+		return new Iterator<Tuple<RangeElement>> () {
+			int nextElementToReturn;
+			
+			@Override
+			public boolean hasNext() {
+				return nextElementToReturn != size;
+			}
+			
+			@Override
+			public Tuple<RangeElement> next() {
+				int i = nextElementToReturn;
+				if (i >= size) {
+					throw new NoSuchElementException();
+				}
+				nextElementToReturn = i + 1;
+				return getTuple(i);
+			}
+			
+			/**
+			 * Throws {@link UnsupportedOperationException}.
+			 */
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	
+	@Override
+	public FactorCursor cursor() {
+		return FactorCursor.over(variables);
+	}
+	
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	
+	/**
+	 * Returns the number of distinct nodes in the diagram of this factor,
+	 * including terminals.
+	 */
+	public int nodes() {
+		Map<Node, Node> visited = new IdentityHashMap<Node, Node>();
+		List<Node> toVisit = new ArrayList<Node>();
+		toVisit.add(root);
+		while (!toVisit.isEmpty()) {
+			Node node = toVisit.remove(toVisit.size() - 1);
+			if (visited.put(node, node) == null && !node.isTerminal()) {
+				toVisit.addAll(Arrays.asList(node.children));
+			}
+		}
+		return visited.size();
+	}
+	
+	
+	@Override
+	public String name() {
+		return name;
+	}
+	
+	
+	@Override
+	public List<Prv> variables() {
+		return new ArrayList<Prv>(variables);
+	}
+	
+	
+	@Override
+	public int numberOfVariables() {
+		return variables.size();
+	}
+	
+	
+	@Override
+	public Prv variableAt(int index) {
+		return variables.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(Prv prv) {
+		return variables.indexOf(prv);
+	}
+	
+	
+	@Override
+	public List<BigDecimal> values() {
+		BigDecimal[] table = new BigDecimal[size];
+		expand(root, 0, 0, FactorCursor.over(variables), table);
+		return new ArrayList<BigDecimal>(Arrays.asList(table));
+	}
+	
+	
+	/**
+	 * Writes the values of the specified sub-diagram in the specified 
+	 * table, starting at the specified offset.
+	 */
+	private void expand(Node node, int level, int offset, FactorCursor cursor, 
+			BigDecimal[] table) {
+		if (level == variables.size()) {
+			table[offset] = node.value;
+			return;
+		}
+		for (int k = 0; k < variables.get(level).rangeSize(); k++) {
+			expand(node.child(level, k), level + 1, offset + k * cursor.stride(level), 
+					cursor, table);
+		}
+	}
+	
+	
+	@Override
+	public boolean contains(Term t) {
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	@Override
+	public int occurrences(Term t) {
+		int count = 0;
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public Prv getVariableHaving(Term t) {
+		Prv result = StdPrv.getInstance();
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				result = prv;
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public boolean isSubFactorOf(Factor factor) {
+		return factor.variables().containsAll(variables);
+	}
+	
+	
+	@Override
+	public boolean isConstant() {
+		return root.isTerminal() && root.value.equals(BigDecimal.ONE);
+	}
+	
+	
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+	
+	
+	/* ************************************************************************
+	 *    hashCode, equals and toString
+	 * ************************************************************************/
+	
+	/**
+	 * Returns the same hash code as a {@link StdFactor} with the same 
+	 * variables and values. The hash code of the list of values is 
+	 * computed on the diagram, combining the hash codes of the sub-tables 
+	 * of each node.
+	 */
+	@Override
+	public int hashCode() { 
+		int result = hashCode;
+		if (result == 0) {
+			List<Map<Node, Integer>> hashes = new ArrayList<Map<Node, Integer>>(variables.size());
+			for (int i = 0; i < variables.size(); i++) {
+				hashes.add(new IdentityHashMap<Node, Integer>());
+			}
+			int valuesHash = pow31(size) + hash(root, 0, hashes);
+			result = 17;
+			result = 31 + result + Arrays.hashCode(variables.toArray(new Prv[variables.size()]));
+			result = 31 + result + valuesHash;
+			hashCode = result;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the hash code of the values of the specified sub-diagram, as 
+	 * in {@link Lists#hashCode(List)} but starting from zero.
+	 */
+	private int hash(Node node, int level, List<Map<Node, Integer>> hashes) {
+		if (level == variables.size()) {
+			return (node.value.signum() == 0) ? 0 : node.value.hashCode();
+		}
+		Integer cached = hashes.get(level).get(node);
+		if (cached == null) {
+			int childSize = FactorCursor.over(variables).stride(level);
+			int shift = pow31(childSize);
+			int h = 0;
+			for (int k = 0; k < variables.get(level).rangeSize(); k++) {
+				h = h * shift + hash(node.child(level, k), level + 1, hashes);
+			}
+			cached = Integer.valueOf(h);
+			hashes.get(level).put(node, cached);
+		}
+		return cached.intValue();
+	}
+	
+	
+	/**
+	 * Returns 31 raised to the specified exponent, with integer overflow.
+	 */
+	private static int pow31(int exponent) {
+		int result = 1;
+		int base = 31;
+		for (int e = exponent; e > 0; e = e >>> 1) {
+			if ((e & 1) == 1) {
+				result = result * base;
+			}
+			base = base * base;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if the specified object is a diagram, 
+	 * sparse, standard or product factor with the same variables and 
+	 * values as this factor.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof AddFactor || other instanceof SparseFactor 
+				|| other instanceof StdFactor || other instanceof ProductFactor)) {
+			return false;
+		}
+		Factor target = (Factor) other;
+		return variables.equals(target.variables()) 
+				&& Lists.areEqual(values(), target.values());
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "";
+	}
+	
+	
+	/* ************************************************************************
+	 *    Setters
+	 * ************************************************************************/
+	
+	@Override
+	public Factor apply(Substitution s) {
+		List<Prv> substitutedVars = new ArrayList<Prv>(variables.size());
+		for (Prv prv : variables) {
+			substitutedVars.add(prv.apply(s));
+		}
+		return new AddFactor(name, substitutedVars, root);
+	}
+	
+	
+	@Override
+	public Factor set(Tuple<RangeElement> tuple, BigDecimal value) {
+		List<BigDecimal> vals = values();
+		vals.set(getIndex(tuple), value);
+		return getInstance(name, variables, vals);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Multiplication, Power and Sum Out
+	 * ************************************************************************/
+	
+	/**
+	 * Sums out the specified PRV. For each tuple, values are added in the
+	 * same order as {@link StdFactor#sumOut(Prv)}.
+	 */
+	@Override
+	public Factor sumOut(Prv prv) {
+		int level = variables.indexOf(prv);
+		if (level < 0) {
+			return this;
+		}
+		BigDecimal[] corrections = new BigDecimal[prv.rangeSize()];
+		for (int k = 0; k < corrections.length; k++) {
+			corrections[k] = prv.getSumOutCorrection(prv.rangeElementAt(k));
+		}
+		NodeTable table = new NodeTable();
+		Apply sum = new Apply(Operation.ADD, radices(variables), table);
+		List<Map<Node, Node>> scaled = new ArrayList<Map<Node, Node>>(corrections.length);
+		for (int k = 0; k < corrections.length; k++) {
+			scaled.add(new IdentityHashMap<Node, Node>());
+		}
+		Node summed = sumOut(root, level, corrections, sum, table, scaled, 
+				new IdentityHashMap<Node, Node>());
+		
+		List<Prv> vars = variables();
+		vars.remove(level);
+		if (vars.isEmpty()) {
+			// keeps the convention of StdFactor for factors without PRVs
+			return StdFactor.getInstance(name, vars, Lists.listOf(summed.value));
+		}
+		
+		// PRVs after the one summed out move up one level
+		int[] levels = new int[variables.size()];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = (i < level) ? i : i - 1;
+		}
+		Node shifted = relabel(summed, levels, new NodeTable(), 
+				new IdentityHashMap<Node, Node>());
+		return new AddFactor(name, vars, shifted);
+	}
+	
+	
+	/**
+	 * Sums out the PRV at the specified level from the specified 
+	 * sub-diagram. Values of each tuple are multiplied by the correction 
+	 * of its range element and added, from the first range element to the 
+	 * last, starting from zero.
+	 */
+	private static Node sumOut(Node node, int level, BigDecimal[] corrections, 
+			Apply sum, NodeTable table, List<Map<Node, Node>> scaled, 
+			Map<Node, Node> results) {
+		Node result = results.get(node);
+		if (result != null) {
+			return result;
+		}
+		if (node.level < level) {
+			Node[] children = new Node[node.children.length];
+			for (int k = 0; k < children.length; k++) {
+				children[k] = sumOut(node.children[k], level, corrections, sum, 
+						table, scaled, results);
+			}
+			result = table.node(node.level, children);
+		} else {
+			result = table.terminal(BigDecimal.ZERO);
+			for (int k = 0; k < corrections.length; k++) {
+				Node corrected = scale(node.child(level, k), corrections[k], table, 
+						scaled.get(k));
+				result = sum.apply(result, corrected);
+			}
+		}
+		results.put(node, result);
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the specified diagram with its values multiplied by the 
+	 * specified factor.
+	 */
+	private static Node scale(Node node, BigDecimal factor, NodeTable table, 
+			Map<Node, Node> results) {
+		Node result = results.get(node);
+		if (result == null) {
+			if (node.isTerminal()) {
+				result = table.terminal(node.value.multiply(factor, MathUtils.CONTEXT));
+			} else {
+				Node[] children = new Node[node.children.length];
+				for (int k = 0; k < children.length; k++) {
+					children[k] = scale(node.children[k], factor, table, results);
+				}
+				result = table.node(node.level, children);
+			}
+			results.put(node, result);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns a diagram like the specified one where nodes at level i are 
+	 * at level <code>levels[i]</code>. The new levels must keep the order
+	 * of the old ones.
+	 */
+	private static Node relabel(Node node, int[] levels, NodeTable table, 
+			Map<Node, Node> results) {
+		Node result = results.get(node);
+		if (result == null) {
+			if (node.isTerminal()) {
+				result = table.terminal(node.value);
+			} else {
+				Node[] children = new Node[node.children.length];
+				for (int k = 0; k < children.length; k++) {
+					children[k] = relabel(node.children[k], levels, table, results);
+				}
+				result = table.node(levels[node.level], children);
+			}
+			results.put(node, result);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns this factor raised by <code>p/q</code>. Each distinct value 
+	 * in the diagram is raised once.
+	 */
+	@Override
+	public Factor pow(int p, int q) {
+		return new AddFactor(name, variables, pow(root, p, q, new NodeTable(), 
+				new IdentityHashMap<Node, Node>()));
+	}
+	
+	
+	private static Node pow(Node node, int p, int q, NodeTable table, 
+			Map<Node, Node> results) {
+		Node result = results.get(node);
+		if (result == null) {
+			if (node.isTerminal()) {
+				result = table.terminal(MathUtils.pow(node.value, p, q));
+			} else {
+				Node[] children = new Node[node.children.length];
+				for (int k = 0; k < children.length; k++) {
+					children[k] = pow(node.children[k], p, q, table, results);
+				}
+				result = table.node(node.level, children);
+			}
+			results.put(node, result);
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Multiplies this factor with the specified factor, which is converted
+	 * to a decision diagram if needed. PRVs of the product are ordered as in
+	 * {@link StdFactor#multiply(Factor)}.
+	 */
+	@Override
+	public Factor multiply(Factor factor) {
+		if (factor.isEmpty()) {
+			return this;
+		}
+		if (this.isConstant()) {
+			return factor;
+		}
+		if (factor.isConstant()) {
+			return this;
+		}
+		Factor converted = getInstance(factor);
+		if (!(converted instanceof AddFactor)) {
+			return StdFactor.getDenseInstance(name, variables, values()).multiply(factor);
+		}
+		AddFactor other = (AddFactor) converted;
+		List<Prv> union = Lists.union(variables(), other.variables());
+		
+		// PRVs of the other factor are tested in the same order as in the union
+		List<Prv> order = new ArrayList<Prv>(other.variables.size());
+		for (Prv prv : union) {
+			if (other.variables.contains(prv)) {
+				order.add(prv);
+			}
+		}
+		Node operand = order.equals(other.variables) ? other.root : other.rebuild(order);
+		int[] levels = new int[order.size()];
+		for (int i = 0; i < levels.length; i++) {
+			levels[i] = union.indexOf(order.get(i));
+		}
+		operand = relabel(operand, levels, new NodeTable(), 
+				new IdentityHashMap<Node, Node>());
+		
+		// PRVs of this factor come first in the union, so its levels are kept
+		Apply product = new Apply(Operation.MULTIPLY, radices(union), new NodeTable());
+		return new AddFactor(name + "*" + other.name(), union, 
+				product.apply(root, operand));
+	}
+	
+	
+	@Override
+	public Factor reorder(Factor reference) throws IllegalArgumentException {
+		if (!Lists.sameElements(variables(), reference.variables())) {
+			throw new IllegalArgumentException();
+		}
+		return new AddFactor(name, reference.variables(), rebuild(reference.variables()));
+	}
+	
+	
+	/**
+	 * Returns the diagram of this factor with PRVs tested in the specified 
+	 * order, which must have the same PRVs as this factor.
+	 */
+	private Node rebuild(List<Prv> order) {
+		int[] positions = new int[order.size()];
+		for (int i = 0; i < positions.length; i++) {
+			positions[i] = variables.indexOf(order.get(i));
+		}
+		return rebuild(new NodeTable(), radices(order), positions, 
+				new int[variables.size()], 0);
+	}
+	
+	
+	private Node rebuild(NodeTable table, int[] radices, int[] positions, 
+			int[] ordinals, int level) {
+		if (level == radices.length) {
+			Node node = root;
+			while (!node.isTerminal()) {
+				node = node.children[ordinals[node.level]];
+			}
+			return table.terminal(node.value);
+		}
+		Node[] children = new Node[radices[level]];
+		for (int k = 0; k < children.length; k++) {
+			ordinals[positions[level]] = k;
+			children[k] = rebuild(table, radices, positions, ordinals, level + 1);
+		}
+		return table.node(level, children);
+	}
+}
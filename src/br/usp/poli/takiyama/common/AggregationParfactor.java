@@ -15,6 +15,7 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.common;
 
+import java.math.BigDecimal;
 import java.util.List;
 import java.util.Set;
 
@@ -92,6 +93,24 @@ public interface AggregationParfactor extends Parfactor {
 	public LogicalVariable extraVariable();
 	
 	
+	/**
+	 * Returns the activation probabilities of this aggregation parfactor, 
+	 * or an empty list if the aggregation is deterministic.
+	 * <p>
+	 * In a causal independence (noisy) aggregation parfactor, each parent
+	 * contributes to the aggregation independently through a noisy channel.
+	 * The value at index v x |range(c)| + z is the probability that a 
+	 * parent with the v-th value in its range contributes the z-th value 
+	 * of the range of the child. Noisy-OR and noisy-MAX are aggregation 
+	 * parfactors with operators OR and MAX and activation probabilities.
+	 * </p>
+	 * 
+	 * @return The activation probabilities of this aggregation parfactor,
+	 * indexed by parent value and then by child value.
+	 */
+	public List<BigDecimal> activation();
+	
+	
 	@Override
 	public int hashCode();
 	
@@ -54,7 +54,7 @@ public class ConstantFactor implements Factor {
 			size = 0;
 		}
 		for (Prv prv : variables) {
-			size = size * prv.range().size();
+			size = size * prv.rangeSize();
 		}
 		return size;
 	}
@@ -105,7 +105,7 @@ public class ConstantFactor implements Factor {
 	 * @return
 	 */
 	private int indexOf(int i, Tuple<RangeElement> tuple) {
-		return variables.get(i).range().indexOf(tuple.get(i));
+		return variables.get(i).indexOf(tuple.get(i));
 	}
 	
 	
@@ -118,12 +118,12 @@ public class ConstantFactor implements Factor {
 	 * factor.
 	 */
 	private int rangeSize(int i) {
-		return variables.get(i).range().size();
+		return variables.get(i).rangeSize();
 	}
 	
 	
 	private RangeElement rangeElementAt(int rangeIndex, int prvIndex) {
-		return variables.get(prvIndex).range().get(rangeIndex);
+		return variables.get(prvIndex).rangeElementAt(rangeIndex);
 	}
 	
 
@@ -182,6 +182,12 @@ public class ConstantFactor implements Factor {
 		};
 	}
 	
+	
+	@Override
+	public FactorCursor cursor() {
+		return FactorCursor.over(variables);
+	}
+	
 
 	@Override
 	public int size() {
@@ -200,6 +206,24 @@ public class ConstantFactor implements Factor {
 	}
 	
 
+	@Override
+	public int numberOfVariables() {
+		return variables.size();
+	}
+	
+	
+	@Override
+	public Prv variableAt(int index) {
+		return variables.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(Prv prv) {
+		return variables.indexOf(prv);
+	}
+	
+	
 	@Override
 	public List<BigDecimal> values() {
 		//System.out.println("Trying to create array of size " + size);
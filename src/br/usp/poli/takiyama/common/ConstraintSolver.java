@@ -0,0 +1,399 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Population;
+
+/**
+ * Counts solutions of sets of constraints over logical variables.
+ * <p>
+ * Parfactors in normal form have a number of groundings given by a product
+ * of population sizes. This class counts groundings of arbitrary sets of 
+ * constraints, following the constraint processing approach from 
+ * Kisynski's thesis, so parfactors do not need to be split into normal 
+ * form before their size is known.
+ * </p>
+ * <p>
+ * Unary constraints are applied to populations, which become the domains 
+ * of a constraint satisfaction problem whose binary inequalities are the 
+ * edges of a graph. The number of solutions is computed by 
+ * deletion-contraction: the solutions of a problem with edge X &ne; Y are 
+ * the solutions of the problem without the edge minus the solutions of the
+ * problem where X and Y are merged into one variable with domain 
+ * D(X) &cap; D(Y). Connected components are solved independently and 
+ * partial results are cached, since the same subproblems appear repeatedly 
+ * during inference.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class ConstraintSolver {
+	
+	private static final int MAX_CACHED_PROBLEMS = 1024;
+	
+	// Solutions of subproblems, from least to most recently used
+	private static final Map<Problem, Long> solutions = 
+			new LinkedHashMap<Problem, Long>(16, 0.75f, true) {
+				private static final long serialVersionUID = 1L;
+				@Override
+				protected boolean removeEldestEntry(Map.Entry<Problem, Long> eldest) {
+					return size() > MAX_CACHED_PROBLEMS;
+				}
+			};
+	
+	private ConstraintSolver() {
+		// enforces non-instantiability
+	}
+	
+	
+	/* ************************************************************************
+	 *    Counting
+	 * ************************************************************************/
+	
+	/**
+	 * Returns the number of groundings of the specified logical variables 
+	 * that satisfy the specified constraints. Constraints that involve 
+	 * logical variables other than the specified ones are ignored.
+	 * 
+	 * @param variables The logical variables to ground
+	 * @param constraints The constraints groundings must satisfy
+	 * @return The number of groundings of the specified logical variables 
+	 * that satisfy the specified constraints
+	 * @throws IllegalArgumentException If there are more than 63 logical
+	 * variables
+	 */
+	public static long count(Collection<LogicalVariable> variables, 
+			Set<Constraint> constraints) throws IllegalArgumentException {
+		
+		List<LogicalVariable> lvs = new ArrayList<LogicalVariable>(
+				new LinkedHashSet<LogicalVariable>(variables));
+		int n = lvs.size();
+		if (n > 63) {
+			throw new IllegalArgumentException("Too many logical variables: " + n);
+		}
+		
+		// Equalities between logical variables merge them into one variable
+		int [] group = new int[n];
+		for (int i = 0; i < n; i++) {
+			group[i] = i;
+		}
+		for (Constraint c : constraints) {
+			if (c instanceof EqualityConstraint && isBinary(c, lvs)) {
+				int a = find(group, lvs.indexOf(c.firstTerm()));
+				int b = find(group, lvs.indexOf(c.secondTerm()));
+				group[Math.max(a, b)] = Math.min(a, b);
+			}
+		}
+		
+		// One variable of the problem per group
+		int [] index = new int[n];
+		List<Population> domains = new ArrayList<Population>(n);
+		for (int i = 0; i < n; i++) {
+			int g = find(group, i);
+			Population domain = lvs.get(i).individualsSatisfying(constraints);
+			if (g == i) {
+				index[i] = domains.size();
+				domains.add(domain);
+			} else {
+				index[i] = index[g];
+				Population merged = Population.getInstance(domains.get(index[g]));
+				merged.retainAll(domain);
+				domains.set(index[g], merged);
+			}
+		}
+		
+		long [] neighbours = new long[domains.size()];
+		for (Constraint c : constraints) {
+			if (c instanceof InequalityConstraint && isBinary(c, lvs)) {
+				int a = index[lvs.indexOf(c.firstTerm())];
+				int b = index[lvs.indexOf(c.secondTerm())];
+				if (a == b) {
+					// X = Y and X != Y
+					return 0;
+				}
+				neighbours[a] |= 1L << b;
+				neighbours[b] |= 1L << a;
+			}
+		}
+		return solve(new Problem(domains, neighbours));
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if the number of individuals of the 
+	 * specified logical variable that satisfy the specified constraints is
+	 * the same for every grounding of the other logical variables.
+	 * <p>
+	 * This is the case when every logical variable Y in a constraint 
+	 * X &ne; Y has its domain inside the domain of X, and those logical 
+	 * variables are pairwise different. Parfactors in normal form satisfy 
+	 * this condition for all logical variables. This method is conservative:
+	 * it may return <code>false</code> for some uniform cases, such as 
+	 * equalities between logical variables.
+	 * </p>
+	 * 
+	 * @param lv The logical variable whose individuals are counted
+	 * @param constraints The constraints individuals must satisfy
+	 * @return <code>true</code> if the number of individuals of the 
+	 * specified logical variable that satisfy the specified constraints does
+	 * not depend on the other logical variables.
+	 */
+	public static boolean isUniform(LogicalVariable lv, Set<Constraint> constraints) {
+		List<LogicalVariable> others = new ArrayList<LogicalVariable>();
+		for (Constraint c : constraints) {
+			if (isBinary(c) && c.contains(lv)) {
+				if (c instanceof EqualityConstraint) {
+					return false;
+				}
+				others.add((LogicalVariable) (lv.equals(c.firstTerm()) 
+						? c.secondTerm() : c.firstTerm()));
+			}
+		}
+		
+		Population domain = lv.individualsSatisfying(constraints);
+		for (LogicalVariable y : others) {
+			Population inside = y.individualsSatisfying(constraints);
+			int size = inside.size();
+			inside.retainAll(domain);
+			if (inside.size() != size) {
+				return false;
+			}
+		}
+		
+		long [] neighbours = new long[others.size()];
+		for (Constraint c : constraints) {
+			if (c instanceof InequalityConstraint && isBinary(c, others)) {
+				int a = others.indexOf(c.firstTerm());
+				int b = others.indexOf(c.secondTerm());
+				neighbours[a] |= 1L << b;
+				neighbours[b] |= 1L << a;
+			}
+		}
+		for (int i = 0; i < others.size(); i++) {
+			long all = (1L << others.size()) - 1;
+			if ((neighbours[i] | (1L << i)) != all) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Auxiliary methods
+	 * ************************************************************************/
+	
+	private static boolean isBinary(Constraint c) {
+		return c.firstTerm().isVariable() && c.secondTerm().isVariable();
+	}
+	
+	private static boolean isBinary(Constraint c, List<LogicalVariable> lvs) {
+		return isBinary(c) && lvs.contains(c.firstTerm()) && lvs.contains(c.secondTerm());
+	}
+	
+	private static int find(int [] group, int i) {
+		while (group[i] != i) {
+			i = group[i];
+		}
+		return i;
+	}
+	
+	private static long solve(Problem p) {
+		if (p.hasEmptyDomain()) {
+			return 0;
+		}
+		if (!p.hasEdges()) {
+			return p.product();
+		}
+		Long cached;
+		synchronized (solutions) {
+			cached = solutions.get(p);
+		}
+		if (cached != null) {
+			return cached.longValue();
+		}
+		
+		long result;
+		long component = p.componentOf(0);
+		if (component != p.all()) {
+			result = solve(p.restrict(component)) * solve(p.restrict(p.all() & ~component));
+		} else {
+			int x = p.mostConnected();
+			int y = Long.numberOfTrailingZeros(p.neighbours[x]);
+			result = solve(p.withoutEdge(x, y)) - solve(p.contract(x, y));
+		}
+		
+		synchronized (solutions) {
+			solutions.put(p, Long.valueOf(result));
+		}
+		return result;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Problems
+	 * ************************************************************************/
+	
+	/**
+	 * A constraint satisfaction problem with inequalities only: variable i
+	 * ranges over domains[i] and must be different from variables in
+	 * neighbours[i] (a bit mask). Instances are immutable.
+	 */
+	private static final class Problem {
+		
+		private final List<Population> domains;
+		private final long [] neighbours;
+		
+		private Problem(List<Population> domains, long [] neighbours) {
+			this.domains = domains;
+			this.neighbours = neighbours;
+		}
+		
+		private long all() {
+			return (1L << domains.size()) - 1;
+		}
+		
+		private boolean hasEmptyDomain() {
+			for (Population d : domains) {
+				if (d.size() == 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private boolean hasEdges() {
+			for (long n : neighbours) {
+				if (n != 0) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		private long product() {
+			long product = 1;
+			for (Population d : domains) {
+				product = product * d.size();
+			}
+			return product;
+		}
+		
+		/**
+		 * Returns the mask of variables connected to the specified variable.
+		 */
+		private long componentOf(int i) {
+			long visited = 1L << i;
+			long frontier = visited;
+			while (frontier != 0) {
+				int v = Long.numberOfTrailingZeros(frontier);
+				frontier &= frontier - 1;
+				long next = neighbours[v] & ~visited;
+				visited |= next;
+				frontier |= next;
+			}
+			return visited;
+		}
+		
+		private int mostConnected() {
+			int best = 0;
+			for (int i = 1; i < neighbours.length; i++) {
+				if (Long.bitCount(neighbours[i]) > Long.bitCount(neighbours[best])) {
+					best = i;
+				}
+			}
+			return best;
+		}
+		
+		/**
+		 * Returns the subproblem on the variables from the specified mask.
+		 */
+		private Problem restrict(long mask) {
+			int [] index = new int[domains.size()];
+			List<Population> subdomains = new ArrayList<Population>(Long.bitCount(mask));
+			for (int i = 0; i < domains.size(); i++) {
+				if ((mask & (1L << i)) != 0) {
+					index[i] = subdomains.size();
+					subdomains.add(domains.get(i));
+				}
+			}
+			long [] subneighbours = new long[subdomains.size()];
+			for (int i = 0; i < domains.size(); i++) {
+				if ((mask & (1L << i)) != 0) {
+					long n = neighbours[i] & mask;
+					while (n != 0) {
+						int j = Long.numberOfTrailingZeros(n);
+						n &= n - 1;
+						subneighbours[index[i]] |= 1L << index[j];
+					}
+				}
+			}
+			return new Problem(subdomains, subneighbours);
+		}
+		
+		private Problem withoutEdge(int x, int y) {
+			long [] n = neighbours.clone();
+			n[x] &= ~(1L << y);
+			n[y] &= ~(1L << x);
+			return new Problem(domains, n);
+		}
+		
+		/**
+		 * Returns the problem where y is merged into x.
+		 */
+		private Problem contract(int x, int y) {
+			List<Population> d = new ArrayList<Population>(domains);
+			Population merged = Population.getInstance(domains.get(x));
+			merged.retainAll(domains.get(y));
+			d.set(x, merged);
+			
+			long [] n = neighbours.clone();
+			n[x] = (n[x] | n[y]) & ~(1L << x) & ~(1L << y);
+			for (int i = 0; i < n.length; i++) {
+				if ((n[i] & (1L << y)) != 0 && i != x) {
+					n[i] |= 1L << x;
+				}
+			}
+			return new Problem(d, n).restrict(all() & ~(1L << y));
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * domains.hashCode() + Arrays.hashCode(neighbours);
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (!(other instanceof Problem))
+				return false;
+			Problem target = (Problem) other;
+			return Arrays.equals(neighbours, target.neighbours) 
+					&& domains.equals(target.domains);
+		}
+	}
+}
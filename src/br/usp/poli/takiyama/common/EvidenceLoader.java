@@ -0,0 +1,401 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+import br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder;
+import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
+import br.usp.poli.takiyama.prv.Binding;
+import br.usp.poli.takiyama.prv.Constant;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.NameGenerator;
+import br.usp.poli.takiyama.prv.Population;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RangeElement;
+import br.usp.poli.takiyama.prv.Substitution;
+
+/**
+ * Reads observations of ground random variables and groups them into lifted
+ * evidence parfactors.
+ * <p>
+ * Observations are given one per random variable, for instance
+ * <code>sick(p123)=true</code>. Instead of creating one parfactor per
+ * observation, observations are grouped in evidence classes. An evidence
+ * class is defined by the observed PRV f(X<sub>1</sub>,...,X<sub>k</sub>),
+ * the constants that replace X<sub>1</sub>,...,X<sub>k-1</sub> and the
+ * observed value v. Each class becomes a single parfactor
+ * </p>
+ * <p>
+ * &lt; {}, {f(c<sub>1</sub>,...,c<sub>k-1</sub>,Y)}, 1<sub>v</sub> &gt;
+ * </p>
+ * <p>
+ * where 1<sub>v</sub> is the indicator function of v and Y is a new logical
+ * variable whose population has only the individuals observed in the class.
+ * Shattering splits parfactors on X<sub>k</sub> into the observed and 
+ * unobserved individuals (see {@link Parfactor#splitOn}), so the number of
+ * evidence parfactors depends only on the number of classes, not on the
+ * number of observations.
+ * </p>
+ * <p>
+ * Observed individuals are kept in bit sets indexed by their position in the
+ * population of X<sub>k</sub>, as given by {@link Population#indexOf}.
+ * Observing the same random variable twice keeps the last observed value.
+ * </p>
+ *
+ * @author Felipe Takiyama
+ */
+public final class EvidenceLoader {
+
+	/*
+	 * Observation format: functor(t1,...,tk)=value
+	 */
+	private static final Pattern OBSERVATION =
+			Pattern.compile("\\s*(\\w+)\\s*\\(([^)]*)\\)\\s*=\\s*(\\S+)\\s*");
+
+	// Observable PRVs indexed by functor
+	private final Map<String, Prv> observables;
+
+	// Individuals observed in each evidence class
+	private final Map<EvidenceClass, BitSet> classes;
+
+
+	/**
+	 * Identifies a set of observations that can be represented by a single
+	 * parfactor.
+	 */
+	private static final class EvidenceClass {
+
+		private final Prv prv;
+		private final List<Constant> prefix;
+		private final RangeElement value;
+
+		private EvidenceClass(Prv prv, List<Constant> prefix, RangeElement value) {
+			this.prv = prv;
+			this.prefix = prefix;
+			this.value = value;
+		}
+
+		@Override
+		public int hashCode() {
+			final int prime = 31;
+			int result = 1;
+			result = prime * result + prv.hashCode();
+			result = prime * result + prefix.hashCode();
+			result = prime * result + value.hashCode();
+			return result;
+		}
+
+		@Override
+		public boolean equals(Object obj) {
+			if (this == obj) {
+				return true;
+			}
+			if (!(obj instanceof EvidenceClass)) {
+				return false;
+			}
+			EvidenceClass other = (EvidenceClass) obj;
+			return prv.equals(other.prv) && prefix.equals(other.prefix)
+					&& value.equals(other.value);
+		}
+	}
+
+
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	/**
+	 * Creates a loader that accepts observations on the specified PRVs.
+	 * <p>
+	 * All parameters of observable PRVs must be logical variables and
+	 * functors must be unique.
+	 * </p>
+	 *
+	 * @param observables The PRVs that can be observed
+	 * @throws IllegalArgumentException If some PRV has a constant as
+	 * parameter or if two PRVs have the same functor.
+	 */
+	public EvidenceLoader(List<? extends Prv> observables)
+			throws IllegalArgumentException {
+		this.observables = new HashMap<String, Prv>(2 * observables.size());
+		this.classes = new LinkedHashMap<EvidenceClass, BitSet>();
+		for (Prv prv : observables) {
+			if (prv.parameters().size() != prv.terms().size()) {
+				throw new IllegalArgumentException(prv + " has constant parameters.");
+			}
+			if (this.observables.put(prv.name(), prv) != null) {
+				throw new IllegalArgumentException("Functor " + prv.name()
+						+ " is not unique.");
+			}
+		}
+	}
+
+
+	/**
+	 * Creates a loader that accepts observations on the specified PRVs.
+	 *
+	 * @see #EvidenceLoader(List)
+	 * @param observables The PRVs that can be observed
+	 */
+	public EvidenceLoader(Prv ... observables) {
+		this(Arrays.asList(observables));
+	}
+
+
+	/* ************************************************************************
+	 *    Loading
+	 * ************************************************************************/
+
+	/**
+	 * Reads observations from the specified reader, one per line. Empty lines
+	 * are ignored. The reader is consumed but not closed.
+	 *
+	 * @param reader The source of observations
+	 * @return This loader with observations added
+	 * @throws IOException If the reader fails
+	 * @throws IllegalArgumentException If some line is not a valid
+	 * observation
+	 * @see #observe(String)
+	 */
+	public EvidenceLoader load(Reader reader) throws IOException,
+			IllegalArgumentException {
+		BufferedReader lines = new BufferedReader(reader);
+		String line;
+		while ((line = lines.readLine()) != null) {
+			if (!line.trim().isEmpty()) {
+				observe(line);
+			}
+		}
+		return this;
+	}
+
+
+	/**
+	 * Adds the specified observation to this loader. Observations have the
+	 * form <code>f(c1,...,ck)=v</code>, where f is the functor of an
+	 * observable PRV, each ci is a constant from the population of the
+	 * i-th parameter of f and v is the string representation of an element
+	 * of the range of f.
+	 *
+	 * @param observation The observation to add
+	 * @return This loader with the observation added
+	 * @throws IllegalArgumentException If the observation is malformed or
+	 * refers to unknown PRVs, individuals or values.
+	 */
+	public EvidenceLoader observe(String observation)
+			throws IllegalArgumentException {
+		Matcher m = OBSERVATION.matcher(observation);
+		if (!m.matches()) {
+			throw new IllegalArgumentException("Invalid observation: '"
+					+ observation + "'");
+		}
+		Prv prv = observables.get(m.group(1));
+		if (prv == null) {
+			throw new IllegalArgumentException("Unknown PRV: '"
+					+ m.group(1) + "'");
+		}
+		List<Constant> arguments = new ArrayList<Constant>(prv.parameters().size());
+		String args = m.group(2).trim();
+		if (!args.isEmpty()) {
+			for (String arg : args.split(",")) {
+				arguments.add(Constant.getInstance(arg.trim()));
+			}
+		}
+		return observe(prv, arguments, rangeElement(prv, m.group(3)));
+	}
+
+
+	/**
+	 * Adds the observation f(c1,...,ck) = v to this loader.
+	 *
+	 * @param prv The observed PRV f. It must be one of the observable PRVs.
+	 * @param arguments The constants c1,...,ck
+	 * @param value The observed value v
+	 * @return This loader with the observation added
+	 * @throws IllegalArgumentException If the PRV is not observable, if the
+	 * value is not in its range or if some constant does not belong to
+	 * the population of the corresponding parameter.
+	 */
+	public EvidenceLoader observe(Prv prv, List<Constant> arguments,
+			RangeElement value) throws IllegalArgumentException {
+
+		if (!prv.equals(observables.get(prv.name()))) {
+			throw new IllegalArgumentException(prv + " is not observable.");
+		}
+		List<LogicalVariable> parameters = prv.parameters();
+		if (arguments.size() != parameters.size()) {
+			throw new IllegalArgumentException("Wrong number of arguments for "
+					+ prv + ": " + arguments);
+		}
+		List<RangeElement> range = prv.range();
+		if (!range.contains(value)) {
+			throw new IllegalArgumentException(value + " is not in the range of "
+					+ prv);
+		}
+
+		int last = parameters.size() - 1;
+		for (int i = 0; i < last; i++) {
+			indexOf(parameters.get(i), arguments.get(i));
+		}
+		int individual = (last < 0) ? 0 : indexOf(parameters.get(last), arguments.get(last));
+		List<Constant> prefix = (last < 0) ? Collections.<Constant>emptyList()
+				: new ArrayList<Constant>(arguments.subList(0, last));
+
+		// Only the last observed value is kept
+		for (RangeElement e : range) {
+			EvidenceClass sibling = new EvidenceClass(prv, prefix, e);
+			BitSet observed = classes.get(sibling);
+			if (e.equals(value)) {
+				if (observed == null) {
+					observed = new BitSet();
+					classes.put(sibling, observed);
+				}
+				observed.set(individual);
+			} else if (observed != null) {
+				observed.clear(individual);
+			}
+		}
+		return this;
+	}
+
+
+	/**
+	 * Returns the range element of the specified PRV whose string
+	 * representation is the specified string.
+	 */
+	private RangeElement rangeElement(Prv prv, String value) {
+		for (RangeElement e : prv.range()) {
+			if (e.toString().equals(value)) {
+				return e;
+			}
+		}
+		throw new IllegalArgumentException("'" + value
+				+ "' is not in the range of " + prv);
+	}
+
+
+	/**
+	 * Returns the position of the specified individual in the population of
+	 * the specified logical variable.
+	 */
+	private int indexOf(LogicalVariable lv, Constant individual) {
+		int position = lv.population().indexOf(individual);
+		if (position < 0) {
+			throw new IllegalArgumentException(individual
+					+ " does not belong to the population of " + lv);
+		}
+		return position;
+	}
+
+
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+
+	/**
+	 * Returns the number of distinct random variables observed so far.
+	 *
+	 * @return the number of distinct random variables observed so far.
+	 */
+	public int numberOfObservations() {
+		int count = 0;
+		for (BitSet observed : classes.values()) {
+			count = count + observed.cardinality();
+		}
+		return count;
+	}
+
+
+	/**
+	 * Returns the evidence parfactors of all non-empty evidence classes.
+	 *
+	 * @return The set of evidence parfactors built from the observations
+	 * loaded so far.
+	 */
+	public Set<Parfactor> parfactors() {
+		Set<Parfactor> evidence = new HashSet<Parfactor>(2 * classes.size());
+		for (Map.Entry<EvidenceClass, BitSet> entry : classes.entrySet()) {
+			if (!entry.getValue().isEmpty()) {
+				evidence.add(parfactor(entry.getKey(), entry.getValue()));
+			}
+		}
+		return evidence;
+	}
+
+
+	/**
+	 * Returns the specified marginal conditioned on the observations loaded
+	 * so far, that is, the marginal with all evidence parfactors added.
+	 *
+	 * @param marginal The marginal to condition
+	 * @return The specified marginal with evidence parfactors added.
+	 */
+	public Marginal condition(Marginal marginal) {
+		return new StdMarginalBuilder().add(marginal).parfactors(parfactors())
+				.build();
+	}
+
+
+	/**
+	 * Returns the parfactor that represents the specified evidence class.
+	 */
+	private Parfactor parfactor(EvidenceClass ec, BitSet observed) {
+		List<LogicalVariable> parameters = ec.prv.parameters();
+		int last = parameters.size() - 1;
+
+		// Replaces all parameters but the last with observed constants and
+		// the last with a variable over the observed individuals
+		List<Binding> bindings = new ArrayList<Binding>(parameters.size());
+		for (int i = 0; i < last; i++) {
+			bindings.add(Binding.getInstance(parameters.get(i), ec.prefix.get(i)));
+		}
+		if (last >= 0) {
+			LogicalVariable lifted = parameters.get(last);
+			Population population = lifted.population();
+			if (observed.cardinality() < population.size()) {
+				Population individuals = population.subset(observed);
+				bindings.add(Binding.getInstance(lifted, 
+						NameGenerator.restrict(lifted, individuals)));
+			}
+		}
+		Prv observedPrv = ec.prv.apply(Substitution.getInstance(bindings));
+
+		// Indicator function of the observed value
+		List<RangeElement> range = ec.prv.range();
+		List<BigDecimal> values = new ArrayList<BigDecimal>(range.size());
+		for (RangeElement e : range) {
+			values.add(e.equals(ec.value) ? BigDecimal.ONE : BigDecimal.ZERO);
+		}
+		return new StdParfactorBuilder().variables(observedPrv).values(values)
+				.build();
+	}
+}
@@ -71,6 +71,16 @@ public interface Factor extends Iterable<Tuple<RangeElement>> {
 	 */
 	public Iterator<Tuple<RangeElement>> iterator();
 
+	/**
+	 * Returns a cursor positioned on the first tuple of this factor. 
+	 * Cursors visit tuples in the same order as {@link #iterator()}, but 
+	 * represent them as arrays of ordinals instead of creating 
+	 * {@link Tuple}s.
+	 * 
+	 * @return A cursor over all tuples of this factor
+	 */
+	public FactorCursor cursor();
+
 	/**
 	 * Returns the number of values in this factor, which is the same as the
 	 * number of tuples in this factor.
@@ -94,6 +104,34 @@ public interface Factor extends Iterable<Tuple<RangeElement>> {
 	 * @return The list of {@link Prv}s associated with this factor
 	 */
 	public List<Prv> variables();
+	
+	/**
+	 * Returns the number of {@link Prv}s associated with this factor, 
+	 * without copying them.
+	 * 
+	 * @return The number of {@link Prv}s associated with this factor
+	 */
+	public int numberOfVariables();
+	
+	/**
+	 * Returns the {@link Prv} at the specified position of this factor,
+	 * without copying the list of variables.
+	 * 
+	 * @param index The position of the PRV in this factor
+	 * @return The {@link Prv} at the specified position of this factor
+	 * @throws IndexOutOfBoundsException If the index is out of range
+	 */
+	public Prv variableAt(int index) throws IndexOutOfBoundsException;
+	
+	/**
+	 * Returns the position of the specified {@link Prv} in this factor, or 
+	 * -1 if this factor does not contain the PRV.
+	 * 
+	 * @param prv The PRV to search for
+	 * @return The position of the specified {@link Prv} in this factor, or 
+	 * -1 if this factor does not contain the PRV.
+	 */
+	public int indexOf(Prv prv);
 
 	/**
 	 * Returns the values of all tuples, in the order they were created.
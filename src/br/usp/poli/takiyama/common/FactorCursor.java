@@ -0,0 +1,270 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import br.usp.poli.takiyama.prv.Prv;
+
+/**
+ * A cursor over all tuples of a factor that does not create tuples.
+ * <p>
+ * The current tuple is given as an array of ordinals: the ordinal at 
+ * position <code>i</code> is the index of the range element of the i-th PRV
+ * in its range. Tuples are visited in the same order as 
+ * {@link Factor#iterator()}, that is, as a mixed-radix counter whose last
+ * position changes fastest, so the {@link #index()} of the current tuple
+ * is also the index of its value in the factor.
+ * </p>
+ * <p>
+ * The array of ordinals is updated in place by {@link #advance()}, which
+ * takes constant amortized time. Typical usage:
+ * </p>
+ * <pre>
+ * for (FactorCursor c = factor.cursor(); c.isValid(); c.advance()) {
+ *     int[] ordinals = c.ordinals();
+ *     BigDecimal value = factor.getValue(c.index());
+ *     ...
+ * }
+ * </pre>
+ * <p>
+ * Kernels that combine factors on different PRVs can use 
+ * {@link #stridesIn(Factor)} and {@link #indexIn(int[])} to locate the 
+ * current tuple in other factors.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class FactorCursor {
+	
+	private final List<Prv> variables;
+	
+	// Range size of each PRV
+	private final int[] radices;
+	
+	// Distance between indexes of consecutive range elements of each PRV 
+	private final int[] strides;
+	
+	private final int[] ordinals;
+	
+	private final int size;
+	
+	private int index;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	private FactorCursor(List<? extends Prv> variables) {
+		int n = variables.size();
+		this.variables = new ArrayList<Prv>(variables);
+		this.radices = new int[n];
+		this.strides = new int[n];
+		this.ordinals = new int[n];
+		int stride = 1;
+		for (int i = n - 1; i >= 0; i--) {
+			radices[i] = variables.get(i).rangeSize();
+			strides[i] = stride;
+			stride = stride * radices[i];
+		}
+		this.size = (n == 0) ? 0 : stride;
+		this.index = 0;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+	
+	/**
+	 * Returns a cursor positioned on the first tuple of a factor on the 
+	 * specified PRVs.
+	 * 
+	 * @param variables The PRVs of the factor, in order
+	 * @return A cursor over all tuples of a factor on the specified PRVs
+	 */
+	public static FactorCursor over(List<? extends Prv> variables) {
+		return new FactorCursor(variables);
+	}
+	
+	
+	/**
+	 * Returns a cursor positioned on the first tuple of the specified 
+	 * factor.
+	 * 
+	 * @param factor The factor to iterate over
+	 * @return A cursor over all tuples of the specified factor
+	 */
+	public static FactorCursor over(Factor factor) {
+		List<Prv> variables = new ArrayList<Prv>(factor.numberOfVariables());
+		for (int i = 0; i < factor.numberOfVariables(); i++) {
+			variables.add(factor.variableAt(i));
+		}
+		return new FactorCursor(variables);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Navigation
+	 * ************************************************************************/
+
+	/**
+	 * Returns <code>true</code> if this cursor is on a tuple, 
+	 * <code>false</code> if all tuples were visited.
+	 */
+	public boolean isValid() {
+		return index < size;
+	}
+	
+	
+	/**
+	 * Moves this cursor to the next tuple.
+	 * 
+	 * @return <code>true</code> if this cursor is on a tuple after moving,
+	 * <code>false</code> if all tuples were visited.
+	 */
+	public boolean advance() {
+		int i = ordinals.length - 1;
+		while (i >= 0) {
+			ordinals[i]++;
+			if (ordinals[i] < radices[i]) {
+				break;
+			}
+			ordinals[i] = 0;
+			i--;
+		}
+		index++;
+		return index < size;
+	}
+	
+	
+	/**
+	 * Moves this cursor back to the first tuple.
+	 */
+	public void reset() {
+		Arrays.fill(ordinals, 0);
+		index = 0;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+
+	/**
+	 * Returns the index of the current tuple, which is the index of its 
+	 * value in the factor.
+	 */
+	public int index() {
+		return index;
+	}
+	
+	
+	/**
+	 * Returns the ordinals of the current tuple. The array is owned by this
+	 * cursor and updated in place when it moves, so it must not be modified.
+	 */
+	public int[] ordinals() {
+		return ordinals;
+	}
+	
+	
+	/**
+	 * Returns the ordinal of the range element of the PRV at the specified
+	 * position in the current tuple.
+	 * 
+	 * @param position The position of the PRV in the factor
+	 */
+	public int ordinal(int position) {
+		return ordinals[position];
+	}
+	
+	
+	/**
+	 * Returns the difference between the indexes of two tuples that differ
+	 * only by one in the ordinal at the specified position.
+	 * 
+	 * @param position The position of the PRV in the factor
+	 */
+	public int stride(int position) {
+		return strides[position];
+	}
+	
+	
+	/**
+	 * Returns the number of tuples visited by this cursor.
+	 */
+	public int size() {
+		return size;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Projections
+	 * ************************************************************************/
+
+	/**
+	 * Returns the strides of the PRVs of this cursor in the specified factor.
+	 * The stride of PRVs that do not exist in the factor is zero.
+	 * <p>
+	 * When all PRVs of the factor are PRVs of this cursor, the index of 
+	 * the current tuple in the factor is given by {@link #indexIn(int[])}.
+	 * </p>
+	 * 
+	 * @param factor A factor
+	 * @return The strides of the PRVs of this cursor in the specified factor
+	 */
+	public int[] stridesIn(Factor factor) {
+		int[] factorStrides = new int[factor.numberOfVariables()];
+		int stride = 1;
+		for (int i = factorStrides.length - 1; i >= 0; i--) {
+			factorStrides[i] = stride;
+			stride = stride * factor.variableAt(i).rangeSize();
+		}
+		int[] result = new int[variables.size()];
+		for (int i = 0; i < result.length; i++) {
+			int j = factor.indexOf(variables.get(i));
+			result[i] = (j >= 0) ? factorStrides[j] : 0;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the index of the current tuple in the factor whose strides
+	 * are specified.
+	 * 
+	 * @see #stridesIn(Factor)
+	 * @param strides The strides of the PRVs of this cursor in some factor
+	 * @return The index of the current tuple in the factor
+	 */
+	public int indexIn(int[] strides) {
+		int result = 0;
+		for (int i = 0; i < ordinals.length; i++) {
+			result = result + ordinals[i] * strides[i];
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return index + " " + Arrays.toString(ordinals);
+	}
+}
@@ -106,6 +106,11 @@ public final class MultiplicationChecker implements ParfactorVisitor {
 	 * <li> They both have the same set of constraints
 	 * <li> The specified standard parfactor has the same PRVs as 
 	 * the specified aggregation parfactor, excluding the child PRV.
+	 * <p>
+	 * Noisy aggregation parfactors follow the same rules: activation 
+	 * probabilities involve only the parent and the child PRV, so they do 
+	 * not change which standard parfactors can be absorbed.
+	 * </p>
 	 */
 	@Override
 	public void visit(AggregationParfactor agg, StdParfactor std) {
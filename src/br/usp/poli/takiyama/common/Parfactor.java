@@ -202,6 +202,19 @@ public interface Parfactor extends VisitableParfactor, Replaceable<Parfactor> {
 	public Parfactor expand(Prv cf, Term t);
 	
 	
+	/**
+	 * Returns the result of expanding the specified counting formula on all
+	 * individuals from its bound logical variable satisfying its 
+	 * constraints. Individuals on which the counting formula is not 
+	 * expandable are skipped.
+	 * 
+	 * @param cf The counting formula to expand
+	 * @return The result of fully expanding the specified counting formula
+	 * in this parfactor
+	 */
+	public Parfactor fullExpand(Prv cf);
+	
+	
 	/**
 	 * Returns the result of multiplying this parfactor with the specified
 	 * parfactor.
@@ -226,7 +239,10 @@ public interface Parfactor extends VisitableParfactor, Replaceable<Parfactor> {
 	
 		
 	/**
-	 * Splits this parfactor on the specified substitution.
+	 * Splits this parfactor on the specified substitution. Substitutions 
+	 * {X/Y} where the population of Y is a proper subset of the population
+	 * of X split this parfactor into the individuals of X that Y ranges 
+	 * over and the remaining ones.
 	 * 
 	 * @param s The substitution upon which this parfactor is to be split
 	 * @return The result of splitting this parfactor on the specified
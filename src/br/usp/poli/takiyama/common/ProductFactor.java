@@ -0,0 +1,693 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RangeElement;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Substitution;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+import br.usp.poli.takiyama.utils.MathUtils;
+
+/**
+ * Factor that represents products and powers of other factors without 
+ * computing their values.
+ * <p>
+ * A product factor is an expression whose operands are ordinary factors.
+ * Multiplying or raising a product factor only builds a bigger expression,
+ * so the product F<sub>1</sub><sup>r<sub>1</sub></sup> x ... x 
+ * F<sub>k</sub><sup>r<sub>k</sub></sup> created when many parfactors are 
+ * multiplied takes no more memory than its operands. Values are computed 
+ * when needed, tuple by tuple, with the same operations in the same order 
+ * as {@link StdFactor#multiply(Factor)} and {@link StdFactor#pow(int, int)}.
+ * </p>
+ * <p>
+ * {@link #sumOut(Prv)} computes each value of the result directly from the 
+ * operands, so the product is never stored. Its result is an ordinary 
+ * factor. {@link #multiply(Factor)} and {@link #pow(int, int)} do not
+ * compute any value of products and powers, and {@link #getValue(int)} 
+ * computes a single value. The following operations compute all values of 
+ * a product or power:
+ * </p>
+ * <li> {@link #values()}, {@link #hashCode()} and {@link #equals(Object)}
+ * <li> {@link #isConstant()}, which stops at the first value that is not 1
+ * <li> {@link #toString()}, {@link #apply(Substitution)}, 
+ * {@link #set(Tuple, BigDecimal)}, {@link #reorder(Factor)} and 
+ * {@link #sumOut(Prv)} on a PRV that is not in the factor, which work on a 
+ * {@link StdFactor} with the values of the product
+ * <p>
+ * Operations on a factor with a single operand use the operand directly.
+ * </p>
+ * <p>
+ * Product factors are used by global sum out to multiply the parfactors 
+ * that contain the PRV being eliminated. They are equal to standard 
+ * factors with the same variables and values.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class ProductFactor implements Factor {
+
+	private static enum Kind {
+		OPERAND, PRODUCT, POWER;
+	}
+	
+	private final Kind kind;
+	
+	private final String name;
+	
+	private final List<Prv> variables;
+	
+	private final int size;
+	
+	// The factor in the expression, for operands
+	private final Factor operand;
+	
+	// Left and right factors of a product, the base of a power in left
+	private final ProductFactor left;
+	private final ProductFactor right;
+	
+	// Exponent p/q of a power
+	private final int p;
+	private final int q;
+	
+	// Evaluator over the variables of this factor, created when first needed
+	private Evaluator evaluator;
+	
+	/**
+	 * Cached hash code, computed when first needed. Zero means not computed
+	 * yet, as in {@link String#hashCode()}.
+	 */
+	private int hashCode;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+	
+	private ProductFactor(Kind kind, String name, List<Prv> variables, 
+			Factor operand, ProductFactor left, ProductFactor right, int p, int q) {
+		this.kind = kind;
+		this.name = name;
+		this.variables = variables;
+		this.size = getSize(variables);
+		this.operand = operand;
+		this.left = left;
+		this.right = right;
+		this.p = p;
+		this.q = q;
+	}
+	
+	
+	/**
+	 * Returns the expected size of a factor on the specified variables.
+	 */
+	private static int getSize(List<? extends Prv> variables) {
+		int size = 1;
+		if (variables.isEmpty()) {
+			size = 0;
+		}
+		for (Prv prv : variables) {
+			size = size * prv.rangeSize();
+		}
+		return size;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+	
+	/**
+	 * Returns a product factor with the specified factor as its only 
+	 * operand. Empty and constant factors are returned as they are, since 
+	 * multiplying by them does not change other factors.
+	 * 
+	 * @param factor The factor to represent
+	 * @return A product factor with the same variables and values as the 
+	 * specified factor.
+	 */
+	public static Factor getInstance(Factor factor) {
+		if (factor instanceof ProductFactor || factor instanceof ConstantFactor
+				|| factor.isEmpty()) {
+			return factor;
+		}
+		return new ProductFactor(Kind.OPERAND, factor.name(), factor.variables(), 
+				factor, null, null, 0, 0);
+	}
+	
+	
+	/**
+	 * Returns the product factor of the specified factors.
+	 */
+	private static ProductFactor product(ProductFactor left, ProductFactor right) {
+		List<Prv> union = Lists.union(left.variables, right.variables);
+		String name = left.name + "*" + right.name;
+		return new ProductFactor(Kind.PRODUCT, name, union, null, left, right, 0, 0);
+	}
+	
+	
+	/**
+	 * Returns the product factor of the specified factor raised to p/q.
+	 */
+	private static ProductFactor power(ProductFactor base, int p, int q) {
+		return new ProductFactor(Kind.POWER, base.name, base.variables, null, 
+				base, null, p, q);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Evaluation
+	 * ************************************************************************/
+	
+	/**
+	 * Computes values of a product factor on the assignments of a list of
+	 * PRVs that contains all its variables.
+	 * <p>
+	 * The expression is flattened in postfix order. Operands are looked up 
+	 * with their strides on the list of PRVs, and products and powers are 
+	 * applied to the values on a stack.
+	 * </p>
+	 */
+	private static final class Evaluator {
+		
+		private final Kind[] kinds;
+		private final Factor[] operands;
+		private final int[][] strides;
+		private final int[] p;
+		private final int[] q;
+		private final int depth;
+		
+		Evaluator(ProductFactor factor, List<Prv> variables) {
+			List<ProductFactor> postfix = new ArrayList<ProductFactor>();
+			int d = flatten(factor, postfix);
+			FactorCursor cursor = FactorCursor.over(variables);
+			int n = postfix.size();
+			kinds = new Kind[n];
+			operands = new Factor[n];
+			strides = new int[n][];
+			p = new int[n];
+			q = new int[n];
+			for (int i = 0; i < n; i++) {
+				ProductFactor node = postfix.get(i);
+				kinds[i] = node.kind;
+				operands[i] = node.operand;
+				p[i] = node.p;
+				q[i] = node.q;
+				if (node.kind == Kind.OPERAND) {
+					strides[i] = cursor.stridesIn(node.operand);
+				}
+			}
+			depth = d;
+		}
+		
+		/**
+		 * Adds the nodes of the specified expression to the list in postfix
+		 * order and returns the size of the stack needed to evaluate it.
+		 */
+		private static int flatten(ProductFactor node, List<ProductFactor> postfix) {
+			int d;
+			switch (node.kind) {
+			case PRODUCT:
+				int l = flatten(node.left, postfix);
+				int r = flatten(node.right, postfix);
+				d = Math.max(l, r + 1);
+				break;
+			case POWER:
+				d = flatten(node.left, postfix);
+				break;
+			default:
+				d = 1;
+			}
+			postfix.add(node);
+			return d;
+		}
+		
+		/**
+		 * Returns the value of the expression on the assignment with the 
+		 * specified ordinals.
+		 */
+		BigDecimal valueAt(int[] ordinals) {
+			BigDecimal[] stack = new BigDecimal[depth];
+			int top = 0;
+			for (int i = 0; i < kinds.length; i++) {
+				switch (kinds[i]) {
+				case OPERAND:
+					int index = 0;
+					for (int j = 0; j < ordinals.length; j++) {
+						index = index + ordinals[j] * strides[i][j];
+					}
+					stack[top] = operands[i].getValue(index);
+					top++;
+					break;
+				case PRODUCT:
+					top--;
+					stack[top - 1] = stack[top - 1].multiply(stack[top], MathUtils.CONTEXT);
+					break;
+				case POWER:
+					stack[top - 1] = MathUtils.pow(stack[top - 1], p[i], q[i]);
+					break;
+				}
+			}
+			return stack[0];
+		}
+	}
+	
+	
+	/**
+	 * Returns the evaluator over the variables of this factor.
+	 */
+	private Evaluator evaluator() {
+		if (evaluator == null) {
+			evaluator = new Evaluator(this, variables);
+		}
+		return evaluator;
+	}
+	
+	
+	/**
+	 * Returns the ordinals of the assignment with the specified index.
+	 */
+	private int[] ordinalsOf(int index) {
+		int[] ordinals = new int[variables.size()];
+		for (int i = ordinals.length - 1; i >= 0; i--) {
+			int r = variables.get(i).rangeSize();
+			ordinals[i] = index % r;
+			index = index / r;
+		}
+		return ordinals;
+	}
+	
+	
+	/**
+	 * Returns a factor that stores the values of this product.
+	 */
+	private Factor materialize() {
+		return StdFactor.getInstance(name, variables, values());
+	}
+	
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+	
+	@Override
+	public int getIndex(Tuple<RangeElement> tuple) throws IllegalArgumentException {
+		if (tuple.isEmpty()) {
+			throw new IllegalArgumentException("This tuple is empty!");
+		} 
+		int index = 0;
+		int r = 1;
+		for (int i = tuple.size() - 1; i >= 0; i--) {
+			index = index + r * variables.get(i).indexOf(tuple.get(i));
+			r = r * variables.get(i).rangeSize();
+		}
+		return index;
+	}
+	
+	
+	@Override
+	public Tuple<RangeElement> getTuple(int index) {
+		List<RangeElement> elements = new ArrayList<RangeElement>(variables.size());
+		for (int j = variables.size() - 1; j > 0; j--) {
+			int domainSize = variables.get(j).rangeSize();
+			elements.add(variables.get(j).rangeElementAt(index % domainSize));
+			index = index / domainSize;	
+		}
+		elements.add(variables.get(0).rangeElementAt(index));
+		Collections.reverse(elements);
+		return Tuple.getInstance(elements);
+	}
+	
+	
+	@Override
+	public BigDecimal getValue(int index) {
+		if (kind == Kind.OPERAND) {
+			return operand.getValue(index);
+		}
+		return evaluator().valueAt(ordinalsOf(index));
+	}
+	
+	
+	@Override
+	public BigDecimal getValue(Tuple<RangeElement> tuple) {
+		return getValue(getIndex(tuple));
+	}
+	
+	
+	@Override
+	public Iterator<Tuple<RangeElement>> iterator() {
+		return new Iterator<Tuple<RangeElement>> () {
+			int nextElementToReturn;
+			
+			@Override
+			public boolean hasNext() {
+				return nextElementToReturn != size;
+			}
+			
+			@Override
+			public Tuple<RangeElement> next() {
+				int i = nextElementToReturn;
+				if (i >= size) {
+					throw new NoSuchElementException();
+				}
+				nextElementToReturn = i + 1;
+				return getTuple(i);
+			}
+			
+			/**
+			 * Throws {@link UnsupportedOperationException}.
+			 */
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	
+	@Override
+	public FactorCursor cursor() {
+		return FactorCursor.over(variables);
+	}
+	
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	
+	@Override
+	public String name() {
+		return name;
+	}
+	
+	
+	@Override
+	public List<Prv> variables() {
+		return new ArrayList<Prv>(variables);
+	}
+	
+	
+	@Override
+	public int numberOfVariables() {
+		return variables.size();
+	}
+	
+	
+	@Override
+	public Prv variableAt(int index) {
+		return variables.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(Prv prv) {
+		return variables.indexOf(prv);
+	}
+	
+	
+	/**
+	 * Computes and returns all values of this factor.
+	 */
+	@Override
+	public List<BigDecimal> values() {
+		if (kind == Kind.OPERAND) {
+			return operand.values();
+		}
+		List<BigDecimal> values = new ArrayList<BigDecimal>(size);
+		Evaluator evaluator = evaluator();
+		FactorCursor cursor = cursor();
+		for (; cursor.isValid(); cursor.advance()) {
+			values.add(evaluator.valueAt(cursor.ordinals()));
+		}
+		return values;
+	}
+	
+	
+	@Override
+	public boolean contains(Term t) {
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	@Override
+	public int occurrences(Term t) {
+		int count = 0;
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public Prv getVariableHaving(Term t) {
+		Prv result = StdPrv.getInstance();
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				result = prv;
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public boolean isSubFactorOf(Factor factor) {
+		return factor.variables().containsAll(variables);
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if all values are 1. Values of products and
+	 * powers are computed until one of them is different from 1.
+	 */
+	@Override
+	public boolean isConstant() {
+		if (kind == Kind.OPERAND) {
+			return operand.isConstant();
+		}
+		Evaluator evaluator = evaluator();
+		FactorCursor cursor = cursor();
+		for (; cursor.isValid(); cursor.advance()) {
+			if (!evaluator.valueAt(cursor.ordinals()).equals(BigDecimal.ONE)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+	
+	
+	/* ************************************************************************
+	 *    hashCode, equals and toString
+	 * ************************************************************************/
+	
+	/**
+	 * Returns the same hash code as a {@link StdFactor} with the same 
+	 * variables and values.
+	 */
+	@Override
+	public int hashCode() { 
+		int result = hashCode;
+		if (result == 0) {
+			result = 17;
+			result = 31 + result + Arrays.hashCode(variables.toArray(new Prv[variables.size()]));
+			result = 31 + result + Lists.hashCode(values());
+			hashCode = result;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if the specified object is a product, 
+	 * standard, sparse or diagram factor with the same variables and values
+	 * as this factor.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (!(other instanceof ProductFactor || other instanceof StdFactor 
+				|| other instanceof SparseFactor || other instanceof AddFactor)) {
+			return false;
+		}
+		Factor target = (Factor) other;
+		return variables.equals(target.variables()) 
+				&& Lists.areEqual(values(), target.values());
+	}
+	
+	
+	@Override
+	public String toString() {
+		return materialize().toString();
+	}
+	
+	
+	/* ************************************************************************
+	 *    Setters
+	 * ************************************************************************/
+	
+	@Override
+	public Factor apply(Substitution s) {
+		return materialize().apply(s);
+	}
+	
+	
+	@Override
+	public Factor set(Tuple<RangeElement> tuple, BigDecimal value) {
+		return materialize().set(tuple, value);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Multiplication, Power and Sum Out
+	 * ************************************************************************/
+	
+	/**
+	 * Sums out the specified PRV without computing the product first.
+	 * <p>
+	 * Each value of the result is the sum, over the range of the PRV, of 
+	 * the values of this product multiplied by the sum out correction, in
+	 * the same order as {@link StdFactor#sumOut(Prv)}. Values of the product
+	 * are computed from the operands as they are needed.
+	 * </p>
+	 * 
+	 * @return An ordinary factor with the PRV summed out.
+	 */
+	@Override
+	public Factor sumOut(Prv prv) {
+		if (!variables.contains(prv)) {
+			return materialize();
+		}
+		
+		List<Prv> vars = new ArrayList<Prv>(variables);
+		vars.remove(prv);
+		int position = variables.indexOf(prv);
+		int rangeSize = prv.rangeSize();
+		BigDecimal[] corrections = new BigDecimal[rangeSize];
+		for (int k = 0; k < rangeSize; k++) {
+			corrections[k] = prv.getSumOutCorrection(prv.rangeElementAt(k));
+		}
+		
+		Evaluator evaluator = evaluator();
+		int[] ordinals = new int[variables.size()];
+		int resultSize = size / rangeSize;
+		List<BigDecimal> vals = new ArrayList<BigDecimal>(resultSize);
+		for (int i = 0; i < resultSize; i++) {
+			
+			// Assigns the i-th tuple of the result to the remaining PRVs
+			int rest = i;
+			for (int j = ordinals.length - 1; j >= 0; j--) {
+				if (j != position) {
+					int r = variables.get(j).rangeSize();
+					ordinals[j] = rest % r;
+					rest = rest / r;
+				}
+			}
+			
+			BigDecimal sum = BigDecimal.ZERO;
+			for (int k = 0; k < rangeSize; k++) {
+				ordinals[position] = k;
+				BigDecimal value = evaluator.valueAt(ordinals);
+				sum = sum.add(value.multiply(corrections[k], MathUtils.CONTEXT), MathUtils.CONTEXT);
+			}
+			vals.add(sum);
+		}
+		
+		return StdFactor.getInstance(name, vars, vals);
+	}
+	
+	
+	/**
+	 * Returns this factor raised to <code>p/q</code>. Operands are raised 
+	 * at once, products are raised when their values are computed.
+	 */
+	@Override
+	public Factor pow(int p, int q) {
+		if (kind == Kind.OPERAND) {
+			return getInstance(operand.pow(p, q));
+		}
+		return power(this, p, q);
+	}
+	
+	
+	/**
+	 * Returns the product of this factor and the specified factor, without
+	 * computing its values. Multiplication by empty and constant factors
+	 * is handled as in {@link StdFactor#multiply(Factor)}.
+	 * <p>
+	 * Products and powers are only built from factors that are not 
+	 * constant, so they are taken as not constant without computing their
+	 * values. A product whose values happen to be all 1 is kept as it is.
+	 * </p>
+	 */
+	@Override
+	public Factor multiply(Factor factor) {
+		if (factor.isEmpty()) {
+			return this;
+		}
+		if (this.isConstantOperand()) {
+			return factor;
+		}
+		boolean constant = (factor instanceof ProductFactor) 
+				? ((ProductFactor) factor).isConstantOperand() 
+				: factor.isConstant();
+		if (constant) {
+			return this;
+		}
+		return product(this, (ProductFactor) getInstance(factor));
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if this factor has a single operand whose
+	 * values are all 1.
+	 */
+	private boolean isConstantOperand() {
+		return kind == Kind.OPERAND && operand.isConstant();
+	}
+	
+	
+	@Override
+	public Factor reorder(Factor reference) throws IllegalArgumentException {
+		return materialize().reorder(reference);
+	}
+}
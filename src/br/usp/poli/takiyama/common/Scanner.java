@@ -117,6 +117,11 @@ public final class Scanner implements ParfactorDecorator {
 		return p.expand(cf, t);
 	}
 
+	@Override
+	public Parfactor fullExpand(Prv cf) {
+		return p.fullExpand(cf);
+	}
+
 	@Override
 	public Parfactor multiply(Parfactor other) {
 		return p.multiply(other);
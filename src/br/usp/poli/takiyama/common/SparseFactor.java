@@ -0,0 +1,701 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.Iterator;
+import java.util.List;
+import java.util.NoSuchElementException;
+
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RangeElement;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Substitution;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+import br.usp.poli.takiyama.utils.MathUtils;
+
+/**
+ * Factor that stores only its non-zero values.
+ * <p>
+ * Values are kept in two parallel arrays, one with the indexes of non-zero
+ * tuples in ascending order and another with their values. Tuples missing
+ * from the arrays have value zero. Multiplication, sum out, power and
+ * reordering visit only the stored tuples.
+ * </p>
+ * <p>
+ * Deterministic factors, such as those from the conversion of aggregation
+ * parfactors, and factors that absorbed evidence have most values equal to
+ * zero. {@link StdFactor#getInstance(String, List, List)} returns sparse 
+ * factors for them automatically, so this class does not need to be used
+ * directly. Sparse factors are equal to standard factors with the same 
+ * variables and values.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class SparseFactor implements Factor {
+
+	/**
+	 * Factors smaller than this are always stored densely.
+	 */
+	static final int MIN_SIZE = 64;
+	
+	/**
+	 * Factors where at most this fraction of values is non-zero are stored 
+	 * sparsely. At one half, the sparse representation takes about as much
+	 * memory as the dense one and kernels skip at least half of the tuples.
+	 */
+	static final double MAX_DENSITY = 0.5;
+	
+	private final String name;
+	
+	private final List<Prv> variables;
+	
+	// Indexes of non-zero values, in ascending order
+	private final int[] indexes;
+	
+	// Non-zero values, in the order of their indexes
+	private final BigDecimal[] values;
+	
+	private final int size;
+	
+	/**
+	 * Cached hash code, computed when first needed. Zero means not computed
+	 * yet, as in {@link String#hashCode()}.
+	 */
+	private int hashCode;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+	
+	/**
+	 * Creates a sparse factor. Arrays are not copied.
+	 */
+	private SparseFactor(String name, List<? extends Prv> variables, 
+			int[] indexes, BigDecimal[] values, int size) {
+		this.name = name;
+		this.variables = new ArrayList<Prv>(variables);
+		this.indexes = indexes;
+		this.values = values;
+		this.size = size;
+	}
+	
+	
+	/**
+	 * Returns the expected size of a factor on the specified variables.
+	 */
+	private static int getSize(List<? extends Prv> variables) {
+		int size = 1;
+		if (variables.isEmpty()) {
+			size = 0;
+		}
+		for (Prv prv : variables) {
+			size = size * prv.rangeSize();
+		}
+		return size;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+	
+	/**
+	 * Returns <code>true</code> if a factor with the specified number of 
+	 * non-zero values out of the specified size is stored sparsely.
+	 */
+	static boolean isSparse(int nonZeros, int size) {
+		return size >= MIN_SIZE && nonZeros <= size * MAX_DENSITY;
+	}
+	
+	
+	/**
+	 * Returns a factor with the specified values, sparse if few of them are 
+	 * non-zero, otherwise a {@link StdFactor}.
+	 * 
+	 * @param name The name of the factor
+	 * @param variables A ordered list of {@link Prv}.
+	 * @param values A ordered list of values, determined by the order
+	 * of Prvs.
+	 * @throws IllegalArgumentException If the number of values specified is 
+	 * not compatible with the PRVs specified.
+	 */
+	public static Factor getInstance(String name, List<? extends Prv> variables, 
+			List<BigDecimal> values) throws IllegalArgumentException {
+		int nonZeros = 0;
+		for (BigDecimal value : values) {
+			if (value.signum() != 0) {
+				nonZeros++;
+			}
+		}
+		if (!isSparse(nonZeros, values.size())) {
+			return StdFactor.getDenseInstance(name, variables, values);
+		}
+		int size = getSize(variables);
+		if (values.size() != size) {
+			throw new IllegalArgumentException("Wrong number of values. Expected: " 
+					+ size + ", received: " + values.size());
+		}
+		int[] idx = new int[nonZeros];
+		BigDecimal[] vals = new BigDecimal[nonZeros];
+		int k = 0;
+		for (int i = 0; i < size; i++) {
+			BigDecimal value = values.get(i);
+			if (value.signum() != 0) {
+				idx[k] = i;
+				vals[k] = value;
+				k++;
+			}
+		}
+		return new SparseFactor(name, variables, idx, vals, size);
+	}
+	
+	
+	/**
+	 * Returns a factor whose non-zero values are the specified ones, sparse 
+	 * if few of them are non-zero, otherwise a {@link StdFactor}. Indexes 
+	 * must be in ascending order.
+	 * 
+	 * @param name The name of the factor
+	 * @param variables A ordered list of {@link Prv}.
+	 * @param indexes Indexes of non-zero values, in ascending order
+	 * @param values The values at the specified indexes
+	 * @throws IllegalArgumentException If indexes are not in ascending order
+	 * or do not fit in the factor.
+	 */
+	public static Factor getInstance(String name, List<? extends Prv> variables, 
+			int[] indexes, List<BigDecimal> values) throws IllegalArgumentException {
+		int size = getSize(variables);
+		for (int k = 0; k < indexes.length; k++) {
+			if (indexes[k] < 0 || indexes[k] >= size 
+					|| (k > 0 && indexes[k] <= indexes[k - 1])) {
+				throw new IllegalArgumentException("Invalid index: " + indexes[k]);
+			}
+		}
+		return of(name, variables, size, indexes.clone(), 
+				values.toArray(new BigDecimal[values.size()]), indexes.length);
+	}
+	
+	
+	/**
+	 * Returns a factor with the first <code>n</code> entries of the 
+	 * specified arrays, whose indexes are in ascending order. Zeros are 
+	 * dropped. Arrays may be reused.
+	 */
+	private static Factor of(String name, List<? extends Prv> variables, int size,
+			int[] indexes, BigDecimal[] values, int n) {
+		int nonZeros = 0;
+		for (int k = 0; k < n; k++) {
+			if (values[k].signum() != 0) {
+				indexes[nonZeros] = indexes[k];
+				values[nonZeros] = values[k];
+				nonZeros++;
+			}
+		}
+		if (isSparse(nonZeros, size)) {
+			return new SparseFactor(name, variables, Arrays.copyOf(indexes, nonZeros), 
+					Arrays.copyOf(values, nonZeros), size);
+		}
+		BigDecimal[] dense = new BigDecimal[size];
+		Arrays.fill(dense, BigDecimal.ZERO);
+		for (int k = 0; k < nonZeros; k++) {
+			dense[indexes[k]] = values[k];
+		}
+		return StdFactor.getDenseInstance(name, variables, Arrays.asList(dense));
+	}
+	
+	
+	/**
+	 * Returns a factor with the first <code>n</code> entries of the 
+	 * specified arrays, whose indexes may be in any order. Values with the
+	 * same index are added in the order they appear.
+	 */
+	private static Factor ofUnsorted(String name, List<? extends Prv> variables, 
+			int size, int[] indexes, BigDecimal[] values, int n) {
+		// sorting by index, then by position, keeps additions in order
+		long[] keys = new long[n];
+		for (int k = 0; k < n; k++) {
+			keys[k] = ((long) indexes[k] << 32) | k;
+		}
+		Arrays.sort(keys);
+		int[] idx = new int[n];
+		BigDecimal[] vals = new BigDecimal[n];
+		int m = 0;
+		for (int k = 0; k < n; k++) {
+			int index = (int) (keys[k] >>> 32);
+			BigDecimal value = values[(int) keys[k]];
+			if (m > 0 && idx[m - 1] == index) {
+				vals[m - 1] = vals[m - 1].add(value, MathUtils.CONTEXT);
+			} else {
+				idx[m] = index;
+				vals[m] = value;
+				m++;
+			}
+		}
+		return of(name, variables, size, idx, vals, m);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+	
+	@Override
+	public int getIndex(Tuple<RangeElement> tuple) throws IllegalArgumentException {
+		if (tuple.isEmpty()) {
+			throw new IllegalArgumentException("This tuple is empty!");
+		} 
+		int index = 0;
+		int r = 1;
+		for (int i = tuple.size() - 1; i >= 0; i--) {
+			index = index + r * variables.get(i).indexOf(tuple.get(i));
+			r = r * variables.get(i).rangeSize();
+		}
+		return index;
+	}
+	
+	
+	@Override
+	public Tuple<RangeElement> getTuple(int index) {
+		List<RangeElement> elements = new ArrayList<RangeElement>(variables.size());
+		for (int j = variables.size() - 1; j > 0; j--) {
+			int domainSize = variables.get(j).rangeSize();
+			elements.add(variables.get(j).rangeElementAt(index % domainSize));
+			index = index / domainSize;	
+		}
+		elements.add(variables.get(0).rangeElementAt(index));
+		Collections.reverse(elements);
+		return Tuple.getInstance(elements);
+	}
+	
+	
+	@Override
+	public BigDecimal getValue(int index) {
+		int k = Arrays.binarySearch(indexes, index);
+		return (k >= 0) ? values[k] : BigDecimal.ZERO;
+	}
+	
+	
+	@Override
+	public BigDecimal getValue(Tuple<RangeElement> tuple) {
+		return getValue(getIndex(tuple));
+	}
+	
+	
+	@Override
+	public Iterator<Tuple<RangeElement>> iterator() {
+		return new Iterator<Tuple<RangeElement>> () {
+			int nextElementToReturn;
+			
+			@Override
+			public boolean hasNext() {
+				return nextElementToReturn != size;
+			}
+			
+			@Override
+			public Tuple<RangeElement> next() {
+				int i = nextElementToReturn;
+				if (i >= size) {
+					throw new NoSuchElementException();
+				}
+				nextElementToReturn = i + 1;
+				return getTuple(i);
+			}
+			
+			/**
+			 * Throws {@link UnsupportedOperationException}.
+			 */
+			public void remove() {
+				throw new UnsupportedOperationException();
+			}
+		};
+	}
+	
+	
+	@Override
+	public FactorCursor cursor() {
+		return FactorCursor.over(variables);
+	}
+	
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	
+	/**
+	 * Returns the number of non-zero values in this factor.
+	 */
+	public int nonZeros() {
+		return indexes.length;
+	}
+	
+	
+	@Override
+	public String name() {
+		return name;
+	}
+	
+	
+	@Override
+	public List<Prv> variables() {
+		return new ArrayList<Prv>(variables);
+	}
+	
+	
+	@Override
+	public int numberOfVariables() {
+		return variables.size();
+	}
+	
+	
+	@Override
+	public Prv variableAt(int index) {
+		return variables.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(Prv prv) {
+		return variables.indexOf(prv);
+	}
+	
+	
+	@Override
+	public List<BigDecimal> values() {
+		BigDecimal[] dense = new BigDecimal[size];
+		Arrays.fill(dense, BigDecimal.ZERO);
+		for (int k = 0; k < indexes.length; k++) {
+			dense[indexes[k]] = values[k];
+		}
+		return new ArrayList<BigDecimal>(Arrays.asList(dense));
+	}
+	
+	
+	@Override
+	public boolean contains(Term t) {
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				return true;
+			}
+		}
+		return false;
+	}
+	
+	
+	@Override
+	public int occurrences(Term t) {
+		int count = 0;
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				count++;
+			}
+		}
+		return count;
+	}
+	
+	
+	@Override
+	public Prv getVariableHaving(Term t) {
+		Prv result = StdPrv.getInstance();
+		for (Prv prv : variables) {
+			if (prv.contains(t)) {
+				result = prv;
+			}
+		}
+		return result;
+	}
+	
+	
+	@Override
+	public boolean isSubFactorOf(Factor factor) {
+		return factor.variables().containsAll(variables);
+	}
+	
+	
+	/**
+	 * Returns <code>false</code>, since sparse factors have zeros.
+	 */
+	@Override
+	public boolean isConstant() {
+		return false;
+	}
+	
+	
+	@Override
+	public boolean isEmpty() {
+		return false;
+	}
+	
+	
+	/* ************************************************************************
+	 *    hashCode, equals and toString
+	 * ************************************************************************/
+	
+	/**
+	 * Returns the same hash code as a {@link StdFactor} with the same 
+	 * variables and values.
+	 */
+	@Override
+	public int hashCode() { 
+		int result = hashCode;
+		if (result == 0) {
+			result = 17;
+			result = 31 + result + Arrays.hashCode(variables.toArray(new Prv[variables.size()]));
+			result = 31 + result + Lists.hashCode(values());
+			hashCode = result;
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns <code>true</code> if the specified object is a sparse, 
+	 * standard, diagram or product factor with the same variables and values as 
+	 * this factor.
+	 */
+	@Override
+	public boolean equals(Object other) {
+		if (this == other) {
+			return true;
+		}
+		if (other instanceof SparseFactor) {
+			SparseFactor target = (SparseFactor) other;
+			return variables.equals(target.variables) 
+					&& Arrays.equals(indexes, target.indexes)
+					&& Lists.areEqual(Arrays.asList(values), Arrays.asList(target.values));
+		}
+		if (other instanceof StdFactor || other instanceof AddFactor 
+				|| other instanceof ProductFactor) {
+			Factor target = (Factor) other;
+			return variables.equals(target.variables()) 
+					&& Lists.areEqual(values(), target.values());
+		}
+		return false;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "";
+	}
+	
+	
+	/* ************************************************************************
+	 *    Setters
+	 * ************************************************************************/
+	
+	@Override
+	public Factor apply(Substitution s) {
+		List<Prv> substitutedVars = new ArrayList<Prv>(variables.size());
+		for (Prv prv : variables) {
+			substitutedVars.add(prv.apply(s));
+		}
+		return new SparseFactor(name, substitutedVars, indexes, values, size);
+	}
+	
+	
+	@Override
+	public Factor set(Tuple<RangeElement> tuple, BigDecimal value) {
+		List<BigDecimal> vals = values();
+		vals.set(getIndex(tuple), value);
+		return StdFactor.getInstance(name, variables, vals);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Multiplication, Power and Sum Out
+	 * ************************************************************************/
+	
+	/**
+	 * Sums out the specified PRV, adding the non-zero values of each group 
+	 * of tuples in the same order as {@link StdFactor#sumOut(Prv)}.
+	 */
+	@Override
+	public Factor sumOut(Prv prv) {
+		int position = variables.indexOf(prv);
+		if (position < 0) {
+			return this;
+		}
+		List<Prv> vars = new ArrayList<Prv>(variables);
+		vars.remove(position);
+		
+		int rangeSize = prv.rangeSize();
+		int stride = FactorCursor.over(variables).stride(position);
+		BigDecimal[] corrections = new BigDecimal[rangeSize];
+		for (int k = 0; k < rangeSize; k++) {
+			corrections[k] = prv.getSumOutCorrection(prv.rangeElementAt(k));
+		}
+		
+		int n = indexes.length;
+		int[] idx = new int[n];
+		BigDecimal[] vals = new BigDecimal[n];
+		for (int k = 0; k < n; k++) {
+			int high = indexes[k] / (stride * rangeSize);
+			int ordinal = (indexes[k] / stride) % rangeSize;
+			int low = indexes[k] % stride;
+			idx[k] = high * stride + low;
+			vals[k] = values[k].multiply(corrections[ordinal], MathUtils.CONTEXT);
+		}
+		if (vars.isEmpty()) {
+			// keeps the convention of StdFactor for factors without PRVs
+			BigDecimal sum = BigDecimal.ZERO;
+			for (int k = 0; k < n; k++) {
+				sum = sum.add(vals[k], MathUtils.CONTEXT);
+			}
+			return StdFactor.getInstance(name, vars, Lists.listOf(sum));
+		}
+		return ofUnsorted(name, vars, size / rangeSize, idx, vals, n);
+	}
+	
+	
+	/**
+	 * Returns this factor raised by <code>p/q</code>. Zeros stay zero when
+	 * the exponent is positive; otherwise, the power is computed on all 
+	 * values.
+	 */
+	@Override
+	public Factor pow(int p, int q) {
+		if ((p > 0) != (q > 0) || p == 0) {
+			return StdFactor.getDenseInstance(name, variables, values()).pow(p, q);
+		}
+		BigDecimal[] powers = new BigDecimal[values.length];
+		for (int k = 0; k < values.length; k++) {
+			powers[k] = MathUtils.pow(values[k], p, q);
+		}
+		return of(name, variables, size, indexes.clone(), powers, powers.length);
+	}
+	
+	
+	/**
+	 * Multiplies this factor with the specified factor. Only tuples where 
+	 * this factor is not zero are visited.
+	 * 
+	 * @see StdFactor#multiply(Factor)
+	 */
+	@Override
+	public Factor multiply(Factor factor) {
+		if (factor.isEmpty() || factor.isConstant()) {
+			return this;
+		}
+		if (factor instanceof AddFactor) {
+			return AddFactor.getInstance(this).multiply(factor);
+		}
+		return multiply(factor, true);
+	}
+	
+	
+	/**
+	 * Returns the product of the specified factor, which is not sparse, 
+	 * and this factor, in this order.
+	 */
+	Factor multiplyOnLeft(Factor factor) {
+		return multiply(factor, false);
+	}
+	
+	
+	/**
+	 * Returns the product of this factor and the specified factor. The 
+	 * variables of the first factor come first in the product and its 
+	 * values are the left operands of multiplications.
+	 */
+	private Factor multiply(Factor other, boolean isFirst) {
+		List<Prv> union = isFirst ? Lists.union(variables(), other.variables())
+				: Lists.union(other.variables(), variables());
+		String newName = isFirst ? name + "*" + other.name() : other.name() + "*" + name;
+		
+		// Strides of this factor's PRVs in the product and in the other factor
+		FactorCursor product = FactorCursor.over(union);
+		int[] unionStrides = new int[variables.size()];
+		int[] otherStrides = FactorCursor.over(variables).stridesIn(other);
+		for (int i = 0; i < unionStrides.length; i++) {
+			unionStrides[i] = product.stride(union.indexOf(variables.get(i)));
+		}
+		
+		// Offsets of the assignments to PRVs that are only in the other factor
+		List<Prv> free = Lists.difference(union, variables);
+		FactorCursor freeCursor = FactorCursor.over(free);
+		int freeSize = free.isEmpty() ? 1 : freeCursor.size();
+		int[] freeInUnion = new int[freeSize];
+		int[] freeInOther = new int[freeSize];
+		if (!free.isEmpty()) {
+			int[] strides = new int[free.size()];
+			int[] otherFreeStrides = freeCursor.stridesIn(other);
+			for (int i = 0; i < strides.length; i++) {
+				strides[i] = product.stride(union.indexOf(free.get(i)));
+			}
+			for (; freeCursor.isValid(); freeCursor.advance()) {
+				freeInUnion[freeCursor.index()] = freeCursor.indexIn(strides);
+				freeInOther[freeCursor.index()] = freeCursor.indexIn(otherFreeStrides);
+			}
+		}
+		
+		int[] idx = new int[indexes.length * freeSize];
+		BigDecimal[] vals = new BigDecimal[idx.length];
+		int[] radices = new int[variables.size()];
+		for (int i = 0; i < radices.length; i++) {
+			radices[i] = variables.get(i).rangeSize();
+		}
+		int n = 0;
+		for (int k = 0; k < indexes.length; k++) {
+			int unionBase = 0;
+			int otherBase = 0;
+			int rest = indexes[k];
+			for (int i = radices.length - 1; i >= 0; i--) {
+				int ordinal = rest % radices[i];
+				rest = rest / radices[i];
+				unionBase = unionBase + ordinal * unionStrides[i];
+				otherBase = otherBase + ordinal * otherStrides[i];
+			}
+			for (int f = 0; f < freeSize; f++) {
+				BigDecimal v = other.getValue(otherBase + freeInOther[f]);
+				if (v.signum() != 0) {
+					idx[n] = unionBase + freeInUnion[f];
+					vals[n] = isFirst ? values[k].multiply(v, MathUtils.CONTEXT)
+							: v.multiply(values[k], MathUtils.CONTEXT);
+					n++;
+				}
+			}
+		}
+		return ofUnsorted(newName, union, product.size(), idx, vals, n);
+	}
+	
+	
+	@Override
+	public Factor reorder(Factor reference) throws IllegalArgumentException {
+		if (!Lists.sameElements(variables(), reference.variables())) {
+			throw new IllegalArgumentException();
+		}
+		int[] referenceStrides = FactorCursor.over(variables).stridesIn(reference);
+		int[] idx = new int[indexes.length];
+		for (int k = 0; k < indexes.length; k++) {
+			int rest = indexes[k];
+			for (int i = variables.size() - 1; i >= 0; i--) {
+				int r = variables.get(i).rangeSize();
+				idx[k] = idx[k] + (rest % r) * referenceStrides[i];
+				rest = rest / r;
+			}
+		}
+		return ofUnsorted(name, reference.variables(), size, idx, values.clone(), idx.length);
+	}
+}
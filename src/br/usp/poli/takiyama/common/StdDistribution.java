@@ -15,45 +15,40 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.common;
 
+import java.util.Arrays;
 import java.util.Collection;
 import java.util.HashSet;
 import java.util.Iterator;
 import java.util.Set;
 
 import br.usp.poli.takiyama.prv.Substitution;
+import br.usp.poli.takiyama.utils.PersistentSet;
 import br.usp.poli.takiyama.utils.Sets;
 
 /**
  * Standard implementation of {@link Distribution}. This implementation is a
- * immutable set of {@link Parfactor}s.
+ * immutable set of {@link Parfactor}s. Distributions derived from one 
+ * another share structure, so adding a parfactor costs O(log n).
  * 
  * @author Felipe Takiyama
  *
  */
 public final class StdDistribution implements Distribution {
 
-	private Set<Parfactor> pSet;
+	// Immutable and structurally shared with distributions derived from it
+	private final PersistentSet<Parfactor> pSet;
 	
 	/* ************************************************************************
 	 *    Constructors
 	 * ************************************************************************/
 	
-	/**
-	 * Creates an empty distribution with the specified initial capacity.
-	 * @param capacity The initial capacity
-	 */
-	private StdDistribution(int capacity) {
-		this.pSet = new HashSet<Parfactor>(capacity);
-	}
-	
 	/**
 	 * Creates a distribution with the elements of the specified set.
 	 * @param p A set of parfactors whose elements will compose this 
 	 * distribution
 	 */
-	private StdDistribution(Set<Parfactor> p) {
-		pSet = new HashSet<Parfactor>(Math.max((int) (p.size()/.75f) + 1, 16));
-		pSet.addAll(p);
+	private StdDistribution(PersistentSet<Parfactor> p) {
+		pSet = p;
 	}
 	
 	/* ************************************************************************
@@ -64,7 +59,7 @@ public final class StdDistribution implements Distribution {
 	 * Creates an empty distribution
 	 */
 	public static Distribution of() {
-		return new StdDistribution(0);
+		return new StdDistribution(PersistentSet.<Parfactor> of());
 	}
 	
 	/**
@@ -73,12 +68,7 @@ public final class StdDistribution implements Distribution {
 	 * @throws NullPointerException If the specified parfators is <code>null</code>.
 	 */
 	public static Distribution of(Parfactor p1) throws NullPointerException {
-		if (p1 == null) {
-			throw new NullPointerException();
-		}
-		Set<Parfactor> set = new HashSet<Parfactor>(2);
-		set.add(p1);
-		return new StdDistribution(set);
+		return new StdDistribution(PersistentSet.<Parfactor> of().plus(p1));
 	}
 	
 	/**
@@ -89,13 +79,7 @@ public final class StdDistribution implements Distribution {
 	 * <code>null</code>.
 	 */
 	public static Distribution of(Parfactor p1, Parfactor p2) throws NullPointerException {
-		if (p1 == null || p2 == null) {
-			throw new NullPointerException();
-		}
-		Set<Parfactor> set = new HashSet<Parfactor>(2);
-		set.add(p1);
-		set.add(p2);
-		return new StdDistribution(set);
+		return new StdDistribution(PersistentSet.<Parfactor> of().plus(p1).plus(p2));
 	}
 	
 	/**
@@ -106,36 +90,25 @@ public final class StdDistribution implements Distribution {
 	 * <code>null</code>.
 	 */
 	public static Distribution of(Parfactor ... parfactors) throws NullPointerException {
-		Set<Parfactor> set = new HashSet<Parfactor>((int) (parfactors.length / 0.75));
-		for (Parfactor p : parfactors) {
-			if (p == null) {
-				throw new NullPointerException();
-			} else {
-				set.add(p);
-			}
-		}
-		return new StdDistribution(set);
+		return new StdDistribution(PersistentSet.<Parfactor> of().plusAll(Arrays.asList(parfactors)));
 	}
 	
 	/**
-	 * Creates a distribution with the specified collection of parfactors
+	 * Creates a distribution with the specified collection of parfactors.
+	 * If the collection is a {@link PersistentSet}, it is used without 
+	 * being copied.
 	 * @param c A collection of parfactors
 	 * @throws NullPointerException If the specified Collection contains a 
 	 * <code>null</code> element.
 	 */
 	public static Distribution of(Collection<? extends Parfactor> c) throws NullPointerException {
-		if (c.contains(null)) {
-			throw new NullPointerException();
-		}
-		StdDistribution dist = new StdDistribution(Math.max((int) (c.size()/.75f) + 1, 16));
-		dist.addAll(c);
-		return dist;
+		return new StdDistribution(PersistentSet.<Parfactor> of(c));
 	}
 	
 	/**
 	 * Creates a distribution that has the same elements as the specified
-	 * distribution. The order in which the elements are put in the new 
-	 * distribution is not necessarily the same as the specified distribution.
+	 * distribution. Since distributions are immutable, instances of 
+	 * StdDistribution are returned as they are.
 	 * 
 	 * @param d The distribution to "copy"
 	 * @return A distribution with the same elements as the specified 
@@ -144,20 +117,25 @@ public final class StdDistribution implements Distribution {
 	 * <code>null</code> element.
 	 */
 	public static Distribution of(Distribution d) throws NullPointerException {
-		if (d.contains(null)) {
-			throw new NullPointerException();
+		if (d instanceof StdDistribution) {
+			return d;
 		}
-		StdDistribution dist = new StdDistribution(Math.max((int) (d.size()/.75f) + 1, 16));
-		dist.addAll(d.toSet());
-		return dist;
+		return new StdDistribution(PersistentSet.<Parfactor> of(d.toSet()));
 	}
 	
 	/* ************************************************************************
 	 *    Auxiliary methods
 	 * ************************************************************************/
 	
-	private void addAll(Collection<? extends Parfactor> c) {
-		pSet.addAll(c);
+	/**
+	 * Returns the parfactors of the specified distribution as a persistent
+	 * set, without copying them when possible.
+	 */
+	static PersistentSet<Parfactor> parfactors(Distribution d) {
+		if (d instanceof StdDistribution) {
+			return ((StdDistribution) d).pSet;
+		}
+		return PersistentSet.<Parfactor> of(d.toSet());
 	}
 	
 	/* ************************************************************************
@@ -166,14 +144,12 @@ public final class StdDistribution implements Distribution {
 	
 	@Override
 	public Distribution add(Parfactor p) {
-		Set<Parfactor> newSet = new HashSet<Parfactor>(pSet);
-		newSet.add(p);
-		return new StdDistribution(newSet);
+		return new StdDistribution(pSet.plus(p));
 	}
 	
 	@Override
 	public Distribution addAll(Distribution d) {
-		return new StdDistribution(Sets.union(d.toSet(), pSet));
+		return new StdDistribution(pSet.plusAll(parfactors(d)));
 	}
 	
 	@Override
@@ -183,7 +159,7 @@ public final class StdDistribution implements Distribution {
 
 	@Override
 	public boolean containsAll(Distribution d) {
-		return pSet.containsAll(d.toSet());
+		return pSet.containsAll(parfactors(d));
 	}
 
 	@Override
@@ -208,7 +184,7 @@ public final class StdDistribution implements Distribution {
 	
 	@Override
 	public Distribution apply(Substitution s) {
-		return new StdDistribution(Sets.apply(s, pSet));
+		return new StdDistribution(PersistentSet.<Parfactor> of(Sets.apply(s, pSet)));
 	}
 
 	/* ************************************************************************
@@ -61,6 +61,12 @@ public class StdFactor implements Factor {
 	
 	private final int size;
 	
+	/**
+	 * Cached hash code, computed when first needed. Zero means not computed
+	 * yet, as in {@link String#hashCode()}.
+	 */
+	private int hashCode;
+	
 	
 	/* ************************************************************************
 	 *    Constructors
@@ -102,7 +108,7 @@ public class StdFactor implements Factor {
 			size = 0;
 		}
 		for (Prv prv : variables) {
-			size = size * prv.range().size();
+			size = size * prv.rangeSize();
 		}
 		return size;
 	}
@@ -118,6 +124,9 @@ public class StdFactor implements Factor {
 	 * The order of <code>values</code> is dependent on the order of the list
 	 * of PRVs and their ranges.
 	 * </p>
+	 * <p>
+	 * If most values are zero, returns a {@link SparseFactor}.
+	 * </p>
 	 * 
 	 * @param name The name of this factor
 	 * @param variables A ordered list of {@link Prv}.
@@ -128,6 +137,18 @@ public class StdFactor implements Factor {
 	 */
 	public static Factor getInstance(String name, List<? extends Prv> variables, 
 			List<BigDecimal> values) throws IllegalArgumentException {
+		return SparseFactor.getInstance(name, variables, values);
+	}
+	
+	
+	/**
+	 * Returns a parameterized factor that stores all of its values, 
+	 * regardless of how many of them are zero.
+	 * 
+	 * @see #getInstance(String, List, List)
+	 */
+	static Factor getDenseInstance(String name, List<? extends Prv> variables, 
+			List<BigDecimal> values) throws IllegalArgumentException {
 		return new StdFactor(name, variables, values);
 	}
 	
@@ -152,12 +173,19 @@ public class StdFactor implements Factor {
 	 * Returns a parameterized factor with the same variables and values as
 	 * the specified factor.
 	 * 
+	 * Since instances of StdFactor, {@link SparseFactor} and 
+	 * {@link AddFactor} are immutable, they are returned as they are.
+	 * 
 	 * @param factor The factor to "copy"
 	 * @return A parameterized factor with the same variables and values as
 	 * the specified factor.
 	 */
 	public static Factor getInstance(Factor factor) {
-		return new StdFactor(factor.name(), factor.variables(), factor.values());
+		if (factor.getClass() == StdFactor.class || factor instanceof SparseFactor
+				|| factor instanceof AddFactor) {
+			return factor;
+		}
+		return getInstance(factor.name(), factor.variables(), factor.values());
 	}
 	
 	
@@ -243,7 +271,7 @@ public class StdFactor implements Factor {
 	 * @return
 	 */
 	private int indexOf(int i, Tuple<RangeElement> tuple) {
-		return variables.get(i).range().indexOf(tuple.get(i));
+		return variables.get(i).indexOf(tuple.get(i));
 	}
 	
 	
@@ -256,12 +284,12 @@ public class StdFactor implements Factor {
 	 * factor.
 	 */
 	private int rangeSize(int i) {
-		return variables.get(i).range().size();
+		return variables.get(i).rangeSize();
 	}
 	
 	
 	private RangeElement rangeElementAt(int rangeIndex, int prvIndex) {
-		return variables.get(prvIndex).range().get(rangeIndex);
+		return variables.get(prvIndex).rangeElementAt(rangeIndex);
 	}
 	
 	
@@ -339,6 +367,12 @@ public class StdFactor implements Factor {
 	}
 	
 	
+	@Override
+	public FactorCursor cursor() {
+		return FactorCursor.over(variables);
+	}
+	
+	
 	/**
 	 * Returns an iterator over all tuples of a parameterized factor having
 	 * the specified variables.
@@ -378,6 +412,24 @@ public class StdFactor implements Factor {
 	}
 	
 	
+	@Override
+	public int numberOfVariables() {
+		return variables.size();
+	}
+	
+	
+	@Override
+	public Prv variableAt(int index) {
+		return variables.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(Prv prv) {
+		return variables.indexOf(prv);
+	}
+	
+	
 	@Override
 	public List<BigDecimal> values() {
 		// TODO make it more flexible
@@ -475,9 +527,13 @@ public class StdFactor implements Factor {
 	
 	@Override
 	public int hashCode() { 
-		int result = 17;
-		result = 31 + result + Arrays.hashCode(variables.toArray(new Prv[variables.size()]));
-		result = 31 + result + Lists.hashCode(values);
+		int result = hashCode;
+		if (result == 0) {
+			result = 17;
+			result = 31 + result + Arrays.hashCode(variables.toArray(new Prv[variables.size()]));
+			result = 31 + result + Lists.hashCode(values);
+			hashCode = result;
+		}
 		return result;
 	}
 	
@@ -487,6 +543,10 @@ public class StdFactor implements Factor {
 		// Tests if both refer to the same object
 		if (this == other)
 	    	return true;
+		// Sparse, diagram and product factors compare values with standard factors
+		if (other instanceof SparseFactor || other instanceof AddFactor 
+				|| other instanceof ProductFactor)
+			return other.equals(this);
 		// Tests if the Object is an instance of this class
 	    if (!(other instanceof StdFactor))
 	    	return false;
@@ -642,7 +702,8 @@ public class StdFactor implements Factor {
 		vars.remove(prv);
 		
 		// Creates the new mapping, summing out the PRV
-		List<BigDecimal> vals = new ArrayList<BigDecimal>(size / prv.range().size());
+		int rangeSize = prv.rangeSize();
+		List<BigDecimal> vals = new ArrayList<BigDecimal>(size / rangeSize);
 		int prvIndex = variables.indexOf(prv);
 		for (int i = 0; i < size; i++) {
 			
@@ -653,7 +714,8 @@ public class StdFactor implements Factor {
 				
 				// Builds all tuples varying only the PRV being summed out
 				// and sums their values
-				for (RangeElement e : prv.range()) {
+				for (int k = 0; k < rangeSize; k++) {
+					RangeElement e = prv.rangeElementAt(k);
 					Tuple<RangeElement> next = current.set(prvIndex, e);
 					BigDecimal correction = prv.getSumOutCorrection(e);
 					sum = sum.add(getValue(next).multiply(correction, MathUtils.CONTEXT), MathUtils.CONTEXT);
@@ -731,21 +793,28 @@ public class StdFactor implements Factor {
 		if (factor.isConstant()) {
 			return this;
 		}
+		if (factor instanceof SparseFactor) {
+			return ((SparseFactor) factor).multiplyOnLeft(this);
+		}
+		if (factor instanceof AddFactor && numberOfVariables() > 0) {
+			return AddFactor.getInstance(this).multiply(factor);
+		}
 		
 		String newName = name() + "*" + factor.name();
 		List<Prv> union = Lists.union(variables(), factor.variables());
 		List<BigDecimal> mult = new ArrayList<BigDecimal>(getSize(union));
 		
-		int[][] mapOfCommomVariables = getMapOfCommomVariables(this, factor);
-		
-		for (Tuple<RangeElement> t1 : this) {
-			for (Tuple<RangeElement> t2 : factor) {
-				if (haveSameSubtuple(t1, t2, mapOfCommomVariables)) {
-					mult.add(getValue(t1).multiply(factor.getValue(t2), MathUtils.CONTEXT));
-				}
-			}
+		// Tuples of the union are visited in the same order as the pairs of
+		// matching tuples from both factors
+		FactorCursor cursor = FactorCursor.over(union);
+		int[] strides = cursor.stridesIn(this);
+		int[] otherStrides = cursor.stridesIn(factor);
+		for (; cursor.isValid(); cursor.advance()) {
+			BigDecimal v1 = values.get(cursor.indexIn(strides));
+			BigDecimal v2 = factor.getValue(cursor.indexIn(otherStrides));
+			mult.add(v1.multiply(v2, MathUtils.CONTEXT));
 		}
-				
+		
 		return getInstance(newName, union, mult);
 	}
 	
@@ -783,13 +852,14 @@ public class StdFactor implements Factor {
 	 * @return A mapping of indexes from common variables between f1 and f2.
 	 */
 	private int[][] getMapOfCommomVariables(Factor f1, Factor f2) {
-		int[][] mapping = new int[2][f1.variables().size()];
+		int[][] mapping = new int[2][f1.numberOfVariables()];
 		int size = 0;
 		
-		for (Prv prv1 : f1.variables()) {
-			if (f2.variables().contains(prv1)) {
-				mapping[0][size] = f1.variables().indexOf(prv1);
-				mapping[1][size] = f2.variables().indexOf(prv1);
+		for (int i = 0; i < f1.numberOfVariables(); i++) {
+			int j = f2.indexOf(f1.variableAt(i));
+			if (j >= 0) {
+				mapping[0][size] = i;
+				mapping[1][size] = j;
 				size++;
 			}
 		}
@@ -815,35 +885,19 @@ public class StdFactor implements Factor {
 	}
 	
 	
-	/**
-	 * Returns <code>true</code> if both tuples have the same sub-tuple. 
-	 * The sub-tuple is defined according to a map. 
-	 * 
-	 * @see Factor#getMapOfCommomVariables 
-	 * @param t1 The first tuple to check
-	 * @param t2 The second tuple to check
-	 * @param map A mapping that connects indexes representing the same PRV
-	 * @return <code>true</code> if tuples have the same value for the 
-	 * sub-tuple, <code>false</code> otherwise.
-	 */
-	private boolean haveSameSubtuple(Tuple<?> t1, Tuple<?> t2, int[][] map) {
-		Tuple<?> st1 = t1.subTuple(map[0]);
-		Tuple<?> st2 = t2.subTuple(map[1]);
-		return st1.equals(st2);
-	}
-	
 	@Override
 	public Factor reorder(Factor reference) throws IllegalArgumentException {
 		if (!Lists.sameElements(variables(), reference.variables())) {
 			throw new IllegalArgumentException();
 		}
 		
-		int[][] mapOfCommomVariables = getMapOfCommomVariables(reference, this);
+		// maps each PRV of this factor to its position in the reference
+		int[][] mapOfCommomVariables = getMapOfCommomVariables(this, reference);
 		List<BigDecimal> reordered = new ArrayList<BigDecimal>(size);
 		for (Tuple<RangeElement> tuple : reference) {
 			List<RangeElement> r = new ArrayList<RangeElement>(tuple.size());
 			
-			// builds the reordered tuple
+			// builds the tuple of this factor with the same assignment
 			for (int i = 0; i < mapOfCommomVariables[1].length; i++) {
 				r.add(tuple.get(mapOfCommomVariables[1][i]));
 			}
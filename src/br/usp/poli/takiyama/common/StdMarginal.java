@@ -24,6 +24,7 @@ import java.util.Set;
 import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.Prvs;
 import br.usp.poli.takiyama.prv.RandomVariableSet;
+import br.usp.poli.takiyama.utils.PersistentSet;
 import br.usp.poli.takiyama.utils.Sets;
 
 
@@ -38,15 +39,20 @@ public final class StdMarginal implements Marginal {
 
 	public static final class StdMarginalBuilder implements Builder<StdMarginal> {
 
-		private Set<Parfactor> parfactors;
+		// Persistent, so building does not copy parfactors
+		private PersistentSet<Parfactor> parfactors;
 		private RandomVariableSet preservable;
 
 		/**
 		 * Constructs an empty builder with the specified capacity.
+		 * <p>
+		 * Parfactors are kept in a persistent set, which needs no initial
+		 * capacity. The argument is kept for compatibility.
+		 * </p>
 		 * @param capacity
 		 */
 		public StdMarginalBuilder(int capacity) {
-			parfactors = Sets.getInstance(capacity);
+			parfactors = PersistentSet.of();
 			preservable = RandomVariableSet.getInstance();
 		}
 		
@@ -69,8 +75,7 @@ public final class StdMarginal implements Marginal {
 		 * @return This builder with the specified parfactors.
 		 */
 		public StdMarginalBuilder parfactors(Parfactor first, Parfactor ... remaining) {
-			parfactors.add(first);
-			parfactors.addAll(Arrays.asList(remaining));
+			parfactors = parfactors.plus(first).plusAll(Arrays.asList(remaining));
 			return this;
 		}
 		
@@ -86,7 +91,7 @@ public final class StdMarginal implements Marginal {
 		 */
 		public StdMarginalBuilder parfactors(Set<Parfactor> parfactors) {
 			if (parfactors != null && parfactors.size() > 0) {
-				this.parfactors.addAll(parfactors);
+				this.parfactors = this.parfactors.plusAll(parfactors);
 			}
 			return this;
 		}
@@ -104,7 +109,7 @@ public final class StdMarginal implements Marginal {
 		 * @return This builder with the specified parfactors.
 		 */
 		public StdMarginalBuilder parfactors(Distribution distribution) {
-			return parfactors(distribution.toSet());
+			return parfactors(StdDistribution.parfactors(distribution));
 		}
 		
 		/**
@@ -119,7 +124,9 @@ public final class StdMarginal implements Marginal {
 		 * added.
 		 */
 		public StdMarginalBuilder add(Marginal marginal) {
-			parfactors.addAll(marginal.distribution().toSet());
+			PersistentSet<Parfactor> others = StdDistribution.parfactors(marginal.distribution());
+			// shares the set of the marginal when this builder is empty
+			parfactors = parfactors.isEmpty() ? others : parfactors.plusAll(others);
 			preservable = marginal.preservable();
 			return this;
 		}
@@ -132,7 +139,7 @@ public final class StdMarginal implements Marginal {
 		 * @return This builder with the specified parfactor added
 		 */
 		public StdMarginalBuilder add(Parfactor parfactor) {
-			parfactors.add(parfactor);
+			parfactors = parfactors.plus(parfactor);
 			return this;
 		}
 		
@@ -163,8 +170,8 @@ public final class StdMarginal implements Marginal {
 		 * one.
 		 */
 		public StdMarginalBuilder replace(Parfactor oldOne, Parfactor newOne) {
-			if (parfactors.remove(oldOne)) {
-				parfactors.add(newOne);
+			if (parfactors.contains(oldOne)) {
+				parfactors = parfactors.minus(oldOne).plus(newOne);
 			}
 			return this;
 		}
@@ -178,7 +185,7 @@ public final class StdMarginal implements Marginal {
 		 * @return This builder with the specified parfactor removed
 		 */
 		public StdMarginalBuilder remove(Parfactor removable) {
-			parfactors.remove(removable);
+			parfactors = parfactors.minus(removable);
 			return this;
 		}
 		
@@ -237,9 +244,13 @@ public final class StdMarginal implements Marginal {
 		return preservable;
 	}
 
+	/**
+	 * Returns the distribution of this marginal. Distributions are immutable,
+	 * so no copy is made.
+	 */
 	@Override
 	public Distribution distribution() {
-		return StdDistribution.of(parfactors);
+		return parfactors;
 	}
 	
 	@Override
@@ -15,6 +15,9 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.prv;
 
+import java.util.HashSet;
+import java.util.Set;
+
 import br.usp.poli.takiyama.common.Constraint;
 import br.usp.poli.takiyama.common.InequalityConstraint;
 
@@ -123,6 +126,55 @@ public class Binding {
 	}
 	
 	
+	/**
+	 * Returns <code>true</code> if the second term is a 
+	 * {@link LogicalVariable} whose population is a proper subset of the
+	 * first term's population. Such a binding replaces the first term only
+	 * for part of its individuals.
+	 * 
+	 * @return <code>true</code> if the second term ranges over part of the
+	 * first term's population, <code>false</code> otherwise.
+	 */
+	public boolean isRestriction() {
+		if (secondTerm.isConstant()) {
+			return false;
+		}
+		Population restricted = firstTerm.population();
+		Population restriction = ((LogicalVariable) secondTerm).population();
+		return restricted.size() > restriction.size() 
+				&& restricted.containsAll(restriction);
+	}
+	
+	
+	/**
+	 * Returns the constraints from the specified set that remain meaningful
+	 * after applying this binding. When the second term is a logical 
+	 * variable, unary constraints between the first term and individuals 
+	 * outside the population of the second term are dropped, since they 
+	 * would not exclude anyone.
+	 * 
+	 * @param constraints The constraints to filter
+	 * @return The constraints that remain meaningful after applying this
+	 * binding
+	 */
+	public Set<Constraint> relevant(Set<Constraint> constraints) {
+		if (secondTerm.isConstant()) {
+			return new HashSet<Constraint>(constraints);
+		}
+		Population individuals = ((LogicalVariable) secondTerm).population();
+		Set<Constraint> relevant = new HashSet<Constraint>(constraints.size());
+		for (Constraint c : constraints) {
+			boolean isOutside = c.isUnary() && c.contains(firstTerm)
+					&& !individuals.contains((Constant) (c.firstTerm().isConstant() 
+							? c.firstTerm() : c.secondTerm()));
+			if (!isOutside) {
+				relevant.add(c);
+			}
+		}
+		return relevant;
+	}
+	
+	
 	/**
 	 * Returns this binding converted to {@link InequalityConstraint}.
 	 * 
@@ -15,15 +15,27 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.prv;
 
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
 
 /**
  * A constant is a word that starts with a lower-case letter. [Poole, 2010]
+ * <p>
+ * Constants are interned: there is only one instance for each value, and
+ * each instance keeps the canonical instance of its value in 
+ * {@link SymbolTable#CONSTANTS}. Equality compares canonical values by
+ * reference. Interning is weak, so constants that are no longer used can
+ * be garbage collected.
+ * </p>
  * @author Felipe Takiyama
  *
  */
 public final class Constant implements Term {
 	
 	private final String value;
+	
+	// Interned constants
+	private static final Interner<Constant> instances = Interners.newWeakInterner();
 
 	/* ************************************************************************
 	 *    Constructors
@@ -37,13 +49,13 @@ public final class Constant implements Term {
 	 * with a lower-case letter.
 	 */
 	private Constant(String value) throws IllegalArgumentException {
-		this.value = new String(value);
-		
 		if (Character.isUpperCase(value.charAt(0))) {
 			throw new IllegalArgumentException("Exception while creating " +
 					"Constant: '" + value + "' must start with " +
 					"lowercase letter.");
 		}
+		
+		this.value = SymbolTable.CONSTANTS.intern(value);
 	}
 		
 	
@@ -52,7 +64,7 @@ public final class Constant implements Term {
 	 * ************************************************************************/
 
 	/**
-	 * Creates a constant. 
+	 * Returns the constant with the specified value. 
 	 * 
 	 * @param value The value of the constant. It must start with a lower-case
 	 * letter.
@@ -60,17 +72,18 @@ public final class Constant implements Term {
 	 * with a lower-case letter.
 	 */
 	public static Constant getInstance(String value) throws IllegalArgumentException {
-		return new Constant(value);
+		return instances.intern(new Constant(value));
 	}
 	
 	
 	/**
-	 * Returns a constant that is a copy of the specified constant.
+	 * Returns the specified constant. Constants are immutable and interned,
+	 * so there is no need to copy them.
 	 * @param c The constant to copy.
-	 * @return A constant that is a copy of the specified constant.
+	 * @return The specified constant.
 	 */
 	public static Constant getInstance(Constant c) {
-		return new Constant(c.value());
+		return c;
 	}
 
 	
@@ -83,7 +96,7 @@ public final class Constant implements Term {
 		return value;
 	}
 	
-
+	
 	@Override
 	public boolean isVariable() {
 		return false;
@@ -115,7 +128,7 @@ public final class Constant implements Term {
 	    	return false;
 	    // Tests if both have the same attributes
 	    Constant targetObject = (Constant) other;
-	    return this.value.equals(targetObject.value);	    		
+	    return this.value == targetObject.value;	    		
 	}
 	
 	@Override
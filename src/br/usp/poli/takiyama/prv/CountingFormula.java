@@ -24,7 +24,7 @@ import java.util.Set;
 
 import br.usp.poli.takiyama.common.Constraint;
 import br.usp.poli.takiyama.common.InequalityConstraint;
-import br.usp.poli.takiyama.utils.MathUtils;
+import br.usp.poli.takiyama.utils.Coefficients;
 
 /**
  * Definition by [Kisynski, 2010]:
@@ -55,6 +55,9 @@ public final class CountingFormula implements Prv {
 	//private final List<Histogram<? extends RangeElement>> range;
 	private final List<Histogram<RangeElement>> range;
 	
+	// Multinomial of each histogram, computed when first needed
+	private volatile BigDecimal[] sumOutCorrections;
+	
 	
 	/* ************************************************************************
 	 *    Constructors
@@ -83,7 +86,6 @@ public final class CountingFormula implements Prv {
 		this.prv = StdPrv.getInstance(prv);
 		this.bound = StdLogicalVariable.getInstance(bound);
 		this.constraints = new HashSet<Constraint>(constraints);
-		this.range = new ArrayList<Histogram<RangeElement>>(); 
 		
 		if (!prv.contains(bound)) {
 			throw new IllegalArgumentException();
@@ -101,7 +103,9 @@ public final class CountingFormula implements Prv {
 		
 		int allowedDomainSize = this.bound.numberOfIndividualsSatisfying(constraints);
 		Histogram<RangeElement> histogram = new Histogram<RangeElement>(prv.range());
-		generateHistograms(this.range, allowedDomainSize, histogram, 0);
+		List<Histogram<RangeElement>> histograms = new ArrayList<Histogram<RangeElement>>();
+		generateHistograms(histograms, allowedDomainSize, histogram, 0);
+		this.range = OrdinalTable.of(histograms);
 	}
 	
 	
@@ -134,13 +138,17 @@ public final class CountingFormula implements Prv {
 			int maxCount, Histogram<RangeElement> histogram, int currentBucket) {
 		
 		if (currentBucket == histogram.size() - 1 || maxCount == 0) {
-			histogram.setCount(prv.range().get(currentBucket), maxCount);
+			histogram.setCount(prv.rangeElementAt(currentBucket), maxCount);
+			// clears counts left by previous histograms
+			for (int i = currentBucket + 1; i < histogram.size(); i++) {
+				histogram.setCount(prv.rangeElementAt(i), 0);
+			}
 			allHistograms.add(new Histogram<RangeElement>(histogram));
 			return;
 		}
 		int count = maxCount;
 		while (count >= 0) {
-			histogram.setCount(prv.range().get(currentBucket), count);
+			histogram.setCount(prv.rangeElementAt(currentBucket), count);
 			generateHistograms(allHistograms, maxCount - count, histogram, 
 					currentBucket + 1);
 			count--;
@@ -287,6 +295,24 @@ public final class CountingFormula implements Prv {
 	}
 	
 	
+	@Override
+	public int rangeSize() {
+		return range.size();
+	}
+	
+	
+	@Override
+	public RangeElement rangeElementAt(int index) {
+		return range.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(RangeElement e) {
+		return range.indexOf(e);
+	}
+	
+	
 	/**
 	 * Returns the size of the range of the PRV associated with this 
 	 * counting formula.
@@ -295,7 +321,7 @@ public final class CountingFormula implements Prv {
 	 * counting formula.
 	 */
 	public int prvRangeSize() {
-		return prv.range().size();
+		return prv.rangeSize();
 	}
 
 	
@@ -317,14 +343,83 @@ public final class CountingFormula implements Prv {
 	 */
 	public int getCount(RangeElement histogram, RangeElement bucket) {
 		int count = -1;
-		if (range.contains(histogram)) {
-			int hIndex = range.indexOf(histogram);
+		int hIndex = range.indexOf(histogram);
+		if (hIndex >= 0) {
 			count = range.get(hIndex).getCount(bucket);
 		}
 		return count;
 	}
 	
 	
+	/**
+	 * Returns the counts of the histogram at the specified position in the
+	 * range of this counting formula. Counts are given in the order of the
+	 * range of the counted PRV.
+	 * 
+	 * @param index The position of the histogram in the range
+	 * @return The counts of the histogram at the specified position
+	 * @throws IndexOutOfBoundsException If the index is out of range
+	 */
+	public int[] getCounts(int index) throws IndexOutOfBoundsException {
+		return range.get(index).counts();
+	}
+	
+	
+	/**
+	 * Returns the position in the range of this counting formula of the 
+	 * histogram with the specified counts, given in the order of the range 
+	 * of the counted PRV, or -1 if there is no such histogram.
+	 * <p>
+	 * Histograms are generated with counts in decreasing order, from the 
+	 * first bucket to the last, so the position is computed from the counts
+	 * instead of searched: for each bucket, it skips the histograms that 
+	 * have the same counts in previous buckets and a greater count in this
+	 * one.
+	 * </p>
+	 * 
+	 * @see #getCounts(int)
+	 * @param counts The count of each bucket
+	 * @return The position of the histogram with the specified counts
+	 */
+	public int indexOf(int[] counts) {
+		if (counts.length != prvRangeSize()) {
+			return -1;
+		}
+		int left = bound.numberOfIndividualsSatisfying(constraints);
+		long index = 0;
+		for (int i = 0; i < counts.length - 1; i++) {
+			if (counts[i] < 0 || counts[i] > left) {
+				return -1;
+			}
+			// histograms with count in (counts[i], left] on bucket i
+			int buckets = counts.length - i - 1;
+			index = index + compositions(left - counts[i] - 1, buckets + 1);
+			left = left - counts[i];
+		}
+		if (counts[counts.length - 1] != left) {
+			return -1;
+		}
+		return (int) index;
+	}
+	
+	
+	/**
+	 * Returns C(n + k - 1, k - 1), the number of ways of putting n elements 
+	 * in k buckets, which is zero when n is negative.
+	 */
+	private static long compositions(int n, int k) {
+		if (n < 0) {
+			return 0;
+		}
+		long result = 1;
+		int m = Math.min(n, k - 1);
+		for (int i = 1; i <= m; i++) {
+			result = result * (n + k - 1 - m + i) / i;
+		}
+		return result;
+	}
+	
+	
 	/**
 	 * Returns <code>true</code> if the counting formula can be converted to a 
 	 * standard parameterized random variable, <code>false</code> otherwise.
@@ -348,9 +443,27 @@ public final class CountingFormula implements Prv {
 	 */
 	@Override
 	public BigDecimal getSumOutCorrection(RangeElement e) {
+		int index = range.indexOf(e);
+		if (index >= 0) {
+			return sumOutCorrections()[index];
+		}
 		@SuppressWarnings("unchecked")
 		Histogram<RangeElement> h = (Histogram<RangeElement>) e;
-		return new BigDecimal(MathUtils.multinomial(h.toMultinomial()));
+		return new BigDecimal(Coefficients.multinomial(h.counts()));
+	}
+	
+	
+	private BigDecimal[] sumOutCorrections() {
+		BigDecimal[] corrections = sumOutCorrections;
+		if (corrections == null) {
+			corrections = new BigDecimal[range.size()];
+			for (int i = 0; i < corrections.length; i++) {
+				int[] counts = range.get(i).counts();
+				corrections[i] = new BigDecimal(Coefficients.multinomial(counts));
+			}
+			sumOutCorrections = corrections;
+		}
+		return corrections;
 	}
 	
 	
@@ -16,13 +16,9 @@
 package br.usp.poli.takiyama.prv;
 
 import java.util.ArrayList;
-import java.util.Collection;
-import java.util.HashSet;
 import java.util.LinkedHashMap;
 import java.util.List;
-import java.util.Set;
 
-import br.usp.poli.takiyama.utils.Lists;
 import br.usp.poli.takiyama.utils.MathUtils.Multinomial;
 
 /**
@@ -160,6 +156,20 @@ public final class Histogram<T extends RangeElement> implements RangeElement {
 	}
 	
 	
+	/**
+	 * Returns the counts of this histogram, in the order of the range of 
+	 * the counted PRV.
+	 */
+	int[] counts() {
+		int[] counts = new int[distribution.size()];
+		int i = 0;
+		for (Integer count : distribution.values()) {
+			counts[i++] = count.intValue();
+		}
+		return counts;
+	}
+	
+	
 	/**
 	 * Returns this histogram with the count of the specified bucket 
 	 * incremented by 1.
@@ -188,35 +198,41 @@ public final class Histogram<T extends RangeElement> implements RangeElement {
 	 * instance, suppose that h = (#.false = 2, #.true = 3) is a histogram.
 	 * Then the expanded histogram list is {false, false, true, true, true}.
 	 * </p>
+	 * <p>
+	 * Multiplicities matter for operators such as XOR and SUM, so the
+	 * operator is folded over the expanded histogram, one element at a time.
+	 * </p>
+	 * 
+	 * @throws IllegalArgumentException If all buckets are empty
 	 */
 	@Override
-	public RangeElement apply(Operator<? extends RangeElement> op) {
-		List<T> expandedHistogram = new ArrayList<T>();
-		for (T key : distribution.keySet()) {
-			int count = getCount(key);
-			expandedHistogram.addAll(Lists.listOf(key, count));
-		}
-		return apply(op, expandedHistogram);
+	public RangeElement apply(Operator<? extends RangeElement> op) 
+			throws IllegalArgumentException {
+		return fold(op);
 	}
 	
 	
 	/**
-	 * Returns the result of applying the specified operator to the specified
-	 * set of elements. This is a helper method.
+	 * Folds the specified operator over the expanded histogram. This is a 
+	 * helper method.
 	 * 
 	 * @param <E> The type of element to which the operator applies
 	 * @param op The operator to apply
-	 * @param elements The set of elements where the operator will be applied
-	 * @return The result of applying the specified operator to the specified
-	 * set of elements
+	 * @return The result of applying the specified operator to the elements
+	 * of the expanded histogram
 	 */
-	private <E extends RangeElement> E apply(Operator<E> op, 
-			Collection<T> elements) {
-		Set<E> elems = new HashSet<E>((int) (elements.size() / 0.75));
-		for (RangeElement e : elements) {
-			elems.add(op.getTypeArgument().cast(e));
+	private <E extends RangeElement> E fold(Operator<E> op) {
+		E result = null;
+		for (T key : distribution.keySet()) {
+			E e = op.getTypeArgument().cast(key);
+			for (int count = getCount(key); count > 0; count--) {
+				result = (result == null) ? e : op.applyOn(result, e);
+			}
+		}
+		if (result == null) {
+			throw new IllegalArgumentException("Empty histogram");
 		}
-		return op.applyOn(elems);
+		return result;
 	}
 	
 	
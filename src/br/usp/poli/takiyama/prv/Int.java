@@ -0,0 +1,153 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * This class represents integer values, wrapping the <code>int</code>
+ * primitive type. Integer range elements are aggregated by {@link Sum},
+ * {@link Max} and {@link Min}.
+ * 
+ * @author Felipe Takiyama
+ *
+ */
+public final class Int implements RangeElement {
+	
+	// Instances for small values, shared like Bool.TRUE and Bool.FALSE
+	private static final Int[] CACHE = new Int[256];
+	
+	static {
+		for (int i = 0; i < CACHE.length; i++) {
+			CACHE[i] = new Int(i);
+		}
+	}
+	
+	private final int value;
+
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	/**
+	 * Creates an Int object with the specified integer value.
+	 * @param value The value of this object
+	 */
+	private Int(int value) {
+		this.value = value;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+
+	/**
+	 * Returns an <code>Int</code> instance representing the specified 
+	 * integer value. 
+	 * 
+	 * @param i An integer value
+	 * @return An <code>Int</code> instance representing <code>i</code>
+	 */
+	public static Int valueOf(int i) {
+		if (i >= 0 && i < CACHE.length) {
+			return CACHE[i];
+		}
+		return new Int(i);
+	}
+	
+	
+	/**
+	 * Returns the list of integers from <code>min</code> to 
+	 * <code>max</code>, inclusive, to be used as the range of some 
+	 * parameterized random variable.
+	 * 
+	 * @param min The smallest element of the range
+	 * @param max The biggest element of the range
+	 * @return The list {min, min + 1, ..., max}
+	 * @throws IllegalArgumentException If <code>min > max</code>
+	 */
+	public static List<RangeElement> range(int min, int max) 
+			throws IllegalArgumentException {
+		if (min > max) {
+			throw new IllegalArgumentException("Empty range: " + min + ".." + max);
+		}
+		List<RangeElement> range = new ArrayList<RangeElement>(max - min + 1);
+		for (int i = min; i <= max; i++) {
+			range.add(valueOf(i));
+		}
+		return range;
+	}
+
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+
+	/**
+	 * Returns the value of this <code>Int</code> object as an int
+	 * primitive.
+	 * 
+	 * @return the primitive <code>int</code> value of this object
+	 */
+	public int value() {
+		return value;
+	}
+	
+	
+	/**
+	 * Throws {@link UnsupportedOperationException}.
+	 */
+	public RangeElement combine(RangeElement e) {
+		throw new UnsupportedOperationException("Not implemented");
+	}
+	
+
+	/**
+	 * Returns this object.
+	 */
+	@Override
+	public RangeElement apply(Operator<? extends RangeElement> op) {
+		return this;
+	}
+	
+	
+	/* ************************************************************************
+	 *    hashCode, equals and toString
+	 * ************************************************************************/
+
+	@Override
+	public int hashCode() {
+		return value;
+    }
+	
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (obj instanceof Int) {
+			return value == ((Int) obj).value;
+		}
+        return false;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return String.valueOf(value);
+	}
+}
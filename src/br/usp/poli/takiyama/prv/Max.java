@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import java.util.Set;
+
+/**
+ * The <code>MAX</code> operator, applicable to {@link Int} elements.
+ * 
+ * @author Felipe Takiyama
+ */
+public final class Max implements Operator<Int> {
+	
+	/**
+	 * The <code>Max</code> operator. It is applicable to integer arguments.
+	 */
+	public static final Max MAX = new Max();
+	
+	/**
+	 * Private constructor that enforces non-instantiability.
+	 */
+	private Max() { }
+	
+	
+	@Override
+	public Int applyOn(Int e1, Int e2) {
+		return Int.valueOf(Math.max(e1.value(), e2.value()));
+	}
+
+	
+	@Override
+	public Int applyOn(Int e1, Int e2, Int e3) {
+		return Int.valueOf(Math.max(e1.value(), Math.max(e2.value(), e3.value())));
+	}
+	
+
+	@Override
+	public Int applyOn(Set<Int> s) throws IllegalArgumentException,
+	  		NullPointerException {
+		
+		if (s == null) {
+			throw new NullPointerException();
+		}
+		if (s.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		if (s.size() == 1) {
+			return s.iterator().next();
+		}
+		int result = Integer.MIN_VALUE;
+		for (Int i : s) {
+			result = Math.max(result, i.value());
+		}
+		return Int.valueOf(result);
+	}
+
+	
+	@Override
+	public Int apply(Int e, int n) throws IllegalArgumentException,
+			NullPointerException {
+		
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		if (n < 0) {
+			throw new IllegalArgumentException();
+		}
+		return e; // trivial operation: the maximum of equal elements
+	}
+	
+	
+	@Override
+	public Class<Int> getTypeArgument() {
+		return Int.class;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "MAX";
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		return (obj instanceof Max);
+	}
+	
+	/**
+	 * Returns 5.
+	 */
+	@Override
+	public int hashCode() {
+		return 5; // singleton
+	}
+}
@@ -0,0 +1,111 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import java.util.Set;
+
+/**
+ * The <code>MIN</code> operator, applicable to {@link Int} elements.
+ * 
+ * @author Felipe Takiyama
+ */
+public final class Min implements Operator<Int> {
+	
+	/**
+	 * The <code>Min</code> operator. It is applicable to integer arguments.
+	 */
+	public static final Min MIN = new Min();
+	
+	/**
+	 * Private constructor that enforces non-instantiability.
+	 */
+	private Min() { }
+	
+	
+	@Override
+	public Int applyOn(Int e1, Int e2) {
+		return Int.valueOf(Math.min(e1.value(), e2.value()));
+	}
+
+	
+	@Override
+	public Int applyOn(Int e1, Int e2, Int e3) {
+		return Int.valueOf(Math.min(e1.value(), Math.min(e2.value(), e3.value())));
+	}
+	
+
+	@Override
+	public Int applyOn(Set<Int> s) throws IllegalArgumentException,
+	  		NullPointerException {
+		
+		if (s == null) {
+			throw new NullPointerException();
+		}
+		if (s.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		if (s.size() == 1) {
+			return s.iterator().next();
+		}
+		int result = Integer.MAX_VALUE;
+		for (Int i : s) {
+			result = Math.min(result, i.value());
+		}
+		return Int.valueOf(result);
+	}
+
+	
+	@Override
+	public Int apply(Int e, int n) throws IllegalArgumentException,
+			NullPointerException {
+		
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		if (n < 0) {
+			throw new IllegalArgumentException();
+		}
+		return e; // trivial operation: the minimum of equal elements
+	}
+	
+	
+	@Override
+	public Class<Int> getTypeArgument() {
+		return Int.class;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "MIN";
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		return (obj instanceof Min);
+	}
+	
+	/**
+	 * Returns 6.
+	 */
+	@Override
+	public int hashCode() {
+		return 6; // singleton
+	}
+}
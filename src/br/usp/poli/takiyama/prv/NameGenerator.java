@@ -28,6 +28,9 @@ public final class NameGenerator {
 	
 	private static int count = 0;
 	
+	// Counts restricted logical variables; never reset
+	private static int restrictions = 0;
+	
 	// Substitutions are in the form renamed/old
 	private static Substitution map = Substitution.getInstance();
 	
@@ -90,6 +93,27 @@ public final class NameGenerator {
 		return Substitution.getInstance(toRename);
 	}
 	
+	/**
+	 * Returns a logical variable with the specified population and a name
+	 * that was never returned before. Names generated have the following
+	 * format: {old name}_{n}, where n is a number starting from 1.
+	 * <br>
+	 * Unlike renamed variables, restricted variables are not mapped back to
+	 * the old variable, and their names are unique even after 
+	 * {@link #reset()}, since logical variables are compared by name and 
+	 * the restricted population must not be mistaken for the old one.
+	 * 
+	 * @param old The logical variable being restricted
+	 * @param population The population of the new logical variable
+	 * @return A new logical variable with the specified population
+	 */
+	public static LogicalVariable restrict(LogicalVariable old, 
+			Population population) {
+		restrictions++;
+		return StdLogicalVariable.getInstance(old.value() + "_" + restrictions, population);
+	}
+	
+	
 	/**
 	 * Returns a new logical variable name.
 	 */
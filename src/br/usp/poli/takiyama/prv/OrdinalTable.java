@@ -0,0 +1,133 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import java.util.AbstractList;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.RandomAccess;
+
+/**
+ * An immutable range of a PRV that knows the ordinal of each of its 
+ * elements.
+ * <p>
+ * Factors locate values by the position of range elements in the range of
+ * each PRV. A linear scan with <code>equals</code> is expensive for 
+ * counting formulas, whose elements are histograms. This list answers
+ * {@link #indexOf(Object)} from an ordinal table instead: elements that 
+ * are the instances stored in the range (as the ones in tuples created by
+ * factors) are found by identity, other elements by hash. Tables are built
+ * when first needed and shared by PRVs created from one another.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ *
+ * @param <E> The type of range elements
+ */
+final class OrdinalTable<E> extends AbstractList<E> implements RandomAccess {
+	
+	// Small ranges (booleans, for instance) are scanned
+	private static final int SCAN_LIMIT = 4;
+	
+	private final Object [] elements;
+	
+	private volatile Map<Object, Integer> byIdentity;
+	private volatile Map<Object, Integer> byValue;
+	
+	
+	private OrdinalTable(List<? extends E> elements) {
+		this.elements = elements.toArray();
+	}
+	
+	
+	/**
+	 * Returns an ordinal table with the specified elements. Ordinal tables
+	 * are returned as they are.
+	 */
+	@SuppressWarnings("unchecked")
+	static <E> OrdinalTable<E> of(List<? extends E> elements) {
+		if (elements instanceof OrdinalTable) {
+			return (OrdinalTable<E>) elements;
+		}
+		return new OrdinalTable<E>(elements);
+	}
+	
+	
+	@Override
+	@SuppressWarnings("unchecked")
+	public E get(int index) {
+		return (E) elements[index];
+	}
+	
+	
+	@Override
+	public int size() {
+		return elements.length;
+	}
+	
+	
+	@Override
+	public int indexOf(Object o) {
+		if (elements.length <= SCAN_LIMIT) {
+			for (int i = 0; i < elements.length; i++) {
+				if (elements[i] == o) {
+					return i;
+				}
+			}
+			return super.indexOf(o);
+		}
+		Integer ordinal = identityTable().get(o);
+		if (ordinal == null) {
+			ordinal = valueTable().get(o);
+		}
+		return (ordinal == null) ? -1 : ordinal.intValue();
+	}
+	
+	
+	@Override
+	public boolean contains(Object o) {
+		return indexOf(o) >= 0;
+	}
+	
+	
+	private Map<Object, Integer> identityTable() {
+		Map<Object, Integer> table = byIdentity;
+		if (table == null) {
+			table = new IdentityHashMap<Object, Integer>(elements.length);
+			for (int i = elements.length - 1; i >= 0; i--) {
+				table.put(elements[i], Integer.valueOf(i));
+			}
+			byIdentity = table;
+		}
+		return table;
+	}
+	
+	
+	private Map<Object, Integer> valueTable() {
+		Map<Object, Integer> table = byValue;
+		if (table == null) {
+			table = new HashMap<Object, Integer>(2 * elements.length);
+			// the first occurrence wins, as in List.indexOf
+			for (int i = elements.length - 1; i >= 0; i--) {
+				table.put(elements[i], Integer.valueOf(i));
+			}
+			byValue = table;
+		}
+		return table;
+	}
+}
@@ -16,10 +16,15 @@
 package br.usp.poli.takiyama.prv;
 
 import java.util.ArrayList;
-import java.util.Arrays;
+import java.util.BitSet;
+import java.util.Collections;
+import java.util.HashMap;
 import java.util.HashSet;
 import java.util.Iterator;
+import java.util.LinkedHashSet;
 import java.util.List;
+import java.util.Map;
+import java.util.NoSuchElementException;
 import java.util.Set;
 
 /**
@@ -27,28 +32,34 @@ import java.util.Set;
  * {@link Constant}.
  * This class is mutable.
  * I am considering if it is worth maintaining this class.
+ * <p>
+ * A population is kept as an immutable domain of indexed individuals plus
+ * a bitset with the indexes that were removed. Copies share the domain and
+ * only clone the bitset, and counting individuals is a population count. 
+ * Populations whose individuals are <code>prefix1</code>, ..., 
+ * <code>prefixN</code> have an implicit domain: individuals are created 
+ * only when requested, so populations with millions of individuals cost 
+ * little memory.
+ * </p>
  * @author ftakiyama
  *
  */
 public class Population implements Iterable<Constant> {
 	
-	// Retrieving individuals from a list is easier.
-	private List<Constant> individuals;
+	// The individuals this population was created with
+	private final Domain domain;
+	
+	// Indexes of removed individuals
+	private final BitSet removed;
 	
 	
 	/* ************************************************************************
 	 *    Constructors
 	 * ************************************************************************/
 	
-	/**
-	 * Creates an empty population.
-	 */
-	private Population(int size) {
-		individuals = new ArrayList<Constant>(size);
-	}
-	
-	private Population(Population p) {
-		individuals = new ArrayList<Constant>(p.individuals);
+	private Population(Domain domain, BitSet removed) {
+		this.domain = domain;
+		this.removed = removed;
 	}
 	
 	/**
@@ -57,12 +68,7 @@ public class Population implements Iterable<Constant> {
 	 * @param individuals The individuals of the population. 
 	 */
 	private Population(List<Constant> individuals) {
-		this(individuals.size());
-		for (Constant c : individuals) {
-			if (!this.individuals.contains(c)) {
-				this.individuals.add(c);
-			}
-		}
+		this(new Listed(new ArrayList<Constant>(new LinkedHashSet<Constant>(individuals))), new BitSet());
 	}
 
 	
@@ -75,7 +81,7 @@ public class Population implements Iterable<Constant> {
 	 * @return An empty population.
 	 */
 	public static Population getInstance() {
-		return new Population(0);
+		return new Population(new Range("", 0), new BitSet());
 	}
 	
 	
@@ -87,7 +93,7 @@ public class Population implements Iterable<Constant> {
 	 * @return The copy of the specified population.
 	 */
 	public static Population getInstance(Population p) {
-		return new Population(p);
+		return new Population(p.domain, (BitSet) p.removed.clone());
 	}
 	
 	
@@ -101,6 +107,25 @@ public class Population implements Iterable<Constant> {
 	}
 	
 	
+	/**
+	 * Returns a population with the specified size whose individuals are
+	 * named <code>prefix</code> + <code>index</code>, with index starting
+	 * on 1. Individuals are not created until requested.
+	 * 
+	 * @param prefix Prefix of each individual in the population
+	 * @param size The size of the population
+	 * @return A population with the specified size
+	 * @throws IllegalArgumentException If size is negative
+	 */
+	public static Population getInstance(String prefix, int size) 
+			throws IllegalArgumentException {
+		if (size < 0) {
+			throw new IllegalArgumentException("Population size must not be negative: " + size);
+		}
+		return new Population(new Range(prefix, size), new BitSet());
+	}
+	
+	
 	/* ************************************************************************
 	 *    Getters
 	 * ************************************************************************/
@@ -111,7 +136,15 @@ public class Population implements Iterable<Constant> {
 	 * @return A copy of an individual from the population.
 	 */
 	public Constant individualAt(int index) {
-		return Constant.getInstance(individuals.get(index));
+		if (index < 0 || index >= size()) {
+			throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + size());
+		}
+		// skips removed indexes up to the requested position
+		int position = index;
+		for (int i = removed.nextSetBit(0); i >= 0 && i <= position; i = removed.nextSetBit(i + 1)) {
+			position++;
+		}
+		return domain.individualAt(position);
 	}
 	
 		
@@ -120,7 +153,26 @@ public class Population implements Iterable<Constant> {
 	 * @return The number of individuals in the population.
 	 */
 	public int size() {
-		return individuals.size();
+		return domain.size() - removed.cardinality();
+	}
+	
+	
+	/**
+	 * Returns the index of the specified individual in the population, that
+	 * is, the index <code>i</code> such that <code>individualAt(i)</code>
+	 * returns the individual. No individual is created and no index of the
+	 * whole population is built when the domain is implicit.
+	 * 
+	 * @param individual The individual to search for
+	 * @return The index of the individual, or -1 if the population does not
+	 * contain it.
+	 */
+	public int indexOf(Constant individual) {
+		int position = domain.indexOf(individual);
+		if (position < 0 || removed.get(position)) {
+			return -1;
+		}
+		return position - removed.get(0, position).cardinality();
 	}
 	
 	
@@ -132,7 +184,51 @@ public class Population implements Iterable<Constant> {
 	 * otherwise.
 	 */
 	public boolean contains(Constant individual) {
-		return individuals.contains(individual);
+		int position = domain.indexOf(individual);
+		return position >= 0 && !removed.get(position);
+	}
+	
+	
+	/**
+	 * Returns true if every individual of the specified population belongs to
+	 * this population.
+	 * @param other The population whose individuals are to be tested
+	 * @return True if the specified population is a subset of this 
+	 * population, false otherwise.
+	 */
+	public boolean containsAll(Population other) {
+		if (this.domain == other.domain || this.domain.equals(other.domain)) {
+			BitSet missing = (BitSet) this.removed.clone();
+			missing.andNot(other.removed);
+			return missing.isEmpty();
+		}
+		for (Constant c : other) {
+			if (!contains(c)) {
+				return false;
+			}
+		}
+		return true;
+	}
+	
+	
+	/**
+	 * Returns the individuals of this population whose indexes, as given by
+	 * {@link #indexOf}, are set in the specified bitset. The result shares 
+	 * the domain of this population.
+	 * 
+	 * @param indexes The indexes of the individuals to keep
+	 * @return A population with the individuals at the specified indexes
+	 */
+	public Population subset(BitSet indexes) {
+		BitSet kept = new BitSet(domain.size());
+		int index = 0;
+		for (int i = removed.nextClearBit(0); i < domain.size(); i = removed.nextClearBit(i + 1)) {
+			if (indexes.get(index++)) {
+				kept.set(i);
+			}
+		}
+		kept.flip(0, domain.size());
+		return new Population(domain, kept);
 	}
 	
 	
@@ -144,15 +240,69 @@ public class Population implements Iterable<Constant> {
 	 * @return A set of containing all individuals of the population.
 	 */
 	public Set<Constant> toSet() {
-		return new HashSet<Constant>(individuals);
+		Set<Constant> set = new HashSet<Constant>(2 * size());
+		for (Constant c : this) {
+			set.add(c);
+		}
+		return set;
 	}
 	
 	
+	/**
+	 * Iterates over individuals that were not removed, creating them as they
+	 * are requested when the domain is implicit.
+	 */
 	@Override
 	public Iterator<Constant> iterator() {
-		return individuals.iterator();
+		return new Iterator<Constant>() {
+			
+			private int next = removed.nextClearBit(0);
+			private int last = -1;
+			
+			@Override
+			public boolean hasNext() {
+				return next < domain.size();
+			}
+
+			@Override
+			public Constant next() {
+				if (!hasNext()) {
+					throw new NoSuchElementException();
+				}
+				last = next;
+				next = removed.nextClearBit(next + 1);
+				return domain.individualAt(last);
+			}
+
+			@Override
+			public void remove() {
+				if (last < 0) {
+					throw new IllegalStateException();
+				}
+				removed.set(last);
+				last = -1;
+			}
+		};
 	}
 	
+	
+	/**
+	 * Returns a description of this population that does not list its 
+	 * individuals: the size of the domain it was created from and the 
+	 * individuals removed from it. Its length depends only on the number of
+	 * removed individuals.
+	 * 
+	 * @return A description of this population
+	 */
+	public String summary() {
+		StringBuilder result = new StringBuilder().append(domain.size()).append("-[");
+		for (int i = removed.nextSetBit(0); i >= 0; i = removed.nextSetBit(i + 1)) {
+			result.append(domain.individualAt(i)).append(";");
+		}
+		return result.append("]").toString();
+	}
+	
+	
 	/* ************************************************************************
 	 *    Setters
 	 * ************************************************************************/
@@ -163,7 +313,185 @@ public class Population implements Iterable<Constant> {
 	 * @param individual The individual to be removed.
 	 */
 	public void remove(Constant individual) {
-		individuals.remove(individual);
+		int position = domain.indexOf(individual);
+		if (position >= 0) {
+			removed.set(position);
+		}
+	}
+	
+	
+	/**
+	 * Removes from this population all individuals that are not in the 
+	 * specified population.
+	 * @param other The population whose individuals are to be retained.
+	 */
+	public void retainAll(Population other) {
+		if (this.domain == other.domain || this.domain.equals(other.domain)) {
+			removed.or(other.removed);
+		} else {
+			for (Iterator<Constant> it = iterator(); it.hasNext(); ) {
+				if (!other.contains(it.next())) {
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes from this population all individuals that are in the specified
+	 * population.
+	 * @param other The population whose individuals are to be removed.
+	 */
+	public void removeAll(Population other) {
+		if (this.domain == other.domain || this.domain.equals(other.domain)) {
+			BitSet kept = (BitSet) other.removed.clone();
+			kept.flip(0, domain.size());
+			removed.or(kept);
+		} else {
+			for (Iterator<Constant> it = iterator(); it.hasNext(); ) {
+				if (other.contains(it.next())) {
+					it.remove();
+				}
+			}
+		}
+	}
+	
+	
+	/**
+	 * Removes all individuals from the population, except the specified one.
+	 * If the individual does not exist, the population becomes empty.
+	 * @param individual The individual to be kept.
+	 */
+	void retainOnly(Constant individual) {
+		boolean contains = contains(individual);
+		removed.set(0, domain.size());
+		if (contains) {
+			removed.clear(domain.indexOf(individual));
+		}
+	}
+	
+	
+	/* ************************************************************************
+	 *    Domains
+	 * ************************************************************************/
+	
+	/**
+	 * An immutable sequence of distinct individuals, shared by all copies of
+	 * a population.
+	 */
+	private static abstract class Domain {
+		
+		abstract int size();
+		
+		abstract Constant individualAt(int index);
+		
+		/**
+		 * Returns the index of the specified individual, or -1 if the 
+		 * individual does not belong to this domain.
+		 */
+		abstract int indexOf(Constant individual);
+	}
+	
+	
+	/**
+	 * Individuals given by a list.
+	 */
+	private static final class Listed extends Domain {
+		
+		private final List<Constant> individuals;
+		
+		// Built when first needed
+		private volatile Map<Constant, Integer> indexes;
+		
+		private Listed(List<Constant> individuals) {
+			this.individuals = Collections.unmodifiableList(individuals);
+		}
+		
+		@Override
+		int size() {
+			return individuals.size();
+		}
+		
+		@Override
+		Constant individualAt(int index) {
+			return individuals.get(index);
+		}
+		
+		@Override
+		int indexOf(Constant individual) {
+			if (individuals.size() < 8) {
+				return individuals.indexOf(individual);
+			}
+			Map<Constant, Integer> map = indexes;
+			if (map == null) {
+				map = new HashMap<Constant, Integer>(2 * individuals.size());
+				for (int i = 0; i < individuals.size(); i++) {
+					map.put(individuals.get(i), i);
+				}
+				indexes = map;
+			}
+			Integer index = map.get(individual);
+			return (index == null) ? -1 : index.intValue();
+		}
+	}
+	
+	
+	/**
+	 * Individuals prefix1, ..., prefix{size}.
+	 */
+	private static final class Range extends Domain {
+		
+		private final String prefix;
+		private final int size;
+		
+		private Range(String prefix, int size) {
+			this.prefix = prefix;
+			this.size = size;
+		}
+		
+		@Override
+		int size() {
+			return size;
+		}
+		
+		@Override
+		Constant individualAt(int index) {
+			return Constant.getInstance(prefix + (index + 1));
+		}
+		
+		@Override
+		int indexOf(Constant individual) {
+			String value = individual.value();
+			if (!value.startsWith(prefix) || value.length() == prefix.length()
+					|| value.charAt(prefix.length()) == '0') {
+				return -1;
+			}
+			int index = 0;
+			for (int i = prefix.length(); i < value.length(); i++) {
+				char c = value.charAt(i);
+				if (c < '0' || c > '9' || index > (size - (c - '0')) / 10) {
+					return -1;
+				}
+				index = 10 * index + (c - '0');
+			}
+			return (index >= 1 && index <= size) ? index - 1 : -1;
+		}
+		
+		@Override
+		public boolean equals(Object other) {
+			if (this == other)
+				return true;
+			if (!(other instanceof Range))
+				return false;
+			Range target = (Range) other;
+			return prefix.equals(target.prefix) && size == target.size;
+		}
+		
+		@Override
+		public int hashCode() {
+			return 31 * prefix.hashCode() + size;
+		}
 	}
 	
 	
@@ -173,7 +501,14 @@ public class Population implements Iterable<Constant> {
 
 	@Override
 	public String toString() {
-		return this.individuals.toString();
+		StringBuilder result = new StringBuilder("[");
+		for (Constant c : this) {
+			if (result.length() > 1) {
+				result.append(", ");
+			}
+			result.append(c);
+		}
+		return result.append("]").toString();
 	}
 	
 	@Override
@@ -183,16 +518,31 @@ public class Population implements Iterable<Constant> {
 		if (!(other instanceof Population))
 			return false;
 		Population target = (Population) other;
-		return (this.individuals == null) ? 
-				(target.individuals == null) : 
-				(this.individuals.equals(target.individuals));
-		
+		if (this.domain == target.domain || this.domain.equals(target.domain)) {
+			return this.removed.equals(target.removed);
+		}
+		if (this.size() != target.size()) {
+			return false;
+		}
+		Iterator<Constant> it = target.iterator();
+		for (Constant c : this) {
+			if (!c.equals(it.next())) {
+				return false;
+			}
+		}
+		return true;
 	}
 	
+	/**
+	 * Returns a hash code based on the size and on the first individual of
+	 * this population, so populations with the same individuals have the 
+	 * same hash code regardless of their domain.
+	 */
 	@Override
 	public int hashCode() {
 		int result = 17;
-		result = result * 31 + Arrays.hashCode((Constant[]) this.individuals.toArray());
+		result = result * 31 + size();
+		result = result * 31 + ((size() == 0) ? 0 : individualAt(0).hashCode());
 		return result;
 	}
 	
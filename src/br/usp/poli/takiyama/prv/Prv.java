@@ -75,6 +75,39 @@ public interface Prv extends Replaceable<Prv> {
 	public List<RangeElement> range();
 	
 	
+	/**
+	 * Returns the number of elements in the range of this PRV. Unlike 
+	 * {@link #range()}, this method does not copy the range.
+	 * 
+	 * @return The number of elements in the range of this PRV.
+	 */
+	public int rangeSize();
+	
+	
+	/**
+	 * Returns the element at the specified position in the range of this
+	 * PRV. Unlike {@link #range()}, this method does not copy the range.
+	 * 
+	 * @param index The position of the element in the range
+	 * @return The element at the specified position in the range of this 
+	 * PRV.
+	 * @throws IndexOutOfBoundsException If the index is out of range
+	 */
+	public RangeElement rangeElementAt(int index) throws IndexOutOfBoundsException;
+	
+	
+	/**
+	 * Returns the position of the specified element in the range of this 
+	 * PRV, or -1 if the element does not belong to the range. Unlike 
+	 * {@link #range()}, this method does not copy the range.
+	 * 
+	 * @param e A range element
+	 * @return The position of the specified element in the range of this 
+	 * PRV, or -1 if the element does not belong to the range.
+	 */
+	public int indexOf(RangeElement e);
+	
+	
 	/**
 	 * Returns the bound {@link LogicalVariable} to this PRV.
 	 * 
@@ -47,11 +47,17 @@ public final class Prvs {
 			EqualityConstraint equation = (EqualityConstraint) buffer.pop();
 			if (hasIdenticalTerms(equation)) {
 				// do nothing
+			} else if (hasVariableTerms(equation)) {
+				Binding b = toRestriction(equation);
+				buffer = apply(b, buffer);
+				mgu.add(b);
 			} else if (equation.firstTerm().isVariable()) {
+				checkMembership((LogicalVariable) equation.firstTerm(), equation.secondTerm());
 				Binding b = equation.toBinding();
 				buffer = apply(b, buffer);
 				mgu.add(b);
 			} else if (equation.secondTerm().isVariable()) {
+				checkMembership((LogicalVariable) equation.secondTerm(), equation.firstTerm());
 				Binding b = equation.toInverseBinding();
 				buffer = apply(b, buffer);
 				mgu.add(b);
@@ -84,6 +90,48 @@ public final class Prvs {
 		return c.firstTerm().equals(c.secondTerm());
 	}
 		
+	private static boolean hasVariableTerms(Constraint c) {
+		return c.firstTerm().isVariable() && c.secondTerm().isVariable();
+	}
+	
+	/**
+	 * Returns the binding that replaces the logical variable with the larger
+	 * population by the one with the smaller population. Variables with
+	 * disjoint populations do not unify; variables whose populations 
+	 * overlap only partially are not supported, since their intersection
+	 * cannot be expressed by a single binding.
+	 */
+	private static Binding toRestriction(Constraint equation) 
+			throws IllegalArgumentException {
+		LogicalVariable x = (LogicalVariable) equation.firstTerm();
+		LogicalVariable y = (LogicalVariable) equation.secondTerm();
+		Population px = x.population();
+		Population py = y.population();
+		if (px.containsAll(py)) {
+			return Binding.getInstance(x, y);
+		} else if (py.containsAll(px)) {
+			return Binding.getInstance(y, x);
+		}
+		px.retainAll(py);
+		if (px.size() == 0) {
+			throw new IllegalArgumentException();
+		}
+		throw new UnsupportedOperationException("Populations of " + x 
+				+ " and " + y + " overlap partially");
+	}
+	
+	/**
+	 * Throws {@link IllegalArgumentException} if the specified term is a 
+	 * constant that does not belong to the population of the specified
+	 * logical variable.
+	 */
+	private static void checkMembership(LogicalVariable lv, Term t) 
+			throws IllegalArgumentException {
+		if (t.isConstant() && !lv.population().contains((Constant) t)) {
+			throw new IllegalArgumentException();
+		}
+	}
+	
 	private static Stack<Constraint> apply(Binding b, Stack<Constraint> buffer) {
 		Substitution s = Substitution.getInstance(b);
 		for (Constraint e : buffer) {
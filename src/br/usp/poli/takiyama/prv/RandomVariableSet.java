@@ -328,6 +328,21 @@ public final class RandomVariableSet implements Prv {
 	public List<RangeElement> range() {
 		return prv.range();
 	}
+	
+	@Override
+	public int rangeSize() {
+		return prv.rangeSize();
+	}
+	
+	@Override
+	public RangeElement rangeElementAt(int index) {
+		return prv.rangeElementAt(index);
+	}
+	
+	@Override
+	public int indexOf(RangeElement e) {
+		return prv.indexOf(e);
+	}
 
 	@Override
 	public LogicalVariable boundVariable() {
@@ -15,12 +15,15 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.prv;
 
-import java.util.ArrayList;
+import java.util.Collections;
 import java.util.HashSet;
+import java.util.LinkedHashMap;
 import java.util.List;
+import java.util.Map;
 import java.util.Set;
 
 import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.EqualityConstraint;
 
 /**
  * Standard implementation of {@link LogicalVariable}.
@@ -30,9 +33,17 @@ import br.usp.poli.takiyama.common.Constraint;
  */
 public final class StdLogicalVariable implements LogicalVariable {
 	
+	// Canonical instance from the symbol table, compared by reference
 	private final String name;
 	private final Population population;
 	
+	// Individuals satisfying sets of unary restrictions, from least to most
+	// recently used. Shared by copies and renamings of this variable, which
+	// have the same population.
+	private final Map<Set<?>, Population> satisfying;
+	
+	private static final int MAX_CACHED_SETS = 64;
+	
 	
 	/* ************************************************************************
 	 *    Constructors
@@ -71,9 +82,19 @@ public final class StdLogicalVariable implements LogicalVariable {
 	 * start with a upper case letter or underscore.
 	 */
 	private StdLogicalVariable(String name, Population population) throws IllegalArgumentException {
+		this(name, Population.getInstance(population), newCache());
+	}
+	
+	/**
+	 * Creates a logical variable that shares the specified population and 
+	 * cache of individuals satisfying constraints.
+	 */
+	private StdLogicalVariable(String name, Population population, 
+			Map<Set<?>, Population> satisfying) throws IllegalArgumentException {
 		
-		this.name = new String(name);
-		this.population = Population.getInstance(population);
+		this.name = SymbolTable.LOGICAL_VARIABLES.intern(name);
+		this.population = population;
+		this.satisfying = satisfying;
 		
 		if (!name.startsWith("_") && !Character.isUpperCase(name.charAt(0))) {
 			throw new IllegalArgumentException("Exception while creating " +
@@ -87,8 +108,11 @@ public final class StdLogicalVariable implements LogicalVariable {
 	 * @param lv The LogicalVariable to be copied.
 	 */
 	private StdLogicalVariable(LogicalVariable lv) {
-		name = lv.value();
+		name = (lv instanceof StdLogicalVariable) ? ((StdLogicalVariable) lv).name 
+				: SymbolTable.LOGICAL_VARIABLES.intern(lv.value());
 		population = lv.population();
+		satisfying = (lv instanceof StdLogicalVariable) ? ((StdLogicalVariable) lv).satisfying
+				: newCache();
 	}
 	
 	
@@ -96,8 +120,22 @@ public final class StdLogicalVariable implements LogicalVariable {
 	 * Creates an empty LogicalVariable, with no name and empty population.
 	 */
 	private StdLogicalVariable() {
-		name = "";
+		name = SymbolTable.LOGICAL_VARIABLES.intern("");
 		population = Population.getInstance();
+		satisfying = newCache();
+	}
+	
+	/**
+	 * Returns an empty cache of individuals satisfying constraints.
+	 */
+	private static Map<Set<?>, Population> newCache() {
+		return new LinkedHashMap<Set<?>, Population>(16, 0.75f, true) {
+			private static final long serialVersionUID = 1L;
+			@Override
+			protected boolean removeEldestEntry(Map.Entry<Set<?>, Population> eldest) {
+				return size() > MAX_CACHED_SETS;
+			}
+		};
 	}
 		
 	
@@ -154,11 +192,7 @@ public final class StdLogicalVariable implements LogicalVariable {
 	 */
 	public static LogicalVariable getInstance(String name, String prefix, 
 			int size) {
-		List<Constant> individuals = new ArrayList<Constant>(size);
-		for (int i = 1; i <= size; i++) {
-			individuals.add(Constant.getInstance(prefix + i));
-		}
-		Population population = Population.getInstance(individuals);
+		Population population = Population.getInstance(prefix, size);
 		return new StdLogicalVariable(name, population);
 	}
 	
@@ -201,6 +235,18 @@ public final class StdLogicalVariable implements LogicalVariable {
 	}
 	
 	
+	/**
+	 * Returns all individuals of the population of this logical variable that
+	 * satisfy the specified set of constraints.
+	 * <p>
+	 * Only unary constraints on this logical variable are taken into account.
+	 * Each of them removes (or, for equalities, keeps) one index from the 
+	 * bitset of the population. Results are cached per set of individuals
+	 * removed and kept, which does not depend on the name of this variable,
+	 * so the cache is shared by all copies and renamings of this variable;
+	 * callers receive a copy, which only clones the bitset.
+	 * </p>
+	 */
 	@Override
 	public Population individualsSatisfying(Set<Constraint> constraints) {
 		
@@ -208,16 +254,47 @@ public final class StdLogicalVariable implements LogicalVariable {
 		if (constraints.isEmpty()) {
 			return this.population;
 		}
+		return Population.getInstance(satisfying(constraints));
+	}
+	
+	
+	/**
+	 * Returns the cached population of individuals satisfying the unary 
+	 * constraints on this variable from the specified set. The result must
+	 * not be modified.
+	 */
+	private Population satisfying(Set<Constraint> constraints) {
+		
+		// Removed individuals, and kept individuals marked by a singleton
+		Set<Object> restrictions = new HashSet<Object>(4);
+		for (Constraint constraint : constraints) {
+			if (constraint.isUnary() && constraint.contains(this)) {
+				Constant individual = (Constant) (this.equals(constraint.firstTerm()) 
+						? constraint.secondTerm() : constraint.firstTerm());
+				restrictions.add((constraint instanceof EqualityConstraint) 
+						? Collections.singletonList(individual) : individual);
+			}
+		}
+		if (restrictions.isEmpty()) {
+			return this.population;
+		}
 		
-		Population pop = Population.getInstance(this.population);
-		for (Constant individual : population) {
-			Binding bind = Binding.getInstance(this, individual);
-			for (Constraint constraint : constraints) {
-				if (constraint.isUnary() && !constraint.isConsistentWith(bind)) {
-					pop.remove(individual);
-					break;
+		Population pop;
+		synchronized (satisfying) {
+			pop = satisfying.get(restrictions);
+		}
+		if (pop == null) {
+			pop = Population.getInstance(this.population);
+			for (Object restriction : restrictions) {
+				if (restriction instanceof Constant) {
+					pop.remove((Constant) restriction);
+				} else {
+					pop.retainOnly((Constant) ((List<?>) restriction).get(0));
 				}
 			}
+			synchronized (satisfying) {
+				satisfying.put(restrictions, pop);
+			}
 		}
 		return pop;
 	}
@@ -225,7 +302,8 @@ public final class StdLogicalVariable implements LogicalVariable {
 	
 	@Override
 	public LogicalVariable rename(String newName) {
-		return new StdLogicalVariable(newName, this.population);
+		return new StdLogicalVariable(newName, Population.getInstance(this.population), 
+				this.satisfying);
 	}
 	
 	
@@ -256,11 +334,21 @@ public final class StdLogicalVariable implements LogicalVariable {
 	}
 
 	
+	/**
+	 * Returns the size of the cached population that 
+	 * {@link #individualsSatisfying(Set)} copies, minus one individual for 
+	 * each other logical variable this variable must differ from.
+	 */
 	@Override
 	public int numberOfIndividualsSatisfying(Set<Constraint> constraints) {
-		int domainSize = population.size();
-		int excludedSetSize = excludedSet(constraints).size();
-		return domainSize - excludedSetSize;
+		Set<Term> others = new HashSet<Term>(4);
+		for (Constraint constraint : constraints) {
+			if (!constraint.isUnary() && constraint.contains(this)) {
+				others.add(this.equals(constraint.firstTerm()) 
+						? constraint.secondTerm() : constraint.firstTerm());
+			}
+		}
+		return satisfying(constraints).size() - others.size();
 	}
 	
 	
@@ -284,7 +372,7 @@ public final class StdLogicalVariable implements LogicalVariable {
 	    	return false;
 	    // Tests if both have the same attributes
 	    StdLogicalVariable targetObject = (StdLogicalVariable) other;
-	    return this.name.equals(targetObject.name);	    		
+	    return this.name == targetObject.name;	    		
 	}
 	
 	
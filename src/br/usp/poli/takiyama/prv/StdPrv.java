@@ -43,18 +43,23 @@ public final class StdPrv implements Prv {
 	 * predictable way.
 	 */
 	private final List<Term> parameters;
+	// Canonical instance from the symbol table, compared by reference
 	private final String functor;
 	private final List<RangeElement> range;
 	
+	// Range shared by all Boolean PRVs
+	private static final List<RangeElement> BOOLEAN_RANGE = OrdinalTable.of(
+			Arrays.<RangeElement> asList(Bool.valueOf(false), Bool.valueOf(true)));
+	
 	
 	/* ************************************************************************
 	 *    Constructors
 	 * ************************************************************************/
 
-	private StdPrv(String f, int pSize, int rSize) {
+	private StdPrv(String f, List<RangeElement> r, int pSize) {
 		parameters = new ArrayList<Term>(pSize);
-		range = new ArrayList<RangeElement>(rSize);
-		functor = f;
+		range = OrdinalTable.of(r);
+		functor = SymbolTable.FUNCTORS.intern(f);
 	}
 	
 	
@@ -62,7 +67,7 @@ public final class StdPrv implements Prv {
 	 * Creates an empty Standard Parameterized Random Variable.
 	 */
 	private StdPrv() {
-		this("", 0, 0);
+		this("", new ArrayList<RangeElement>(0), 0);
 	}
 	
 	
@@ -74,10 +79,7 @@ public final class StdPrv implements Prv {
 	 * @param t The parameter of this PRV
 	 */
 	private StdPrv(String f, List<RangeElement> r, Term t) {
-		this(f, 1, r.size());
-		for (RangeElement e : r) {
-			range.add(e);
-		}
+		this(f, r, 1);
 		parameters.add(t);
 	}
 	
@@ -91,10 +93,7 @@ public final class StdPrv implements Prv {
 	 * @param t2 The second parameter of this PRV
 	 */
 	private StdPrv(String f, List<RangeElement> r, Term t1, Term t2) {
-		this(f, 2, r.size());
-		for (RangeElement e : r) {
-			range.add(e);
-		}
+		this(f, r, 2);
 		parameters.add(t1);
 		parameters.add(t2);
 	}
@@ -108,10 +107,7 @@ public final class StdPrv implements Prv {
 	 * @param t The parameters of this PRV
 	 */
 	private StdPrv(String f, List<RangeElement> r, List<Term> t) {
-		this(f, t.size(), r.size());
-		for (RangeElement e : r) {
-			range.add(e);
-		}
+		this(f, r, t.size());
 		for (Term p : t) {
 			parameters.add(p);
 		}
@@ -126,7 +122,8 @@ public final class StdPrv implements Prv {
 	 * {@link StdPrv}
 	 */
 	private StdPrv(Prv prv) throws IllegalArgumentException {
-		this(prv.name(), prv.range(), prv.terms());
+		this(prv.name(), (prv instanceof StdPrv) ? ((StdPrv) prv).range 
+				: prv.range(), prv.terms());
 		if (!(prv instanceof StdPrv)) {
 			throw new IllegalArgumentException();
 		}
@@ -180,11 +177,8 @@ public final class StdPrv implements Prv {
 	 * @return a Boolean StdPrv with range {false, true}
 	 */
 	public static Prv getBooleanInstance(String f, Term ... vars) {
-		List<RangeElement> range = new ArrayList<RangeElement>(2);
-		range.add(Bool.valueOf(false));
-		range.add(Bool.valueOf(true));
 		List<Term> terms = Arrays.asList(vars);
-		return new StdPrv(f, range, terms);
+		return new StdPrv(f, BOOLEAN_RANGE, terms);
 	}
 	
 	
@@ -229,6 +223,24 @@ public final class StdPrv implements Prv {
 	public List<RangeElement> range() {
 		return new ArrayList<RangeElement>(range);
 	}
+	
+	
+	@Override
+	public int rangeSize() {
+		return range.size();
+	}
+	
+	
+	@Override
+	public RangeElement rangeElementAt(int index) {
+		return range.get(index);
+	}
+	
+	
+	@Override
+	public int indexOf(RangeElement e) {
+		return range.indexOf(e);
+	}
 
 	
 	/**
@@ -340,7 +352,7 @@ public final class StdPrv implements Prv {
 	public int hashCode() {
 		final int prime = 31;
 		int result = 1;
-		result = prime * result + ((functor == null) ? 0 : functor.hashCode());
+		result = prime * result + functor.hashCode();
 		result = prime * result
 				+ ((parameters == null) ? 0 : parameters.hashCode());
 		result = prime * result + ((range == null) ? 0 : range.hashCode());
@@ -360,11 +372,7 @@ public final class StdPrv implements Prv {
 			return false;
 		}
 		StdPrv other = (StdPrv) obj;
-		if (functor == null) {
-			if (other.functor != null) {
-				return false;
-			}
-		} else if (!functor.equals(other.functor)) {
+		if (functor != other.functor) {
 			return false;
 		}
 		if (parameters == null) {
@@ -0,0 +1,124 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import java.util.Set;
+
+/**
+ * The <code>SUM</code> operator, applicable to {@link Int} elements.
+ * <p>
+ * Counting is summation over parents whose range is {0, 1}: aggregating
+ * such parents with <code>SUM</code> gives the number of parents that
+ * are 1.
+ * </p>
+ * <p>
+ * Unlike the other operators, <code>SUM</code> is not closed over a 
+ * bounded range. Results outside the range of the child PRV have no
+ * probability.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class Sum implements Operator<Int> {
+	
+	/**
+	 * The <code>Sum</code> operator. It is applicable to integer arguments.
+	 */
+	public static final Sum SUM = new Sum();
+	
+	/**
+	 * Private constructor that enforces non-instantiability.
+	 */
+	private Sum() { }
+	
+	
+	@Override
+	public Int applyOn(Int e1, Int e2) {
+		return Int.valueOf(e1.value() + e2.value());
+	}
+
+	
+	@Override
+	public Int applyOn(Int e1, Int e2, Int e3) {
+		return Int.valueOf(e1.value() + e2.value() + e3.value());
+	}
+	
+
+	@Override
+	public Int applyOn(Set<Int> s) throws IllegalArgumentException,
+	  		NullPointerException {
+		
+		if (s == null) {
+			throw new NullPointerException();
+		}
+		if (s.isEmpty()) {
+			throw new IllegalArgumentException();
+		}
+		if (s.size() == 1) {
+			return s.iterator().next();
+		}
+		int result = 0;
+		for (Int i : s) {
+			result = result + i.value();
+		}
+		return Int.valueOf(result);
+	}
+
+	
+	/**
+	 * Returns the element added to itself n times, that is, n + 1 times the element.
+	 */
+	@Override
+	public Int apply(Int e, int n) throws IllegalArgumentException,
+			NullPointerException {
+		
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		if (n < 0) {
+			throw new IllegalArgumentException();
+		}
+		return Int.valueOf(e.value() * (n + 1));
+	}
+	
+	
+	@Override
+	public Class<Int> getTypeArgument() {
+		return Int.class;
+	}
+	
+	
+	@Override
+	public String toString() {
+		return "SUM";
+	}
+	
+	@Override
+	public boolean equals(Object obj) {
+		if (this == obj) {
+			return true;
+		}
+		return (obj instanceof Sum);
+	}
+	
+	/**
+	 * Returns 4.
+	 */
+	@Override
+	public int hashCode() {
+		return 4; // singleton
+	}
+}
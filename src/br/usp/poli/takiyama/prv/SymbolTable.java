@@ -0,0 +1,81 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.prv;
+
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+/**
+ * Keeps one canonical instance of each name.
+ * <p>
+ * Constants, logical variables and PRV functors are compared very often
+ * during shattering and constraint checking. Each of them keeps the 
+ * canonical instance of its name, so equality compares references instead
+ * of strings, and hashing uses the hash code cached by the string.
+ * </p>
+ * <p>
+ * Names are held weakly: a name is dropped from the table once no object 
+ * refers to it, so fresh names created during inference do not accumulate.
+ * This class is thread-safe.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class SymbolTable {
+	
+	/**
+	 * Table of {@link Constant} values.
+	 */
+	public static final SymbolTable CONSTANTS = new SymbolTable();
+	
+	/**
+	 * Table of {@link LogicalVariable} names.
+	 */
+	public static final SymbolTable LOGICAL_VARIABLES = new SymbolTable();
+	
+	/**
+	 * Table of {@link Prv} functors.
+	 */
+	public static final SymbolTable FUNCTORS = new SymbolTable();
+	
+	private final Interner<String> names;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+
+	private SymbolTable() {
+		names = Interners.newWeakInterner();
+	}
+	
+	
+	/* ************************************************************************
+	 *    Getters
+	 * ************************************************************************/
+
+	/**
+	 * Returns the canonical instance of the specified name, adding the name
+	 * to this table if it is not there yet. Two names are equal if and only
+	 * if their canonical instances are the same object.
+	 * 
+	 * @param name The name to look up
+	 * @return The canonical instance of the specified name
+	 */
+	public String intern(String name) {
+		return names.intern(name);
+	}
+}
@@ -0,0 +1,262 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.utils;
+
+import java.math.BigInteger;
+
+/**
+ * Binomial and multinomial coefficients served from shared factorial 
+ * tables.
+ * <p>
+ * Tables are extended up to the largest number seen so far, so each 
+ * factorial is computed once, and a multinomial on <i>r</i> terms costs
+ * <i>r</i> multiplications and one division. Coefficients are also 
+ * available as natural logarithms, for computations in log space, from a 
+ * table of logarithms of factorials.
+ * </p>
+ * <p>
+ * Exact factorials grow quickly in size, so the exact table is limited to
+ * {@value #MAX_TABLED}!; coefficients on larger numbers are computed as 
+ * products of binomials. The table of logarithms is not limited.
+ * </p>
+ * <p>
+ * This class is thread-safe. Tables are replaced, never modified, when 
+ * they grow.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ */
+public final class Coefficients {
+	
+	/**
+	 * The largest number whose factorial is kept in the exact table.
+	 */
+	public static final int MAX_TABLED = 4096;
+	
+	private static final Object lock = new Object();
+	
+	// factorials[n] = n!
+	private static volatile BigInteger[] factorials = { BigInteger.ONE };
+	
+	// logFactorials[n] = ln(n!)
+	private static volatile double[] logFactorials = { 0.0 };
+	
+	
+	private Coefficients() {
+		// enforces non-instantiability
+	}
+	
+	
+	/* ************************************************************************
+	 *    Exact coefficients
+	 * ************************************************************************/
+
+	/**
+	 * Returns n!.
+	 * 
+	 * @param n A nonnegative integer
+	 * @throws IllegalArgumentException If <code>n</code> is negative
+	 */
+	public static BigInteger factorial(int n) throws IllegalArgumentException {
+		checkNonnegative(n);
+		if (n <= MAX_TABLED) {
+			return factorials(n)[n];
+		}
+		BigInteger result = factorials(MAX_TABLED)[MAX_TABLED];
+		for (int i = MAX_TABLED + 1; i <= n; i++) {
+			result = result.multiply(BigInteger.valueOf(i));
+		}
+		return result;
+	}
+	
+	
+	/**
+	 * Returns the binomial coefficient C(n,k), which is zero when 
+	 * <code>k > n</code>.
+	 * 
+	 * @param n A nonnegative integer
+	 * @param k A nonnegative integer
+	 * @throws IllegalArgumentException If any argument is negative
+	 */
+	public static BigInteger binomial(int n, int k) throws IllegalArgumentException {
+		checkNonnegative(n);
+		checkNonnegative(k);
+		if (k > n) {
+			return BigInteger.ZERO;
+		}
+		if (n <= MAX_TABLED) {
+			BigInteger[] f = factorials(n);
+			return f[n].divide(f[k].multiply(f[n - k]));
+		}
+		int m = Math.min(k, n - k);
+		BigInteger r = BigInteger.ONE;
+		for (int i = 1; i <= m; i++) {
+			r = r.multiply(BigInteger.valueOf(n - m + i)).divide(BigInteger.valueOf(i));
+		}
+		return r;
+	}
+	
+	
+	/**
+	 * Returns the multinomial coefficient (n<sub>1</sub> + ... + 
+	 * n<sub>r</sub>)! / (n<sub>1</sub>! ... n<sub>r</sub>!).
+	 * 
+	 * @param counts Nonnegative integers n<sub>1</sub>, ..., n<sub>r</sub>
+	 * @throws IllegalArgumentException If any count is negative
+	 */
+	public static BigInteger multinomial(int ... counts) throws IllegalArgumentException {
+		int n = 0;
+		for (int k : counts) {
+			checkNonnegative(k);
+			n = n + k;
+		}
+		if (n <= MAX_TABLED) {
+			BigInteger[] f = factorials(n);
+			BigInteger denominator = BigInteger.ONE;
+			for (int k : counts) {
+				if (k > 1) {
+					denominator = denominator.multiply(f[k]);
+				}
+			}
+			return f[n].divide(denominator);
+		}
+		BigInteger result = BigInteger.ONE;
+		int partial = 0;
+		for (int k : counts) {
+			partial = partial + k;
+			result = result.multiply(binomial(partial, k));
+		}
+		return result;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Coefficients in log space
+	 * ************************************************************************/
+
+	/**
+	 * Returns ln(n!).
+	 * 
+	 * @param n A nonnegative integer
+	 * @throws IllegalArgumentException If <code>n</code> is negative
+	 */
+	public static double logFactorial(int n) throws IllegalArgumentException {
+		checkNonnegative(n);
+		return logFactorials(n)[n];
+	}
+	
+	
+	/**
+	 * Returns ln C(n,k), which is negative infinity when <code>k > n</code>.
+	 * 
+	 * @param n A nonnegative integer
+	 * @param k A nonnegative integer
+	 * @throws IllegalArgumentException If any argument is negative
+	 */
+	public static double logBinomial(int n, int k) throws IllegalArgumentException {
+		checkNonnegative(n);
+		checkNonnegative(k);
+		if (k > n) {
+			return Double.NEGATIVE_INFINITY;
+		}
+		double[] f = logFactorials(n);
+		return f[n] - f[k] - f[n - k];
+	}
+	
+	
+	/**
+	 * Returns the natural logarithm of the multinomial coefficient 
+	 * (n<sub>1</sub> + ... + n<sub>r</sub>)! / (n<sub>1</sub>! ... 
+	 * n<sub>r</sub>!).
+	 * 
+	 * @param counts Nonnegative integers n<sub>1</sub>, ..., n<sub>r</sub>
+	 * @throws IllegalArgumentException If any count is negative
+	 */
+	public static double logMultinomial(int ... counts) throws IllegalArgumentException {
+		int n = 0;
+		for (int k : counts) {
+			checkNonnegative(k);
+			n = n + k;
+		}
+		double[] f = logFactorials(n);
+		double result = f[n];
+		for (int k : counts) {
+			result = result - f[k];
+		}
+		return result;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Tables
+	 * ************************************************************************/
+
+	/**
+	 * Returns a table of factorials with at least n + 1 entries.
+	 */
+	private static BigInteger[] factorials(int n) {
+		BigInteger[] table = factorials;
+		if (n < table.length) {
+			return table;
+		}
+		synchronized (lock) {
+			table = factorials;
+			if (n >= table.length) {
+				BigInteger[] extended = new BigInteger[n + 1];
+				System.arraycopy(table, 0, extended, 0, table.length);
+				for (int i = table.length; i <= n; i++) {
+					extended[i] = extended[i - 1].multiply(BigInteger.valueOf(i));
+				}
+				factorials = extended;
+				table = extended;
+			}
+			return table;
+		}
+	}
+	
+	
+	/**
+	 * Returns a table of logarithms of factorials with at least n + 1 
+	 * entries.
+	 */
+	private static double[] logFactorials(int n) {
+		double[] table = logFactorials;
+		if (n < table.length) {
+			return table;
+		}
+		synchronized (lock) {
+			table = logFactorials;
+			if (n >= table.length) {
+				double[] extended = new double[Math.max(n + 1, 2 * table.length)];
+				System.arraycopy(table, 0, extended, 0, table.length);
+				for (int i = table.length; i < extended.length; i++) {
+					extended[i] = extended[i - 1] + Math.log(i);
+				}
+				logFactorials = extended;
+				table = extended;
+			}
+			return table;
+		}
+	}
+	
+	
+	private static void checkNonnegative(int n) throws IllegalArgumentException {
+		if (n < 0) {
+			throw new IllegalArgumentException("Coefficients are not defined " 
+					+ "for negative numbers: " + n);
+		}
+	}
+}
@@ -283,7 +283,8 @@ public final class Lists {
 			// set scale to 15, but this is an arbitrary number
 			//result = 31 * result + (element == null ? 0 : element.setScale(15, RoundingMode.HALF_EVEN).hashCode()); 
 			// Put a math context in every operation, so i should not need to set scale here
-			result = 31 * result + (element == null ? 0 : element.hashCode()); 
+			// zeros of any scale are equal, so they hash as BigDecimal.ZERO
+			result = 31 * result + (element == null || element.signum() == 0 ? 0 : element.hashCode()); 
 		}
 		return result;
 	}
@@ -262,22 +262,16 @@ public final class MathUtils {
 	 * <a href="https://en.wikipedia.org/wiki/Multinomial_coefficient#
 	 * Multinomial_coefficients">multinomial coefficient.</a>
 	 * 
+	 * @see Coefficients#multinomial(int...)
 	 * @param m The multinomial to calculate
 	 * @return The value of the specified multinomial
 	 */
 	public static BigInteger multinomial(Multinomial m) {
-		BigInteger result = BigInteger.ONE;
-		if (m.size() < 2 || m.isZeroed()) {
-			result = BigInteger.ONE;
-		} else {
-			for (int i = 1; i < m.size(); i++) {
-				int n = m.sumTerms(0, i);
-				int k = m.get(i);
-				BigInteger c = combination(n, k);
-				result = result.multiply(c);
-			}
+		int[] counts = new int[m.size()];
+		for (int i = 0; i < counts.length; i++) {
+			counts[i] = m.get(i);
 		}
-		return result;
+		return Coefficients.multinomial(counts);
 	}
 	
 	
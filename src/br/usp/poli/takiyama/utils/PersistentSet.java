@@ -0,0 +1,480 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.utils;
+
+import java.util.AbstractSet;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.NoSuchElementException;
+
+/**
+ * An immutable set that shares structure with the sets it was derived from.
+ * <p>
+ * Elements are kept in a hash array mapped trie: each level of the trie 
+ * uses 5 bits of the hash code of elements, and nodes only store the 
+ * entries that exist. Adding or removing one element copies only the path 
+ * from the root to that element, so it costs O(log n) and not O(n), and
+ * the original set is not modified.
+ * </p>
+ * <p>
+ * Mutators inherited from {@link java.util.Set} throw 
+ * {@link UnsupportedOperationException}; use {@link #plus(Object)} and 
+ * {@link #minus(Object)} instead. <code>null</code> elements are not 
+ * allowed.
+ * </p>
+ * 
+ * @author Felipe Takiyama
+ *
+ * @param <T> The type of elements in this set
+ */
+public final class PersistentSet<T> extends AbstractSet<T> {
+	
+	private static final PersistentSet<Object> EMPTY = 
+			new PersistentSet<Object>(new BitmapNode(0, new Object[0]), 0, 0);
+	
+	private static final int BITS = 5;
+	private static final int MASK = (1 << BITS) - 1;
+	
+	private final Node root;
+	private final int size;
+	
+	// Sum of hash codes of elements, as specified by Set.hashCode()
+	private final int hash;
+	
+	
+	/* ************************************************************************
+	 *    Constructors
+	 * ************************************************************************/
+	
+	private PersistentSet(Node root, int size, int hash) {
+		this.root = root;
+		this.size = size;
+		this.hash = hash;
+	}
+	
+	
+	/* ************************************************************************
+	 *    Static factories
+	 * ************************************************************************/
+	
+	/**
+	 * Returns the empty set.
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> PersistentSet<T> of() {
+		return (PersistentSet<T>) EMPTY;
+	}
+	
+	/**
+	 * Returns a set with the elements of the specified collection. If the 
+	 * collection is a PersistentSet, it is returned as is.
+	 * 
+	 * @param c The elements of the set
+	 * @return A set with the elements of the specified collection
+	 * @throws NullPointerException If the collection has <code>null</code>
+	 * elements
+	 */
+	@SuppressWarnings("unchecked")
+	public static <T> PersistentSet<T> of(Collection<? extends T> c) throws NullPointerException {
+		if (c instanceof PersistentSet) {
+			return (PersistentSet<T>) c;
+		}
+		return PersistentSet.<T> of().plusAll(c);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Persistent operations
+	 * ************************************************************************/
+	
+	/**
+	 * Returns a set with the elements of this set plus the specified 
+	 * element. If the element is already in this set, returns this set.
+	 * 
+	 * @param e The element to add
+	 * @return A set with the elements of this set plus the specified element
+	 * @throws NullPointerException If the element is <code>null</code>
+	 */
+	public PersistentSet<T> plus(T e) throws NullPointerException {
+		if (e == null) {
+			throw new NullPointerException();
+		}
+		int h = e.hashCode();
+		Node newRoot = root.plus(e, h, 0);
+		if (newRoot == root) {
+			return this;
+		}
+		return new PersistentSet<T>(newRoot, size + 1, hash + h);
+	}
+	
+	/**
+	 * Returns a set with the elements of this set plus the elements of the
+	 * specified collection.
+	 * 
+	 * @param c The elements to add
+	 * @return A set with the elements of this set plus the elements of the
+	 * specified collection
+	 * @throws NullPointerException If the collection has <code>null</code>
+	 * elements
+	 */
+	public PersistentSet<T> plusAll(Collection<? extends T> c) throws NullPointerException {
+		PersistentSet<T> result = this;
+		for (T e : c) {
+			result = result.plus(e);
+		}
+		return result;
+	}
+	
+	/**
+	 * Returns a set with the elements of this set except the specified 
+	 * element. If the element is not in this set, returns this set.
+	 * 
+	 * @param e The element to remove
+	 * @return A set with the elements of this set except the specified 
+	 * element
+	 */
+	public PersistentSet<T> minus(Object e) {
+		if (e == null) {
+			return this;
+		}
+		int h = e.hashCode();
+		Node newRoot = root.minus(e, h, 0);
+		if (newRoot == root) {
+			return this;
+		}
+		if (newRoot == null) {
+			return of();
+		}
+		return new PersistentSet<T>(newRoot, size - 1, hash - h);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Set methods
+	 * ************************************************************************/
+	
+	@Override
+	public boolean contains(Object o) {
+		return o != null && root.contains(o, o.hashCode(), 0);
+	}
+	
+	@Override
+	public int size() {
+		return size;
+	}
+	
+	@Override
+	public Iterator<T> iterator() {
+		return new TrieIterator<T>(root);
+	}
+	
+	@Override
+	public int hashCode() {
+		return hash;
+	}
+	
+	@Override
+	public boolean equals(Object o) {
+		if (this == o) {
+			return true;
+		}
+		if (o instanceof PersistentSet && ((PersistentSet<?>) o).hash != hash) {
+			return false;
+		}
+		return super.equals(o);
+	}
+	
+	
+	/* ************************************************************************
+	 *    Trie
+	 * ************************************************************************/
+	
+	/**
+	 * A node of the trie. Entries of a node are either elements or other 
+	 * nodes. Nodes are immutable: operations return a new node or, when 
+	 * nothing changes, the node itself.
+	 */
+	private static abstract class Node {
+		
+		abstract Object [] entries();
+		
+		abstract boolean contains(Object e, int hash, int shift);
+		
+		abstract Node plus(Object e, int hash, int shift);
+		
+		/**
+		 * Returns the node without the specified element, or 
+		 * <code>null</code> if the node becomes empty.
+		 */
+		abstract Node minus(Object e, int hash, int shift);
+		
+		/**
+		 * Returns the only entry of this node if it is an element, or 
+		 * <code>null</code> otherwise.
+		 */
+		Object singleElement() {
+			Object [] entries = entries();
+			if (entries.length == 1 && !(entries[0] instanceof Node)) {
+				return entries[0];
+			}
+			return null;
+		}
+	}
+	
+	
+	/**
+	 * A node whose entries are indexed by a 32-bit map of the hash fragments
+	 * that exist.
+	 */
+	private static final class BitmapNode extends Node {
+		
+		private final int bitmap;
+		private final Object [] entries;
+		
+		private BitmapNode(int bitmap, Object [] entries) {
+			this.bitmap = bitmap;
+			this.entries = entries;
+		}
+		
+		@Override
+		Object [] entries() {
+			return entries;
+		}
+		
+		private int index(int bit) {
+			return Integer.bitCount(bitmap & (bit - 1));
+		}
+		
+		@Override
+		boolean contains(Object e, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return false;
+			}
+			Object entry = entries[index(bit)];
+			if (entry instanceof Node) {
+				return ((Node) entry).contains(e, hash, shift + BITS);
+			}
+			return entry.equals(e);
+		}
+		
+		@Override
+		Node plus(Object e, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			int i = index(bit);
+			if ((bitmap & bit) == 0) {
+				Object [] newEntries = new Object[entries.length + 1];
+				System.arraycopy(entries, 0, newEntries, 0, i);
+				newEntries[i] = e;
+				System.arraycopy(entries, i, newEntries, i + 1, entries.length - i);
+				return new BitmapNode(bitmap | bit, newEntries);
+			}
+			Object entry = entries[i];
+			Object newEntry;
+			if (entry instanceof Node) {
+				newEntry = ((Node) entry).plus(e, hash, shift + BITS);
+			} else if (entry.equals(e)) {
+				return this;
+			} else {
+				newEntry = join(entry, entry.hashCode(), e, hash, shift + BITS);
+			}
+			if (newEntry == entry) {
+				return this;
+			}
+			return with(i, newEntry);
+		}
+		
+		@Override
+		Node minus(Object e, int hash, int shift) {
+			int bit = 1 << ((hash >>> shift) & MASK);
+			if ((bitmap & bit) == 0) {
+				return this;
+			}
+			int i = index(bit);
+			Object entry = entries[i];
+			if (entry instanceof Node) {
+				Node child = ((Node) entry).minus(e, hash, shift + BITS);
+				if (child == entry) {
+					return this;
+				}
+				if (child != null) {
+					// keeps the trie compact: lone elements move up
+					Object single = child.singleElement();
+					return with(i, (single == null) ? child : single);
+				}
+			} else if (!entry.equals(e)) {
+				return this;
+			}
+			if (entries.length == 1) {
+				return null;
+			}
+			Object [] newEntries = new Object[entries.length - 1];
+			System.arraycopy(entries, 0, newEntries, 0, i);
+			System.arraycopy(entries, i + 1, newEntries, i, entries.length - i - 1);
+			return new BitmapNode(bitmap & ~bit, newEntries);
+		}
+		
+		private BitmapNode with(int i, Object entry) {
+			Object [] newEntries = entries.clone();
+			newEntries[i] = entry;
+			return new BitmapNode(bitmap, newEntries);
+		}
+	}
+	
+	
+	/**
+	 * A node for elements whose hash codes are equal.
+	 */
+	private static final class CollisionNode extends Node {
+		
+		private final int hash;
+		private final Object [] entries;
+		
+		private CollisionNode(int hash, Object [] entries) {
+			this.hash = hash;
+			this.entries = entries;
+		}
+		
+		@Override
+		Object [] entries() {
+			return entries;
+		}
+		
+		@Override
+		boolean contains(Object e, int hash, int shift) {
+			if (hash != this.hash) {
+				return false;
+			}
+			for (Object entry : entries) {
+				if (entry.equals(e)) {
+					return true;
+				}
+			}
+			return false;
+		}
+		
+		@Override
+		Node plus(Object e, int hash, int shift) {
+			if (hash != this.hash) {
+				// places this node below a bitmap node that separates hashes
+				int bit = 1 << ((this.hash >>> shift) & MASK);
+				return new BitmapNode(bit, new Object[] {this}).plus(e, hash, shift);
+			}
+			if (contains(e, hash, shift)) {
+				return this;
+			}
+			Object [] newEntries = new Object[entries.length + 1];
+			System.arraycopy(entries, 0, newEntries, 0, entries.length);
+			newEntries[entries.length] = e;
+			return new CollisionNode(hash, newEntries);
+		}
+		
+		@Override
+		Node minus(Object e, int hash, int shift) {
+			if (!contains(e, hash, shift)) {
+				return this;
+			}
+			if (entries.length == 1) {
+				return null;
+			}
+			Object [] newEntries = new Object[entries.length - 1];
+			int j = 0;
+			for (Object entry : entries) {
+				if (!entry.equals(e)) {
+					newEntries[j++] = entry;
+				}
+			}
+			return new CollisionNode(hash, newEntries);
+		}
+	}
+	
+	
+	/**
+	 * Returns a node with the two specified elements, which have distinct
+	 * hash fragments from the specified shift on (or equal hash codes).
+	 */
+	private static Node join(Object e1, int hash1, Object e2, int hash2, int shift) {
+		if (hash1 == hash2) {
+			return new CollisionNode(hash1, new Object[] {e1, e2});
+		}
+		int frag1 = (hash1 >>> shift) & MASK;
+		int frag2 = (hash2 >>> shift) & MASK;
+		if (frag1 == frag2) {
+			return new BitmapNode(1 << frag1, 
+					new Object[] {join(e1, hash1, e2, hash2, shift + BITS)});
+		}
+		Object [] entries = (frag1 < frag2) ? new Object[] {e1, e2} : new Object[] {e2, e1};
+		return new BitmapNode((1 << frag1) | (1 << frag2), entries);
+	}
+	
+	
+	/**
+	 * Depth-first iterator over the elements of the trie.
+	 */
+	private static final class TrieIterator<T> implements Iterator<T> {
+		
+		// Entries and positions of the nodes in the current path
+		private final Object [][] arrays = new Object[8][];
+		private final int [] positions = new int[8];
+		private int depth;
+		private Object next;
+		
+		private TrieIterator(Node root) {
+			arrays[0] = root.entries();
+			advance();
+		}
+		
+		private void advance() {
+			next = null;
+			while (depth >= 0) {
+				if (positions[depth] == arrays[depth].length) {
+					depth--;
+					continue;
+				}
+				Object entry = arrays[depth][positions[depth]++];
+				if (entry instanceof Node) {
+					depth++;
+					arrays[depth] = ((Node) entry).entries();
+					positions[depth] = 0;
+				} else {
+					next = entry;
+					return;
+				}
+			}
+		}
+		
+		@Override
+		public boolean hasNext() {
+			return next != null;
+		}
+		
+		@Override
+		@SuppressWarnings("unchecked")
+		public T next() {
+			if (next == null) {
+				throw new NoSuchElementException();
+			}
+			T result = (T) next;
+			advance();
+			return result;
+		}
+		
+		@Override
+		public void remove() {
+			throw new UnsupportedOperationException();
+		}
+	}
+}
@@ -16,6 +16,8 @@
 package br.usp.poli.takiyama.acfove;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 
 import java.io.IOException;
 import java.math.BigDecimal;
@@ -45,6 +47,8 @@ import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.SplitResult;
 import br.usp.poli.takiyama.common.StdFactor;
 import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
+import br.usp.poli.takiyama.prv.And;
+import br.usp.poli.takiyama.prv.Binding;
 import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.CountingFormula;
 import br.usp.poli.takiyama.prv.LogicalVariable;
@@ -53,6 +57,7 @@ import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.RandomVariableSet;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
 import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Substitution;
 import br.usp.poli.takiyama.samples.WaterSprinklerNetwork;
 import br.usp.poli.takiyama.utils.Example;
 import br.usp.poli.takiyama.utils.Lists;
@@ -1319,6 +1324,146 @@ public class ACFOVETest {
 			// Compares expected with result
 			assertEquals(expected, result);
 		}
+		
+		/**
+		 * Returns the marginal for success after hot is summed out, where 
+		 * AC-FOVE chooses between expanding #Person[attends] and converting
+		 * the aggregation parfactor on success.
+		 */
+		private static Marginal afterSumOutHot(Example network) {
+			Prv success = network.prv("success ( )");
+			Prv hot = network.prv("hot ( Workshop )");
+			RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+			Marginal input = ACFOVE.performInitialShattering(network.marginal(query));
+			RandomVariableSet eliminables = RandomVariableSet.getInstance(hot, new HashSet<Constraint>(0));
+			return new GlobalSumOut(input, eliminables).run();
+		}
+		
+		/**
+		 * Returns the cost of expanding the counting formula on attends
+		 * minus the cost of converting the aggregation parfactor.
+		 */
+		private static int expansionMinusConversion(Marginal marginal) {
+			int expansion = 0;
+			int conversion = 0;
+			for (Parfactor p : marginal) {
+				if (p instanceof AggregationParfactor) {
+					conversion = new ConvertToStdParfactors(marginal, p).cost();
+				}
+				for (Prv prv : p.prvs()) {
+					if (prv instanceof CountingFormula) {
+						expansion = new FullExpand(marginal, p, prv).cost();
+					}
+				}
+			}
+			return expansion - conversion;
+		}
+		
+		/**
+		 * Returns the probability that success is false and true when 
+		 * there are as many workshops as people.
+		 * <p>
+		 * Each attends(p) is the XOR of its own copies of hot(w), which is
+		 * true with probability q = (1 - (1 - 2 x 0.7)<sup>n</sup>) / 2, so
+		 * success is true with probability q<sup>n</sup>.
+		 * </p>
+		 */
+		private static double [] successProbabilities(int n) {
+			double q = (1 - Math.pow(1 - 2 * 0.7, n)) / 2;
+			return new double [] {1 - Math.pow(q, n), Math.pow(q, n)};
+		}
+		
+		/**
+		 * Returns the marginal of success computed by converting the 
+		 * aggregation parfactor on success after hot is summed out.
+		 */
+		private static Parfactor convertAggregation(Example network) {
+			Marginal marginal = afterSumOutHot(network);
+			for (Parfactor p : marginal) {
+				if (p instanceof AggregationParfactor) {
+					marginal = new ConvertToStdParfactors(marginal, p).run();
+					break;
+				}
+			}
+			return new ACFOVE(marginal).run();
+		}
+		
+		/**
+		 * Runs AC-FOVE on the network with n workshops and n people, checks
+		 * which operation the plan uses and compares the result with 
+		 * 1 - q<sup>n</sup> and q<sup>n</sup>.
+		 */
+		private static void assertSuccess(int n, String used, String unused) {
+			Example network = Example.competingWorkshopsNetwork(n, n);
+			Prv success = network.prv("success ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+			Marginal input = network.marginal(query);
+			
+			String plan = EliminationPlan.getInstance(input).toString();
+			Parfactor result = new ACFOVE(input).run();
+			double [] expected = successProbabilities(n);
+			
+			assertTrue(plan.contains(used));
+			assertFalse(plan.contains(unused));
+			assertEquals(expected[0], result.factor().getValue(0).doubleValue(), 1e-12);
+			assertEquals(expected[1], result.factor().getValue(1).doubleValue(), 1e-12);
+		}
+		
+		/**
+		 * With 2 people, expanding #Person[attends] (cost 4) is cheaper 
+		 * than converting the aggregation on success (cost 6), so AC-FOVE
+		 * grounds attends on purpose.
+		 */
+		@Test
+		public void smallPopulationIsExpanded() {
+			Example network = Example.competingWorkshopsNetwork(2, 2);
+			assertEquals(4 - 6, expansionMinusConversion(afterSumOutHot(network)));
+			assertSuccess(2, "FULL-EXPAND", "CONVERT-TO-STD-PARFACTORS");
+		}
+		
+		/**
+		 * With 3 people, expanding #Person[attends] and converting the 
+		 * aggregation on success both cost 8, and AC-FOVE keeps the 
+		 * expansion it found first.
+		 */
+		@Test
+		public void tieIsExpanded() {
+			Example network = Example.competingWorkshopsNetwork(3, 3);
+			assertEquals(8 - 8, expansionMinusConversion(afterSumOutHot(network)));
+			assertSuccess(3, "FULL-EXPAND", "CONVERT-TO-STD-PARFACTORS");
+		}
+		
+		/**
+		 * With 4 people, converting the aggregation on success (cost 10) is
+		 * cheaper than expanding #Person[attends] (cost 16).
+		 */
+		@Test
+		public void largerPopulationIsConverted() {
+			Example network = Example.competingWorkshopsNetwork(4, 4);
+			assertEquals(16 - 10, expansionMinusConversion(afterSumOutHot(network)));
+			assertSuccess(4, "CONVERT-TO-STD-PARFACTORS", "FULL-EXPAND");
+		}
+		
+		/**
+		 * Whichever operation the costs select, the marginal of success is
+		 * the one given by converting the aggregation parfactor.
+		 */
+		@Test
+		public void expansionAgreesWithConversion() {
+			for (int n = 2; n <= 4; n++) {
+				Example network = Example.competingWorkshopsNetwork(n, n);
+				Prv success = network.prv("success ( )");
+				RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+				
+				Parfactor result = new ACFOVE(network.marginal(query)).run();
+				Parfactor converted = convertAggregation(network);
+				
+				for (int i = 0; i < 2; i++) {
+					assertEquals(converted.factor().getValue(i).doubleValue(), 
+							result.factor().getValue(i).doubleValue(), 1e-12);
+				}
+			}
+		}
 	}
 
 	/**
@@ -1376,4 +1521,314 @@ public class ACFOVETest {
 		}
 	}
 	
+	/**
+	 * Tests for {@link IncrementalACFOVE}.
+	 */
+	public static class IncrementalInference {
+		/**
+		 * Network: sick and death (Braz 2005)
+		 * Query: someDeath
+		 * Evidence: none
+		 * Population size: 10
+		 * Change: potentials on epidemic
+		 */
+		@Test
+		public void querySomeDeathAfterChangingPotentials() {
+			
+			// Network initialization
+			Example network = Example.sickDeathNetwork(10);
+			Parfactor ge = network.parfactor("gepidemic");
+			
+			// Query
+			Prv someDeath = network.prv("someDeath ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+			Marginal input = network.marginal(query);
+			
+			IncrementalACFOVE acfove = new IncrementalACFOVE(input);
+			acfove.run();
+			
+			// Changes the potentials on epidemic
+			Prv epidemic = network.prv("epidemic ( )");
+			Parfactor changed = new StdParfactorBuilder().variables(epidemic).values(0.2, 0.8).build();
+			Parfactor result = acfove.replace(ge, changed).run();
+			
+			// Calculates the correct result from scratch
+			Marginal changedInput = new StdMarginalBuilder().add(input).replace(ge, changed).build();
+			Parfactor expected = new ACFOVE(changedInput).run();
+			
+			assertEquals(expected, result);
+			assertTrue(acfove.reusedSteps() > 0);
+		}
+		
+		/**
+		 * Running again without changes must not execute any macro operation.
+		 */
+		@Test
+		public void querySomeDeathWithoutChanges() {
+			Example network = Example.sickDeathNetwork(10);
+			Prv someDeath = network.prv("someDeath ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+			
+			IncrementalACFOVE acfove = new IncrementalACFOVE(network.marginal(query));
+			Parfactor expected = acfove.run();
+			Parfactor result = acfove.run();
+			
+			assertEquals(expected, result);
+			assertEquals(0, acfove.executedSteps());
+		}
+	}
+	
+	/**
+	 * Tests for {@link EliminationPlan}.
+	 */
+	public static class CompiledPlan {
+		/**
+		 * Network: sick and death (Braz 2005)
+		 * Query: someDeath
+		 * Evidence: none
+		 * Population size: 10
+		 * Change: potentials on epidemic and sick
+		 */
+		@Test
+		public void replayPlanWithOtherPotentials() {
+			Example network = Example.sickDeathNetwork(10);
+			Prv someDeath = network.prv("someDeath ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+			Marginal input = network.marginal(query);
+			
+			EliminationPlan plan = EliminationPlan.getInstance(input);
+			
+			// Changes potentials on epidemic and sick
+			Prv epidemic = network.prv("epidemic ( )");
+			Prv sick = network.prv("sick ( Person )");
+			Parfactor ge = new StdParfactorBuilder().variables(epidemic).values(0.2, 0.8).build();
+			Parfactor gs = new StdParfactorBuilder().variables(epidemic, sick).values(0.6, 0.4, 0.25, 0.75).build();
+			Marginal changed = new StdMarginalBuilder().add(input)
+					.replace(network.parfactor("gepidemic"), ge)
+					.replace(network.parfactor("gsick"), gs).build();
+			
+			Parfactor expected = new ACFOVE(changed).run();
+			Parfactor result = plan.replay(changed);
+			
+			assertEquals(expected, result);
+		}
+		
+		/**
+		 * A plan does not apply to marginals with other population sizes.
+		 */
+		@Test(expected = IllegalArgumentException.class)
+		public void replayPlanWithOtherPopulation() {
+			Example network = Example.sickDeathNetwork(10);
+			Prv someDeath = network.prv("someDeath ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+			EliminationPlan plan = EliminationPlan.getInstance(network.marginal(query));
+			
+			Example other = Example.sickDeathNetwork(5);
+			plan.replay(other.marginal(query));
+		}
+		
+		/**
+		 * Network: competing workshops (Milch 2008)
+		 * Query: success
+		 * Evidence: none
+		 * Plan population size: 5 workshops, 5 people
+		 * Population size: 10 workshops, 20 people
+		 */
+		@Test
+		public void runPlanWithOtherPopulation() {
+			Example network = Example.competingWorkshopsNetwork(5, 5);
+			Prv success = network.prv("success ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+			EliminationPlan plan = EliminationPlan.getInstance(network.marginal(query));
+			
+			Example other = Example.competingWorkshopsNetwork(10, 20);
+			Marginal input = other.marginal(query);
+			
+			Parfactor expected = new ACFOVE(input).run();
+			Parfactor result = plan.run(input);
+			
+			assertTrue(plan.isGeneralizableTo(input));
+			assertEquals(1, plan.replays());
+			assertEquals(0, plan.fallbacks());
+			assertEquals(expected, result);
+		}
+		
+		/**
+		 * Running a plan on a marginal from another model runs AC-FOVE 
+		 * from scratch, and the fallback is counted.
+		 */
+		@Test
+		public void runPlanOnOtherModel() {
+			Example network = Example.competingWorkshopsNetwork(5, 5);
+			Prv success = network.prv("success ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+			EliminationPlan plan = EliminationPlan.getInstance(network.marginal(query));
+			
+			Example other = Example.sickDeathNetwork(5);
+			Prv someDeath = other.prv("someDeath ( )");
+			Marginal input = other.marginal(RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0)));
+			
+			Parfactor expected = new ACFOVE(input).run();
+			Parfactor result = plan.run(input);
+			
+			assertEquals(0, plan.replays());
+			assertEquals(1, plan.fallbacks());
+			assertEquals(expected, result);
+		}
+		
+		/**
+		 * A plan does not generalize to a marginal whose aggregation 
+		 * parfactors have other operators or activation probabilities, even 
+		 * if PRVs, constraints and factor values are the same.
+		 */
+		@Test
+		public void planDoesNotGeneralizeToOtherAggregation() {
+			Example network = Example.competingWorkshopsNetwork(5, 5);
+			Prv attends = network.prv("attends ( Person )");
+			Prv success = network.prv("success ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(success, new HashSet<Constraint>(0));
+			Marginal input = network.marginal(query);
+			EliminationPlan plan = EliminationPlan.getInstance(input);
+			
+			Parfactor or = new AggParfactorBuilder(attends, success, Or.OR).build();
+			Marginal otherOperator = new StdMarginalBuilder().add(input)
+					.replace(network.parfactor("gsuccess"), or).build();
+			
+			Parfactor noisyAnd = new AggParfactorBuilder(attends, success, And.AND)
+					.activation(1.0, 0.0, 0.1, 0.9).build();
+			Marginal noisy = new StdMarginalBuilder().add(input)
+					.replace(network.parfactor("gsuccess"), noisyAnd).build();
+			
+			assertTrue(plan.isGeneralizableTo(input));
+			assertFalse(plan.isGeneralizableTo(otherOperator));
+			assertFalse(plan.isGeneralizableTo(noisy));
+		}
+	}
+	
+	/**
+	 * Tests for {@link ResultCache}.
+	 */
+	public static class CachedResults {
+		
+		private static Marginal sickDeath(Example network) {
+			Prv someDeath = network.prv("someDeath ( )");
+			RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+			return network.marginal(query);
+		}
+		
+		/**
+		 * The same model with logical variables renamed must hit the cache.
+		 */
+		@Test
+		public void hitWithRenamedLogicalVariables() {
+			Example network = Example.sickDeathNetwork(10);
+			Marginal input = sickDeath(network);
+			
+			LogicalVariable person = network.lv("Person");
+			LogicalVariable renamed = StdLogicalVariable.getInstance("X1", "person", 10);
+			Substitution s = Substitution.getInstance(Binding.getInstance(person, renamed));
+			StdMarginalBuilder builder = new StdMarginalBuilder().preservable(input.preservable());
+			for (Parfactor p : input) {
+				builder.add(p.apply(s));
+			}
+			Marginal renamedInput = builder.build();
+			
+			ResultCache cache = new ResultCache(100000);
+			Parfactor expected = cache.run(input);
+			Parfactor result = cache.run(renamedInput);
+			
+			assertEquals(expected, result);
+			assertEquals(1, cache.hits());
+			assertEquals(1, cache.misses());
+		}
+		
+		/**
+		 * Logical variables that appear only in constraints are named by 
+		 * their role, not by their original names. Y1 and Y2 are swapped
+		 * between the two parfactors.
+		 */
+		@Test
+		public void sameFingerprintWithRenamedConstraintOnlyLogicalVariables() {
+			LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 10);
+			LogicalVariable y1 = StdLogicalVariable.getInstance("Y1", "x", 10);
+			LogicalVariable y2 = StdLogicalVariable.getInstance("Y2", "x", 10);
+			Constant x1 = Constant.getInstance("x1");
+			Prv f = StdPrv.getBooleanInstance("f", x);
+			
+			Parfactor p1 = new StdParfactorBuilder().variables(f).values(0.1, 0.9)
+					.constraints(InequalityConstraint.getInstance(x, y1), 
+							InequalityConstraint.getInstance(x, y2), 
+							InequalityConstraint.getInstance(y1, x1)).build();
+			Parfactor p2 = new StdParfactorBuilder().variables(f).values(0.1, 0.9)
+					.constraints(InequalityConstraint.getInstance(x, y2), 
+							InequalityConstraint.getInstance(x, y1), 
+							InequalityConstraint.getInstance(y2, x1)).build();
+			Parfactor p3 = new StdParfactorBuilder().variables(f).values(0.1, 0.9)
+					.constraints(InequalityConstraint.getInstance(x, y1), 
+							InequalityConstraint.getInstance(y1, y2), 
+							InequalityConstraint.getInstance(y1, x1)).build();
+			
+			assertEquals(MarginalFingerprint.of(p1), MarginalFingerprint.of(p2));
+			assertFalse(MarginalFingerprint.of(p1).equals(MarginalFingerprint.of(p3)));
+		}
+		
+		/**
+		 * Fingerprints describe populations by their sizes, not by their
+		 * individuals.
+		 */
+		@Test
+		public void fingerprintDoesNotListIndividuals() {
+			LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 1000000);
+			Prv f = StdPrv.getBooleanInstance("f", x);
+			Parfactor p = new StdParfactorBuilder().variables(f).values(0.1, 0.9)
+					.constraints(InequalityConstraint.getInstance(x, Constant.getInstance("x1"))).build();
+			
+			String fingerprint = MarginalFingerprint.of(p);
+			
+			assertTrue(fingerprint.length() < 200);
+			assertTrue(fingerprint.contains("1000000"));
+		}
+		
+		/**
+		 * Models with different potentials must not share results.
+		 */
+		@Test
+		public void missWithOtherPotentials() {
+			Example network = Example.sickDeathNetwork(10);
+			Marginal input = sickDeath(network);
+			
+			Prv epidemic = network.prv("epidemic ( )");
+			Parfactor ge = new StdParfactorBuilder().variables(epidemic).values(0.2, 0.8).build();
+			Marginal changed = new StdMarginalBuilder().add(input)
+					.replace(network.parfactor("gepidemic"), ge).build();
+			
+			ResultCache cache = new ResultCache(100000);
+			cache.run(input);
+			Parfactor result = cache.run(changed);
+			
+			assertEquals(new ACFOVE(changed).run(), result);
+			assertEquals(0, cache.hits());
+			assertEquals(2, cache.size());
+		}
+		
+		/**
+		 * Least recently used results are evicted when the capacity is
+		 * exceeded.
+		 */
+		@Test
+		public void evictLeastRecentlyUsed() {
+			Marginal small = sickDeath(Example.sickDeathNetwork(5));
+			Marginal large = sickDeath(Example.sickDeathNetwork(10));
+			
+			ResultCache cache = new ResultCache(MarginalFingerprint.of(large).length() + 2);
+			cache.run(small);
+			cache.run(large);
+			cache.run(large);
+			
+			assertEquals(1, cache.size());
+			assertEquals(1, cache.evictions());
+			assertEquals(1, cache.hits());
+		}
+	}
+	
 }
@@ -21,12 +21,15 @@ import static org.hamcrest.core.IsEqual.equalTo;
 import static org.hamcrest.core.IsInstanceOf.instanceOf;
 import static org.hamcrest.core.IsNot.not;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
 import static org.junit.Assume.assumeThat;
 
 import java.math.BigDecimal;
 import java.util.ArrayList;
 import java.util.Collection;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Set;
 
@@ -47,19 +50,25 @@ import br.usp.poli.takiyama.common.Distribution;
 import br.usp.poli.takiyama.common.Factor;
 import br.usp.poli.takiyama.common.InequalityConstraint;
 import br.usp.poli.takiyama.common.InputOutput;
+import br.usp.poli.takiyama.common.Marginal;
 import br.usp.poli.takiyama.common.Parfactor;
 import br.usp.poli.takiyama.common.SplitResult;
 import br.usp.poli.takiyama.common.StdDistribution;
 import br.usp.poli.takiyama.common.StdFactor;
+import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
 import br.usp.poli.takiyama.prv.Binding;
 import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.CountingFormula;
+import br.usp.poli.takiyama.prv.Int;
 import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Max;
 import br.usp.poli.takiyama.prv.Or;
 import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RandomVariableSet;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
 import br.usp.poli.takiyama.prv.StdPrv;
 import br.usp.poli.takiyama.prv.Substitution;
+import br.usp.poli.takiyama.prv.Sum;
 import br.usp.poli.takiyama.prv.Term;
 import br.usp.poli.takiyama.utils.Lists;
 import br.usp.poli.takiyama.utils.MathUtils;
@@ -444,6 +453,147 @@ public class AggParfactorTest {
 			assertEquals(expected, result);
 		}
 		
+		@Test
+		public void testSumOutWithSum() {
+			LogicalVariable voter = StdLogicalVariable.getInstance("Voter", "v", 3);
+			Prv vote = StdPrv.getInstance("vote", Int.range(0, 1), Lists.listOf((Term) voter));
+			Prv votes = StdPrv.getInstance("votes", Int.range(0, 3), new ArrayList<Term>(0));
+			Parfactor sum = new AggParfactorBuilder(vote, votes, Sum.SUM).values(0.6, 0.4).build();
+			
+			Parfactor result = round(sum.sumOut(vote), 10);
+			
+			// votes follows a binomial distribution with n = 3 and p = 0.4
+			Parfactor expected = new StdParfactorBuilder().variables(votes)
+					.values(0.216, 0.432, 0.288, 0.064).build();
+			
+			assertEquals(expected, result);
+		}
+		
+		/**
+		 * With negative values, sums that leave the range of the child may
+		 * return to it, so elimination is not possible. Conversion gives 
+		 * the same result as summing over all assignments to the parents.
+		 */
+		@Test
+		public void testSumOutWithSumOnNegativeRange() {
+			LogicalVariable step = StdLogicalVariable.getInstance("Step", "s", 4);
+			Prv move = StdPrv.getInstance("move", Int.range(-1, 1), Lists.listOf((Term) step));
+			Prv position = StdPrv.getInstance("position", Int.range(-1, 1), new ArrayList<Term>(0));
+			AggregationParfactor sum = new AggParfactorBuilder(move, position, Sum.SUM)
+					.values(0.2, 0.3, 0.5).build();
+			
+			assertFalse(sum.isEliminable(move));
+			try {
+				sum.sumOut(move);
+				fail("Elimination must not drop sums that return to the range");
+			} catch (IllegalStateException e) {
+				// expected
+			}
+			
+			Marginal input = new StdMarginalBuilder().add(sum)
+					.preservable(RandomVariableSet.getInstance(position, 
+							new HashSet<Constraint>(0))).build();
+			Parfactor result = new ACFOVE(input).run();
+			
+			Parfactor expected = new StdParfactorBuilder().variables(position)
+					.values(0.0936, 0.1761, 0.2340).build();
+			assertEquals(expected, round(result, 10));
+		}
+		
+		@Test
+		public void testSumOutWithMax() {
+			LogicalVariable bidder = StdLogicalVariable.getInstance("Bidder", "b", 2);
+			Prv bid = StdPrv.getInstance("bid", Int.range(0, 2), Lists.listOf((Term) bidder));
+			Prv highest = StdPrv.getInstance("highest", Int.range(0, 2), new ArrayList<Term>(0));
+			Parfactor max = new AggParfactorBuilder(bid, highest, Max.MAX).values(0.5, 0.3, 0.2).build();
+			
+			Parfactor result = round(max.sumOut(bid), 10);
+			
+			// P(highest <= k) = P(bid <= k)^2
+			Parfactor expected = new StdParfactorBuilder().variables(highest)
+					.values(0.25, 0.39, 0.36).build();
+			
+			assertEquals(expected, result);
+		}
+		
+		@Test
+		public void testSumOutOnDecreasingDomainSizes() {
+			// later eliminations start from powers cached by earlier ones
+			for (int n = 13; n > 0; n--) {
+				LogicalVariable voter = StdLogicalVariable.getInstance("Voter", "v", n);
+				Prv vote = StdPrv.getBooleanInstance("vote", voter);
+				Prv anyVote = StdPrv.getBooleanInstance("any_vote");
+				Parfactor or = new AggParfactorBuilder(vote, anyVote, Or.OR).values(0.6, 0.4).build();
+				
+				Parfactor result = round(or.sumOut(vote), 10);
+				
+				BigDecimal none = BigDecimal.valueOf(0.6).pow(n);
+				Parfactor expected = new StdParfactorBuilder().variables(anyVote)
+						.values(none.doubleValue(), BigDecimal.ONE.subtract(none).doubleValue()).build();
+				
+				assertEquals(round(expected, 10), result);
+			}
+		}
+		
+		@Test
+		public void testSumOutWithNoisyOr() {
+			LogicalVariable cause = StdLogicalVariable.getInstance("Cause", "x", 3);
+			Prv present = StdPrv.getBooleanInstance("present", cause);
+			Prv effect = StdPrv.getBooleanInstance("effect");
+			// each present cause activates the effect with probability 0.7
+			Parfactor noisyOr = new AggParfactorBuilder(present, effect, Or.OR)
+					.values(0.4, 0.6).activation(1.0, 0.0, 0.3, 0.7).build();
+			
+			Parfactor result = round(noisyOr.sumOut(present), 10);
+			
+			// P(effect = false) = (0.4 + 0.6 * 0.3)^3
+			Parfactor expected = new StdParfactorBuilder().variables(effect)
+					.values(0.195112, 0.804888).build();
+			
+			assertEquals(expected, result);
+		}
+		
+		@Test
+		public void testSumOutWithNoisyMax() {
+			LogicalVariable bidder = StdLogicalVariable.getInstance("Bidder", "b", 3);
+			Prv bid = StdPrv.getInstance("bid", Int.range(0, 2), Lists.listOf((Term) bidder));
+			Prv highest = StdPrv.getInstance("highest", Int.range(0, 2), new ArrayList<Term>(0));
+			AggregationParfactor max = new AggParfactorBuilder(bid, highest, Max.MAX)
+					.values(0.5, 0.3, 0.2)
+					.activation(1.0, 0.0, 0.0, 0.4, 0.6, 0.0, 0.1, 0.3, 0.6).build();
+			
+			Parfactor result = round(max.sumOut(bid), 10);
+			
+			// P(highest <= k) = P(bid' <= k)^3, where bid' is the noisy bid
+			Parfactor expected = new StdParfactorBuilder().variables(highest)
+					.values(0.262144, 0.419328, 0.318528).build();
+			
+			assertEquals(expected, result);
+		}
+		
+		@Test
+		public void testSumOutWithNoisyMaxAfterSplit() {
+			LogicalVariable bidder = StdLogicalVariable.getInstance("Bidder", "b", 3);
+			Prv bid = StdPrv.getInstance("bid", Int.range(0, 2), Lists.listOf((Term) bidder));
+			Prv highest = StdPrv.getInstance("highest", Int.range(0, 2), new ArrayList<Term>(0));
+			AggregationParfactor max = new AggParfactorBuilder(bid, highest, Max.MAX)
+					.values(0.5, 0.3, 0.2)
+					.activation(1.0, 0.0, 0.0, 0.4, 0.6, 0.0, 0.1, 0.3, 0.6).build();
+			Substitution s = Substitution.getInstance(Binding.getInstance(bidder, Constant.getInstance("b1")));
+			
+			SplitResult split = max.splitOn(s);
+			AggregationParfactor residue = (AggregationParfactor) split.residue().iterator().next();
+			Parfactor onAuxiliary = residue.sumOut(bid);
+			Parfactor product = split.result().multiply(onAuxiliary);
+			Parfactor result = product.sumOut(bid.apply(s)).sumOut(residue.child());
+			
+			Parfactor expected = new StdParfactorBuilder().variables(highest)
+					.values(0.262144, 0.419328, 0.318528).build();
+			
+			// the residue leaves a vacuous constraint on Bidder, so compare factors
+			assertEquals(expected.factor(), round(result, 10).factor());
+		}
+		
 		/**
 		 * Returns the specified parfactor with values rounded to the specified
 		 * scale. 
@@ -662,4 +812,58 @@ public class AggParfactorTest {
 			assertEquals(expected, result);
 		}
 	}
+	
+	
+	public static class CostTest {
+		
+		@Test
+		public void testEliminationIsCheaperForLargePopulation() {
+			LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 10);
+			Prv p = StdPrv.getBooleanInstance("p", a);
+			Prv c = StdPrv.getBooleanInstance("c");
+			AggregationParfactor ap = new AggParfactorBuilder(p, c, Or.OR).values(0.2, 0.8).build();
+			
+			/*
+			 * Elimination: 4 + 8 for tables, 2 for the base, then 4, 8 and 4
+			 * for bits 0, 1 and 0 of 10.
+			 * Conversion: 2 for the parfactor on p, 11 x 2 entries for the 
+			 * one on #A[p], each folding OR 9 times, 11 x 2 to count p, 
+			 * 2 x 22 to multiply and sum out.
+			 */
+			assertEquals(30, AggregationCosts.elimination(ap).intValue());
+			assertEquals(266, AggregationCosts.conversion(ap).intValue());
+			assertEquals(22, AggregationCosts.counted(ap).intValue());
+			assertTrue(!AggregationCosts.isConversionCheaper(ap));
+		}
+		
+		/**
+		 * The cost of conversion is the size of the parfactor on #A[p], c 
+		 * and the context: 11 histograms x 2 values of c x 2 values of v.
+		 * The other parfactor is on p and v and is smaller.
+		 */
+		@Test
+		public void testConversionCost() {
+			LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 10);
+			Prv p = StdPrv.getBooleanInstance("p", a);
+			Prv c = StdPrv.getBooleanInstance("c");
+			Prv v = StdPrv.getBooleanInstance("v");
+			AggregationParfactor ap = new AggParfactorBuilder(p, c, Or.OR).context(v).build();
+			Marginal marginal = new StdMarginalBuilder().add(ap).build();
+			
+			assertEquals(44, new ConvertToStdParfactors(marginal, ap).cost());
+		}
+		
+		/**
+		 * Standard parfactors cannot be converted.
+		 */
+		@Test
+		public void testConversionOfStdParfactorIsImpossible() {
+			LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 10);
+			Prv p = StdPrv.getBooleanInstance("p", a);
+			Parfactor g = new StdParfactorBuilder().variables(p).build();
+			Marginal marginal = new StdMarginalBuilder().add(g).build();
+			
+			assertEquals(Costs.INFINITY, new ConvertToStdParfactors(marginal, g).cost());
+		}
+	}
 }
@@ -725,6 +725,41 @@ public class MacroOperationTest {
 			
 			assertEquals(expected, result);
 		}
+		
+		/**
+		 * The cost is the size of the product of the created parfactors: 
+		 * rain is shared, and each lot adds sprinkler and wet_grass, so the
+		 * cost is 2 x 4<sup>3</sup>.
+		 */
+		@Test
+		public void testPropositionalizeCost() {
+			LogicalVariable lot = StdLogicalVariable.getInstance("Lot", "lot", 3);
+			Prv rain = StdPrv.getBooleanInstance("rain");
+			Prv sprinkler = StdPrv.getBooleanInstance("sprinkler", lot);
+			Prv wet_grass = StdPrv.getBooleanInstance("wet_grass", lot);
+			
+			Parfactor g3 = new StdParfactorBuilder().variables(rain, sprinkler, wet_grass).build();
+			Marginal marginal = new StdMarginalBuilder().parfactors(g3).build();
+			
+			assertEquals(128, new Propositionalize(marginal, g3, lot).cost());
+		}
+		
+		/**
+		 * Propositionalizing a big population is feasible, but its cost, 
+		 * 2 x 4<sup>20</sup>, does not fit and is set to infinity - 1.
+		 */
+		@Test
+		public void testPropositionalizeCostOnBigPopulation() {
+			LogicalVariable lot = StdLogicalVariable.getInstance("Lot", "lot", 20);
+			Prv rain = StdPrv.getBooleanInstance("rain");
+			Prv sprinkler = StdPrv.getBooleanInstance("sprinkler", lot);
+			Prv wet_grass = StdPrv.getBooleanInstance("wet_grass", lot);
+			
+			Parfactor g3 = new StdParfactorBuilder().variables(rain, sprinkler, wet_grass).build();
+			Marginal marginal = new StdMarginalBuilder().parfactors(g3).build();
+			
+			assertEquals(Costs.INFINITY - 1, new Propositionalize(marginal, g3, lot).cost());
+		}
 	}
 
 	/**
@@ -37,13 +37,16 @@ import br.usp.poli.takiyama.prv.Constant;
 import br.usp.poli.takiyama.prv.CountingFormula;
 import br.usp.poli.takiyama.prv.LogicalVariable;
 import br.usp.poli.takiyama.prv.Operator;
+import br.usp.poli.takiyama.prv.Population;
 import br.usp.poli.takiyama.prv.Prv;
 import br.usp.poli.takiyama.prv.RangeElement;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
 import br.usp.poli.takiyama.prv.StdPrv;
 import br.usp.poli.takiyama.prv.Substitution;
 import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
 import br.usp.poli.takiyama.utils.MathUtils;
+import br.usp.poli.takiyama.utils.Sets;
 import br.usp.poli.takiyama.utils.TestUtils;
 
 
@@ -114,6 +117,47 @@ public class StdParfactorTest {
 	}
 	
 	
+	/**
+	 * Splits parfactor g = &langle; {A &ne; x1}, {f(A)}, F &rangle; on 
+	 * substitution {A/B}, where D(A) = {x1,...,x4} and D(B) = {x2,x3}. The
+	 * result is &langle; &empty;, {f(B)}, F &rangle;, since x1 is not in
+	 * D(B). The residue is &langle; {Z &ne; x1}, {f(Z)}, F &rangle;, where 
+	 * Z is a new logical variable with D(Z) = {x1,x4}.
+	 */
+	@Test
+	public void testSplitOnSubpopulation() {
+		
+		LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 4);
+		Constant x1 = Constant.getInstance("x1");
+		Constant x2 = Constant.getInstance("x2");
+		Constant x3 = Constant.getInstance("x3");
+		Constant x4 = Constant.getInstance("x4");
+		LogicalVariable b = StdLogicalVariable.getInstance("B", 
+				Population.getInstance(Lists.listOf(x2, x3)));
+		
+		double [] vals = {0.2, 0.3};
+		
+		Parfactor input = new StdParfactorBuilder()
+				.constraints(InequalityConstraint.getInstance(a, x1))
+				.variables(StdPrv.getBooleanInstance("f", a)).values(vals).build();
+		
+		SplitResult output = input.splitOn(Substitution.getInstance(Binding.getInstance(a, b)));
+		
+		Parfactor result = new StdParfactorBuilder()
+				.variables(StdPrv.getBooleanInstance("f", b)).values(vals).build();
+		
+		assertEquals(result, output.result());
+		assertEquals(1, output.residue().size());
+		
+		Parfactor residue = output.residue().iterator().next();
+		LogicalVariable z = residue.prvs().get(0).parameters().get(0);
+		
+		assertEquals(Population.getInstance(Lists.listOf(x1, x4)), z.population());
+		assertEquals(Sets.setOf(InequalityConstraint.getInstance(z, x1)), residue.constraints());
+		assertEquals(input.factor().values(), residue.factor().values());
+	}
+	
+	
 	/**
 	 * Example 2.14 from Kisysnki (2010)
 	 * <p>
@@ -310,6 +354,60 @@ public class StdParfactorTest {
 	}
 	
 	
+	/**
+	 * Sums out f(X,Y) from &lt; {X &ne; Y}, {f(X,Y), h(Y)}, F &gt;. For 
+	 * every individual Y there are n - 1 individuals X, so the correction
+	 * exponent is n - 1.
+	 */
+	@Test
+	public void testSumOutWithUniformInequality() {
+		int n = 4;
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", n);
+		LogicalVariable y = StdLogicalVariable.getInstance("Y", "x", n);
+		
+		Prv f = StdPrv.getBooleanInstance("f", x, y);
+		Prv h = StdPrv.getBooleanInstance("h", y);
+		Constraint xy = InequalityConstraint.getInstance(x, y);
+		
+		Parfactor input = new StdParfactorBuilder().constraints(xy)
+				.variables(f, h).values(0.1, 0.2, 0.3, 0.4).build();
+		
+		Parfactor result = input.sumOut(f);
+		
+		Parfactor answer = new StdParfactorBuilder().constraints(xy)
+				.variables(h).values(0.064, 0.216).build();
+		
+		assertTrue(input.isEliminable(f));
+		assertEquals(answer, result);
+	}
+	
+	
+	/**
+	 * Sums out f(X,Y) from &lt; {X &ne; Y, X &ne; x1}, {f(X,Y), h(Y)}, F &gt;.
+	 * There are n - 1 individuals X for h(x1) and n - 2 for the other 
+	 * individuals, so there is no single correction exponent and the 
+	 * parfactor must be split first.
+	 */
+	@Test(expected = IllegalStateException.class)
+	public void testSumOutNotInNormalForm() {
+		int n = 4;
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", n);
+		LogicalVariable y = StdLogicalVariable.getInstance("Y", "x", n);
+		Constant x1 = Constant.getInstance("x1");
+		
+		Prv f = StdPrv.getBooleanInstance("f", x, y);
+		Prv h = StdPrv.getBooleanInstance("h", y);
+		Constraint xy = InequalityConstraint.getInstance(x, y);
+		Constraint x_x1 = InequalityConstraint.getInstance(x, x1);
+		
+		Parfactor input = new StdParfactorBuilder().constraints(xy, x_x1)
+				.variables(f, h).values(0.1, 0.2, 0.3, 0.4).build();
+		
+		assertFalse(input.isEliminable(f));
+		input.sumOut(f);
+	}
+	
+	
 	/**
 	 * Sums out #.A[f(A)]  from factor
 	 * <p>
@@ -535,6 +633,42 @@ public class StdParfactorTest {
 	}
 	
 	
+	/**
+	 * Fully expands #.A[f(A)] on parfactor 
+	 * &langle; &empty;, {#.A[f(A)], h(B)}, F &rangle;, with D(A) = {x1,...,x4}.
+	 * The result must be the same as expanding the counting formula on each 
+	 * individual, one at a time.
+	 */
+	@Test
+	public void testFullExpansion() {
+		LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 4);
+		LogicalVariable b = StdLogicalVariable.getInstance("B", "x", 4);
+		
+		Prv f = StdPrv.getBooleanInstance("f", a);
+		Prv h = StdPrv.getBooleanInstance("h", b);
+		Prv cf = CountingFormula.getInstance(a, f);
+		
+		Parfactor input = new StdParfactorBuilder().variables(cf, h)
+				.values(0.2, 0.3, 0.5, 0.7, 0.11, 0.13, 0.17, 0.19, 0.23, 0.29)
+				.build();
+		
+		Parfactor answer = input;
+		for (Constant individual : a.population()) {
+			Prv expandable = answer.prvs().get(0);
+			Substitution s = Substitution.getInstance(Binding.getInstance(
+					expandable.boundVariable(), individual));
+			if (answer.isExpandable(expandable, s)) {
+				answer = answer.expand(expandable, individual);
+			}
+		}
+		
+		Parfactor result = input.fullExpand(cf);
+		
+		assertEquals(5, result.prvs().size());
+		assertEquals(answer, result);
+	}
+	
+	
 	/**
 	 * Counts PRV f on parfactor g = &langle; &empty;, {f(A)}, F1 &rangle;
 	 * where
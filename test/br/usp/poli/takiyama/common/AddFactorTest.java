@@ -0,0 +1,182 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder;
+import br.usp.poli.takiyama.prv.CountingFormula;
+import br.usp.poli.takiyama.prv.Int;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.StdLogicalVariable;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+
+/**
+ * Compares the kernels of {@link AddFactor} with those of dense 
+ * {@link StdFactor}s with the same values.
+ */
+public class AddFactorTest {
+
+	private static final int PARENTS = 10;
+	
+	/**
+	 * Returns PRVs p0, ..., p9 and alarm.
+	 */
+	private static List<Prv> alarmVariables() {
+		List<Prv> vars = new ArrayList<Prv>(PARENTS + 1);
+		for (int i = 0; i < PARENTS; i++) {
+			vars.add(StdPrv.getBooleanInstance("p" + i));
+		}
+		vars.add(StdPrv.getBooleanInstance("alarm"));
+		return vars;
+	}
+	
+	/**
+	 * Returns values of a factor where the alarm is true with probability
+	 * 0.9 if any parent is true and 0.1 otherwise.
+	 */
+	private static List<BigDecimal> alarmValues() {
+		int size = 1 << (PARENTS + 1);
+		List<BigDecimal> values = new ArrayList<BigDecimal>(size);
+		for (int i = 0; i < size; i++) {
+			boolean alarm = (i % 2 == 1);
+			boolean anyParent = (i / 2 > 0);
+			double p = anyParent ? 0.9 : 0.1;
+			values.add(BigDecimal.valueOf(alarm ? p : 1 - p));
+		}
+		return values;
+	}
+	
+	private static Factor diagram() {
+		return AddFactor.getInstance("F", alarmVariables(), alarmValues());
+	}
+	
+	private static Factor dense() {
+		return StdFactor.getDenseInstance("F", alarmVariables(), alarmValues());
+	}
+	
+	/**
+	 * Returns a dense factor on the specified PRVs with distinct values.
+	 */
+	private static Factor denseOn(Prv ... prvs) {
+		List<Prv> vars = Lists.listOf(prvs);
+		int size = FactorCursor.over(vars).size();
+		List<BigDecimal> values = new ArrayList<BigDecimal>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(BigDecimal.valueOf(i + 3, 1));
+		}
+		return StdFactor.getDenseInstance("G", vars, values);
+	}
+	
+	
+	@Test
+	public void testDiagramIsLinearInTheNumberOfParents() {
+		assertEquals(2048, diagram().size());
+		// two nodes per parent, the alarm nodes and two terminals
+		assertTrue(((AddFactor) diagram()).nodes() <= 2 * PARENTS + 4);
+	}
+	
+	@Test
+	public void testEqualsAndHashCodeMatchDense() {
+		assertEquals(dense(), diagram());
+		assertEquals(diagram(), dense());
+		assertEquals(dense().hashCode(), diagram().hashCode());
+		assertEquals(dense().values(), diagram().values());
+		for (int i = 0; i < dense().size(); i += 97) {
+			assertEquals(dense().getValue(i), diagram().getValue(i));
+		}
+	}
+	
+	@Test
+	public void testSumOut() {
+		for (Prv prv : alarmVariables()) {
+			Factor result = diagram().sumOut(prv);
+			assertTrue(result instanceof AddFactor);
+			assertEquals(dense().sumOut(prv), result);
+		}
+	}
+	
+	@Test
+	public void testSumOutWithCorrections() {
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 3);
+		Prv f = StdPrv.getBooleanInstance("f", x);
+		Prv cf = CountingFormula.getInstance(x, f);
+		Prv g = StdPrv.getBooleanInstance("g");
+		List<BigDecimal> values = new ArrayList<BigDecimal>();
+		for (int i = 0; i < 8; i++) {
+			values.add(BigDecimal.valueOf(i % 3 + 1, 1));
+		}
+		Factor diagram = AddFactor.getInstance("F", Lists.listOf(cf, g), values);
+		Factor dense = StdFactor.getDenseInstance("F", Lists.listOf(cf, g), values);
+		assertEquals(dense.sumOut(cf), diagram.sumOut(cf));
+	}
+	
+	@Test
+	public void testMultiply() {
+		List<Prv> vars = alarmVariables();
+		Factor g = denseOn(StdPrv.getInstance("q", Int.range(0, 2), new ArrayList<Term>(0)), 
+				vars.get(PARENTS), vars.get(3));
+		assertEquals(dense().multiply(g), diagram().multiply(g));
+		assertEquals(g.multiply(dense()), g.multiply(diagram()));
+		assertTrue(g.multiply(diagram()) instanceof AddFactor);
+		
+		// operand whose PRVs are in a different order
+		Factor other = AddFactor.getInstance(g);
+		assertEquals(dense().multiply(g), diagram().multiply(other));
+	}
+	
+	@Test
+	public void testReorder() {
+		List<Prv> vars = alarmVariables();
+		List<Prv> reversed = new ArrayList<Prv>(vars.size());
+		for (int i = vars.size() - 1; i >= 0; i--) {
+			reversed.add(vars.get(i));
+		}
+		Factor reference = StdFactor.getInstance(reversed);
+		assertEquals(dense().reorder(reference), diagram().reorder(reference));
+	}
+	
+	@Test
+	public void testPow() {
+		assertEquals(dense().pow(3, 2), diagram().pow(3, 2));
+	}
+	
+	@Test
+	public void testDiagramIsSelectedPerParfactor() {
+		Parfactor diagram = new StdParfactorBuilder().variables(alarmVariables())
+				.values(alarmValues()).decisionDiagram().build();
+		Parfactor table = new StdParfactorBuilder().variables(alarmVariables())
+				.values(alarmValues()).build();
+		
+		assertTrue(diagram.factor() instanceof AddFactor);
+		assertFalse(table.factor() instanceof AddFactor);
+		assertEquals(table, diagram);
+		
+		Prv alarm = alarmVariables().get(PARENTS);
+		Parfactor summedOut = diagram.sumOut(alarm);
+		assertTrue(summedOut.factor() instanceof AddFactor);
+		assertEquals(table.sumOut(alarm), summedOut);
+	}
+}
@@ -0,0 +1,104 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
+import org.junit.Test;
+
+import br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder;
+import br.usp.poli.takiyama.prv.Constant;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.StdLogicalVariable;
+import br.usp.poli.takiyama.prv.StdPrv;
+
+public class ConstraintSolverTest {
+
+	private final LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 6);
+	private final LogicalVariable y = StdLogicalVariable.getInstance("Y", "x", 6);
+	private final LogicalVariable z = StdLogicalVariable.getInstance("Z", "x", 6);
+	private final Constant x1 = Constant.getInstance("x1");
+	private final Constant x2 = Constant.getInstance("x2");
+	
+	/**
+	 * Parfactor in normal form: the count is the product of the sizes of 
+	 * the populations minus the sizes of the excluded sets.
+	 */
+	@Test
+	public void testNormalForm() {
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(x, y));
+		constraints.add(InequalityConstraint.getInstance(x, x1));
+		constraints.add(InequalityConstraint.getInstance(y, x1));
+		
+		long count = ConstraintSolver.count(Arrays.asList(x, y), constraints);
+		
+		assertEquals(5 * 4, count);
+		assertTrue(ConstraintSolver.isUniform(x, constraints));
+	}
+	
+	/**
+	 * Constraints X != Y, Y != Z, X != x1, Z != x2 are not in normal form.
+	 * The count is compared with brute force enumeration.
+	 */
+	@Test
+	public void testNotInNormalForm() {
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(x, y));
+		constraints.add(InequalityConstraint.getInstance(y, z));
+		constraints.add(InequalityConstraint.getInstance(x, x1));
+		constraints.add(InequalityConstraint.getInstance(z, x2));
+		
+		long expected = 0;
+		for (int i = 1; i <= 6; i++) {
+			for (int j = 1; j <= 6; j++) {
+				for (int k = 1; k <= 6; k++) {
+					if (i != j && j != k && i != 1 && k != 2) {
+						expected++;
+					}
+				}
+			}
+		}
+		long count = ConstraintSolver.count(Arrays.asList(x, y, z), constraints);
+		
+		assertEquals(expected, count);
+		assertFalse(ConstraintSolver.isUniform(y, constraints));
+	}
+	
+	/**
+	 * Parfactors that are not in normal form have a size.
+	 */
+	@Test
+	public void testSizeOfParfactorNotInNormalForm() {
+		Prv f = StdPrv.getBooleanInstance("f", x, y);
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(x, y));
+		constraints.add(InequalityConstraint.getInstance(x, x1));
+		
+		Parfactor p = new StdParfactorBuilder().constraints(constraints)
+				.variables(f).values(1, 2).build();
+		
+		// x has 5 individuals, y has 5 individuals other than x
+		assertEquals(25, p.size());
+	}
+}
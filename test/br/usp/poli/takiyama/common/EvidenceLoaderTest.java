@@ -0,0 +1,210 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Set;
+
+import org.junit.Test;
+
+import br.usp.poli.takiyama.acfove.ACFOVE;
+import br.usp.poli.takiyama.common.StdMarginal.StdMarginalBuilder;
+import br.usp.poli.takiyama.prv.Constant;
+import br.usp.poli.takiyama.prv.Population;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RandomVariableSet;
+import br.usp.poli.takiyama.utils.Example;
+
+public class EvidenceLoaderTest {
+
+	/**
+	 * Loads one observation per individual and checks that each observed
+	 * value becomes a single lifted parfactor over the individuals observed
+	 * with that value.
+	 */
+	@Test
+	public void testOneParfactorPerEvidenceClass() throws IOException {
+		int domainSize = 2000;
+		Example network = Example.sickDeathNetwork(domainSize);
+		Prv sick = network.prv("sick ( Person )");
+
+		StringBuilder observations = new StringBuilder();
+		for (int i = 1; i <= domainSize; i++) {
+			observations.append("sick(person").append(i).append(")=")
+					.append(i % 3 == 0).append("\n");
+		}
+		EvidenceLoader loader = new EvidenceLoader(sick)
+				.load(new StringReader(observations.toString()));
+
+		Set<Parfactor> evidence = loader.parfactors();
+		assertEquals(domainSize, loader.numberOfObservations());
+		assertEquals(2, evidence.size());
+		for (Parfactor p : evidence) {
+			Population observed = observedIndividuals(p);
+			boolean isTrue = (p.factor().getValue(1).compareTo(BigDecimal.ONE) == 0);
+			assertEquals(isTrue ? domainSize / 3 : domainSize - domainSize / 3, 
+					observed.size());
+			assertEquals(isTrue, observed.contains(Constant.getInstance("person3")));
+			assertTrue(p.constraints().isEmpty());
+		}
+	}
+	
+	
+	/**
+	 * Observes a few individuals of a huge population and checks that 
+	 * evidence has one parfactor per observed value and no constraint
+	 * on unobserved individuals.
+	 */
+	@Test
+	public void testSparseEvidenceOnLargePopulation() {
+		Example network = Example.sickDeathNetwork(1000000);
+		Prv sick = network.prv("sick ( Person )");
+
+		EvidenceLoader loader = new EvidenceLoader(sick)
+				.observe("sick(person10)=true")
+				.observe("sick(person500000)=true")
+				.observe("sick(person1000000)=false");
+
+		Set<Parfactor> evidence = loader.parfactors();
+		assertEquals(3, loader.numberOfObservations());
+		assertEquals(2, evidence.size());
+		for (Parfactor p : evidence) {
+			assertTrue(p.constraints().isEmpty());
+			if (p.factor().getValue(1).compareTo(BigDecimal.ONE) == 0) {
+				assertEquals(individuals("person10", "person500000"), observedIndividuals(p));
+			} else {
+				assertEquals(individuals("person1000000"), observedIndividuals(p));
+			}
+		}
+	}
+
+	/**
+	 * Observing the same random variable twice keeps only the last value.
+	 */
+	@Test
+	public void testLastObservationWins() {
+		Example network = Example.sickDeathNetwork(3);
+		Prv sick = network.prv("sick ( Person )");
+
+		EvidenceLoader loader = new EvidenceLoader(sick)
+				.observe("sick(person1)=true")
+				.observe("sick(person1)=false");
+
+		assertEquals(1, loader.numberOfObservations());
+		assertEquals(1, loader.parfactors().size());
+		
+		Parfactor evidence = loader.parfactors().iterator().next();
+		assertEquals(individuals("person1"), observedIndividuals(evidence));
+		assertEquals(1.0, evidence.factor().getValue(0).doubleValue(), 0.0);
+		assertEquals(0.0, evidence.factor().getValue(1).doubleValue(), 0.0);
+	}
+
+	/**
+	 * Network: sick and death (Braz 2005)
+	 * Query: someDeath
+	 * Evidence: sick(person1) = true, sick(person2) = true
+	 * Population size: 3
+	 * 
+	 * Expected values were calculated by hand.
+	 */
+	@Test
+	public void testConditionOnLiftedEvidence() {
+		Example network = Example.sickDeathNetwork(3);
+		Prv sick = network.prv("sick ( Person )");
+		Prv someDeath = network.prv("someDeath ( )");
+		RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+
+		Marginal model = new StdMarginalBuilder()
+				.parfactors(network.parfactor("gepidemic"), network.parfactor("gsick"),
+						network.parfactor("gdeath"), network.parfactor("gsomedeath"))
+				.preservable(query).build();
+
+		Marginal conditioned = new EvidenceLoader(sick)
+				.observe("sick(person1)=true")
+				.observe("sick(person2)=true")
+				.condition(model);
+
+		Parfactor result = new ACFOVE(conditioned).run();
+
+		assertEquals(0.0344239875, result.factor().getValue(0).doubleValue(), 1e-12);
+		assertEquals(0.2395760125, result.factor().getValue(1).doubleValue(), 1e-12);
+	}
+	
+	
+	/**
+	 * Network: sick and death (Braz 2005)
+	 * Query: someDeath
+	 * Evidence: sick(person1) = true, sick(person2) = true, 
+	 * sick(person3) = false, sick(person4) = true
+	 * Population size: 5
+	 * 
+	 * Expected values are the result of conditioning on one ground 
+	 * parfactor per observation.
+	 */
+	@Test
+	public void testConditionOnTwoEvidenceClasses() {
+		Example network = Example.sickDeathNetwork(5);
+		Prv sick = network.prv("sick ( Person )");
+		Prv someDeath = network.prv("someDeath ( )");
+		RandomVariableSet query = RandomVariableSet.getInstance(someDeath, new HashSet<Constraint>(0));
+
+		Marginal model = new StdMarginalBuilder()
+				.parfactors(network.parfactor("gepidemic"), network.parfactor("gsick"),
+						network.parfactor("gdeath"), network.parfactor("gsomedeath"))
+				.preservable(query).build();
+
+		Marginal conditioned = new EvidenceLoader(sick)
+				.observe("sick(person1)=true")
+				.observe("sick(person2)=true")
+				.observe("sick(person3)=false")
+				.observe("sick(person4)=true")
+				.condition(model);
+
+		Parfactor result = new ACFOVE(conditioned).run();
+
+		assertEquals(0.00320656573125, result.factor().getValue(0).doubleValue(), 1e-12);
+		assertEquals(0.05379343426875, result.factor().getValue(1).doubleValue(), 1e-12);
+	}
+	
+	
+	/**
+	 * Returns the population of the logical variable in the specified 
+	 * evidence parfactor.
+	 */
+	private Population observedIndividuals(Parfactor evidence) {
+		return evidence.prvs().get(0).parameters().get(0).population();
+	}
+	
+	
+	/**
+	 * Returns a population with the specified individuals.
+	 */
+	private Population individuals(String ... names) {
+		List<Constant> individuals = new ArrayList<Constant>(names.length);
+		for (String name : names) {
+			individuals.add(Constant.getInstance(name));
+		}
+		return Population.getInstance(individuals);
+	}
+}
@@ -26,6 +26,7 @@ import org.junit.Test;
 import br.usp.poli.takiyama.prv.CountingFormula;
 import br.usp.poli.takiyama.prv.LogicalVariable;
 import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.RangeElement;
 import br.usp.poli.takiyama.prv.StdLogicalVariable;
 import br.usp.poli.takiyama.prv.StdPrv;
 import br.usp.poli.takiyama.prv.Term;
@@ -503,4 +504,37 @@ public class FactorTest {
 		Factor expected = factor;
 		assertEquals(expected, result);
 	}
+	
+	/**
+	 * A cursor visits the same tuples as the iterator, in the same order.
+	 */
+	@Test
+	public void testCursorFollowsIterator() {
+		
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 3);
+		
+		Prv f = StdPrv.getBooleanInstance("f", x);
+		Prv c = CountingFormula.getInstance(x, f);
+		
+		List<Prv> vars = new ArrayList<Prv>(2);
+		vars.add(c);
+		vars.add(f);
+		
+		Factor factor = StdFactor.getInstance(vars);
+		FactorCursor cursor = factor.cursor();
+		
+		int visited = 0;
+		for (Tuple<RangeElement> tuple : factor) {
+			assertTrue(cursor.isValid());
+			assertEquals(factor.getIndex(tuple), cursor.index());
+			for (int i = 0; i < tuple.size(); i++) {
+				assertEquals(factor.variableAt(i).indexOf(tuple.get(i)), cursor.ordinal(i));
+			}
+			cursor.advance();
+			visited++;
+		}
+		assertFalse(cursor.isValid());
+		assertEquals(factor.size(), visited);
+	}
+
 }
@@ -0,0 +1,151 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.usp.poli.takiyama.cfove.StdParfactor.StdParfactorBuilder;
+import br.usp.poli.takiyama.prv.Int;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.StdLogicalVariable;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+
+/**
+ * Compares {@link ProductFactor}s with the products computed by 
+ * {@link StdFactor}s. Values must be the same, including their scale.
+ */
+public class ProductFactorTest {
+
+	private static final LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 3);
+	private static final LogicalVariable y = StdLogicalVariable.getInstance("Y", "x", 4);
+	
+	private static final Prv a = StdPrv.getInstance("a", Int.range(0, 2), Lists.listOf((Term) x));
+	private static final Prv b = StdPrv.getInstance("b", Int.range(0, 1), Lists.listOf((Term) x, y));
+	private static final Prv c = StdPrv.getInstance("c", Int.range(0, 3), Lists.listOf((Term) x));
+	
+	/**
+	 * Returns a factor on the specified PRVs with distinct values.
+	 */
+	private static Factor factorOn(int seed, Prv ... prvs) {
+		List<Prv> vars = Lists.listOf(prvs);
+		int size = FactorCursor.over(vars).size();
+		List<BigDecimal> values = new ArrayList<BigDecimal>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(BigDecimal.valueOf(seed + 7 * i, 2));
+		}
+		return StdFactor.getInstance("F" + seed, vars, values);
+	}
+	
+	private static Factor materialized() {
+		Factor f1 = factorOn(3, a, b);
+		Factor f2 = factorOn(5, b, c);
+		Factor f3 = factorOn(11, c, a);
+		return f1.pow(1, 3).multiply(f2.pow(2, 3)).pow(3, 2).multiply(f3);
+	}
+	
+	private static Factor lazy() {
+		Factor f1 = ProductFactor.getInstance(factorOn(3, a, b));
+		Factor f2 = ProductFactor.getInstance(factorOn(5, b, c));
+		Factor f3 = ProductFactor.getInstance(factorOn(11, c, a));
+		return f1.pow(1, 3).multiply(f2.pow(2, 3)).pow(3, 2).multiply(f3);
+	}
+	
+	
+	@Test
+	public void testValuesMatchMaterializedProduct() {
+		assertTrue(lazy() instanceof ProductFactor);
+		assertEquals(Lists.listOf(a, b, c), lazy().variables());
+		assertEquals(materialized().values(), lazy().values());
+		assertEquals(materialized().getValue(17), lazy().getValue(17));
+		assertEquals(materialized(), lazy());
+		assertEquals(lazy(), materialized());
+		assertEquals(materialized().hashCode(), lazy().hashCode());
+	}
+	
+	@Test
+	public void testSumOutMatchesMaterializedProduct() {
+		for (Prv prv : Lists.listOf(a, b, c)) {
+			Factor expected = materialized().sumOut(prv);
+			Factor result = lazy().sumOut(prv);
+			assertFalse(result instanceof ProductFactor);
+			assertEquals(expected.variables(), result.variables());
+			assertEquals(expected.values(), result.values());
+		}
+	}
+	
+	@Test
+	public void testMultiplicationByConstant() {
+		Factor f = ProductFactor.getInstance(factorOn(3, a, b));
+		Factor constant = StdFactor.getInstance(Lists.listOf(a, c));
+		assertSame(f, f.multiply(constant));
+		assertSame(f, constant.multiply(f));
+		assertSame(constant, ProductFactor.getInstance(constant));
+	}
+	
+	/**
+	 * Multiplication does not compute the values of products to check 
+	 * whether they are constant. The product of f and g has all values 
+	 * equal to 1, but it is kept when multiplied.
+	 */
+	@Test
+	public void testMultiplicationDoesNotEvaluateProducts() {
+		Factor f = StdFactor.getInstance("f", Lists.listOf(a), Lists.listOf(
+				BigDecimal.valueOf(1, -1), BigDecimal.ONE, BigDecimal.ONE));
+		Factor g = StdFactor.getInstance("g", Lists.listOf(a), Lists.listOf(
+				BigDecimal.valueOf(1, 1), BigDecimal.ONE, BigDecimal.ONE));
+		Factor h = ProductFactor.getInstance(factorOn(3, c));
+		Factor fg = ProductFactor.getInstance(f).multiply(g);
+		
+		assertTrue(fg.isConstant());
+		assertEquals(Lists.listOf(a, c), fg.multiply(h).variables());
+		assertEquals(Lists.listOf(c, a), h.multiply(fg).variables());
+	}
+	
+	/**
+	 * Multiplies parfactors and sums out a PRV with lifted exponent 
+	 * corrections, once with ordinary factors and once with product 
+	 * factors, as done by global sum out.
+	 */
+	@Test
+	public void testLiftedMultiplicationAndSumOut() {
+		Factor f1 = factorOn(3, a);
+		Factor f2 = factorOn(5, a, b);
+		Factor f3 = factorOn(11, c, a);
+		
+		Parfactor materialized = new StdParfactorBuilder().build();
+		Parfactor lazy = new StdParfactorBuilder().build();
+		for (Factor f : Lists.listOf(f1, f2, f3)) {
+			materialized = materialized.multiply(new StdParfactorBuilder().factor(f).build());
+			lazy = lazy.multiply(new StdParfactorBuilder()
+					.factor(ProductFactor.getInstance(f)).build());
+		}
+		assertTrue(lazy.factor() instanceof ProductFactor);
+		
+		Parfactor expected = materialized.sumOut(b);
+		Parfactor result = lazy.sumOut(b);
+		assertEquals(expected, result);
+		assertEquals(expected.factor().values(), result.factor().values());
+	}
+}
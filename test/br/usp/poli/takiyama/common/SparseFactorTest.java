@@ -0,0 +1,142 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.common;
+
+import static org.junit.Assert.*;
+
+import java.math.BigDecimal;
+import java.util.ArrayList;
+import java.util.List;
+
+import org.junit.Test;
+
+import br.usp.poli.takiyama.prv.Int;
+import br.usp.poli.takiyama.prv.LogicalVariable;
+import br.usp.poli.takiyama.prv.Prv;
+import br.usp.poli.takiyama.prv.StdLogicalVariable;
+import br.usp.poli.takiyama.prv.StdPrv;
+import br.usp.poli.takiyama.prv.Term;
+import br.usp.poli.takiyama.utils.Lists;
+
+/**
+ * Compares the kernels of {@link SparseFactor} with those of dense 
+ * {@link StdFactor}s with the same values.
+ */
+public class SparseFactorTest {
+
+	private static final LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 10);
+	
+	private static final Prv a = StdPrv.getInstance("a", Int.range(0, 3), Lists.listOf((Term) x));
+	private static final Prv b = StdPrv.getInstance("b", Int.range(0, 3), Lists.listOf((Term) x));
+	private static final Prv c = StdPrv.getInstance("c", Int.range(0, 3), Lists.listOf((Term) x));
+	private static final Prv d = StdPrv.getInstance("d", Int.range(0, 2), Lists.listOf((Term) x));
+	
+	/**
+	 * Returns values of a factor on a, b, c where only tuples with 
+	 * a + b = c are not zero.
+	 */
+	private static List<BigDecimal> deterministicValues() {
+		List<BigDecimal> values = new ArrayList<BigDecimal>(64);
+		for (int i = 0; i < 64; i++) {
+			int va = i / 16;
+			int vb = (i / 4) % 4;
+			int vc = i % 4;
+			if (va + vb == vc) {
+				values.add(BigDecimal.valueOf(i + 1, 2));
+			} else {
+				values.add(BigDecimal.ZERO);
+			}
+		}
+		return values;
+	}
+	
+	private static Factor sparse() {
+		return StdFactor.getInstance("F", Lists.listOf(a, b, c), deterministicValues());
+	}
+	
+	private static Factor dense() {
+		return StdFactor.getDenseInstance("F", Lists.listOf(a, b, c), deterministicValues());
+	}
+	
+	/**
+	 * Returns a dense factor on the specified PRVs with distinct values.
+	 */
+	private static Factor denseOn(Prv ... prvs) {
+		List<Prv> vars = Lists.listOf(prvs);
+		int size = FactorCursor.over(vars).size();
+		List<BigDecimal> values = new ArrayList<BigDecimal>(size);
+		for (int i = 0; i < size; i++) {
+			values.add(BigDecimal.valueOf(i + 3, 1));
+		}
+		return StdFactor.getDenseInstance("G", vars, values);
+	}
+	
+	
+	@Test
+	public void testSparseIsChosenBelowDensityThreshold() {
+		assertTrue(sparse() instanceof SparseFactor);
+		assertEquals(10, ((SparseFactor) sparse()).nonZeros());
+		assertTrue(denseOn(a, b, c) instanceof StdFactor);
+		assertTrue(StdFactor.getInstance("G", Lists.listOf(a, b, c), 
+				denseOn(a, b, c).values()) instanceof StdFactor);
+	}
+	
+	@Test
+	public void testEqualsAndHashCodeMatchDense() {
+		assertEquals(dense(), sparse());
+		assertEquals(sparse(), dense());
+		assertEquals(dense().hashCode(), sparse().hashCode());
+		assertEquals(dense().values(), sparse().values());
+		assertEquals(BigDecimal.ZERO, sparse().getValue(1));
+		assertEquals(BigDecimal.valueOf(1, 2), sparse().getValue(0));
+	}
+	
+	@Test
+	public void testSumOut() {
+		for (Prv prv : Lists.listOf(a, b, c)) {
+			assertEquals(dense().sumOut(prv), sparse().sumOut(prv));
+		}
+	}
+	
+	@Test
+	public void testMultiplyByDense() {
+		Factor g = denseOn(d, c, a);
+		assertEquals(dense().multiply(g), sparse().multiply(g));
+		assertEquals(g.multiply(dense()), g.multiply(sparse()));
+		assertEquals(Lists.listOf(a, b, c, d), sparse().multiply(g).variables());
+		assertEquals(Lists.listOf(d, c, a, b), g.multiply(sparse()).variables());
+	}
+	
+	@Test
+	public void testMultiplyBySparse() {
+		Factor other = sparse().reorder(StdFactor.getInstance(Lists.listOf(c, a, b)));
+		Factor denseOther = StdFactor.getDenseInstance("F", other.variables(), other.values());
+		assertTrue(other instanceof SparseFactor);
+		assertEquals(dense().multiply(denseOther), sparse().multiply(other));
+	}
+	
+	@Test
+	public void testReorder() {
+		Factor reference = StdFactor.getInstance(Lists.listOf(b, c, a));
+		assertEquals(dense().reorder(reference), sparse().reorder(reference));
+	}
+	
+	@Test
+	public void testPow() {
+		assertEquals(dense().pow(2, 1), sparse().pow(2, 1));
+		assertTrue(sparse().pow(2, 1) instanceof SparseFactor);
+	}
+}
@@ -17,6 +17,8 @@ package br.usp.poli.takiyama.prv;
 
 import static org.junit.Assert.*;
 
+import java.lang.ref.WeakReference;
+
 import org.junit.Test;
 
 public class ConstantTest {
@@ -38,5 +40,41 @@ public class ConstantTest {
 //		new Constant("Constant");
 //	}
 	
+	@Test
+	public void testConstantsAreInterned() {
+		Constant c1 = Constant.getInstance("interned");
+		Constant c2 = Constant.getInstance("interned");
+		assertSame(c1, c2);
+		assertSame(c1.value(), c2.value());
+		assertSame(SymbolTable.CONSTANTS.intern("interned"), c1.value());
+	}
+	
+	@Test
+	public void testDifferentValuesAreDifferent() {
+		Constant c1 = Constant.getInstance("first");
+		Constant c2 = Constant.getInstance("second");
+		assertFalse(c1.hashCode() == c2.hashCode());
+		assertFalse(c1.equals(c2));
+	}
+	
+	/**
+	 * Constants that are no longer referenced must not be kept by the
+	 * intern pool.
+	 */
+	@Test
+	public void testUnusedConstantsAreCollected() throws InterruptedException {
+		WeakReference<Constant> unused = 
+				new WeakReference<Constant>(Constant.getInstance("unused"));
+		for (int i = 0; i < 100 && unused.get() != null; i++) {
+			System.gc();
+			Thread.sleep(10);
+		}
+		assertNull(unused.get());
+	}
+	
+	@Test(expected = IllegalArgumentException.class)
+	public void testUpperCaseConstant() {
+		Constant.getInstance("Constant");
+	}
 
 }
@@ -366,5 +366,29 @@ public class CountingFormulaTest {
 		
 		assertTrue(p.size() == 3);
 	}
+	
+	/**
+	 * Histograms are found in the range of a counting formula both by 
+	 * identity and by equality.
+	 */
+	@Test
+	@SuppressWarnings("unchecked")
+	public void testIndexOfHistograms() {
+		
+		LogicalVariable a = StdLogicalVariable.getInstance("A", "x", 10);
+		Prv f = StdPrv.getBooleanInstance("f", a);
+		Prv cf = CountingFormula.getInstance(a, f);
+		
+		List<RangeElement> range = cf.range();
+		assertEquals(11, cf.rangeSize());
+		for (int i = 0; i < cf.rangeSize(); i++) {
+			assertEquals(i, cf.indexOf(cf.rangeElementAt(i)));
+			Histogram<RangeElement> copy = new Histogram<RangeElement>(
+					(Histogram<RangeElement>) range.get(i));
+			assertEquals(i, cf.indexOf(copy));
+			assertEquals(i, ((CountingFormula) cf).indexOf(((CountingFormula) cf).getCounts(i)));
+		}
+		assertEquals(-1, cf.indexOf(Bool.valueOf(true)));
+	}
 
 }
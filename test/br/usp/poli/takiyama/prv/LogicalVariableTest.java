@@ -15,11 +15,141 @@
  ******************************************************************************/
 package br.usp.poli.takiyama.prv;
 
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Set;
+
 import org.junit.Test;
 
+import br.usp.poli.takiyama.common.Constraint;
+import br.usp.poli.takiyama.common.EqualityConstraint;
+import br.usp.poli.takiyama.common.InequalityConstraint;
+
 public class LogicalVariableTest {
+	
+	/**
+	 * Populations given by prefix and size are not materialized, so large
+	 * populations are cheap to create and query.
+	 */
+	@Test
+	public void testLargePopulation() {
+		LogicalVariable person = StdLogicalVariable.getInstance("Person", "person", 1000000);
+		Population population = person.population();
+		
+		assertEquals(1000000, population.size());
+		assertTrue(population.contains(Constant.getInstance("person1000000")));
+		assertFalse(population.contains(Constant.getInstance("person1000001")));
+		assertFalse(population.contains(Constant.getInstance("person0")));
+		assertFalse(population.contains(Constant.getInstance("person01")));
+		assertEquals(Constant.getInstance("person500000"), population.individualAt(499999));
+	}
+	
+	@Test
+	public void testIndividualsSatisfyingInequalities() {
+		LogicalVariable person = StdLogicalVariable.getInstance("Person", "person", 1000000);
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(person, Constant.getInstance("person1")));
+		constraints.add(InequalityConstraint.getInstance(person, Constant.getInstance("person3")));
+		
+		Population population = person.individualsSatisfying(constraints);
+		
+		assertEquals(999998, population.size());
+		assertEquals(999998, person.numberOfIndividualsSatisfying(constraints));
+		assertFalse(population.contains(Constant.getInstance("person3")));
+		assertEquals(Constant.getInstance("person2"), population.individualAt(0));
+		assertEquals(Constant.getInstance("person4"), population.individualAt(1));
+	}
+	
+	/**
+	 * Results are cached, but callers get their own copy.
+	 */
+	@Test
+	public void testIndividualsSatisfyingReturnsCopies() {
+		LogicalVariable person = StdLogicalVariable.getInstance("Person", "person", 10);
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(person, Constant.getInstance("person1")));
+		
+		person.individualsSatisfying(constraints).remove(Constant.getInstance("person2"));
+		Population population = person.individualsSatisfying(constraints);
+		
+		assertEquals(9, population.size());
+		assertTrue(population.contains(Constant.getInstance("person2")));
+	}
+	
+	/**
+	 * Copies and renamings share cached results, which must not depend on
+	 * the name of the variable nor confuse equalities with inequalities.
+	 */
+	@Test
+	public void testIndividualsSatisfyingOnCopiesAndRenamings() {
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 10);
+		LogicalVariable copy = StdLogicalVariable.getInstance(x);
+		LogicalVariable y = x.rename("Y");
+		Constant x1 = Constant.getInstance("x1");
+		
+		Set<Constraint> onX = new HashSet<Constraint>();
+		onX.add(InequalityConstraint.getInstance(x, x1));
+		Set<Constraint> onY = new HashSet<Constraint>();
+		onY.add(InequalityConstraint.getInstance(y, x1));
+		Set<Constraint> equality = new HashSet<Constraint>();
+		equality.add(EqualityConstraint.getInstance(y, x1));
+		
+		assertEquals(9, x.individualsSatisfying(onX).size());
+		assertEquals(9, copy.individualsSatisfying(onX).size());
+		assertEquals(10, copy.individualsSatisfying(onY).size());
+		assertEquals(9, y.individualsSatisfying(onY).size());
+		assertEquals(10, y.individualsSatisfying(onX).size());
+		assertEquals(1, y.individualsSatisfying(equality).size());
+		assertTrue(y.individualsSatisfying(equality).contains(x1));
+	}
+	
+	/**
+	 * The number of individuals satisfying constraints is the size of the
+	 * population satisfying their unary part, so inequalities on 
+	 * individuals outside the population and equalities do not skew it.
+	 * Each other logical variable excludes one individual.
+	 */
+	@Test
+	public void testNumberOfIndividualsSatisfyingMatchesPopulation() {
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 10);
+		LogicalVariable y = StdLogicalVariable.getInstance("Y", "x", 10);
+		Constant x1 = Constant.getInstance("x1");
+		
+		Set<Constraint> constraints = new HashSet<Constraint>();
+		constraints.add(InequalityConstraint.getInstance(x, x1));
+		constraints.add(InequalityConstraint.getInstance(x, Constant.getInstance("y1")));
+		assertEquals(x.individualsSatisfying(constraints).size(), 
+				x.numberOfIndividualsSatisfying(constraints));
+		assertEquals(9, x.numberOfIndividualsSatisfying(constraints));
+		
+		Set<Constraint> equality = new HashSet<Constraint>();
+		equality.add(EqualityConstraint.getInstance(x, x1));
+		assertEquals(1, x.numberOfIndividualsSatisfying(equality));
+		
+		constraints.add(InequalityConstraint.getInstance(x, y));
+		assertEquals(8, x.numberOfIndividualsSatisfying(constraints));
+	}
+	
+	/**
+	 * Implicit and explicit populations with the same individuals are equal.
+	 */
+	@Test
+	public void testImplicitPopulationEquality() {
+		Population implicit = Population.getInstance("x", 3);
+		implicit.remove(Constant.getInstance("x2"));
+		Population explicit = Population.getInstance(Arrays.asList(
+				Constant.getInstance("x1"), Constant.getInstance("x3")));
+		
+		assertEquals(explicit, implicit);
+		assertEquals(implicit, explicit);
+		assertEquals(explicit.hashCode(), implicit.hashCode());
+		assertEquals(explicit.toString(), implicit.toString());
+	}
+	
 //	@Test
 //	public void testConstructor() {
 //		LogicalVariable v = new LogicalVariable("Room");
@@ -27,6 +27,7 @@ import org.junit.Test;
 
 import br.usp.poli.takiyama.common.Constraint;
 import br.usp.poli.takiyama.common.InequalityConstraint;
+import br.usp.poli.takiyama.utils.Lists;
 import br.usp.poli.takiyama.utils.Sets;
 
 
@@ -114,4 +115,40 @@ public class PrvsTest {
 		Prv sprinkler1 = StdPrv.getBooleanInstance("sprinkler", lot1);
 		assertFalse(Prvs.areDisjoint(randomVariableSet, sprinkler1));
 	}
+	
+	/**
+	 * The MGU of f(X) and f(Y), where the population of Y is a subset of the
+	 * population of X, replaces X by Y regardless of the order of the PRVs.
+	 */
+	@Test
+	public void testMguOnSubpopulation() {
+		LogicalVariable x = StdLogicalVariable.getInstance("X", "x", 10);
+		Population individuals = x.population();
+		individuals.remove(Constant.getInstance("x1"));
+		LogicalVariable y = StdLogicalVariable.getInstance("Y", individuals);
+		
+		Prv fx = StdPrv.getBooleanInstance("f", x);
+		Prv fy = StdPrv.getBooleanInstance("f", y);
+		
+		Substitution answer = Substitution.getInstance(Binding.getInstance(x, y));
+		
+		assertTrue(Prvs.mgu(fx, fy).equals(answer));
+		assertTrue(Prvs.mgu(fy, fx).equals(answer));
+	}
+	
+	/**
+	 * sprinkler(Lot) is disjoint with sprinkler(Other) when Lot and Other 
+	 * have disjoint populations.
+	 */
+	@Test
+	public void testSetIntersection3() {
+		Constant lot1 = Constant.getInstance("lot1");
+		Constant lot2 = Constant.getInstance("lot2");
+		LogicalVariable lot = StdLogicalVariable.getInstance("Lot", Population.getInstance(Lists.listOf(lot1)));
+		LogicalVariable other = StdLogicalVariable.getInstance("Other", Population.getInstance(Lists.listOf(lot2)));
+		Prv sprinkler = StdPrv.getBooleanInstance("sprinkler", lot);
+		Prv otherSprinkler = StdPrv.getBooleanInstance("sprinkler", other);
+		assertTrue(Prvs.areDisjoint(sprinkler, otherSprinkler));
+		assertTrue(Prvs.areDisjoint(sprinkler, StdPrv.getBooleanInstance("sprinkler", lot2)));
+	}
 }
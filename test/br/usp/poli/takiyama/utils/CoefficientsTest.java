@@ -0,0 +1,65 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.utils;
+
+import static org.junit.Assert.*;
+
+import java.math.BigInteger;
+
+import org.junit.Test;
+
+public class CoefficientsTest {
+	
+	/**
+	 * Multinomials with leading empty buckets, as the ones from histograms
+	 * on ranges with more than two elements.
+	 */
+	@Test
+	public void testMultinomialWithEmptyBuckets() {
+		assertEquals(BigInteger.ONE, Coefficients.multinomial(0, 0, 3));
+		assertEquals(BigInteger.valueOf(3), Coefficients.multinomial(0, 1, 2));
+		assertEquals(BigInteger.valueOf(60), Coefficients.multinomial(3, 2, 1));
+	}
+	
+	
+	/**
+	 * Coefficients beyond the exact table are computed as products of 
+	 * binomials.
+	 */
+	@Test
+	public void testBeyondTable() {
+		int n = Coefficients.MAX_TABLED + 10;
+		BigInteger expected = Coefficients.factorial(n)
+				.divide(Coefficients.factorial(n - 3).multiply(BigInteger.valueOf(6)));
+		
+		assertEquals(expected, Coefficients.binomial(n, 3));
+		assertEquals(expected, Coefficients.multinomial(n - 3, 3));
+		assertEquals(BigInteger.ZERO, Coefficients.binomial(3, n));
+	}
+	
+	
+	/**
+	 * Coefficients in log space agree with exact ones.
+	 */
+	@Test
+	public void testLogSpace() {
+		double exact = Coefficients.multinomial(7, 4, 2).doubleValue();
+		
+		assertEquals(Math.log(exact), Coefficients.logMultinomial(7, 4, 2), 1e-9);
+		assertEquals(Math.log(252), Coefficients.logBinomial(10, 5), 1e-9);
+		assertEquals(Double.NEGATIVE_INFINITY, Coefficients.logBinomial(2, 3), 0);
+	}
+}
@@ -0,0 +1,100 @@
+/*******************************************************************************
+ * Copyright 2014 Felipe Takiyama
+ * 
+ * Licensed under the Apache License, Version 2.0 (the "License");
+ * you may not use this file except in compliance with the License.
+ * You may obtain a copy of the License at
+ * 
+ *   http://www.apache.org/licenses/LICENSE-2.0
+ * 
+ * Unless required by applicable law or agreed to in writing, software
+ * distributed under the License is distributed on an "AS IS" BASIS,
+ * WITHOUT WARRANTIES OR CONDITIONS OF ANY KIND, either express or implied.
+ * See the License for the specific language governing permissions and
+ * limitations under the License.
+ ******************************************************************************/
+package br.usp.poli.takiyama.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import java.util.HashSet;
+import java.util.Random;
+import java.util.Set;
+
+import org.junit.Test;
+
+public class PersistentSetTest {
+	
+	/**
+	 * An element whose hash code collides with many others.
+	 */
+	private static final class Colliding {
+		private final int value;
+		private Colliding(int value) {
+			this.value = value;
+		}
+		@Override
+		public int hashCode() {
+			return value % 7;
+		}
+		@Override
+		public boolean equals(Object o) {
+			return (o instanceof Colliding) && ((Colliding) o).value == value;
+		}
+	}
+	
+	/**
+	 * Random additions and removals give the same result as a HashSet.
+	 */
+	@Test
+	public void testBehavesLikeHashSet() {
+		Random random = new Random(42);
+		Set<Integer> expected = new HashSet<Integer>();
+		PersistentSet<Integer> set = PersistentSet.of();
+		for (int i = 0; i < 20000; i++) {
+			Integer e = Integer.valueOf(random.nextInt(5000) - 2500);
+			if (random.nextBoolean()) {
+				expected.add(e);
+				set = set.plus(e);
+			} else {
+				expected.remove(e);
+				set = set.minus(e);
+			}
+		}
+		assertEquals(expected, set);
+		assertEquals(set, expected);
+		assertEquals(expected.hashCode(), set.hashCode());
+		assertEquals(expected, new HashSet<Integer>(set));
+	}
+	
+	@Test
+	public void testCollisions() {
+		PersistentSet<Colliding> set = PersistentSet.of();
+		for (int i = 0; i < 100; i++) {
+			set = set.plus(new Colliding(i));
+		}
+		for (int i = 0; i < 100; i += 2) {
+			set = set.minus(new Colliding(i));
+		}
+		assertEquals(50, set.size());
+		assertTrue(set.contains(new Colliding(99)));
+		assertFalse(set.contains(new Colliding(98)));
+	}
+	
+	/**
+	 * Derived sets do not change the sets they come from.
+	 */
+	@Test
+	public void testPersistence() {
+		PersistentSet<String> original = PersistentSet.<String> of().plus("a").plus("b");
+		PersistentSet<String> derived = original.minus("a").plus("c");
+		
+		assertEquals(2, original.size());
+		assertTrue(original.contains("a"));
+		assertFalse(original.contains("c"));
+		assertFalse(derived.contains("a"));
+		assertTrue(derived.contains("c"));
+	}
+}